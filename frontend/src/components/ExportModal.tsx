@@ -8,6 +8,16 @@ interface Chapter {
     title: string;
 }
 
+interface ExportJob {
+    id: string;
+    status: 'QUEUED' | 'RUNNING' | 'DONE' | 'FAILED';
+    filename: string;
+    chaptersDone: number;
+    chaptersTotal: number;
+    imagesDone: number;
+    error?: string;
+}
+
 interface ExportModalProps {
     show: boolean;
     onHide: () => void;
@@ -17,10 +27,13 @@ interface ExportModalProps {
 }
 
 const ExportModal: React.FC<ExportModalProps> = ({ show, onHide, storyId, chapters, currentChapterId }) => {
-    const [format, setFormat] = useState<'pdf' | 'docx'>('pdf');
+    const [format, setFormat] = useState<'pdf' | 'docx' | 'epub' | 'html-site'>('pdf');
     const [scope, setScope] = useState<'current' | 'all' | 'specific'>('current');
+    // 0 keeps the original uploads
+    const [dpi, setDpi] = useState<number>(150);
     const [selectedChapterIds, setSelectedChapterIds] = useState<number[]>(currentChapterId ? [currentChapterId] : []);
     const [isExporting, setIsExporting] = useState(false);
+    const [progress, setProgress] = useState<ExportJob | null>(null);
 
     const handleToggleChapter = (id: number) => {
         setSelectedChapterIds(prev => 
@@ -40,30 +53,57 @@ const ExportModal: React.FC<ExportModalProps> = ({ show, onHide, storyId, chapte
                 chapterIds = selectedChapterIds;
             }
 
-            const response = await fetch(`http://localhost:3906/api/export/${format}`, {
+            if (format === 'html-site') {
+                // The whole story as a static wiki, only changed pages are rendered again on the server
+                const siteResponse = await fetch('http://localhost:3906/api/export/html-site', {
+                    method: 'POST',
+                    headers: { 'Content-Type': 'application/json' },
+                    body: JSON.stringify({ storyId: parseInt(storyId) })
+                });
+                if (!siteResponse.ok) {
+                    console.error('Export failed');
+                    alert('Export failed. Please try again.');
+                    return;
+                }
+                await downloadFile(await siteResponse.blob(), 'site.zip', [{ name: 'Zip Archive', extensions: ['zip'] }]);
+                onHide();
+                return;
+            }
+
+            const jobResponse = await fetch(`http://localhost:3906/api/export/${format}/jobs`, {
                 method: 'POST',
                 headers: { 'Content-Type': 'application/json' },
                 body: JSON.stringify({
                     storyId: parseInt(storyId),
-                    chapterIds: chapterIds
+                    chapterIds: chapterIds,
+                    dpi: dpi || null
                 })
             });
+            if (!jobResponse.ok) {
+                console.error('Export failed');
+                alert(jobResponse.status === 503
+                    ? 'Too many exports are running. Please try again in a moment.'
+                    : 'Export failed. Please try again.');
+                return;
+            }
 
+            const job = await waitForJob(await jobResponse.json());
+            if (job.status !== 'DONE') {
+                console.error('Export failed:', job.error);
+                alert('Export failed. Please try again.');
+                return;
+            }
+
+            const response = await fetch(`http://localhost:3906/api/export/jobs/${job.id}/file`);
             if (response.ok) {
                 const blob = await response.blob();
-                
-                // Try to get filename from header
-                const contentDisposition = response.headers.get('Content-Disposition');
-                let filename = `export.${format}`;
-                if (contentDisposition && contentDisposition.indexOf('filename=') !== -1) {
-                    filename = contentDisposition.split('filename=')[1].replace(/"/g, '');
-                }
-                
-                const filters = format === 'pdf' 
+                const filters = format === 'pdf'
                     ? [{ name: 'PDF Document', extensions: ['pdf'] }]
-                    : [{ name: 'Word Document', extensions: ['docx'] }];
+                    : format === 'epub'
+                        ? [{ name: 'EPUB Book', extensions: ['epub'] }]
+                        : [{ name: 'Word Document', extensions: ['docx'] }];
 
-                await downloadFile(blob, filename, filters);
+                await downloadFile(blob, job.filename || `export.${format}`, filters);
                 onHide();
             } else {
                 console.error('Export failed');
@@ -74,9 +114,32 @@ const ExportModal: React.FC<ExportModalProps> = ({ show, onHide, storyId, chapte
             alert('An error occurred during export.');
         } finally {
             setIsExporting(false);
+            setProgress(null);
         }
     };
 
+    // Follows the job's progress events until it is done or failed
+    const waitForJob = (job: ExportJob): Promise<ExportJob> => {
+        if (job.status === 'DONE' || job.status === 'FAILED') {
+            return Promise.resolve(job);
+        }
+        return new Promise((resolve, reject) => {
+            const events = new EventSource(`http://localhost:3906/api/export/jobs/${job.id}/events`);
+            events.addEventListener('progress', (event) => {
+                const update: ExportJob = JSON.parse((event as MessageEvent).data);
+                setProgress(update);
+                if (update.status === 'DONE' || update.status === 'FAILED') {
+                    events.close();
+                    resolve(update);
+                }
+            });
+            events.onerror = () => {
+                events.close();
+                reject(new Error('Lost connection to export job'));
+            };
+        });
+    };
+
     return (
         <Modal show={show} onHide={onHide} centered contentClassName="bg-dark text-light border-secondary">
             <Modal.Header closeButton closeVariant="white" className="border-secondary">
@@ -86,7 +149,7 @@ const ExportModal: React.FC<ExportModalProps> = ({ show, onHide, storyId, chapte
                 <Form>
                     <Form.Group className="mb-4">
                         <Form.Label className="fw-bold text-secondary text-uppercase small">File Format</Form.Label>
-                        <div className="d-flex gap-3 mt-2">
+                        <div className="d-flex flex-wrap gap-3 mt-2">
                             <Form.Check
                                 type="radio"
                                 label="PDF Document (.pdf)"
@@ -103,9 +166,38 @@ const ExportModal: React.FC<ExportModalProps> = ({ show, onHide, storyId, chapte
                                 checked={format === 'docx'}
                                 onChange={() => setFormat('docx')}
                             />
+                            <Form.Check
+                                type="radio"
+                                label="EPUB Book (.epub)"
+                                name="format"
+                                id="format-epub"
+                                checked={format === 'epub'}
+                                onChange={() => setFormat('epub')}
+                            />
+                            <Form.Check
+                                type="radio"
+                                label="Static Wiki (.zip)"
+                                name="format"
+                                id="format-html-site"
+                                checked={format === 'html-site'}
+                                onChange={() => setFormat('html-site')}
+                            />
                         </div>
                     </Form.Group>
 
+                    <Form.Group className="mb-4">
+                        <Form.Label className="fw-bold text-secondary text-uppercase small">Image Quality</Form.Label>
+                        <Form.Select
+                            className="bg-black text-light border-secondary mt-2"
+                            value={dpi}
+                            onChange={(e) => setDpi(parseInt(e.target.value))}
+                        >
+                            <option value={150}>Screen (150 DPI)</option>
+                            <option value={300}>Print (300 DPI)</option>
+                            <option value={0}>Original Images</option>
+                        </Form.Select>
+                    </Form.Group>
+
                     <Form.Group className="mb-4">
                         <Form.Label className="fw-bold text-secondary text-uppercase small">Selection Scope</Form.Label>
                         <Form.Select 
@@ -154,7 +246,11 @@ const ExportModal: React.FC<ExportModalProps> = ({ show, onHide, storyId, chapte
                     disabled={isExporting || (scope === 'specific' && selectedChapterIds.length === 0)}
                     className="d-flex align-items-center gap-2"
                 >
-                    {isExporting ? 'Generating...' : <><MdGetApp /> Export Now</>}
+                    {isExporting
+                        ? (progress && progress.status === 'RUNNING'
+                            ? `Generating... ${progress.chaptersDone}/${progress.chaptersTotal} chapters`
+                            : 'Generating...')
+                        : <><MdGetApp /> Export Now</>}
                 </Button>
             </Modal.Footer>
         </Modal>
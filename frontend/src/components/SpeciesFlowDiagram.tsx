@@ -110,7 +110,7 @@ const SpeciesNode = ({ data }: { data: SpeciesNodeData }) => {
             <Handle type="source" position={Position.Right} style={{ visibility: 'hidden' }} />
             
             <Avatar 
-                src={data.pictureUrl ? resolveShortcodes(data.pictureUrl) : undefined}
+                src={data.pictureUrl ? resolveShortcodes(data.pictureUrl, 128) : undefined}
                 sx={{ 
                     width: 48, 
                     height: 48, 
@@ -50,6 +50,14 @@ import MentionList from './MentionList';
 
 import 'tippy.js/dist/tippy.css';
 
+const MENTION_ICONS: Record<string, string> = {
+  character: '👤',
+  item: '📦',
+  location: '📍',
+  lore: '📜',
+  species: '🐾',
+};
+
 interface Entity {
   id?: number | string;
   name: string;
@@ -388,7 +396,27 @@ const TiptapPagedEditor = ({
               },
               suggestion: {
                 char: '#',
-                items: ({ query }) => {
+                items: async ({ query }) => {
+                  // The backend keeps a name index per story, so large stories do not filter every entity here
+                  if (storyId) {
+                    try {
+                      const response = await fetch(`${API_BASE_URL}/api/stories/${storyId}/mentions?prefix=${encodeURIComponent(query)}&limit=20`);
+                      if (response.ok) {
+                        const suggestions: { type: string; id: number; name: string; thumbnailMediaId?: string }[] = await response.json();
+                        return suggestions.map((s) => ({
+                          id: s.id,
+                          label: s.name,
+                          name: s.name,
+                          type: s.type,
+                          icon: MENTION_ICONS[s.type],
+                          resolvedImageUrl: s.thumbnailMediaId ? `${API_BASE_URL}/api/media/${s.thumbnailMediaId}?w=64` : undefined
+                        }));
+                      }
+                    } catch (error) {
+                      console.error('Failed to load mention suggestions', error);
+                    }
+                  }
+
                   const values = (allEntitiesRef.current as any[])
                     .filter((e) => e.type !== 'emote')
                     .map((e) => ({
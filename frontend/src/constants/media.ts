@@ -1,12 +1,13 @@
 import { API_BASE_URL } from './api';
 export { API_BASE_URL };
 
-export const resolveShortcodes = (text: string | null | undefined): string => {
+export const resolveShortcodes = (text: string | null | undefined, width?: number): string => {
     if (!text) return '';
     
-    // Resolve #{image:uuid} to /api/media/uuid
+    // Resolve #{image:uuid} to /api/media/uuid, optionally asking for a downscaled copy
+    const query = width ? `?w=${width}` : '';
     return text.replace(/#\{image:([\w\-]+)\}/g, (_match, uuid) => {
-        return `${API_BASE_URL}/api/media/${uuid}`;
+        return `${API_BASE_URL}/api/media/${uuid}${query}`;
     });
 };
 
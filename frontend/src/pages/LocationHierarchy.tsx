@@ -69,7 +69,7 @@ const TreeItemLabel: React.FC<TreeItemLabelProps> = ({ node, isTarget, storyId }
             }}
         >
             <Avatar 
-                src={node.pictureUrl ? resolveShortcodes(node.pictureUrl) : undefined} 
+                src={node.pictureUrl ? resolveShortcodes(node.pictureUrl, 64) : undefined} 
                 sx={{ 
                     width: 28, 
                     height: 28, 
@@ -737,7 +737,7 @@ const Worldbuilding: React.FC = () => {
                                 <CardMedia
                                     component="img"
                                     height="200"
-                                    image={resolveShortcodes(entry.pictureUrl)}
+                                    image={resolveShortcodes(entry.pictureUrl, 512)}
                                     alt={entry.name}
                                     sx={{ objectFit: 'cover' }}
                                 />
@@ -0,0 +1,43 @@
+package online.hatsune_miku.bookwiki.backlink;
+
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/{type}/{id}")
+public class BacklinkController {
+
+    // Path segment of the entry type -> reference type
+    private static final Map<String, String> TYPES = Map.of(
+            "characters", "CHARACTER",
+            "items", "ITEM",
+            "locations", "LOCATION",
+            "lore", "LORE",
+            "species", "SPECIES");
+
+    private final BacklinkService backlinkService;
+
+    public BacklinkController(BacklinkService backlinkService) {
+        this.backlinkService = backlinkService;
+    }
+
+    @GetMapping("/backlinks")
+    public ResponseEntity<List<BacklinkDTO>> getBacklinks(@PathVariable String type, @PathVariable Long id) {
+        String targetType = TYPES.get(type);
+        if (targetType == null) return ResponseEntity.notFound().build();
+        return ResponseEntity.ok(backlinkService.getBacklinks(targetType, id));
+    }
+
+    @GetMapping("/appearances")
+    public ResponseEntity<List<BacklinkDTO>> getChapterAppearances(@PathVariable String type, @PathVariable Long id) {
+        String targetType = TYPES.get(type);
+        if (targetType == null) return ResponseEntity.notFound().build();
+        return ResponseEntity.ok(backlinkService.getChapterAppearances(targetType, id));
+    }
+}
@@ -0,0 +1,15 @@
+package online.hatsune_miku.bookwiki.backlink;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class BacklinkDTO {
+    // CHAPTER, CHARACTER, LOCATION, ITEM, LORE or SPECIES
+    private String sourceType;
+    private Long sourceId;
+    // Name, or title for chapters
+    private String sourceName;
+    private int count;
+}
@@ -0,0 +1,277 @@
+package online.hatsune_miku.bookwiki.backlink;
+
+import jakarta.persistence.EntityManager;
+import lombok.extern.slf4j.Slf4j;
+import online.hatsune_miku.bookwiki.chapter.Chapter;
+import online.hatsune_miku.bookwiki.chapter.ChapterNote;
+import online.hatsune_miku.bookwiki.character.Character;
+import online.hatsune_miku.bookwiki.character.CharacterSection;
+import online.hatsune_miku.bookwiki.export.ExportController;
+import online.hatsune_miku.bookwiki.item.Item;
+import online.hatsune_miku.bookwiki.item.ItemSection;
+import online.hatsune_miku.bookwiki.location.Location;
+import online.hatsune_miku.bookwiki.location.LocationSection;
+import online.hatsune_miku.bookwiki.lore.Lore;
+import online.hatsune_miku.bookwiki.lore.LoreSection;
+import online.hatsune_miku.bookwiki.shortcode.Shortcodes;
+import online.hatsune_miku.bookwiki.species.Species;
+import online.hatsune_miku.bookwiki.species.SpeciesAncestryService;
+import online.hatsune_miku.bookwiki.species.SpeciesSection;
+import online.hatsune_miku.bookwiki.story.Story;
+import online.hatsune_miku.bookwiki.story.StoryRepository;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps {@code mention_references}, the reverse of the mention shortcodes: for every entry, which chapters and
+ * other entries mention it and how often. Fed by {@link online.hatsune_miku.bookwiki.media.ReferenceTrackingService}
+ * with the same content it tracks media for, so every save updates both. Only the references that changed are
+ * written.
+ */
+@Service
+@Slf4j
+public class BacklinkService {
+
+    // Shortcode type -> reference type of the entries that can be mentioned
+    private static final Map<String, String> TARGET_TYPES = Map.of(
+            "character", "CHARACTER",
+            "item", "ITEM",
+            "location", "LOCATION",
+            "lore", "LORE",
+            "species", "SPECIES");
+
+    // Reference type -> entity, for looking up the names of the mentioning entries
+    private static final Map<String, Class<?>> SOURCE_ENTITIES = new LinkedHashMap<>();
+
+    static {
+        SOURCE_ENTITIES.put("CHAPTER", Chapter.class);
+        SOURCE_ENTITIES.put("CHARACTER", Character.class);
+        SOURCE_ENTITIES.put("LOCATION", Location.class);
+        SOURCE_ENTITIES.put("ITEM", Item.class);
+        SOURCE_ENTITIES.put("LORE", Lore.class);
+        SOURCE_ENTITIES.put("SPECIES", Species.class);
+    }
+
+    private final MentionReferenceRepository mentionReferenceRepository;
+    private final StoryRepository storyRepository;
+    private final EntityManager entityManager;
+    private final SpeciesAncestryService speciesAncestryService;
+
+    public BacklinkService(MentionReferenceRepository mentionReferenceRepository, StoryRepository storyRepository, EntityManager entityManager,
+                           SpeciesAncestryService speciesAncestryService) {
+        this.mentionReferenceRepository = mentionReferenceRepository;
+        this.storyRepository = storyRepository;
+        this.entityManager = entityManager;
+        this.speciesAncestryService = speciesAncestryService;
+    }
+
+    /**
+     * Brings the references of one source in line with its content: mentions that are gone are deleted, new
+     * ones inserted and changed counts updated. An entry mentioning itself is not a backlink.
+     */
+    @Transactional
+    public void updateMentions(String content, String sourceType, Long sourceId) {
+        if (sourceId == null) return;
+        // Target type -> (id -> count)
+        Map<String, Map<Long, Integer>> found = new HashMap<>();
+        Shortcodes.scan(content, shortcode -> {
+            String targetType = TARGET_TYPES.get(shortcode.getType().toLowerCase());
+            Long targetId = targetType != null ? shortcode.getLongId() : null;
+            if (targetId != null && !(targetType.equals(sourceType) && targetId.equals(sourceId))) {
+                found.computeIfAbsent(targetType, _ -> new HashMap<>()).merge(targetId, 1, Integer::sum);
+            }
+        });
+
+        for (MentionReference existing : mentionReferenceRepository.findBySourceTypeAndSourceId(sourceType, sourceId)) {
+            Map<Long, Integer> ofType = found.get(existing.getTargetType());
+            Integer count = ofType != null ? ofType.remove(existing.getTargetId()) : null;
+            if (count == null) {
+                mentionReferenceRepository.delete(existing);
+            } else if (count != existing.getMentionCount()) {
+                existing.setMentionCount(count);
+            }
+        }
+
+        List<MentionReference> added = new ArrayList<>();
+        found.forEach((targetType, ids) -> ids.forEach((targetId, count) ->
+                added.add(new MentionReference(sourceType, sourceId, targetType, targetId, count))));
+        mentionReferenceRepository.saveAll(added);
+    }
+
+    /**
+     * Removes the mentions made by a deleted entry and, for mentionable entries, those pointing at it.
+     */
+    @Transactional
+    public void deleteMentions(String type, Long id) {
+        mentionReferenceRepository.deleteBySourceTypeAndSourceId(type, id);
+        if (TARGET_TYPES.containsValue(type)) {
+            mentionReferenceRepository.deleteByTargetTypeAndTargetId(type, id);
+        }
+    }
+
+    /**
+     * Removes the mentions made in a story that is about to be deleted. Mentions stay within a story, so that
+     * covers the ones pointing at its entries as well.
+     */
+    @Transactional
+    public void deleteStoryMentions(Long storyId) {
+        SOURCE_ENTITIES.forEach((sourceType, entity) -> entityManager.createQuery(
+                        "DELETE FROM MentionReference r WHERE r.sourceType = :sourceType AND r.sourceId IN "
+                                + "(SELECT e.id FROM " + entity.getName() + " e WHERE e.story.id = :storyId)")
+                .setParameter("sourceType", sourceType)
+                .setParameter("storyId", storyId)
+                .executeUpdate());
+    }
+
+    @Transactional
+    public void deleteAllMentions() {
+        mentionReferenceRepository.deleteAllInBatch();
+    }
+
+    /**
+     * Everything mentioning the entry: chapters first in reading order, then the other entries by type and name.
+     */
+    @Transactional(readOnly = true)
+    public List<BacklinkDTO> getBacklinks(String targetType, Long targetId) {
+        List<BacklinkDTO> backlinks = resolve(mentionReferenceRepository.findByTargetTypeAndTargetId(targetType, targetId));
+        List<String> typeOrder = new ArrayList<>(SOURCE_ENTITIES.keySet());
+        backlinks.sort(Comparator.<BacklinkDTO>comparingInt(b -> typeOrder.indexOf(b.getSourceType()))
+                .thenComparing((a, b) -> ExportController.compareNaturally(a.getSourceName(), b.getSourceName())));
+        return backlinks;
+    }
+
+    /**
+     * The chapters the entry appears in, in reading order.
+     */
+    @Transactional(readOnly = true)
+    public List<BacklinkDTO> getChapterAppearances(String targetType, Long targetId) {
+        List<BacklinkDTO> chapters = resolve(mentionReferenceRepository.findByTargetTypeAndTargetIdAndSourceType(targetType, targetId, "CHAPTER"));
+        chapters.sort((a, b) -> ExportController.compareNaturally(a.getSourceName(), b.getSourceName()));
+        return chapters;
+    }
+
+    /**
+     * Tracks the mentions in everything a story contains, for stories written without the services, e.g. by
+     * an import.
+     */
+    @Transactional
+    public void indexStory(Story story) {
+        if (story.getChapters() != null) {
+            for (Chapter chapter : story.getChapters()) {
+                StringBuilder content = new StringBuilder();
+                append(content, chapter.getContent());
+                if (chapter.getNotes() != null) {
+                    for (ChapterNote note : chapter.getNotes()) append(content, note.getContent());
+                }
+                updateMentions(content.toString(), "CHAPTER", chapter.getId());
+            }
+        }
+        if (story.getCharacters() != null) {
+            for (Character character : story.getCharacters()) {
+                StringBuilder content = new StringBuilder();
+                append(content, character.getAppearance());
+                append(content, character.getDescription());
+                if (character.getCustomSections() != null) {
+                    for (CharacterSection section : character.getCustomSections()) append(content, section.getContent());
+                }
+                updateMentions(content.toString(), "CHARACTER", character.getId());
+            }
+        }
+        if (story.getLocations() != null) {
+            for (Location location : story.getLocations()) {
+                StringBuilder content = new StringBuilder();
+                append(content, location.getDescription());
+                append(content, location.getWhereItIs());
+                append(content, location.getDetails());
+                if (location.getCustomSections() != null) {
+                    for (LocationSection section : location.getCustomSections()) append(content, section.getContent());
+                }
+                updateMentions(content.toString(), "LOCATION", location.getId());
+            }
+        }
+        if (story.getItems() != null) {
+            for (Item item : story.getItems()) {
+                StringBuilder content = new StringBuilder();
+                append(content, item.getDescription());
+                if (item.getCustomSections() != null) {
+                    for (ItemSection section : item.getCustomSections()) append(content, section.getContent());
+                }
+                updateMentions(content.toString(), "ITEM", item.getId());
+            }
+        }
+        if (story.getLores() != null) {
+            for (Lore lore : story.getLores()) {
+                StringBuilder content = new StringBuilder();
+                append(content, lore.getDescription());
+                if (lore.getCustomSections() != null) {
+                    for (LoreSection section : lore.getCustomSections()) append(content, section.getContent());
+                }
+                updateMentions(content.toString(), "LORE", lore.getId());
+            }
+        }
+        if (story.getSpecies() != null) {
+            // Inherited sections mention entries too, even before the species has been saved with them
+            for (Species species : speciesAncestryService.withInheritance(story.getSpecies())) {
+                StringBuilder content = new StringBuilder();
+                append(content, species.getDescription());
+                if (species.getCustomSections() != null) {
+                    for (SpeciesSection section : species.getCustomSections()) append(content, section.getContent());
+                }
+                updateMentions(content.toString(), "SPECIES", species.getId());
+            }
+        }
+    }
+
+    /**
+     * Fills the references from the existing content the first time the application runs with backlinks.
+     */
+    @Transactional
+    public void backfill() {
+        if (mentionReferenceRepository.count() > 0) return;
+        List<Story> stories = storyRepository.findAll();
+        stories.forEach(this::indexStory);
+        long count = mentionReferenceRepository.count();
+        if (count > 0) {
+            log.info("Tracked {} mention references in {} stories", count, stories.size());
+        }
+    }
+
+    // Looks up the source names, one query per source type. References whose source is gone are left out.
+    private List<BacklinkDTO> resolve(List<MentionReference> references) {
+        Map<String, List<MentionReference>> byType = references.stream()
+                .collect(Collectors.groupingBy(MentionReference::getSourceType));
+        List<BacklinkDTO> backlinks = new ArrayList<>();
+        byType.forEach((sourceType, ofType) -> {
+            Class<?> entity = SOURCE_ENTITIES.get(sourceType);
+            if (entity == null) return;
+            String nameAttribute = entity == Chapter.class ? "title" : "name";
+            Map<Long, String> names = new HashMap<>();
+            entityManager.createQuery("SELECT e.id, e." + nameAttribute + " FROM " + entity.getName() + " e WHERE e.id IN :ids", Object[].class)
+                    .setParameter("ids", ofType.stream().map(MentionReference::getSourceId).toList())
+                    .getResultList()
+                    .forEach(row -> names.put((Long) row[0], (String) row[1]));
+            for (MentionReference reference : ofType) {
+                if (!names.containsKey(reference.getSourceId())) continue;
+                backlinks.add(BacklinkDTO.builder()
+                        .sourceType(sourceType)
+                        .sourceId(reference.getSourceId())
+                        .sourceName(names.get(reference.getSourceId()))
+                        .count(reference.getMentionCount())
+                        .build());
+            }
+        });
+        return backlinks;
+    }
+
+    private static void append(StringBuilder content, String text) {
+        if (text != null) content.append(text).append('\n');
+    }
+}
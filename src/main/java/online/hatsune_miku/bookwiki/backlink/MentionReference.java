@@ -0,0 +1,39 @@
+package online.hatsune_miku.bookwiki.backlink;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+/**
+ * One entry mentioning another, e.g. a chapter containing {@code #{character:12}}, and how often.
+ */
+@Entity
+@Table(name = "mention_references", indexes = {
+        @Index(name = "idx_mention_references_target", columnList = "target_type, target_id"),
+        @Index(name = "idx_mention_references_source", columnList = "source_type, source_id")
+})
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class MentionReference {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    private String sourceType; // e.g., "CHAPTER", "CHARACTER", as in media references
+    private Long sourceId;
+
+    private String targetType; // "CHARACTER", "ITEM", "LOCATION", "LORE" or "SPECIES"
+    private Long targetId;
+
+    private int mentionCount;
+
+    public MentionReference(String sourceType, Long sourceId, String targetType, Long targetId, int mentionCount) {
+        this.sourceType = sourceType;
+        this.sourceId = sourceId;
+        this.targetType = targetType;
+        this.targetId = targetId;
+        this.mentionCount = mentionCount;
+    }
+}
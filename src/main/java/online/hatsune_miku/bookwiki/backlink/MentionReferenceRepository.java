@@ -0,0 +1,13 @@
+package online.hatsune_miku.bookwiki.backlink;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import java.util.List;
+
+public interface MentionReferenceRepository extends JpaRepository<MentionReference, Long> {
+    List<MentionReference> findBySourceTypeAndSourceId(String sourceType, Long sourceId);
+    List<MentionReference> findByTargetTypeAndTargetId(String targetType, Long targetId);
+    List<MentionReference> findByTargetTypeAndTargetIdAndSourceType(String targetType, Long targetId, String sourceType);
+    void deleteBySourceTypeAndSourceId(String sourceType, Long sourceId);
+    void deleteByTargetTypeAndTargetId(String targetType, Long targetId);
+}
@@ -12,6 +12,7 @@ import java.util.List;
 import java.util.Objects;
 
 @Entity
+@EntityListeners(online.hatsune_miku.bookwiki.data.StoryChangeListener.class)
 @Table(name = "chapters")
 @Getter
 @Setter
@@ -8,6 +8,7 @@ import org.hibernate.proxy.HibernateProxy;
 import java.util.Objects;
 
 @Entity
+@EntityListeners(online.hatsune_miku.bookwiki.data.StoryChangeListener.class)
 @Table(name = "chapter_notes")
 @Getter
 @Setter
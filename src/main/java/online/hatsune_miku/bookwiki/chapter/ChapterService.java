@@ -11,10 +11,12 @@ public class ChapterService {
 
     private final ChapterRepository chapterRepository;
     private final online.hatsune_miku.bookwiki.media.ReferenceTrackingService referenceTrackingService;
+    private final online.hatsune_miku.bookwiki.search.SearchService searchService;
 
-    public ChapterService(ChapterRepository chapterRepository, online.hatsune_miku.bookwiki.media.ReferenceTrackingService referenceTrackingService) {
+    public ChapterService(ChapterRepository chapterRepository, online.hatsune_miku.bookwiki.media.ReferenceTrackingService referenceTrackingService, online.hatsune_miku.bookwiki.search.SearchService searchService) {
         this.chapterRepository = chapterRepository;
         this.referenceTrackingService = referenceTrackingService;
+        this.searchService = searchService;
     }
 
     public List<Chapter> getChaptersByStoryId(Long storyId) {
@@ -39,6 +41,7 @@ public class ChapterService {
         }
         
         referenceTrackingService.updateReferences(content.toString(), "CHAPTER", saved.getId());
+        searchService.index(saved);
         return saved;
     }
 
@@ -46,5 +49,6 @@ public class ChapterService {
     public void deleteChapter(Long id) {
         chapterRepository.deleteById(id);
         referenceTrackingService.deleteReferences("CHAPTER", id);
+        searchService.remove("CHAPTER", id);
     }
 }
@@ -12,6 +12,7 @@ import java.util.List;
 import java.util.Objects;
 
 @Entity
+@EntityListeners({online.hatsune_miku.bookwiki.data.StoryChangeListener.class, online.hatsune_miku.bookwiki.search.MentionListener.class})
 @Table(name = "characters")
 @Getter
 @Setter
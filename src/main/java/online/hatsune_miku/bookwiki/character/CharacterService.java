@@ -18,6 +18,9 @@ public class CharacterService {
     @Autowired
     private online.hatsune_miku.bookwiki.media.ReferenceTrackingService referenceTrackingService;
 
+    @Autowired
+    private online.hatsune_miku.bookwiki.search.SearchService searchService;
+
     public List<Character> getCharactersByStory(Long storyId) {
         return characterRepository.findByStoryId(storyId);
     }
@@ -33,6 +36,7 @@ public class CharacterService {
         
         Character saved = characterRepository.save(character);
         trackReferences(saved);
+        searchService.index(saved);
         return saved;
     }
 
@@ -61,6 +65,7 @@ public class CharacterService {
             
             Character saved = characterRepository.save(c);
             trackReferences(saved);
+            searchService.index(saved);
             return saved;
         }).orElseThrow(() -> new RuntimeException("Character not found"));
     }
@@ -82,6 +87,7 @@ public class CharacterService {
     public void deleteCharacter(Long id) {
         characterRepository.deleteById(id);
         referenceTrackingService.deleteReferences("CHARACTER", id);
+        searchService.remove("CHARACTER", id);
     }
     
         public java.util.Optional<Character> getCharacterById(Long id) {
@@ -95,6 +101,8 @@ public class CharacterService {
         Character c = getCharacter(characterId);
         section.setCharacter(c);
         c.getCustomSections().add(section);
-        return characterRepository.save(c);
+        Character saved = characterRepository.save(c);
+        searchService.index(saved);
+        return saved;
     }
 }
@@ -16,17 +16,22 @@ public class DataInitializer implements CommandLineRunner {
     private final StoryRepository storyRepository;
     private final ChapterRepository chapterRepository;
     private final online.hatsune_miku.bookwiki.media.MigrationService migrationService;
+    private final online.hatsune_miku.bookwiki.backlink.BacklinkService backlinkService;
+    private final online.hatsune_miku.bookwiki.species.SpeciesAncestryService speciesAncestryService;
 
-    public DataInitializer(StoryRepository storyRepository, ChapterRepository chapterRepository, online.hatsune_miku.bookwiki.media.MigrationService migrationService) {
+    public DataInitializer(StoryRepository storyRepository, ChapterRepository chapterRepository, online.hatsune_miku.bookwiki.media.MigrationService migrationService, online.hatsune_miku.bookwiki.backlink.BacklinkService backlinkService, online.hatsune_miku.bookwiki.species.SpeciesAncestryService speciesAncestryService) {
         this.storyRepository = storyRepository;
         this.chapterRepository = chapterRepository;
         this.migrationService = migrationService;
+        this.backlinkService = backlinkService;
+        this.speciesAncestryService = speciesAncestryService;
     }
 
     @Override
     public void run(String @NonNull ... args) {
         // Run media migration first
         try {
+            migrationService.migrateBlobsToStorage();
             migrationService.migrateFileSystem();
             migrationService.migrateAllBase64();
         } catch (Exception e) {
@@ -57,5 +62,10 @@ public class DataInitializer implements CommandLineRunner {
             }
             System.out.println("Migrated " + orphans.size() + " orphan chapters to Default Story.");
         }
+
+        // Databases from before backlinks have content but no mention references yet
+        backlinkService.backfill();
+        // Same for the species hierarchy
+        speciesAncestryService.backfill();
     }
 }
@@ -0,0 +1,29 @@
+package online.hatsune_miku.bookwiki.data;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Written as manifest.json into every package. {@code createdAt} of one backup is the {@code since} of the
+ * next incremental backup.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BackupManifest {
+
+    public static final String FULL = "FULL";
+    public static final String STORIES = "STORIES";
+    public static final String INCREMENTAL = "INCREMENTAL";
+
+    private String version;
+    private String type;
+    private LocalDateTime createdAt;
+    // Only set for incremental packages
+    private LocalDateTime since;
+}
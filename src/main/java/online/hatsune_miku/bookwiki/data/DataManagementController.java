@@ -1,12 +1,15 @@
 package online.hatsune_miku.bookwiki.data;
 
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.io.IOException;
+import java.time.LocalDateTime;
 import java.util.List;
 
 @RestController
@@ -22,21 +25,35 @@ public class DataManagementController {
     }
 
     @GetMapping("/export/full")
-    public ResponseEntity<byte[]> exportFull() throws IOException {
-        byte[] content = exportService.exportFull();
+    public ResponseEntity<StreamingResponseBody> exportFull() {
+        StreamingResponseBody body = exportService::exportFull;
         return ResponseEntity.ok()
                 .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"full_backup.bwiki\"")
                 .contentType(MediaType.APPLICATION_OCTET_STREAM)
-                .body(content);
+                .body(body);
     }
 
     @PostMapping("/export/stories")
-    public ResponseEntity<byte[]> exportStories(@RequestBody List<Long> storyIds) throws IOException {
-        byte[] content = exportService.exportStories(storyIds);
+    public ResponseEntity<StreamingResponseBody> exportStories(@RequestBody List<Long> storyIds) {
+        StreamingResponseBody body = out -> exportService.exportStories(storyIds, out);
         return ResponseEntity.ok()
                 .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"stories_export.bwiki\"")
                 .contentType(MediaType.APPLICATION_OCTET_STREAM)
-                .body(content);
+                .body(body);
+    }
+
+    /**
+     * Everything that changed after {@code since}, usually the createdAt from the manifest.json of the
+     * previous backup.
+     */
+    @GetMapping("/export/incremental")
+    public ResponseEntity<StreamingResponseBody> exportIncremental(
+            @RequestParam("since") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime since) {
+        StreamingResponseBody body = out -> exportService.exportIncremental(since, out);
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"incremental_backup.bwiki\"")
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .body(body);
     }
 
     @PostMapping("/import")
@@ -45,6 +62,15 @@ public class DataManagementController {
         return ResponseEntity.ok().build();
     }
 
+    /**
+     * Restores a full backup followed by its incremental backups, in the order they were taken.
+     */
+    @PostMapping("/import/chain")
+    public ResponseEntity<Void> importChain(@RequestParam("files") List<MultipartFile> files) throws IOException {
+        importService.importChain(files);
+        return ResponseEntity.ok().build();
+    }
+
     @DeleteMapping("/reset")
     public ResponseEntity<Void> resetApplication() {
         importService.resetAll();
@@ -20,4 +20,5 @@ public class DataPackage {
     private List<MediaDTO> media;
     private List<SpeciesLink> speciesLinks;
     private List<MediaReference> mediaReferences;
+    private List<Tombstone> tombstones;
 }
@@ -1,59 +1,119 @@
 package online.hatsune_miku.bookwiki.data;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.persistence.EntityManager;
+import lombok.extern.slf4j.Slf4j;
 import online.hatsune_miku.bookwiki.media.Media;
 import online.hatsune_miku.bookwiki.media.MediaReference;
 import online.hatsune_miku.bookwiki.media.MediaReferenceRepository;
 import online.hatsune_miku.bookwiki.media.MediaRepository;
+import online.hatsune_miku.bookwiki.media.MediaService;
+import online.hatsune_miku.bookwiki.shortcode.Shortcodes;
 import online.hatsune_miku.bookwiki.species.SpeciesLink;
 import online.hatsune_miku.bookwiki.species.SpeciesLinkRepository;
 import online.hatsune_miku.bookwiki.story.Story;
 import online.hatsune_miku.bookwiki.story.StoryRepository;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.time.LocalDateTime;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
 @Service
+@Slf4j
 public class ExportService {
 
     private final StoryRepository storyRepository;
     private final MediaRepository mediaRepository;
     private final SpeciesLinkRepository speciesLinkRepository;
     private final MediaReferenceRepository mediaReferenceRepository;
+    private final MediaService mediaService;
     private final ObjectMapper objectMapper;
+    private final EntityManager entityManager;
+    private final TombstoneRepository tombstoneRepository;
+
+    static final String FORMAT_VERSION = "1.2";
+    private static final Duration MANIFEST_OVERLAP = Duration.ofMinutes(1);
 
-    private static final Pattern IMAGE_PATTERN = Pattern.compile("#\\{image:([a-fA-F0-9-]{36})\\}");
 
     public ExportService(StoryRepository storyRepository, 
                          MediaRepository mediaRepository, 
                          SpeciesLinkRepository speciesLinkRepository,
                          MediaReferenceRepository mediaReferenceRepository,
-                         ObjectMapper objectMapper) {
+                         MediaService mediaService,
+                         ObjectMapper objectMapper,
+                         EntityManager entityManager,
+                         TombstoneRepository tombstoneRepository) {
         this.storyRepository = storyRepository;
         this.mediaRepository = mediaRepository;
         this.speciesLinkRepository = speciesLinkRepository;
         this.mediaReferenceRepository = mediaReferenceRepository;
+        this.mediaService = mediaService;
         this.objectMapper = objectMapper;
+        this.entityManager = entityManager;
+        this.tombstoneRepository = tombstoneRepository;
     }
 
-    public byte[] exportFull() throws IOException {
-        List<Story> allStories = storyRepository.findAll();
+    /**
+     * Writes a backup of everything into the given stream. Nothing is buffered beyond a single story, so the
+     * size of the backup is only limited by the disk of the client.
+     */
+    @Transactional(readOnly = true)
+    public void exportFull(OutputStream out) throws IOException {
+        BackupManifest manifest = manifest(BackupManifest.FULL, null);
+        List<Long> storyIds = storyRepository.findAllIds();
         List<Media> allMedia = mediaRepository.findAll();
         List<SpeciesLink> allLinks = speciesLinkRepository.findAll();
         List<MediaReference> allRefs = mediaReferenceRepository.findAll();
-        return createZip(allStories, allMedia, allLinks, allRefs);
+        writeZip(out, manifest, storyIds, allMedia, allLinks, allRefs, List.of());
+    }
+
+    @Transactional(readOnly = true)
+    public void exportStories(List<Long> storyIds, OutputStream out) throws IOException {
+        BackupManifest manifest = manifest(BackupManifest.STORIES, null);
+        StorySelection selection = select(storyIds, false);
+        List<Media> referencedMedia = mediaRepository.findAllById(selection.mediaIds);
+        writeZip(out, manifest, selection.storyIds, referencedMedia, selection.links, selection.refs, List.of());
+    }
+
+    /**
+     * Writes everything that changed after {@code since} (the createdAt of an earlier backup's manifest):
+     * every story with a change anywhere in its graph, media uploaded since then and tombstones for deleted
+     * stories and media. Stories are the unit of change, an importer replaces them as a whole.
+     */
+    @Transactional(readOnly = true)
+    public void exportIncremental(LocalDateTime since, OutputStream out) throws IOException {
+        BackupManifest manifest = manifest(BackupManifest.INCREMENTAL, since);
+        StorySelection selection = select(storyRepository.findIdsUpdatedAfter(since), true);
+        List<Media> newMedia = mediaRepository.findByCreatedAtAfter(since);
+        List<Tombstone> tombstones = tombstoneRepository.findByDeletedAtAfterOrderByDeletedAt(since);
+        writeZip(out, manifest, selection.storyIds, newMedia, selection.links, selection.refs, tombstones);
+    }
+
+    private BackupManifest manifest(String type, LocalDateTime since) {
+        // Changes get their timestamp shortly before they commit, so one that is still in flight while this
+        // backup reads could end up older than createdAt. The overlap makes the next increment pick it up,
+        // re-applying a story that did not change is harmless.
+        return BackupManifest.builder()
+                .version(FORMAT_VERSION)
+                .type(type)
+                .createdAt(LocalDateTime.now().minus(MANIFEST_OVERLAP))
+                .since(since)
+                .build();
     }
 
-    public byte[] exportStories(List<Long> storyIds) throws IOException {
-        List<Story> stories = storyRepository.findAllById(storyIds);
-        Set<UUID> mediaIds = new HashSet<>();
+    // A standalone export only carries links inside the exported stories. An increment also needs the links
+    // into unchanged stories, the importer replaces all links of a story together with the story.
+    private StorySelection select(List<Long> storyIds, boolean linksToOtherStories) {
+        StorySelection selection = new StorySelection();
         Set<Long> speciesIds = new HashSet<>();
         Set<Long> chapterIds = new HashSet<>();
         Set<Long> characterIds = new HashSet<>();
@@ -61,28 +121,34 @@ public class ExportService {
         Set<Long> itemIds = new HashSet<>();
         Set<Long> loreIds = new HashSet<>();
 
-        for (Story story : stories) {
-            collectMediaIds(story, mediaIds);
+        // Stories are loaded one at a time and detached again, only their ids are kept
+        for (Long storyId : storyIds) {
+            Story story = storyRepository.findById(storyId).orElse(null);
+            if (story == null) continue;
+            selection.storyIds.add(storyId);
+            collectMediaIds(story, selection.mediaIds);
             story.getSpecies().forEach(s -> speciesIds.add(s.getId()));
             story.getChapters().forEach(c -> chapterIds.add(c.getId()));
             story.getCharacters().forEach(c -> characterIds.add(c.getId()));
             story.getLocations().forEach(l -> locationIds.add(l.getId()));
             story.getItems().forEach(i -> itemIds.add(i.getId()));
             story.getLores().forEach(l -> loreIds.add(l.getId()));
+            entityManager.clear();
         }
-        
-        List<Media> referencedMedia = mediaRepository.findAllById(mediaIds);
-        
-        // Filter SpeciesLinks: both source and target must be in the exported species
-        List<SpeciesLink> filteredLinks = speciesLinkRepository.findAll().stream()
-                .filter(link -> speciesIds.contains(link.getSourceSpeciesId()) && speciesIds.contains(link.getTargetSpeciesId()))
+        Set<Long> exportedStoryIds = new HashSet<>(selection.storyIds);
+
+        // Filter SpeciesLinks by their source and target species
+        selection.links = speciesLinkRepository.findAll().stream()
+                .filter(link -> linksToOtherStories
+                        ? speciesIds.contains(link.getSourceSpeciesId()) || speciesIds.contains(link.getTargetSpeciesId())
+                        : speciesIds.contains(link.getSourceSpeciesId()) && speciesIds.contains(link.getTargetSpeciesId()))
                 .toList();
                 
         // Filter MediaReferences: entity must be one of the exported ones
-        List<MediaReference> filteredRefs = mediaReferenceRepository.findAll().stream()
+        selection.refs = mediaReferenceRepository.findAll().stream()
                 .filter(ref -> {
                     switch (ref.getEntityType()) {
-                        case "STORY": return storyIds.contains(ref.getEntityId());
+                        case "STORY": return exportedStoryIds.contains(ref.getEntityId());
                         case "CHAPTER": return chapterIds.contains(ref.getEntityId());
                         case "CHARACTER": return characterIds.contains(ref.getEntityId());
                         case "LOCATION": return locationIds.contains(ref.getEntityId());
@@ -93,8 +159,7 @@ public class ExportService {
                     }
                 })
                 .toList();
-
-        return createZip(stories, referencedMedia, filteredLinks, filteredRefs);
+        return selection;
     }
 
     private void collectMediaIds(Story story, Set<UUID> mediaIds) {
@@ -143,51 +208,91 @@ public class ExportService {
 
     private void extractIds(String text, Set<UUID> mediaIds) {
         if (text == null || text.isEmpty()) return;
-        Matcher matcher = IMAGE_PATTERN.matcher(text);
-        while (matcher.find()) {
-            try {
-                mediaIds.add(UUID.fromString(matcher.group(1)));
-            } catch (IllegalArgumentException e) {
-                // Ignore invalid UUIDs
-            }
-        }
+        Shortcodes.extractUuids(text, mediaIds, "image");
     }
 
-    private byte[] createZip(List<Story> stories, List<Media> media, List<SpeciesLink> links, List<MediaReference> refs) throws IOException {
+    // Layout of a 1.2 package: manifest.json, every media file as its own entry below media/, then data.json.
+    // Media comes first so an importer can store the files before it reads the stories that reference them.
+    private void writeZip(OutputStream out, BackupManifest manifest, List<Long> storyIds, List<Media> media,
+                          List<SpeciesLink> links, List<MediaReference> refs, List<Tombstone> tombstones) throws IOException {
+        ZipOutputStream zos = new ZipOutputStream(out);
+
+        zos.putNextEntry(new ZipEntry("manifest.json"));
+        zos.write(objectMapper.writeValueAsBytes(manifest));
+        zos.closeEntry();
+
+        // Images are already compressed, deflating them again only costs time
+        zos.setLevel(Deflater.NO_COMPRESSION);
         List<MediaDTO> mediaDTOs = new ArrayList<>();
         for (Media m : media) {
-            try {
-                byte[] data = m.getData().getBytes(1, (int) m.getData().length());
-                mediaDTOs.add(MediaDTO.builder()
-                        .id(m.getId())
-                        .filename(m.getFilename())
-                        .contentType(m.getContentType())
-                        .data(data)
-                        .createdAt(m.getCreatedAt())
-                        .build());
-            } catch (Exception e) {
-                System.err.println("Failed to read media data for: " + m.getId());
+            String path = "media/" + m.getId() + "." + extensionOf(m);
+            try (InputStream is = mediaService.openContent(m)) {
+                zos.putNextEntry(new ZipEntry(path));
+                is.transferTo(zos);
+                zos.closeEntry();
+            } catch (IOException e) {
+                log.warn("Failed to read media data for {}, leaving it out of the backup", m.getId(), e);
+                continue;
             }
+            mediaDTOs.add(MediaDTO.builder()
+                    .id(m.getId())
+                    .filename(m.getFilename())
+                    .contentType(m.getContentType())
+                    .path(path)
+                    .createdAt(m.getCreatedAt())
+                    .build());
         }
 
-        DataPackage dataPackage = DataPackage.builder()
-                .version("1.1")
-                .stories(stories)
-                .media(mediaDTOs)
-                .speciesLinks(links)
-                .mediaReferences(refs)
-                .build();
+        zos.setLevel(Deflater.DEFAULT_COMPRESSION);
+        zos.putNextEntry(new ZipEntry("data.json"));
+        try (JsonGenerator gen = objectMapper.getFactory().createGenerator(zos)) {
+            gen.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            gen.writeStartObject();
+            gen.writeStringField("version", FORMAT_VERSION);
+            gen.writeFieldName("media");
+            objectMapper.writeValue(gen, mediaDTOs);
+            gen.writeFieldName("speciesLinks");
+            objectMapper.writeValue(gen, links);
+            gen.writeFieldName("mediaReferences");
+            objectMapper.writeValue(gen, refs);
+            gen.writeFieldName("tombstones");
+            objectMapper.writeValue(gen, tombstones);
 
-        String json = objectMapper.writeValueAsString(dataPackage);
+            gen.writeArrayFieldStart("stories");
+            for (Long storyId : storyIds) {
+                Story story = storyRepository.findById(storyId).orElse(null);
+                if (story != null) {
+                    objectMapper.writeValue(gen, story);
+                }
+                // Drop the story graph from the persistence context before loading the next one
+                entityManager.clear();
+            }
+            gen.writeEndArray();
+            gen.writeEndObject();
+        }
+        zos.closeEntry();
+        zos.finish();
+        zos.flush();
+    }
 
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        try (ZipOutputStream zos = new ZipOutputStream(baos)) {
-            ZipEntry entry = new ZipEntry("data.json");
-            zos.putNextEntry(entry);
-            zos.write(json.getBytes(StandardCharsets.UTF_8));
-            zos.closeEntry();
-            zos.finish();
+    private String extensionOf(Media media) {
+        String filename = media.getFilename();
+        if (filename != null) {
+            int dot = filename.lastIndexOf('.');
+            if (dot >= 0 && dot < filename.length() - 1) {
+                String ext = filename.substring(dot + 1).toLowerCase();
+                if (ext.matches("[a-z0-9]{1,8}")) {
+                    return ext;
+                }
+            }
         }
-        return baos.toByteArray();
+        return "bin";
+    }
+
+    private static class StorySelection {
+        private final List<Long> storyIds = new ArrayList<>();
+        private final Set<UUID> mediaIds = new HashSet<>();
+        private List<SpeciesLink> links = List.of();
+        private List<MediaReference> refs = List.of();
     }
 }
@@ -0,0 +1,130 @@
+package online.hatsune_miku.bookwiki.data;
+
+import online.hatsune_miku.bookwiki.media.Media;
+import online.hatsune_miku.bookwiki.media.MediaReference;
+import online.hatsune_miku.bookwiki.species.SpeciesLink;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Bulk insert path for the flat rows of an import (media metadata, species links and media references).
+ * These tables use IDENTITY ids, which keeps Hibernate from batching their inserts, so they are written
+ * with batched JDBC statements instead.
+ */
+@Component
+class ImportBatchWriter {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedJdbcTemplate;
+
+    ImportBatchWriter(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.namedJdbcTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+    }
+
+    /**
+     * Inserts media rows, updating the metadata of ids that already exist (e.g. when a backup is restored
+     * over the same database). Returns the content hashes the updated rows pointed to before and no longer
+     * do, for the caller to release.
+     */
+    Set<String> writeMedia(List<Media> media) {
+        Set<String> replaced = new HashSet<>();
+        if (media.isEmpty()) return replaced;
+        // Id -> stored content hash, null for content still in the blob column
+        Map<UUID, String> existingHashes = new HashMap<>();
+        namedJdbcTemplate.query("SELECT id, content_hash FROM media WHERE id IN (:ids)",
+                new MapSqlParameterSource("ids", media.stream().map(Media::getId).toList()),
+                rs -> {
+                    existingHashes.put(rs.getObject("id", UUID.class), rs.getString("content_hash"));
+                });
+        Set<UUID> existing = existingHashes.keySet();
+
+        List<Object[]> inserts = media.stream()
+                .filter(m -> !existing.contains(m.getId()))
+                .map(m -> new Object[]{m.getId(), m.getFilename(), m.getContentType(), m.getContentHash(),
+                        m.getContentLength(), timestamp(m)})
+                .toList();
+        List<Object[]> updates = media.stream()
+                .filter(m -> existing.contains(m.getId()))
+                .map(m -> new Object[]{m.getContentHash(), m.getContentHash(), m.getContentHash(), m.getFilename(),
+                        m.getContentType(), m.getContentHash(), m.getContentLength(), timestamp(m), m.getId()})
+                .toList();
+
+        if (!inserts.isEmpty()) {
+            jdbcTemplate.batchUpdate("INSERT INTO media (id, filename, content_type, content_hash, content_length, created_at) "
+                    + "VALUES (?, ?, ?, ?, ?, ?)", inserts);
+        }
+        if (!updates.isEmpty()) {
+            // The recorded image metadata belongs to the old content, it is probed again from the new one
+            jdbcTemplate.batchUpdate("UPDATE media SET "
+                    + "width = CASE WHEN content_hash IS NOT DISTINCT FROM ? THEN width END, "
+                    + "height = CASE WHEN content_hash IS NOT DISTINCT FROM ? THEN height END, "
+                    + "image_format = CASE WHEN content_hash IS NOT DISTINCT FROM ? THEN image_format END, "
+                    + "filename = ?, content_type = ?, content_hash = ?, content_length = ?, "
+                    + "created_at = ?, data = NULL WHERE id = ?", updates);
+        }
+        for (Media m : media) {
+            String previous = existingHashes.get(m.getId());
+            if (previous != null && !previous.equals(m.getContentHash())) {
+                replaced.add(previous);
+            }
+        }
+        return replaced;
+    }
+
+    void writeSpeciesLinks(List<SpeciesLink> links) {
+        if (links.isEmpty()) return;
+        jdbcTemplate.batchUpdate("INSERT INTO species_links (source_species_id, target_species_id, label, is_bidirectional) "
+                        + "VALUES (?, ?, ?, ?)",
+                links.stream()
+                        .map(l -> new Object[]{l.getSourceSpeciesId(), l.getTargetSpeciesId(), l.getLabel(), l.isBidirectional()})
+                        .toList());
+    }
+
+    void writeMediaReferences(List<MediaReference> refs) {
+        if (refs.isEmpty()) return;
+        jdbcTemplate.batchUpdate("INSERT INTO media_references (media_id, entity_type, entity_id) VALUES (?, ?, ?)",
+                refs.stream()
+                        .map(r -> new Object[]{r.getMediaId(), r.getEntityType(), r.getEntityId()})
+                        .toList());
+    }
+
+    private Timestamp timestamp(Media media) {
+        return media.getCreatedAt() != null ? Timestamp.valueOf(media.getCreatedAt()) : null;
+    }
+
+    /**
+     * Removes the species links and media references of a story. Both only point at its entities by id, so
+     * they are not covered by the cascade when the story itself is deleted.
+     */
+    void deleteStoryReferences(Long storyId) {
+        MapSqlParameterSource params = new MapSqlParameterSource("id", storyId);
+        namedJdbcTemplate.update("DELETE FROM species_ancestry WHERE descendant_id IN (SELECT id FROM species WHERE story_id = :id)", params);
+        namedJdbcTemplate.update("DELETE FROM species_links WHERE source_species_id IN (SELECT id FROM species WHERE story_id = :id) "
+                + "OR target_species_id IN (SELECT id FROM species WHERE story_id = :id)", params);
+        namedJdbcTemplate.update("DELETE FROM media_references WHERE (entity_type = 'STORY' AND entity_id = :id)"
+                + " OR (entity_type = 'CHAPTER' AND entity_id IN (SELECT id FROM chapters WHERE story_id = :id))"
+                + " OR (entity_type = 'CHARACTER' AND entity_id IN (SELECT id FROM characters WHERE story_id = :id))"
+                + " OR (entity_type = 'LOCATION' AND entity_id IN (SELECT id FROM locations WHERE story_id = :id))"
+                + " OR (entity_type = 'ITEM' AND entity_id IN (SELECT id FROM items WHERE story_id = :id))"
+                + " OR (entity_type = 'LORE' AND entity_id IN (SELECT id FROM lore_entries WHERE story_id = :id))"
+                + " OR (entity_type = 'SPECIES' AND entity_id IN (SELECT id FROM species WHERE story_id = :id))", params);
+        // Mentions stay within a story, so the ones made by its entries are all there is
+        namedJdbcTemplate.update("DELETE FROM mention_references WHERE (source_type = 'CHAPTER' AND source_id IN (SELECT id FROM chapters WHERE story_id = :id))"
+                + " OR (source_type = 'CHARACTER' AND source_id IN (SELECT id FROM characters WHERE story_id = :id))"
+                + " OR (source_type = 'LOCATION' AND source_id IN (SELECT id FROM locations WHERE story_id = :id))"
+                + " OR (source_type = 'ITEM' AND source_id IN (SELECT id FROM items WHERE story_id = :id))"
+                + " OR (source_type = 'LORE' AND source_id IN (SELECT id FROM lore_entries WHERE story_id = :id))"
+                + " OR (source_type = 'SPECIES' AND source_id IN (SELECT id FROM species WHERE story_id = :id))", params);
+    }
+}
@@ -0,0 +1,74 @@
+package online.hatsune_miku.bookwiki.data;
+
+import lombok.Getter;
+import lombok.Setter;
+import online.hatsune_miku.bookwiki.media.Media;
+import online.hatsune_miku.bookwiki.media.MediaReference;
+import online.hatsune_miku.bookwiki.species.SpeciesLink;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * State of a single import run. Kept out of {@link ImportService} so that concurrent imports do not share
+ * their id mappings.
+ */
+@Getter
+class ImportContext {
+
+    // Mapping: EntityType -> (OldID -> NewID)
+    private final Map<String, Map<Long, Long>> idMap = new HashMap<>();
+
+    // Stores the media files of this import in the background
+    private final MediaIngestor mediaIngestor;
+
+    // New story id -> number of rows in its graph, used to size flush batches in the fixup pass
+    private final Map<Long, Integer> importedStories = new LinkedHashMap<>();
+    private final List<Media> pendingMedia = new ArrayList<>();
+    private final List<SpeciesLink> speciesLinks = new ArrayList<>();
+    private final List<MediaReference> mediaReferences = new ArrayList<>();
+    private final List<Tombstone> tombstones = new ArrayList<>();
+
+    // Manifest of the package currently being read, null for packages written before 1.2
+    @Setter
+    private BackupManifest manifest;
+
+    // Rows persisted since the persistence context was last flushed and cleared
+    @Setter
+    private int unflushedRows;
+
+    ImportContext(MediaIngestor mediaIngestor) {
+        this.mediaIngestor = mediaIngestor;
+    }
+
+    /**
+     * Prepares for the next package of a chain. The id mapping is kept, increments refer to the ids of the
+     * packages before them.
+     */
+    void startPackage() {
+        importedStories.clear();
+        pendingMedia.clear();
+        speciesLinks.clear();
+        mediaReferences.clear();
+        tombstones.clear();
+        manifest = null;
+    }
+
+    boolean isIncremental() {
+        return manifest != null && BackupManifest.INCREMENTAL.equals(manifest.getType());
+    }
+
+    void recordMapping(String type, Long oldId, Long newId) {
+        if (oldId == null || newId == null) return;
+        idMap.computeIfAbsent(type, _ -> new HashMap<>()).put(oldId, newId);
+    }
+
+    Long getNewId(String type, Long oldId) {
+        if (oldId == null) return null;
+        Map<Long, Long> typeMap = idMap.get(type);
+        return typeMap != null ? typeMap.get(oldId) : null;
+    }
+}
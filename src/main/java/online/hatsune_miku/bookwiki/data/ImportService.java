@@ -1,174 +1,396 @@
 package online.hatsune_miku.bookwiki.data;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.persistence.EntityManager;
+import lombok.extern.slf4j.Slf4j;
+import online.hatsune_miku.bookwiki.backlink.BacklinkService;
 import online.hatsune_miku.bookwiki.media.Media;
 import online.hatsune_miku.bookwiki.media.MediaReference;
 import online.hatsune_miku.bookwiki.media.MediaReferenceRepository;
-import online.hatsune_miku.bookwiki.media.MediaRepository;
+import online.hatsune_miku.bookwiki.media.MediaService;
+import online.hatsune_miku.bookwiki.media.StoredContent;
+import online.hatsune_miku.bookwiki.search.SearchService;
+import online.hatsune_miku.bookwiki.shortcode.Shortcodes;
 import online.hatsune_miku.bookwiki.story.Story;
 import online.hatsune_miku.bookwiki.story.StoryRepository;
+import online.hatsune_miku.bookwiki.species.SpeciesAncestryService;
 import online.hatsune_miku.bookwiki.species.SpeciesLink;
 import online.hatsune_miku.bookwiki.species.SpeciesLinkRepository;
-import org.hibernate.Hibernate;
 import org.jspecify.annotations.NonNull;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.time.LocalDateTime;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
 @Service
+@Slf4j
 public class ImportService {
 
     private final StoryRepository storyRepository;
-    private final MediaRepository mediaRepository;
     private final SpeciesLinkRepository speciesLinkRepository;
     private final MediaReferenceRepository mediaReferenceRepository;
+    private final MediaService mediaService;
     private final ObjectMapper objectMapper;
+    private final EntityManager entityManager;
+    private final ImportBatchWriter batchWriter;
+    private final SearchService searchService;
+    private final BacklinkService backlinkService;
+    private final SpeciesAncestryService speciesAncestryService;
+    private final int batchSize;
+    private final int mediaConcurrency;
+    private final int mediaBufferBytes;
 
-    // Mapping: EntityType -> (OldID -> NewID)
-    private final Map<String, Map<Long, Long>> idMap = new HashMap<>();
-
-    public ImportService(StoryRepository storyRepository, 
-                         MediaRepository mediaRepository,
+    public ImportService(StoryRepository storyRepository,
                          SpeciesLinkRepository speciesLinkRepository,
                          MediaReferenceRepository mediaReferenceRepository,
-                         ObjectMapper objectMapper) {
+                         MediaService mediaService,
+                         ObjectMapper objectMapper,
+                         EntityManager entityManager,
+                         ImportBatchWriter batchWriter,
+                         SearchService searchService,
+                         BacklinkService backlinkService,
+                         SpeciesAncestryService speciesAncestryService,
+                         @Value("${bookwiki.import.batch-size:500}") int batchSize,
+                         @Value("${bookwiki.import.media-concurrency:8}") int mediaConcurrency,
+                         @Value("${bookwiki.import.media-buffer-bytes:4194304}") int mediaBufferBytes) {
         this.storyRepository = storyRepository;
-        this.mediaRepository = mediaRepository;
         this.speciesLinkRepository = speciesLinkRepository;
         this.mediaReferenceRepository = mediaReferenceRepository;
+        this.mediaService = mediaService;
         this.objectMapper = objectMapper;
+        this.entityManager = entityManager;
+        this.batchWriter = batchWriter;
+        this.searchService = searchService;
+        this.backlinkService = backlinkService;
+        this.speciesAncestryService = speciesAncestryService;
+        this.batchSize = batchSize;
+        this.mediaConcurrency = mediaConcurrency;
+        this.mediaBufferBytes = mediaBufferBytes;
     }
 
-    @Transactional
+    /**
+     * Imports a .bwiki package without loading it into memory as a whole. Media entries are piped into the
+     * media store and data.json is read token by token, so only one story graph is held at a time.
+     * Media files are hashed and written in the background while the stories are being mapped.
+     */
+    @Transactional(rollbackFor = IOException.class)
     public void importPackage(MultipartFile file) throws IOException {
-        System.out.println("Importing file: " + file.getOriginalFilename() + " (" + file.getSize() + " bytes)");
+        importChain(List.of(file));
+    }
+
+    /**
+     * Restores a backup chain: a full backup followed by the incremental backups taken after it, oldest first.
+     * An increment replaces the stories it contains and applies its tombstones. The packages share one id
+     * mapping, which is how an increment finds the stories restored from the packages before it.
+     */
+    @Transactional(rollbackFor = IOException.class)
+    public void importChain(List<MultipartFile> files) throws IOException {
+        try (MediaIngestor mediaIngestor = new MediaIngestor(mediaService, mediaConcurrency, mediaBufferBytes)) {
+            ImportContext context = new ImportContext(mediaIngestor);
+            // Imported stories are written in bulk, past the services
+            searchService.invalidateAll();
+            BackupManifest previous = null;
+            for (int i = 0; i < files.size(); i++) {
+                MultipartFile file = files.get(i);
+                log.info("Importing file: {} ({} bytes)", file.getOriginalFilename(), file.getSize());
+                context.startPackage();
+                importFile(file, context, i > 0 ? previous : null, i > 0);
+                previous = context.getManifest();
+            }
+        } catch (Exception e) {
+            log.error("Import failed, rolling back", e);
+            throw e;
+        }
+    }
+
+    private void importFile(MultipartFile file, ImportContext context, BackupManifest previous, boolean continuation) throws IOException {
         try (InputStream is = file.getInputStream();
              ZipInputStream zis = new ZipInputStream(is)) {
-            
             ZipEntry entry;
             boolean found = false;
+            boolean checked = false;
             while ((entry = zis.getNextEntry()) != null) {
-                if ("data.json".equals(entry.getName())) {
+                if ("manifest.json".equals(entry.getName())) {
+                    context.setManifest(objectMapper.readValue(zis.readAllBytes(), BackupManifest.class));
+                } else if (!checked) {
+                    // manifest.json is the first entry, nothing has been written before the chain is checked
+                    checkChain(file, context.getManifest(), previous, continuation);
+                    checked = true;
+                }
+                if (entry.getName().startsWith("media/") && !entry.isDirectory()) {
+                    importMediaEntry(entry.getName(), zis, context);
+                } else if ("data.json".equals(entry.getName())) {
                     found = true;
-                    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-                    byte[] data = new byte[4096];
-                    int nRead;
-                    while ((nRead = zis.read(data, 0, data.length)) != -1) {
-                        buffer.write(data, 0, nRead);
-                    }
-                    DataPackage dataPackage = objectMapper.readValue(buffer.toByteArray(), DataPackage.class);
-                    processImport(dataPackage);
+                    readDataJson(zis, context);
                 }
                 zis.closeEntry();
             }
             if (!found) {
-                System.out.println("CRITICAL: data.json not found in the archive!");
+                // Rolls back the packages imported before it, a chain is restored completely or not at all
+                throw new IOException(file.getOriginalFilename() + " contains no data.json");
             }
+            finishImport(context);
+        }
+    }
+
+    private void checkChain(MultipartFile file, BackupManifest manifest, BackupManifest previous, boolean continuation) throws IOException {
+        boolean incremental = manifest != null && BackupManifest.INCREMENTAL.equals(manifest.getType());
+        if (!continuation) {
+            if (incremental) {
+                throw new IOException(file.getOriginalFilename() + " is an incremental backup, import it after the backup it is based on");
+            }
+            return;
+        }
+        if (!incremental) {
+            throw new IOException(file.getOriginalFilename() + " is not an incremental backup and cannot continue a backup chain");
+        }
+        if (previous == null || previous.getCreatedAt() == null || manifest.getSince() == null
+                || manifest.getSince().isAfter(previous.getCreatedAt())) {
+            throw new IOException(file.getOriginalFilename() + " does not continue the backup before it, changes would be missing");
         }
     }
 
     @Transactional
     public void resetAll() {
-        System.out.println("CRITICAL: Resetting application data...");
+        log.info("Resetting application data...");
         storyRepository.deleteAll();
-        mediaRepository.deleteAll();
+        mediaService.deleteAllMedia();
         speciesLinkRepository.deleteAll();
         mediaReferenceRepository.deleteAll();
-        System.out.println("Reset complete.");
+        backlinkService.deleteAllMentions();
+        speciesAncestryService.removeAll();
+        searchService.invalidateAll();
+        log.info("Reset complete.");
     }
 
-    private void processImport(DataPackage dataPackage) {
+    private void importMediaEntry(String entryName, InputStream content, ImportContext context) throws IOException {
+        UUID mediaId = mediaIdOf(entryName);
+        if (mediaId == null) return;
+        context.getMediaIngestor().submit(mediaId, content);
+    }
+
+    private UUID mediaIdOf(String entryName) {
+        String name = entryName.substring("media/".length());
+        int dot = name.indexOf('.');
         try {
-            idMap.clear();
-            System.out.println("Processing import. Stories: " + (dataPackage.getStories() != null ? dataPackage.getStories().size() : 0));
-            
-            // 1. Import Media first
-            if (dataPackage.getMedia() != null) {
-                for (MediaDTO mediaDTO : dataPackage.getMedia()) {
-                    Media media = new Media();
-                    media.setId(mediaDTO.getId());
-                    media.setFilename(mediaDTO.getFilename());
-                    media.setContentType(mediaDTO.getContentType());
-                    media.setCreatedAt(mediaDTO.getCreatedAt() != null ? mediaDTO.getCreatedAt() : LocalDateTime.now());
-                    
-                    if (mediaDTO.getData() != null) {
-                        var blob = Hibernate.getLobHelper().createBlob(mediaDTO.getData());
-                        media.setData(blob);
-                    }
-                    mediaRepository.save(media);
+            return UUID.fromString(dot >= 0 ? name.substring(0, dot) : name);
+        } catch (IllegalArgumentException e) {
+            log.warn("Skipping unknown media entry: {}", entryName);
+            return null;
+        }
+    }
+
+    // The field order differs between versions (1.1 writes stories before media, 1.2 the other way round),
+    // so every top-level field is handled as it comes. Links and references are small and need the complete
+    // id mapping, so they are buffered and applied in finishImport.
+    private void readDataJson(InputStream in, ImportContext context) throws IOException {
+        try (JsonParser parser = objectMapper.getFactory().createParser(in)) {
+            // The zip stream may still have entries after data.json
+            parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("data.json does not contain a data package");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                parser.nextToken();
+                switch (field) {
+                    case "version" -> log.debug("Package version: {}", parser.getValueAsString());
+                    case "media" -> readArray(parser, MediaDTO.class, dto -> importMedia(dto, context));
+                    case "stories" -> readArray(parser, Story.class, story -> importStory(story, context));
+                    case "speciesLinks" -> readArray(parser, SpeciesLink.class, context.getSpeciesLinks()::add);
+                    case "mediaReferences" -> readArray(parser, MediaReference.class, context.getMediaReferences()::add);
+                    case "tombstones" -> readArray(parser, Tombstone.class, context.getTombstones()::add);
+                    default -> parser.skipChildren();
                 }
             }
+        }
+        flushAndClear(context);
+    }
 
-            // 2. Import Stories and build ID mapping
-            List<Story> importedStories = new ArrayList<>();
-            if (dataPackage.getStories() != null) {
-                for (Story story : dataPackage.getStories()) {
-                    Long oldStoryId = story.getId();
-                    
-                    // Store old IDs for mapping
-                    Map<Object, Long> oldIds = new IdentityHashMap<>();
-                    collectOldIds(story, oldIds);
-                    
-                    prepareForImport(story);
-                    Story savedStory = storyRepository.save(story);
-                    importedStories.add(savedStory);
-                    
-                    // Build mapping
-                    buildMapping(savedStory, oldIds);
-                    if (oldStoryId != null) {
-                        recordMapping("STORY", oldStoryId, savedStory.getId());
-                    }
-                }
+    private <T> void readArray(JsonParser parser, Class<T> type, ImportStep<T> step) throws IOException {
+        if (parser.currentToken() == JsonToken.VALUE_NULL) return;
+        if (parser.currentToken() != JsonToken.START_ARRAY) {
+            throw new IOException("Expected an array of " + type.getSimpleName());
+        }
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            step.accept(objectMapper.readValue(parser, type));
+        }
+    }
+
+    // Media rows are written in finishImport, once the ingestor has the hashes of all files
+    private void importMedia(MediaDTO mediaDTO, ImportContext context) throws IOException {
+        if (mediaDTO.getId() == null) return;
+        Media media = new Media();
+        media.setId(mediaDTO.getId());
+        media.setFilename(mediaDTO.getFilename());
+        media.setContentType(mediaDTO.getContentType());
+        media.setCreatedAt(mediaDTO.getCreatedAt() != null ? mediaDTO.getCreatedAt() : LocalDateTime.now());
+        context.getPendingMedia().add(media);
+
+        if (mediaDTO.getData() != null) {
+            // 1.1 packages embed the file as base64
+            context.getMediaIngestor().submit(mediaDTO.getId(), mediaDTO.getData());
+        }
+    }
+
+    private void writeMedia(ImportContext context) throws IOException {
+        Map<UUID, StoredContent> stored = context.getMediaIngestor().join();
+        // Content that restored media pointed to before, released once no row uses it anymore
+        Set<String> replaced = new HashSet<>();
+        List<Media> batch = new ArrayList<>();
+        for (Media media : context.getPendingMedia()) {
+            StoredContent content = stored.get(media.getId());
+            if (content != null) {
+                mediaService.attachContent(media, content);
             }
+            batch.add(media);
+            if (batch.size() >= batchSize) {
+                replaced.addAll(batchWriter.writeMedia(batch));
+                batch.clear();
+            }
+        }
+        replaced.addAll(batchWriter.writeMedia(batch));
+        context.getPendingMedia().clear();
+        replaced.forEach(mediaService::releaseContent);
+    }
 
-            // 3. Fixup relationships in stories
-            for (Story story : importedStories) {
-                fixupRelationships(story);
-                fixupShortcodes(story);
+    private void importStory(Story story, ImportContext context) {
+        Long oldStoryId = story.getId();
+
+        // An increment carries the whole story, the version restored by an earlier package is replaced
+        if (context.isIncremental()) {
+            Long previousId = context.getNewId("STORY", oldStoryId);
+            if (previousId != null) {
+                deleteStory(previousId, context);
             }
-            storyRepository.saveAll(importedStories);
-
-            // 4. Import SpeciesLinks
-            if (dataPackage.getSpeciesLinks() != null) {
-                for (SpeciesLink link : dataPackage.getSpeciesLinks()) {
-                    link.setId(null);
-                    link.setSourceSpeciesId(getNewId("SPECIES", link.getSourceSpeciesId()));
-                    link.setTargetSpeciesId(getNewId("SPECIES", link.getTargetSpeciesId()));
-                    if (link.getSourceSpeciesId() != null && link.getTargetSpeciesId() != null) {
-                        speciesLinkRepository.save(link);
-                    }
-                }
+        }
+
+        // Store old IDs for mapping
+        Map<Object, Long> oldIds = new IdentityHashMap<>();
+        collectOldIds(story, oldIds);
+
+        prepareForImport(story);
+        Story savedStory = storyRepository.save(story);
+
+        // Build mapping
+        buildMapping(savedStory, oldIds, context);
+        if (oldStoryId != null) {
+            context.recordMapping("STORY", oldStoryId, savedStory.getId());
+        }
+        int rows = oldIds.size() + 1;
+        context.getImportedStories().put(savedStory.getId(), rows);
+
+        // Only the ids are kept, the graphs themselves can be garbage collected after the next flush
+        countRows(context, rows);
+    }
+
+    private void deleteStory(Long storyId, ImportContext context) {
+        flushAndClear(context);
+        batchWriter.deleteStoryReferences(storyId);
+        storyRepository.deleteById(storyId);
+        flushAndClear(context);
+    }
+
+    // Flushes and clears the persistence context every batchSize rows, so memory stays bounded without
+    // paying for a flush per story when a package consists of many small ones
+    private void countRows(ImportContext context, int rows) {
+        context.setUnflushedRows(context.getUnflushedRows() + rows);
+        if (context.getUnflushedRows() >= batchSize) {
+            flushAndClear(context);
+        }
+    }
+
+    private void flushAndClear(ImportContext context) {
+        entityManager.flush();
+        entityManager.clear();
+        context.setUnflushedRows(0);
+    }
+
+    private void finishImport(ImportContext context) throws IOException {
+        log.info("Processing import. Stories: {}", context.getImportedStories().size());
+
+        // Wait for the media files that were stored while the stories were mapped
+        writeMedia(context);
+
+        // Fixup relationships in stories, now that every old id is known.
+        // The updates are batched by Hibernate (hibernate.jdbc.batch_size).
+        for (Map.Entry<Long, Integer> imported : context.getImportedStories().entrySet()) {
+            storyRepository.findById(imported.getKey()).ifPresent(story -> {
+                fixupRelationships(story, context);
+                speciesAncestryService.rebuild(story.getSpecies());
+                fixupShortcodes(story, context);
+                // Written without the services, so the mentions are tracked here
+                backlinkService.indexStory(story);
+            });
+            countRows(context, imported.getValue());
+        }
+        flushAndClear(context);
+
+        // Import SpeciesLinks
+        List<SpeciesLink> links = new ArrayList<>();
+        for (SpeciesLink link : context.getSpeciesLinks()) {
+            link.setSourceSpeciesId(context.getNewId("SPECIES", link.getSourceSpeciesId()));
+            link.setTargetSpeciesId(context.getNewId("SPECIES", link.getTargetSpeciesId()));
+            if (link.getSourceSpeciesId() != null && link.getTargetSpeciesId() != null) {
+                links.add(link);
+            }
+            if (links.size() >= batchSize) {
+                batchWriter.writeSpeciesLinks(links);
+                links.clear();
+            }
+        }
+        batchWriter.writeSpeciesLinks(links);
+
+        // Import MediaReferences
+        List<MediaReference> refs = new ArrayList<>();
+        for (MediaReference ref : context.getMediaReferences()) {
+            Long newEntityId = context.getNewId(ref.getEntityType(), ref.getEntityId());
+            if (newEntityId != null) {
+                ref.setEntityId(newEntityId);
+                refs.add(ref);
             }
+            if (refs.size() >= batchSize) {
+                batchWriter.writeMediaReferences(refs);
+                refs.clear();
+            }
+        }
+        batchWriter.writeMediaReferences(refs);
+
+        applyTombstones(context);
+    }
 
-            // 5. Import MediaReferences
-            if (dataPackage.getMediaReferences() != null) {
-                for (MediaReference ref : dataPackage.getMediaReferences()) {
-                    ref.setId(null);
-                    Long newEntityId = getNewId(ref.getEntityType(), ref.getEntityId());
-                    if (newEntityId != null) {
-                        ref.setEntityId(newEntityId);
-                        mediaReferenceRepository.save(ref);
+    private void applyTombstones(ImportContext context) {
+        for (Tombstone tombstone : context.getTombstones()) {
+            switch (tombstone.getEntityType()) {
+                case "STORY" -> {
+                    Long storyId = context.getNewId("STORY", Long.valueOf(tombstone.getEntityKey()));
+                    if (storyId != null) {
+                        deleteStory(storyId, context);
                     }
                 }
+                case "MEDIA" -> {
+                    UUID mediaId = UUID.fromString(tombstone.getEntityKey());
+                    mediaService.deleteMedia(mediaId);
+                }
+                default -> log.warn("Skipping unknown tombstone: {}", tombstone.getEntityType());
             }
-
-        } catch (Exception e) {
-            System.err.println("FATAL ERROR DURING IMPORT:");
-            e.printStackTrace();
-            throw e;
         }
     }
 
+    @FunctionalInterface
+    private interface ImportStep<T> {
+        void accept(T item) throws IOException;
+    }
+
     private void collectOldIds(Story story, Map<Object, Long> oldIds) {
         if (story.getChapters() != null) story.getChapters().forEach(c -> {
             oldIds.put(c, c.getId());
@@ -196,124 +418,107 @@ public class ImportService {
         });
     }
 
-    private void buildMapping(Story story, Map<Object, Long> oldIds) {
+    private void buildMapping(Story story, Map<Object, Long> oldIds, ImportContext context) {
         if (story.getChapters() != null) story.getChapters().forEach(c -> {
-            recordMapping("CHAPTER", oldIds.get(c), c.getId());
-            if (c.getNotes() != null) c.getNotes().forEach(n -> recordMapping("CHAPTER_NOTE", oldIds.get(n), n.getId()));
+            context.recordMapping("CHAPTER", oldIds.get(c), c.getId());
+            if (c.getNotes() != null) c.getNotes().forEach(n -> context.recordMapping("CHAPTER_NOTE", oldIds.get(n), n.getId()));
         });
         if (story.getCharacters() != null) story.getCharacters().forEach(c -> {
-            recordMapping("CHARACTER", oldIds.get(c), c.getId());
-            if (c.getCustomSections() != null) c.getCustomSections().forEach(s -> recordMapping("CHARACTER_SECTION", oldIds.get(s), s.getId()));
+            context.recordMapping("CHARACTER", oldIds.get(c), c.getId());
+            if (c.getCustomSections() != null) c.getCustomSections().forEach(s -> context.recordMapping("CHARACTER_SECTION", oldIds.get(s), s.getId()));
         });
         if (story.getLocations() != null) story.getLocations().forEach(l -> {
-            recordMapping("LOCATION", oldIds.get(l), l.getId());
-            if (l.getCustomSections() != null) l.getCustomSections().forEach(s -> recordMapping("LOCATION_SECTION", oldIds.get(s), s.getId()));
+            context.recordMapping("LOCATION", oldIds.get(l), l.getId());
+            if (l.getCustomSections() != null) l.getCustomSections().forEach(s -> context.recordMapping("LOCATION_SECTION", oldIds.get(s), s.getId()));
         });
         if (story.getItems() != null) story.getItems().forEach(i -> {
-            recordMapping("ITEM", oldIds.get(i), i.getId());
-            if (i.getCustomSections() != null) i.getCustomSections().forEach(s -> recordMapping("ITEM_SECTION", oldIds.get(s), s.getId()));
+            context.recordMapping("ITEM", oldIds.get(i), i.getId());
+            if (i.getCustomSections() != null) i.getCustomSections().forEach(s -> context.recordMapping("ITEM_SECTION", oldIds.get(s), s.getId()));
         });
         if (story.getLores() != null) story.getLores().forEach(l -> {
-            recordMapping("LORE", oldIds.get(l), l.getId());
-            if (l.getCustomSections() != null) l.getCustomSections().forEach(s -> recordMapping("LORE_SECTION", oldIds.get(s), s.getId()));
+            context.recordMapping("LORE", oldIds.get(l), l.getId());
+            if (l.getCustomSections() != null) l.getCustomSections().forEach(s -> context.recordMapping("LORE_SECTION", oldIds.get(s), s.getId()));
         });
         if (story.getSpecies() != null) story.getSpecies().forEach(s -> {
-            recordMapping("SPECIES", oldIds.get(s), s.getId());
-            if (s.getCustomSections() != null) s.getCustomSections().forEach(cs -> recordMapping("SPECIES_SECTION", oldIds.get(cs), cs.getId()));
+            context.recordMapping("SPECIES", oldIds.get(s), s.getId());
+            if (s.getCustomSections() != null) s.getCustomSections().forEach(cs -> context.recordMapping("SPECIES_SECTION", oldIds.get(cs), cs.getId()));
         });
     }
 
-    private void recordMapping(String type, Long oldId, Long newId) {
-        if (oldId == null || newId == null) return;
-        idMap.computeIfAbsent(type, _ -> new HashMap<>()).put(oldId, newId);
-    }
-
-    private Long getNewId(String type, Long oldId) {
-        if (oldId == null) return null;
-        Map<Long, Long> typeMap = idMap.get(type);
-        return typeMap != null ? typeMap.get(oldId) : null;
-    }
-
-    private void fixupRelationships(Story story) {
+    private void fixupRelationships(Story story, ImportContext context) {
         if (story.getCharacters() != null) {
-            story.getCharacters().forEach(c -> c.setSpeciesId(getNewId("SPECIES", c.getSpeciesId())));
+            story.getCharacters().forEach(c -> c.setSpeciesId(context.getNewId("SPECIES", c.getSpeciesId())));
         }
         if (story.getSpecies() != null) {
             story.getSpecies().forEach(s -> {
-                s.setParentId(getNewId("SPECIES", s.getParentId()));
-                s.setHabitatId(getNewId("LOCATION", s.getHabitatId()));
+                s.setParentId(context.getNewId("SPECIES", s.getParentId()));
+                s.setHabitatId(context.getNewId("LOCATION", s.getHabitatId()));
                 if (s.getCustomSections() != null) {
-                    s.getCustomSections().forEach(cs -> cs.setInheritedFromSectionId(getNewId("SPECIES_SECTION", cs.getInheritedFromSectionId())));
+                    s.getCustomSections().forEach(cs -> cs.setInheritedFromSectionId(context.getNewId("SPECIES_SECTION", cs.getInheritedFromSectionId())));
                 }
             });
         }
     }
 
-    private void fixupShortcodes(Story story) {
-        story.setDescription(replaceShortcodes(story.getDescription()));
+    private void fixupShortcodes(Story story, ImportContext context) {
+        story.setDescription(replaceShortcodes(context, story.getDescription()));
         if (story.getChapters() != null) {
             story.getChapters().forEach(c -> {
-                c.setContent(replaceShortcodes(c.getContent()));
+                c.setContent(replaceShortcodes(context, c.getContent()));
                 if (c.getNotes() != null) {
-                    c.getNotes().forEach(n -> n.setContent(replaceShortcodes(n.getContent())));
+                    c.getNotes().forEach(n -> n.setContent(replaceShortcodes(context, n.getContent())));
                 }
             });
         }
         if (story.getCharacters() != null) {
             story.getCharacters().forEach(c -> {
-                c.setDescription(replaceShortcodes(c.getDescription()));
-                c.setAppearance(replaceShortcodes(c.getAppearance()));
+                c.setDescription(replaceShortcodes(context, c.getDescription()));
+                c.setAppearance(replaceShortcodes(context, c.getAppearance()));
                 if (c.getCustomSections() != null) {
-                    c.getCustomSections().forEach(s -> s.setContent(replaceShortcodes(s.getContent())));
+                    c.getCustomSections().forEach(s -> s.setContent(replaceShortcodes(context, s.getContent())));
                 }
             });
         }
         if (story.getLocations() != null) {
             story.getLocations().forEach(l -> {
-                l.setDescription(replaceShortcodes(l.getDescription()));
-                l.setWhereItIs(replaceShortcodes(l.getWhereItIs()));
-                l.setDetails(replaceShortcodes(l.getDetails()));
+                l.setDescription(replaceShortcodes(context, l.getDescription()));
+                l.setWhereItIs(replaceShortcodes(context, l.getWhereItIs()));
+                l.setDetails(replaceShortcodes(context, l.getDetails()));
                 if (l.getCustomSections() != null) {
-                    l.getCustomSections().forEach(s -> s.setContent(replaceShortcodes(s.getContent())));
+                    l.getCustomSections().forEach(s -> s.setContent(replaceShortcodes(context, s.getContent())));
                 }
             });
         }
         if (story.getItems() != null) {
             story.getItems().forEach(i -> {
-                i.setDescription(replaceShortcodes(i.getDescription()));
+                i.setDescription(replaceShortcodes(context, i.getDescription()));
                 if (i.getCustomSections() != null) {
-                    i.getCustomSections().forEach(s -> s.setContent(replaceShortcodes(s.getContent())));
+                    i.getCustomSections().forEach(s -> s.setContent(replaceShortcodes(context, s.getContent())));
                 }
             });
         }
         if (story.getLores() != null) {
             story.getLores().forEach(l -> {
-                l.setDescription(replaceShortcodes(l.getDescription()));
+                l.setDescription(replaceShortcodes(context, l.getDescription()));
                 if (l.getCustomSections() != null) {
-                    l.getCustomSections().forEach(s -> s.setContent(replaceShortcodes(s.getContent())));
+                    l.getCustomSections().forEach(s -> s.setContent(replaceShortcodes(context, s.getContent())));
                 }
             });
         }
         if (story.getSpecies() != null) {
             story.getSpecies().forEach(s -> {
-                s.setDescription(replaceShortcodes(s.getDescription()));
+                s.setDescription(replaceShortcodes(context, s.getDescription()));
                 if (s.getCustomSections() != null) {
-                    s.getCustomSections().forEach(cs -> cs.setContent(replaceShortcodes(cs.getContent())));
+                    s.getCustomSections().forEach(cs -> cs.setContent(replaceShortcodes(context, cs.getContent())));
                 }
             });
         }
     }
 
-    private String replaceShortcodes(String text) {
+    private String replaceShortcodes(ImportContext context, String text) {
         if (text == null || text.isEmpty()) return text;
-
-        Pattern pattern = Pattern.compile("#\\{(\\w+):([\\w\\-]+)}");
-        Matcher matcher = pattern.matcher(text);
-        StringBuilder sb = new StringBuilder();
-        while (matcher.find()) {
-            String type = matcher.group(1).toLowerCase();
-            String idStr = matcher.group(2);
-
+        return Shortcodes.rewrite(text, shortcode -> {
+            String type = shortcode.getType().toLowerCase();
             String mapKey = switch (type) {
                 case "character" -> "CHARACTER";
                 case "item" -> "ITEM";
@@ -322,25 +527,10 @@ public class ImportService {
                 case "species" -> "SPECIES";
                 default -> null;
             };
-
-            if (mapKey != null) {
-                try {
-                    Long oldId = Long.parseLong(idStr);
-                    Long newId = getNewId(mapKey, oldId);
-                    if (newId != null) {
-                        matcher.appendReplacement(sb, Matcher.quoteReplacement("#{" + type + ":" + newId + "}"));
-                    } else {
-                        matcher.appendReplacement(sb, Matcher.quoteReplacement(matcher.group(0)));
-                    }
-                } catch (NumberFormatException e) {
-                    matcher.appendReplacement(sb, Matcher.quoteReplacement(matcher.group(0)));
-                }
-            } else {
-                matcher.appendReplacement(sb, Matcher.quoteReplacement(matcher.group(0)));
-            }
-        }
-        matcher.appendTail(sb);
-        return sb.toString();
+            if (mapKey == null) return null;
+            Long newId = context.getNewId(mapKey, shortcode.getLongId());
+            return newId != null ? "#{" + type + ":" + newId + "}" : null;
+        });
     }
 
     private void prepareForImport(@NonNull Story story) {
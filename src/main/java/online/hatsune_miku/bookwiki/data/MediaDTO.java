@@ -16,6 +16,8 @@ public class MediaDTO {
     private UUID id;
     private String filename;
     private String contentType;
+    // Inline payload of 1.1 packages, 1.2 packages store the file as a separate zip entry at path
     private byte[] data;
+    private String path;
     private LocalDateTime createdAt;
 }
@@ -0,0 +1,104 @@
+package online.hatsune_miku.bookwiki.data;
+
+import online.hatsune_miku.bookwiki.media.MediaService;
+import online.hatsune_miku.bookwiki.media.StoredContent;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.SequenceInputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Hashes and writes the media files of one import on virtual threads while the caller keeps reading the
+ * archive. A semaphore bounds the number of files held in memory at once, so a fast reader blocks instead
+ * of buffering the whole archive. Files larger than the buffer limit are streamed on the calling thread.
+ */
+class MediaIngestor implements AutoCloseable {
+
+    private final MediaService mediaService;
+    private final int bufferLimit;
+    private final Semaphore permits;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Map<UUID, Future<StoredContent>> pending = new HashMap<>();
+    private final Map<UUID, StoredContent> stored = new HashMap<>();
+
+    MediaIngestor(MediaService mediaService, int maxInFlight, int bufferLimit) {
+        this.mediaService = mediaService;
+        this.bufferLimit = bufferLimit;
+        this.permits = new Semaphore(maxInFlight);
+    }
+
+    /**
+     * Ingests the current zip entry. The stream is read up to the buffer limit (or completely, for large
+     * files) before this method returns, but never closed.
+     */
+    void submit(UUID mediaId, InputStream content) throws IOException {
+        byte[] head = content.readNBytes(bufferLimit + 1);
+        if (head.length <= bufferLimit) {
+            submit(mediaId, head);
+        } else {
+            stored.put(mediaId, mediaService.storeContent(new SequenceInputStream(new ByteArrayInputStream(head), content)));
+        }
+    }
+
+    void submit(UUID mediaId, byte[] content) throws IOException {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for media ingestion");
+        }
+        try {
+            pending.put(mediaId, executor.submit(() -> {
+                try {
+                    return mediaService.storeContent(new ByteArrayInputStream(content));
+                } finally {
+                    permits.release();
+                }
+            }));
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Waits for all submitted files and returns the stored content per media id.
+     */
+    Map<UUID, StoredContent> join() throws IOException {
+        List<IOException> failures = new ArrayList<>();
+        for (Map.Entry<UUID, Future<StoredContent>> entry : pending.entrySet()) {
+            try {
+                stored.put(entry.getKey(), entry.getValue().get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for media ingestion");
+            } catch (ExecutionException e) {
+                failures.add(new IOException("Could not store media " + entry.getKey(), e.getCause()));
+            }
+        }
+        pending.clear();
+        if (!failures.isEmpty()) {
+            IOException failure = failures.getFirst();
+            failures.stream().skip(1).forEach(failure::addSuppressed);
+            throw failure;
+        }
+        return stored;
+    }
+
+    @Override
+    public void close() {
+        executor.close();
+    }
+}
@@ -0,0 +1,75 @@
+package online.hatsune_miku.bookwiki.data;
+
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PostUpdate;
+import online.hatsune_miku.bookwiki.chapter.Chapter;
+import online.hatsune_miku.bookwiki.chapter.ChapterNote;
+import online.hatsune_miku.bookwiki.character.Character;
+import online.hatsune_miku.bookwiki.character.CharacterSection;
+import online.hatsune_miku.bookwiki.emote.Emote;
+import online.hatsune_miku.bookwiki.item.Item;
+import online.hatsune_miku.bookwiki.item.ItemSection;
+import online.hatsune_miku.bookwiki.location.Location;
+import online.hatsune_miku.bookwiki.location.LocationSection;
+import online.hatsune_miku.bookwiki.lore.Lore;
+import online.hatsune_miku.bookwiki.lore.LoreSection;
+import online.hatsune_miku.bookwiki.media.Media;
+import online.hatsune_miku.bookwiki.species.Species;
+import online.hatsune_miku.bookwiki.species.SpeciesLink;
+import online.hatsune_miku.bookwiki.species.SpeciesSection;
+import online.hatsune_miku.bookwiki.story.Story;
+import org.springframework.stereotype.Component;
+
+/**
+ * JPA entity listener on everything a story consists of. Hibernate resolves it through Spring, so the
+ * tracker is injected.
+ */
+@Component
+public class StoryChangeListener {
+
+    private final StoryChangeTracker tracker;
+
+    public StoryChangeListener(StoryChangeTracker tracker) {
+        this.tracker = tracker;
+    }
+
+    @PostPersist
+    @PostUpdate
+    public void onChange(Object entity) {
+        if (entity instanceof SpeciesLink link) {
+            tracker.speciesLinkChanged(link.getSourceSpeciesId(), link.getTargetSpeciesId());
+        } else {
+            tracker.storyChanged(storyIdOf(entity));
+        }
+    }
+
+    @PostRemove
+    public void onRemove(Object entity) {
+        switch (entity) {
+            case Story story -> tracker.deleted("STORY", story.getId());
+            case Media media -> tracker.deleted("MEDIA", media.getId());
+            default -> onChange(entity);
+        }
+    }
+
+    private Long storyIdOf(Object entity) {
+        Story story = switch (entity) {
+            case Chapter c -> c.getStory();
+            case ChapterNote n -> n.getChapter() != null ? n.getChapter().getStory() : null;
+            case Character c -> c.getStory();
+            case CharacterSection s -> s.getCharacter() != null ? s.getCharacter().getStory() : null;
+            case Location l -> l.getStory();
+            case LocationSection s -> s.getLocation() != null ? s.getLocation().getStory() : null;
+            case Item i -> i.getStory();
+            case ItemSection s -> s.getItem() != null ? s.getItem().getStory() : null;
+            case Lore l -> l.getStory();
+            case LoreSection s -> s.getLore() != null ? s.getLore().getStory() : null;
+            case Species s -> s.getStory();
+            case SpeciesSection s -> s.getSpecies() != null ? s.getSpecies().getStory() : null;
+            case Emote e -> e.getStory();
+            default -> null;
+        };
+        return story != null ? story.getId() : null;
+    }
+}
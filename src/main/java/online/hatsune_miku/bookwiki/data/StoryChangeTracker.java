@@ -0,0 +1,113 @@
+package online.hatsune_miku.bookwiki.data;
+
+import jakarta.persistence.EntityManager;
+import jakarta.transaction.Synchronization;
+import org.hibernate.Session;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Collects the stories touched by a transaction and bumps their {@code updatedAt} right before it commits,
+ * so that edits to chapters, worldbuilding entries, sections or species links mark the whole story as changed
+ * for incremental backups. Deletions of stories and media are recorded as {@link Tombstone}s.
+ * <p>
+ * Fed by {@link StoryChangeListener}.
+ */
+@Component
+public class StoryChangeTracker {
+
+    private final EntityManager entityManager;
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    public StoryChangeTracker(EntityManager entityManager, NamedParameterJdbcTemplate jdbcTemplate) {
+        this.entityManager = entityManager;
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    void storyChanged(Long storyId) {
+        Changes changes = currentChanges();
+        if (changes != null && storyId != null) {
+            changes.storyIds.add(storyId);
+        }
+    }
+
+    void speciesLinkChanged(Long sourceSpeciesId, Long targetSpeciesId) {
+        Changes changes = currentChanges();
+        if (changes != null) {
+            if (sourceSpeciesId != null) changes.speciesIds.add(sourceSpeciesId);
+            if (targetSpeciesId != null) changes.speciesIds.add(targetSpeciesId);
+        }
+    }
+
+    void deleted(String entityType, Object key) {
+        Changes changes = currentChanges();
+        if (changes != null && key != null) {
+            changes.tombstones.add(new String[]{entityType, key.toString()});
+        }
+    }
+
+    private Changes currentChanges() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return null;
+        }
+        Changes changes = (Changes) TransactionSynchronizationManager.getResource(this);
+        if (changes == null) {
+            Changes created = new Changes();
+            TransactionSynchronizationManager.bindResource(this, created);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(StoryChangeTracker.this);
+                }
+            });
+            // Hibernate calls its own synchronizations after the flush on commit. Many listener calls only
+            // happen in that flush, after Spring's beforeCommit, and would be lost there
+            entityManager.unwrap(Session.class).getTransaction().registerSynchronization(new Synchronization() {
+                @Override
+                public void beforeCompletion() {
+                    apply(created);
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                }
+            });
+            changes = created;
+        }
+        return changes;
+    }
+
+    private void apply(Changes changes) {
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        if (!changes.storyIds.isEmpty()) {
+            jdbcTemplate.update("UPDATE stories SET updated_at = :now WHERE id IN (:ids)",
+                    new MapSqlParameterSource("now", now).addValue("ids", changes.storyIds));
+        }
+        if (!changes.speciesIds.isEmpty()) {
+            jdbcTemplate.update("UPDATE stories SET updated_at = :now WHERE id IN (SELECT story_id FROM species WHERE id IN (:ids))",
+                    new MapSqlParameterSource("now", now).addValue("ids", changes.speciesIds));
+        }
+        if (!changes.tombstones.isEmpty()) {
+            MapSqlParameterSource[] rows = changes.tombstones.stream()
+                    .map(t -> new MapSqlParameterSource("type", t[0]).addValue("key", t[1]).addValue("now", now))
+                    .toArray(MapSqlParameterSource[]::new);
+            jdbcTemplate.batchUpdate("INSERT INTO tombstones (entity_type, entity_key, deleted_at) VALUES (:type, :key, :now)", rows);
+        }
+    }
+
+    private static class Changes {
+        private final Set<Long> storyIds = new HashSet<>();
+        private final Set<Long> speciesIds = new HashSet<>();
+        private final List<String[]> tombstones = new ArrayList<>();
+    }
+}
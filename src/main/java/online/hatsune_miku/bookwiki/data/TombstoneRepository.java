@@ -0,0 +1,12 @@
+package online.hatsune_miku.bookwiki.data;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface TombstoneRepository extends JpaRepository<Tombstone, Long> {
+    List<Tombstone> findByDeletedAtAfterOrderByDeletedAt(LocalDateTime since);
+}
@@ -9,6 +9,7 @@ import online.hatsune_miku.bookwiki.story.Story;
 @Getter
 @Setter
 @Entity
+@EntityListeners(online.hatsune_miku.bookwiki.data.StoryChangeListener.class)
 @Table(name = "emotes")
 public class Emote {
     @Id
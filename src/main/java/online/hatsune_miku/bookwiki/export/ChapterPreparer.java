@@ -0,0 +1,271 @@
+package online.hatsune_miku.bookwiki.export;
+
+import lombok.extern.slf4j.Slf4j;
+import online.hatsune_miku.bookwiki.chapter.Chapter;
+import online.hatsune_miku.bookwiki.media.ImageProbe;
+import online.hatsune_miku.bookwiki.media.Media;
+import online.hatsune_miku.bookwiki.media.MediaDerivativeService;
+import online.hatsune_miku.bookwiki.media.MediaService;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Prepares the chapters of a document export in parallel: shortcode resolution, HTML parsing and image
+ * loading run on virtual threads, while the export service writes the prepared chapters one after another
+ * in their original order. At most {@code window} chapters are prepared ahead of the writer, so memory stays
+ * bounded for long books.
+ * <p>
+ * Images are shared across the chapters of one export, so an emote used on every page is read and measured
+ * once. The shared images are capped at {@code imageCacheBytes}; images beyond that are loaded per chapter.
+ * If the export has a target DPI, images wider than their printed size needs are replaced by resampled copies
+ * from the {@link MediaDerivativeService}.
+ */
+@Component
+@Slf4j
+public class ChapterPreparer {
+
+    private static final String PAGE_BREAK = "#\\{pagebreak\\}";
+    // Resampled widths are rounded up to this step, so slightly different sizes share one copy
+    private static final int WIDTH_STEP = 64;
+
+    private final ShortcodeResolver shortcodeResolver;
+    private final MediaService mediaService;
+    private final MediaDerivativeService derivativeService;
+    private final int window;
+    private final long imageCacheBytes;
+
+    public ChapterPreparer(ShortcodeResolver shortcodeResolver,
+                           MediaService mediaService,
+                           MediaDerivativeService derivativeService,
+                           @Value("${bookwiki.export.prepare-window:16}") int window,
+                           @Value("${bookwiki.export.image-cache-bytes:67108864}") long imageCacheBytes) {
+        this.shortcodeResolver = shortcodeResolver;
+        this.mediaService = mediaService;
+        this.derivativeService = derivativeService;
+        this.window = Math.max(1, window);
+        this.imageCacheBytes = imageCacheBytes;
+    }
+
+    /**
+     * Turns a prepared chapter into the writer's own representation. Runs on the preparing threads.
+     */
+    @FunctionalInterface
+    public interface ChapterRenderer<T> {
+        T render(PreparedChapter chapter) throws IOException;
+    }
+
+    @FunctionalInterface
+    public interface ChapterWriter<T> {
+        void write(T chapter) throws IOException;
+    }
+
+    /**
+     * Prepares all chapters with their original images and hands them to the writer in order, on the calling thread.
+     */
+    public void forEach(List<Chapter> chapters, MentionIndex mentions, ChapterWriter<PreparedChapter> writer) throws IOException {
+        forEach(chapters, mentions, ExportOptions.DEFAULT, 0, writer);
+    }
+
+    /**
+     * Prepares all chapters and hands them to the writer in order, on the calling thread. {@code printableWidth}
+     * is the widest an image can be printed in the writer's document, in points.
+     */
+    public void forEach(List<Chapter> chapters, MentionIndex mentions, ExportOptions options, double printableWidth,
+                        ChapterWriter<PreparedChapter> writer) throws IOException {
+        forEach(chapters, mentions, options, printableWidth, chapter -> chapter, writer);
+    }
+
+    /**
+     * Prepares and renders all chapters in parallel and hands the rendered chapters to the writer in order, on
+     * the calling thread.
+     */
+    public <T> void forEach(List<Chapter> chapters, MentionIndex mentions, ExportOptions options, double printableWidth,
+                            ChapterRenderer<T> renderer, ChapterWriter<T> writer) throws IOException {
+        ImageCache cache = new ImageCache(imageCacheBytes, options.getTargetDpi(), printableWidth);
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            Deque<Future<T>> pending = new ArrayDeque<>();
+            int next = 0;
+            while (next < chapters.size() || !pending.isEmpty()) {
+                while (next < chapters.size() && pending.size() < window) {
+                    int index = next++;
+                    Chapter chapter = chapters.get(index);
+                    pending.add(executor.submit(() -> renderer.render(prepare(index, chapter, mentions, cache))));
+                }
+                writer.write(await(pending.poll(), pending));
+            }
+        }
+    }
+
+    private <T> T await(Future<T> future, Deque<Future<T>> pending) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            pending.forEach(f -> f.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while preparing chapters");
+        } catch (ExecutionException e) {
+            pending.forEach(f -> f.cancel(true));
+            if (e.getCause() instanceof RuntimeException runtime) throw runtime;
+            throw new IOException("Could not prepare chapter", e.getCause());
+        }
+    }
+
+    PreparedChapter prepare(int index, Chapter chapter, MentionIndex mentions, ImageCache cache) {
+        String resolved = shortcodeResolver.resolve(chapter.getContent(), mentions);
+
+        List<Document> segments = new ArrayList<>();
+        // Every distinct image once, at the largest size it is printed at in this chapter
+        Map<String, Double> printedWidths = new LinkedHashMap<>();
+        int imageCount = 0;
+        for (String segment : resolved.split(PAGE_BREAK)) {
+            Document doc = Jsoup.parseBodyFragment(segment);
+            for (Element img : doc.select("img")) {
+                imageCount++;
+                printedWidths.merge(img.attr("src"), cache.printedWidth(img), Math::max);
+            }
+            segments.add(doc);
+        }
+
+        Map<String, PreparedImage> images = new HashMap<>();
+        printedWidths.forEach((src, printedWidth) -> {
+            PreparedImage image = cache.get(src, printedWidth);
+            if (image != null) images.put(src, image);
+        });
+        return new PreparedChapter(index, chapter.getTitle(), segments, images, imageCount);
+    }
+
+    private PreparedImage loadImage(String src, int targetWidth) {
+        if (src == null || src.isEmpty()) return null;
+        try {
+            if (src.startsWith("data:image/")) {
+                String header = src.substring(0, src.indexOf(","));
+                byte[] data = Base64.getDecoder().decode(src.substring(src.indexOf(",") + 1));
+                String contentType = header.substring("data:".length()).split(";")[0];
+                ImageProbe.Info info = ImageProbe.probe(data);
+                if (needsResampling(info.getWidth(), targetWidth)) {
+                    MediaDerivativeService.Derivative derivative = derivativeService.resample(data, targetWidth);
+                    if (derivative != null) return resampled(derivative, "embedded_image", info.getWidth(), info.getHeight());
+                }
+                return new PreparedImage(data, contentType, "embedded_image", info);
+            }
+            if (src.contains("/api/media/")) {
+                UUID uuid = UUID.fromString(src.substring(src.lastIndexOf('/') + 1));
+                Media media = mediaService.getMedia(uuid);
+                // With recorded dimensions a stored copy can be used without reading the original at all
+                if (media.getWidth() != null && needsResampling(media.getWidth(), targetWidth)) {
+                    PreparedImage image = loadDerivative(media, targetWidth);
+                    if (image != null) return image;
+                }
+                byte[] data;
+                if (media.getContentHash() != null) {
+                    try (InputStream is = mediaService.openContent(media)) {
+                        data = is.readAllBytes();
+                    }
+                } else {
+                    // Not migrated to the media store yet, the blob can only be read in a transaction
+                    data = mediaService.getMediaContent(uuid);
+                }
+                ImageProbe.Info info = mediaService.getImageInfo(media, data);
+                if (needsResampling(info.getWidth(), targetWidth)) {
+                    PreparedImage image = media.getContentHash() != null
+                            ? loadDerivative(media, targetWidth)
+                            : resampled(derivativeService.resample(data, targetWidth), media.getFilename(), info.getWidth(), info.getHeight());
+                    if (image != null) return image;
+                }
+                return new PreparedImage(data, media.getContentType(), media.getFilename(), info);
+            }
+        } catch (Exception e) {
+            log.warn("Failed to load media for export: {}", src, e);
+        }
+        return null;
+    }
+
+    private PreparedImage loadDerivative(Media media, int targetWidth) throws IOException {
+        MediaDerivativeService.Derivative derivative = derivativeService.getExportDerivative(media, targetWidth);
+        return resampled(derivative, media.getFilename(), media.getWidth(), media.getHeight());
+    }
+
+    // Keeps the original pixel size, the writers lay the image out as if it had not been resampled
+    private PreparedImage resampled(MediaDerivativeService.Derivative derivative, String filename, int width, int height) throws IOException {
+        if (derivative == null) return null;
+        byte[] data;
+        try (InputStream is = derivative.getResource().getInputStream()) {
+            data = is.readAllBytes();
+        }
+        String format = derivative.getContentType().equals("image/jpeg") ? "jpeg" : "png";
+        return new PreparedImage(data, derivative.getContentType(), filename, format, width, height);
+    }
+
+    private static boolean needsResampling(int width, int targetWidth) {
+        return targetWidth > 0 && width > targetWidth;
+    }
+
+    /**
+     * Images of one export by their src and target width. Concurrent first uses of the same image may both load
+     * it, only one copy is kept.
+     */
+    class ImageCache {
+        private final Map<String, PreparedImage> images = new ConcurrentHashMap<>();
+        private final AtomicLong remaining;
+        private final int targetDpi;
+        private final double printableWidth;
+
+        ImageCache(long maxBytes, int targetDpi, double printableWidth) {
+            this.remaining = new AtomicLong(maxBytes);
+            this.targetDpi = targetDpi;
+            this.printableWidth = printableWidth;
+        }
+
+        /**
+         * Upper bound of the width the image is printed at, in points. The writers may only scale it further
+         * down, to fit the page height. 0 if there is no target DPI.
+         */
+        double printedWidth(Element img) {
+            if (targetDpi <= 0 || printableWidth <= 0) return 0;
+            String width = img.attr("width");
+            if (width.isEmpty() && !img.attr("style").isEmpty()) {
+                width = HtmlUtils.parseStyle(img.attr("style")).getOrDefault("width", "");
+            }
+            Double parsed = HtmlUtils.parseDimension(width, printableWidth);
+            return parsed != null ? Math.min(parsed, printableWidth) : printableWidth;
+        }
+
+        PreparedImage get(String src, double printedWidth) {
+            int targetWidth = 0;
+            if (printedWidth > 0) {
+                int pixels = (int) Math.ceil(printedWidth / 72 * targetDpi);
+                targetWidth = (pixels + WIDTH_STEP - 1) / WIDTH_STEP * WIDTH_STEP;
+            }
+            String key = targetWidth > 0 ? src + "@" + targetWidth : src;
+            PreparedImage cached = images.get(key);
+            if (cached != null) return cached;
+            PreparedImage loaded = loadImage(src, targetWidth);
+            if (loaded == null) return null;
+            long size = loaded.getData().length;
+            if (remaining.addAndGet(-size) < 0) {
+                remaining.addAndGet(size);
+                return loaded;
+            }
+            PreparedImage existing = images.putIfAbsent(key, loaded);
+            if (existing != null) {
+                remaining.addAndGet(size);
+                return existing;
+            }
+            return loaded;
+        }
+    }
+}
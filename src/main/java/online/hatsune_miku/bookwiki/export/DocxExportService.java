@@ -3,39 +3,38 @@ package online.hatsune_miku.bookwiki.export;
 import online.hatsune_miku.bookwiki.chapter.Chapter;
 import org.apache.poi.util.Units;
 import org.apache.poi.xwpf.usermodel.*;
-import org.jsoup.Jsoup;
 import org.jsoup.nodes.Element;
 import org.jsoup.nodes.Node;
 import org.jsoup.nodes.TextNode;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
-import javax.imageio.ImageIO;
-import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Base64;
 import java.util.List;
+import java.util.Map;
 
 @Service
 public class DocxExportService implements ExportService {
 
+    // Standard DOCX printable width is ~450 points (6.25 inches)
+    private static final double MAX_IMAGE_WIDTH = 450;
+
     @Autowired
     private ShortcodeResolver shortcodeResolver;
 
     @Autowired
-    private online.hatsune_miku.bookwiki.media.MediaService mediaService;
+    private ChapterPreparer chapterPreparer;
 
     @Override
     @org.springframework.transaction.annotation.Transactional(readOnly = true)
-    public byte[] export(String title, List<Chapter> chapters) throws IOException {
-        try (XWPFDocument document = new XWPFDocument();
-             ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+    public void export(String title, List<Chapter> chapters, OutputStream out, ExportOptions options, ExportProgress progress) throws IOException {
+        try (XWPFDocument document = new XWPFDocument()) {
 
             // Story Title
             XWPFParagraph titlePara = document.createParagraph();
@@ -46,13 +45,16 @@ public class DocxExportService implements ExportService {
             titleRun.setFontSize(24);
             titleRun.setFontFamily("Times New Roman");
 
-            boolean firstChapter = true;
-            for (Chapter chapter : chapters) {
+            // Names of all mentioned entities, loaded once for the whole export
+            MentionIndex mentions = shortcodeResolver.index(chapters.stream().map(Chapter::getContent).toList());
+
+            // Chapters are resolved, parsed and their images loaded in parallel, the document is written in order
+            chapterPreparer.forEach(chapters, mentions, options, MAX_IMAGE_WIDTH, chapter -> {
                 // Chapter Title
                 XWPFParagraph chapterPara = document.createParagraph();
                 chapterPara.setAlignment(ParagraphAlignment.CENTER);
                 
-                if (!firstChapter) {
+                if (chapter.getIndex() > 0) {
                     chapterPara.setPageBreak(true);
                 } else {
                     chapterPara.setSpacingBefore(400); // Visual gap from story title
@@ -64,134 +66,104 @@ public class DocxExportService implements ExportService {
                 chapterRun.setFontSize(18);
                 chapterRun.setFontFamily("Times New Roman");
 
-                String resolvedContent = shortcodeResolver.resolve(chapter.getContent());
-                
-                // Split by manual pagebreaks
-                String[] segments = resolvedContent.split("#\\{pagebreak\\}");
-                for (int i = 0; i < segments.length; i++) {
-                    addHtmlToDocx(document, segments[i]);
-                    if (i < segments.length - 1) {
+                // One segment per manual pagebreak
+                List<org.jsoup.nodes.Document> segments = chapter.getSegments();
+                for (int i = 0; i < segments.size(); i++) {
+                    addHtmlToDocx(document, segments.get(i), chapter.getImages());
+                    if (i < segments.size() - 1) {
                         XWPFParagraph breakPara = document.createParagraph();
                         breakPara.setPageBreak(true);
                     }
                 }
-                firstChapter = false;
-            }
+                progress.chapterDone(chapter.getImageCount());
+            });
 
             document.write(out);
-            return out.toByteArray();
+            out.flush();
         }
     }
 
-    private void addHtmlToDocx(XWPFDocument document, String html) {
-        org.jsoup.nodes.Document doc = Jsoup.parseBodyFragment(html);
+    private void addHtmlToDocx(XWPFDocument document, org.jsoup.nodes.Document doc, Map<String, PreparedImage> images) {
         for (Element element : doc.body().children()) {
-            processTopLevelElement(document, element);
+            processTopLevelElement(document, element, images);
         }
     }
 
-    private void processTopLevelElement(XWPFDocument document, Element element) {
+    private void processTopLevelElement(XWPFDocument document, Element element, Map<String, PreparedImage> images) {
         if (element.tagName().equals("img")) {
-            handleImage(document, element);
+            handleImage(document, element, images);
         } else {
             XWPFParagraph paragraph = document.createParagraph();
             paragraph.setSpacingBetween(2.0, LineSpacingRule.AUTO);
-            processElementRecursive(document, paragraph, element, false, false, false);
+            processElementRecursive(document, paragraph, element, false, false, false, images);
         }
     }
 
-    private void handleImage(XWPFDocument document, Element imgElement) {
-        String src = imgElement.attr("src");
-        if (src == null || src.isEmpty()) return;
+    private void handleImage(XWPFDocument document, Element imgElement, Map<String, PreparedImage> images) {
+        // Loaded by the ChapterPreparer, images that could not be loaded are left out
+        PreparedImage prepared = images.get(imgElement.attr("src"));
+        if (prepared == null) return;
 
         try {
-            byte[] imageData;
-            String filename;
             int format;
-
-            if (src.startsWith("data:image/")) {
-                String header = src.substring(0, src.indexOf(","));
-                String base64Data = src.substring(src.indexOf(",") + 1);
-                imageData = Base64.getDecoder().decode(base64Data);
-                
-                filename = "embedded_image";
-                if (header.contains("image/png")) format = XWPFDocument.PICTURE_TYPE_PNG;
-                else if (header.contains("image/jpeg") || header.contains("image/jpg")) format = XWPFDocument.PICTURE_TYPE_JPEG;
-                else if (header.contains("image/gif")) format = XWPFDocument.PICTURE_TYPE_GIF;
-                else return;
-            } else if (src.contains("/api/media/")) {
-                String idStr = src.substring(src.lastIndexOf('/') + 1);
-                try {
-                    java.util.UUID uuid = java.util.UUID.fromString(idStr);
-                    online.hatsune_miku.bookwiki.media.Media media = mediaService.getMedia(uuid);
-                    imageData = media.getData().getBinaryStream().readAllBytes();
-                    filename = media.getFilename();
-                    
-                    String ct = media.getContentType();
-                    if (ct.contains("png")) format = XWPFDocument.PICTURE_TYPE_PNG;
-                    else if (ct.contains("jpeg") || ct.contains("jpg")) format = XWPFDocument.PICTURE_TYPE_JPEG;
-                    else if (ct.contains("gif")) format = XWPFDocument.PICTURE_TYPE_GIF;
-                    else return;
-                } catch (Exception e) {
-                    System.err.println("Failed to load media for DOCX: " + e.getMessage());
-                    return;
-                }
-            } else {
-                return;
-            }
-
-            try (InputStream is = new ByteArrayInputStream(imageData)) {
-                BufferedImage bimg = ImageIO.read(new ByteArrayInputStream(imageData));
+            // The probed format wins over the declared content type, which may be missing or wrong
+            String ct = prepared.getFormat() != null ? prepared.getFormat()
+                    : prepared.getContentType() != null ? prepared.getContentType() : "";
+            if (ct.contains("png")) format = XWPFDocument.PICTURE_TYPE_PNG;
+            else if (ct.contains("jpeg") || ct.contains("jpg")) format = XWPFDocument.PICTURE_TYPE_JPEG;
+            else if (ct.contains("gif")) format = XWPFDocument.PICTURE_TYPE_GIF;
+            else return;
+
+            try (InputStream is = new ByteArrayInputStream(prepared.getData())) {
                 double width = 400;
                 double height = 300;
                 
-                if (bimg != null) {
+                if (prepared.hasSize()) {
                     // Scale native pixels to points
-                    width = bimg.getWidth() * 0.75;
-                    height = bimg.getHeight() * 0.75;
-                    
-                                        String attrWidth = imgElement.attr("width");
-                                        String attrHeight = imgElement.attr("height");
-                                        String styleAttr = imgElement.attr("style");
+                    width = prepared.getWidth() * 0.75;
+                    height = prepared.getHeight() * 0.75;
                     
-                                        if (!styleAttr.isEmpty()) {
-                                            java.util.Map<String, String> styles = HtmlUtils.parseStyle(styleAttr);
-                                            if (attrWidth.isEmpty()) attrWidth = styles.getOrDefault("width", "");
-                                            if (attrHeight.isEmpty()) attrHeight = styles.getOrDefault("height", "");
-                                        }
-                    
-                                        // Standard DOCX printable width is ~450 points (6.25 inches)
-                                        double maxWidth = 450; 
-                                        double maxHeight = 700;
+                    String attrWidth = imgElement.attr("width");
+                    String attrHeight = imgElement.attr("height");
+                    String styleAttr = imgElement.attr("style");
+
+                    if (!styleAttr.isEmpty()) {
+                        java.util.Map<String, String> styles = HtmlUtils.parseStyle(styleAttr);
+                        if (attrWidth.isEmpty()) attrWidth = styles.getOrDefault("width", "");
+                        if (attrHeight.isEmpty()) attrHeight = styles.getOrDefault("height", "");
+                    }
 
-                                        Double parsedWidth = HtmlUtils.parseDimension(attrWidth, maxWidth);
-                                        Double parsedHeight = HtmlUtils.parseDimension(attrHeight, maxHeight);
+                    double maxWidth = MAX_IMAGE_WIDTH;
+                    double maxHeight = 700;
+
+                    Double parsedWidth = HtmlUtils.parseDimension(attrWidth, maxWidth);
+                    Double parsedHeight = HtmlUtils.parseDimension(attrHeight, maxHeight);
+
+                    if (parsedWidth != null && parsedHeight != null) {
+                        width = parsedWidth;
+                        height = parsedHeight;
+                    } else if (parsedWidth != null) {
+                        height = height * (parsedWidth / width);
+                        width = parsedWidth;
+                    }
                     
-                                        if (parsedWidth != null && parsedHeight != null) {
-                                            width = parsedWidth;
-                                            height = parsedHeight;
-                                        } else if (parsedWidth != null) {
-                                            height = height * (parsedWidth / width);
-                                            width = parsedWidth;
-                                        }
-                                        
-                                        if (width > maxWidth) {
-                                            height = height * (maxWidth / width);
-                                            width = maxWidth;
-                                        }
+                    if (width > maxWidth) {
+                        height = height * (maxWidth / width);
+                        width = maxWidth;
+                    }
                 }
 
                 XWPFParagraph imagePara = document.createParagraph();
                 imagePara.setAlignment(ParagraphAlignment.CENTER);
                 XWPFRun imageRun = imagePara.createRun();
-                imageRun.addPicture(is, format, filename, Units.toEMU(width), Units.toEMU(height));
+                imageRun.addPicture(is, format, prepared.getFilename(), Units.toEMU(width), Units.toEMU(height));
             }
         } catch (Exception e) {
             System.err.println("Failed to embed image in DOCX: " + e.getMessage());
         }
     }
 
-    private void processElementRecursive(XWPFDocument document, XWPFParagraph paragraph, Element element, boolean bold, boolean italic, boolean underline) {
+    private void processElementRecursive(XWPFDocument document, XWPFParagraph paragraph, Element element, boolean bold, boolean italic, boolean underline, Map<String, PreparedImage> images) {
         for (Node node : element.childNodes()) {
             if (node instanceof TextNode textNode) {
                 String text = textNode.text();
@@ -206,7 +178,7 @@ public class DocxExportService implements ExportService {
                 }
             } else if (node instanceof Element child) {
                 if (child.tagName().equals("img")) {
-                    handleImage(document, child);
+                    handleImage(document, child, images);
                 } else {
                     boolean nextBold = bold || child.tagName().equals("b") || child.tagName().equals("strong");
                     boolean nextItalic = italic || child.tagName().equals("i") || child.tagName().equals("em");
@@ -215,7 +187,7 @@ public class DocxExportService implements ExportService {
                     if (child.tagName().equals("br")) {
                         paragraph.createRun().addBreak();
                     } else {
-                        processElementRecursive(document, paragraph, child, nextBold, nextItalic, nextUnderline);
+                        processElementRecursive(document, paragraph, child, nextBold, nextItalic, nextUnderline, images);
                     }
                 }
             }
@@ -0,0 +1,271 @@
+package online.hatsune_miku.bookwiki.export;
+
+import online.hatsune_miku.bookwiki.chapter.Chapter;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Entities;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes an EPUB 3 book. Chapter XHTML is rendered on the {@link ChapterPreparer}'s threads and written to the
+ * zip in order. Every image goes into the book once, when the first chapter that uses it is written. The
+ * package document lists everything in the book, so it is written last, once all files are known.
+ */
+@Service
+public class EpubExportService implements ExportService {
+
+    // Nominal text width of a reader screen, only used to resample images when a target DPI is set
+    private static final double PRINTABLE_WIDTH = 450;
+
+    private static final String STYLESHEET = """
+            body { font-family: serif; line-height: 1.5; }
+            h1 { text-align: center; margin: 2em 0 1em; }
+            img { max-width: 100%; height: auto; display: block; margin: 1em auto; }
+            .pagebreak { page-break-before: always; break-before: page; }
+            """;
+
+    @Autowired
+    private ShortcodeResolver shortcodeResolver;
+
+    @Autowired
+    private ChapterPreparer chapterPreparer;
+
+    @Override
+    @org.springframework.transaction.annotation.Transactional(readOnly = true)
+    public void export(String title, List<Chapter> chapters, OutputStream out, ExportOptions options, ExportProgress progress) throws IOException {
+        ZipOutputStream zip = new ZipOutputStream(out);
+
+        // The mimetype has to be the first entry and uncompressed, readers detect the format from it
+        byte[] mimetype = "application/epub+zip".getBytes(StandardCharsets.US_ASCII);
+        ZipEntry mimetypeEntry = new ZipEntry("mimetype");
+        mimetypeEntry.setMethod(ZipEntry.STORED);
+        mimetypeEntry.setSize(mimetype.length);
+        CRC32 crc = new CRC32();
+        crc.update(mimetype);
+        mimetypeEntry.setCrc(crc.getValue());
+        zip.putNextEntry(mimetypeEntry);
+        zip.write(mimetype);
+        zip.closeEntry();
+
+        writeEntry(zip, "META-INF/container.xml", """
+                <?xml version="1.0" encoding="UTF-8"?>
+                <container version="1.0" xmlns="urn:oasis:names:tc:opendocument:xmlns:container">
+                  <rootfiles>
+                    <rootfile full-path="OEBPS/content.opf" media-type="application/oebps-package+xml"/>
+                  </rootfiles>
+                </container>
+                """);
+        writeEntry(zip, "OEBPS/style.css", STYLESHEET);
+        writeEntry(zip, "OEBPS/title.xhtml", xhtml(title, "<h1>" + escape(title) + "</h1>"));
+
+        // Names of all mentioned entities, loaded once for the whole export
+        MentionIndex mentions = shortcodeResolver.index(chapters.stream().map(Chapter::getContent).toList());
+
+        // Image file names are handed out while chapters are rendered in parallel, the files themselves are
+        // written by the writer thread
+        ImageNames imageNames = new ImageNames();
+        Set<String> writtenImages = new HashSet<>();
+        List<String> manifest = new ArrayList<>();
+        List<String[]> toc = new ArrayList<>();
+
+        chapterPreparer.forEach(chapters, mentions, options, PRINTABLE_WIDTH,
+                chapter -> render(chapter, imageNames),
+                chapter -> {
+                    for (Map.Entry<String, PreparedImage> image : chapter.images.entrySet()) {
+                        if (writtenImages.add(image.getKey())) {
+                            zip.putNextEntry(new ZipEntry("OEBPS/" + image.getKey()));
+                            zip.write(image.getValue().getData());
+                            zip.closeEntry();
+                            manifest.add(item(imageNames.id(image.getKey()), image.getKey(), mediaType(image.getValue()), null));
+                        }
+                    }
+                    zip.putNextEntry(new ZipEntry("OEBPS/" + chapter.fileName));
+                    zip.write(chapter.xhtml);
+                    zip.closeEntry();
+                    manifest.add(item(chapter.id, chapter.fileName, "application/xhtml+xml", null));
+                    toc.add(new String[]{chapter.fileName, chapter.title});
+                    progress.chapterDone(chapter.imageCount);
+                });
+
+        writeEntry(zip, "OEBPS/nav.xhtml", navigation(toc));
+        writeEntry(zip, "OEBPS/content.opf", packageDocument(title, identifier(chapters), manifest, toc));
+        zip.finish();
+        out.flush();
+    }
+
+    @Override
+    public String getFormat() {
+        return "epub";
+    }
+
+    private EpubChapter render(PreparedChapter chapter, ImageNames imageNames) {
+        EpubChapter rendered = new EpubChapter();
+        rendered.id = "chapter-" + (chapter.getIndex() + 1);
+        rendered.fileName = rendered.id + ".xhtml";
+        rendered.title = chapter.getTitle() != null ? chapter.getTitle() : "Chapter " + (chapter.getIndex() + 1);
+        rendered.imageCount = chapter.getImageCount();
+
+        StringBuilder body = new StringBuilder();
+        body.append("<h1>").append(escape(rendered.title)).append("</h1>\n");
+        List<org.jsoup.nodes.Document> segments = chapter.getSegments();
+        for (int i = 0; i < segments.size(); i++) {
+            org.jsoup.nodes.Document doc = segments.get(i);
+            for (Element img : doc.select("img")) {
+                // Loaded by the ChapterPreparer, images that could not be loaded are left out
+                PreparedImage prepared = chapter.getImages().get(img.attr("src"));
+                if (prepared == null) {
+                    img.remove();
+                    continue;
+                }
+                String fileName = imageNames.fileName(img.attr("src"), prepared);
+                rendered.images.putIfAbsent(fileName, prepared);
+                img.attr("src", fileName);
+                if (!img.hasAttr("alt")) img.attr("alt", "");
+            }
+            // Mentions and other shortcodes are plain HTML by now, written as XML so it is valid XHTML
+            doc.outputSettings()
+                    .syntax(org.jsoup.nodes.Document.OutputSettings.Syntax.xml)
+                    .escapeMode(Entities.EscapeMode.xhtml)
+                    .charset(StandardCharsets.UTF_8)
+                    .prettyPrint(false);
+            if (i > 0) {
+                body.append("<div class=\"pagebreak\"></div>\n");
+            }
+            body.append(doc.body().html()).append('\n');
+        }
+        rendered.xhtml = xhtml(rendered.title, body.toString()).getBytes(StandardCharsets.UTF_8);
+        return rendered;
+    }
+
+    private String xhtml(String title, String body) {
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<!DOCTYPE html>\n"
+                + "<html xmlns=\"http://www.w3.org/1999/xhtml\" xmlns:epub=\"http://www.idpf.org/2007/ops\">\n"
+                + "<head>\n<title>" + escape(title) + "</title>\n"
+                + "<link rel=\"stylesheet\" type=\"text/css\" href=\"style.css\"/>\n</head>\n"
+                + "<body>\n" + body + "</body>\n</html>\n";
+    }
+
+    private String navigation(List<String[]> toc) {
+        StringBuilder list = new StringBuilder("<nav epub:type=\"toc\" id=\"toc\">\n<h1>Contents</h1>\n<ol>\n");
+        for (String[] entry : toc) {
+            list.append("<li><a href=\"").append(entry[0]).append("\">").append(escape(entry[1])).append("</a></li>\n");
+        }
+        list.append("</ol>\n</nav>\n");
+        return xhtml("Contents", list.toString());
+    }
+
+    // Derived from the story, so exporting it again gives the same identifier, also after a rename. Chapters
+    // without a story get a new one every time
+    private String identifier(List<Chapter> chapters) {
+        Long storyId = chapters.stream()
+                .map(Chapter::getStory)
+                .filter(java.util.Objects::nonNull)
+                .map(online.hatsune_miku.bookwiki.story.Story::getId)
+                .filter(java.util.Objects::nonNull)
+                .findFirst()
+                .orElse(null);
+        UUID uuid = storyId != null
+                ? UUID.nameUUIDFromBytes(("bookwiki-story:" + storyId).getBytes(StandardCharsets.UTF_8))
+                : UUID.randomUUID();
+        return "urn:uuid:" + uuid;
+    }
+
+    private String packageDocument(String title, String identifier, List<String> manifest, List<String[]> toc) {
+        StringBuilder opf = new StringBuilder();
+        opf.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        opf.append("<package xmlns=\"http://www.idpf.org/2007/opf\" version=\"3.0\" unique-identifier=\"book-id\">\n");
+        opf.append("<metadata xmlns:dc=\"http://purl.org/dc/elements/1.1/\">\n");
+        opf.append("<dc:identifier id=\"book-id\">").append(identifier).append("</dc:identifier>\n");
+        opf.append("<dc:title>").append(escape(title)).append("</dc:title>\n");
+        opf.append("<dc:language>en</dc:language>\n");
+        opf.append("<meta property=\"dcterms:modified\">").append(Instant.now().truncatedTo(ChronoUnit.SECONDS)).append("</meta>\n");
+        opf.append("</metadata>\n<manifest>\n");
+        opf.append(item("nav", "nav.xhtml", "application/xhtml+xml", "nav"));
+        opf.append(item("css", "style.css", "text/css", null));
+        opf.append(item("title", "title.xhtml", "application/xhtml+xml", null));
+        manifest.forEach(opf::append);
+        opf.append("</manifest>\n<spine>\n<itemref idref=\"title\"/>\n");
+        for (String[] entry : toc) {
+            opf.append("<itemref idref=\"").append(entry[0].substring(0, entry[0].length() - ".xhtml".length())).append("\"/>\n");
+        }
+        opf.append("</spine>\n</package>\n");
+        return opf.toString();
+    }
+
+    private String item(String id, String href, String mediaType, String properties) {
+        return "<item id=\"" + id + "\" href=\"" + href + "\" media-type=\"" + mediaType + "\""
+                + (properties != null ? " properties=\"" + properties + "\"" : "") + "/>\n";
+    }
+
+    private static String mediaType(PreparedImage image) {
+        if (image.getContentType() != null && image.getContentType().startsWith("image/")) {
+            return image.getContentType();
+        }
+        return image.getFormat() != null ? "image/" + image.getFormat() : "application/octet-stream";
+    }
+
+    private static String escape(String text) {
+        if (text == null) return "";
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+
+    private void writeEntry(ZipOutputStream zip, String name, String content) throws IOException {
+        zip.putNextEntry(new ZipEntry(name));
+        zip.write(content.getBytes(StandardCharsets.UTF_8));
+        zip.closeEntry();
+    }
+
+    /**
+     * File names of the images in the book, one per src.
+     */
+    private static class ImageNames {
+        private final Map<String, String> names = new ConcurrentHashMap<>();
+        private final AtomicInteger counter = new AtomicInteger();
+
+        String fileName(String src, PreparedImage image) {
+            return names.computeIfAbsent(src, _ -> "images/image-" + counter.incrementAndGet() + "." + extension(image));
+        }
+
+        String id(String fileName) {
+            return fileName.substring("images/".length(), fileName.lastIndexOf('.'));
+        }
+
+        private static String extension(PreparedImage image) {
+            String type = mediaType(image);
+            return switch (type) {
+                case "image/jpeg", "image/jpg" -> "jpg";
+                case "image/svg+xml" -> "svg";
+                default -> type.startsWith("image/") ? type.substring("image/".length()) : "bin";
+            };
+        }
+    }
+
+    private static class EpubChapter {
+        private String id;
+        private String fileName;
+        private String title;
+        private byte[] xhtml;
+        private int imageCount;
+        // By file name, in the order they appear
+        private final Map<String, PreparedImage> images = new LinkedHashMap<>();
+    }
+}
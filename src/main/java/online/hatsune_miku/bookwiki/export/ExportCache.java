@@ -0,0 +1,124 @@
+package online.hatsune_miku.bookwiki.export;
+
+import lombok.extern.slf4j.Slf4j;
+import online.hatsune_miku.bookwiki.config.PathProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Finished export documents on disk, named by the cache key of the export. The least recently used
+ * documents are deleted once the cache grows over its budget, except for pinned ones that a job still offers
+ * for download.
+ */
+@Component
+@Slf4j
+public class ExportCache {
+
+    private final Path root;
+    private final long budget;
+    // Cache key -> number of jobs holding it, guarded by this
+    private final Map<String, Integer> pinned = new HashMap<>();
+
+    public ExportCache(PathProvider pathProvider,
+                       @Value("${bookwiki.export.cache-path:}") String configuredPath,
+                       @Value("${bookwiki.export.cache-bytes:536870912}") long budget) {
+        if (configuredPath == null || configuredPath.isBlank()) {
+            this.root = pathProvider.getBaseDataPath().resolve("data").resolve("exports").toAbsolutePath().normalize();
+        } else {
+            this.root = Paths.get(configuredPath).toAbsolutePath().normalize();
+        }
+        this.budget = budget;
+    }
+
+    /**
+     * Returns the cached document for the key, or null.
+     */
+    public Path get(String key) {
+        Path file = root.resolve(key);
+        if (!Files.isRegularFile(file)) return null;
+        try {
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            log.debug("Could not touch cached export {}: {}", key, e.getMessage());
+        }
+        return file;
+    }
+
+    public Path createTempFile() throws IOException {
+        Files.createDirectories(root);
+        return Files.createTempFile(root, "export-", ".tmp");
+    }
+
+    /**
+     * Moves a finished document into the cache and returns its new location.
+     */
+    public Path put(String key, Path temp) throws IOException {
+        Path target = root.resolve(key);
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        evictOverBudget(target);
+        return target;
+    }
+
+    /**
+     * Keeps the document of the key from being evicted until it is unpinned as often as it was pinned. The
+     * document does not have to exist yet.
+     */
+    public synchronized void pin(String key) {
+        pinned.merge(key, 1, Integer::sum);
+    }
+
+    public synchronized void unpin(String key) {
+        pinned.computeIfPresent(key, (_, count) -> count > 1 ? count - 1 : null);
+    }
+
+    private synchronized void evictOverBudget(Path keep) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> list = Files.list(root)) {
+            list.filter(p -> !p.getFileName().toString().endsWith(".tmp")).forEach(files::add);
+        }
+        files.sort(Comparator.comparingLong(this::lastModified));
+        long total = 0;
+        for (Path file : files) total += size(file);
+        for (Path file : files) {
+            if (total <= budget) break;
+            if (file.equals(keep) || pinned.containsKey(file.getFileName().toString())) continue;
+            long size = size(file);
+            try {
+                Files.deleteIfExists(file);
+                total -= size;
+            } catch (IOException e) {
+                // Still being downloaded on systems that lock open files, evicted next time
+                log.debug("Could not evict cached export {}: {}", file.getFileName(), e.getMessage());
+            }
+        }
+    }
+
+    private long lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private long size(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+}
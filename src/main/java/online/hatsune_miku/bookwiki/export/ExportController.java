@@ -4,15 +4,21 @@ import online.hatsune_miku.bookwiki.chapter.Chapter;
 import online.hatsune_miku.bookwiki.chapter.ChapterService;
 import online.hatsune_miku.bookwiki.story.Story;
 import online.hatsune_miku.bookwiki.story.StoryService;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.RejectedExecutionException;
 
 @RestController
 @RequestMapping("/api/export")
@@ -22,61 +28,148 @@ public class ExportController {
     private final List<ExportService> exportServices;
     private final ChapterService chapterService;
     private final StoryService storyService;
+    private final ExportJobService exportJobService;
+    private final SiteExportService siteExportService;
 
-    public ExportController(List<ExportService> exportServices, ChapterService chapterService, StoryService storyService) {
+    public ExportController(List<ExportService> exportServices, ChapterService chapterService, StoryService storyService,
+                            ExportJobService exportJobService, SiteExportService siteExportService) {
         this.exportServices = exportServices;
         this.chapterService = chapterService;
         this.storyService = storyService;
+        this.exportJobService = exportJobService;
+        this.siteExportService = siteExportService;
     }
 
     @PostMapping("/{format}")
-    public ResponseEntity<byte[]> export(@PathVariable String format, @RequestBody ExportRequest request) throws IOException {
+    public ResponseEntity<StreamingResponseBody> export(@PathVariable String format, @RequestBody ExportRequest request) throws IOException {
         ExportService service = exportServices.stream()
                 .filter(s -> s.getFormat().equalsIgnoreCase(format))
                 .findFirst()
                 .orElseThrow(() -> new IllegalArgumentException("Unknown format: " + format));
 
-        List<Chapter> chaptersToExport = new ArrayList<>();
-        String title = "Export";
+        Selection selection = select(request);
+        ExportOptions options = options(request);
+
+        // Written straight into the response, the client receives pages while later chapters are rendered
+        StreamingResponseBody body = out -> service.export(selection.title, selection.chapters, out, options, ExportProgress.NONE);
+
+        String filename = selection.title.replaceAll("[^a-zA-Z0-9.-]", "_") + "." + format;
+
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"")
+                .contentType(mediaTypeOf(format))
+                .body(body);
+    }
+
+    /**
+     * Brings the static wiki of the story up to date and downloads it as a zip. Only pages whose content,
+     * links or mentions changed since the last build are rendered again, the counts are sent as headers.
+     */
+    @PostMapping("/html-site")
+    public ResponseEntity<StreamingResponseBody> exportSite(@RequestBody ExportRequest request) throws IOException {
+        if (request.getStoryId() == null) {
+            return ResponseEntity.badRequest().build();
+        }
+        SiteBuild build = siteExportService.build(request.getStoryId());
+        String title = storyService.getStoryById(request.getStoryId()).map(Story::getTitle).orElse("Export");
+        String filename = title.replaceAll("[^a-zA-Z0-9.-]", "_") + "-site.zip";
+
+        StreamingResponseBody body = out -> siteExportService.writeZip(request.getStoryId(), out);
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"")
+                .header("X-Site-Pages-Rendered", String.valueOf(build.getPagesRendered()))
+                .header("X-Site-Pages-Unchanged", String.valueOf(build.getPagesUnchanged()))
+                .contentType(MediaType.parseMediaType("application/zip"))
+                .body(body);
+    }
+
+    /**
+     * Starts the export in the background and returns the job. Progress is available from
+     * /jobs/{id} (polling) or /jobs/{id}/events (server-sent events), the document from /jobs/{id}/file.
+     */
+    @PostMapping("/{format}/jobs")
+    public ResponseEntity<ExportJob> startExport(@PathVariable String format, @RequestBody ExportRequest request) {
+        Selection selection = select(request);
+        try {
+            ExportJob job = exportJobService.submit(format, selection.title, selection.chapters, options(request));
+            return ResponseEntity.accepted().body(job);
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+    }
+
+    @GetMapping("/jobs/{id}")
+    public ResponseEntity<ExportJob> getJob(@PathVariable String id) {
+        return exportJobService.getJob(id)
+                .map(ResponseEntity::ok)
+                .orElse(ResponseEntity.notFound().build());
+    }
+
+    @GetMapping(value = "/jobs/{id}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> jobEvents(@PathVariable String id) {
+        return exportJobService.getJob(id)
+                .map(job -> ResponseEntity.ok(exportJobService.subscribe(job)))
+                .orElse(ResponseEntity.notFound().build());
+    }
+
+    @GetMapping("/jobs/{id}/file")
+    public ResponseEntity<Resource> getJobFile(@PathVariable String id) {
+        Optional<ExportJob> job = exportJobService.getJob(id);
+        if (job.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        if (job.get().getStatus() != ExportJob.Status.DONE) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
+        }
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + job.get().getFilename() + "\"")
+                .contentType(mediaTypeOf(job.get().getFormat()))
+                .body(new FileSystemResource(job.get().getFile()));
+    }
+
+    private MediaType mediaTypeOf(String format) {
+        return switch (format.toLowerCase()) {
+            case "pdf" -> MediaType.APPLICATION_PDF;
+            case "epub" -> MediaType.parseMediaType("application/epub+zip");
+            default -> MediaType.parseMediaType("application/vnd.openxmlformats-officedocument.wordprocessingml.document");
+        };
+    }
+
+    private ExportOptions options(ExportRequest request) {
+        return ExportOptions.builder()
+                .targetDpi(request.getDpi() != null ? Math.max(0, request.getDpi()) : 0)
+                .build();
+    }
+
+    private Selection select(ExportRequest request) {
+        Selection selection = new Selection();
 
         if (request.getStoryId() != null) {
             Optional<Story> story = storyService.getStoryById(request.getStoryId());
             if (story.isPresent()) {
-                title = story.get().getTitle();
+                selection.title = story.get().getTitle();
                 if (request.getChapterIds() != null && !request.getChapterIds().isEmpty()) {
                     // Export specific chapters in the order provided by the request (which should be the UI order)
                     for (Long id : request.getChapterIds()) {
-                        chapterService.getChapterById(id).ifPresent(chaptersToExport::add);
+                        chapterService.getChapterById(id).ifPresent(selection.chapters::add);
                     }
                 } else {
                     // Export all chapters of the story
-                    chaptersToExport.addAll(chapterService.getChaptersByStoryId(request.getStoryId()));
+                    selection.chapters.addAll(chapterService.getChaptersByStoryId(request.getStoryId()));
                 }
             }
         } else if (request.getChapterIds() != null && !request.getChapterIds().isEmpty()) {
             for (Long id : request.getChapterIds()) {
-                chapterService.getChapterById(id).ifPresent(chaptersToExport::add);
+                chapterService.getChapterById(id).ifPresent(selection.chapters::add);
             }
         }
 
         // Always apply natural sort to the final list to ensure correct document order
-        chaptersToExport.sort((a, b) -> compareNaturally(a.getTitle(), b.getTitle()));
-
-        byte[] content = service.export(title, chaptersToExport);
-
-        String filename = title.replaceAll("[^a-zA-Z0-9.-]", "_") + "." + format;
-        
-        MediaType mediaType = format.equalsIgnoreCase("pdf") 
-                ? MediaType.APPLICATION_PDF 
-                : MediaType.parseMediaType("application/vnd.openxmlformats-officedocument.wordprocessingml.document");
-
-        return ResponseEntity.ok()
-                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"")
-                .contentType(mediaType)
-                .body(content);
+        selection.chapters.sort((a, b) -> compareNaturally(a.getTitle(), b.getTitle()));
+        return selection;
     }
 
-    private int compareNaturally(String s1, String s2) {
+    public static int compareNaturally(String s1, String s2) {
         if (s1 == null || s2 == null) return 0;
         
         java.util.regex.Pattern pattern = java.util.regex.Pattern.compile("(\\d+)|(\\D+)");
@@ -99,4 +192,9 @@ public class ExportController {
         
         return s1.length() - s2.length();
     }
+
+    private static class Selection {
+        private String title = "Export";
+        private final List<Chapter> chapters = new ArrayList<>();
+    }
 }
@@ -0,0 +1,86 @@
+package online.hatsune_miku.bookwiki.export;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A PDF or DOCX export running in the background. Serialized as the job status returned to the client.
+ */
+@Getter
+public class ExportJob {
+
+    public enum Status { QUEUED, RUNNING, DONE, FAILED }
+
+    private final String id = UUID.randomUUID().toString();
+    private final String format;
+    private final String filename;
+    private final int chaptersTotal;
+    private final LocalDateTime createdAt = LocalDateTime.now();
+
+    private volatile Status status = Status.QUEUED;
+    private volatile String error;
+    // True if the document was served from the export cache without being generated
+    private volatile boolean cached;
+    private volatile LocalDateTime finishedAt;
+
+    @JsonIgnore
+    private final String cacheKey;
+    @JsonIgnore
+    private volatile Path file;
+
+    @Getter(AccessLevel.NONE)
+    private final AtomicInteger chaptersDone = new AtomicInteger();
+    @Getter(AccessLevel.NONE)
+    private final AtomicInteger imagesDone = new AtomicInteger();
+
+    ExportJob(String format, String filename, int chaptersTotal, String cacheKey) {
+        this.format = format;
+        this.filename = filename;
+        this.chaptersTotal = chaptersTotal;
+        this.cacheKey = cacheKey;
+    }
+
+    public int getChaptersDone() {
+        return chaptersDone.get();
+    }
+
+    public int getImagesDone() {
+        return imagesDone.get();
+    }
+
+    @JsonIgnore
+    public boolean isFinished() {
+        return status == Status.DONE || status == Status.FAILED;
+    }
+
+    void chapterDone(int images) {
+        chaptersDone.incrementAndGet();
+        imagesDone.addAndGet(images);
+    }
+
+    void started() {
+        status = Status.RUNNING;
+    }
+
+    void completed(Path file, boolean cached) {
+        this.file = file;
+        this.cached = cached;
+        if (cached) {
+            chaptersDone.set(chaptersTotal);
+        }
+        finishedAt = LocalDateTime.now();
+        status = Status.DONE;
+    }
+
+    void failed(String error) {
+        this.error = error;
+        finishedAt = LocalDateTime.now();
+        status = Status.FAILED;
+    }
+}
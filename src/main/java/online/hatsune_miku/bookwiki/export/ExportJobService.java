@@ -0,0 +1,214 @@
+package online.hatsune_miku.bookwiki.export;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import online.hatsune_miku.bookwiki.chapter.Chapter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs PDF and DOCX exports in the background, so a book-length export does not hold a request thread.
+ * Clients poll the job or subscribe to its progress events and download the document once it is done.
+ * Documents are cached on disk by their content, re-exporting an unchanged book returns the cached file.
+ */
+@Service
+@Slf4j
+public class ExportJobService {
+
+    // Finished jobs are forgotten after this, their documents stay in the cache. Until then the cache does not
+    // evict them, a job that says DONE can always be downloaded
+    private static final Duration JOB_RETENTION = Duration.ofHours(1);
+
+    private final List<ExportService> exportServices;
+    private final ExportCache cache;
+    private final ThreadPoolExecutor executor;
+
+    private final Map<String, ExportJob> jobs = new ConcurrentHashMap<>();
+    private final Map<String, List<SseEmitter>> subscribers = new ConcurrentHashMap<>();
+
+    public ExportJobService(List<ExportService> exportServices,
+                            ExportCache cache,
+                            @Value("${bookwiki.export.threads:2}") int threads,
+                            @Value("${bookwiki.export.queue-size:16}") int queueSize) {
+        this.exportServices = exportServices;
+        this.cache = cache;
+        // Bounded: an export holds a whole book in memory, more than a few at a time only compete for it
+        this.executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueSize),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "export-jobs");
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Queues an export of the given chapters. Throws a {@link java.util.concurrent.RejectedExecutionException}
+     * if the queue is full.
+     */
+    public ExportJob submit(String format, String title, List<Chapter> chapters) {
+        return submit(format, title, chapters, ExportOptions.DEFAULT);
+    }
+
+    public ExportJob submit(String format, String title, List<Chapter> chapters, ExportOptions options) {
+        ExportService service = exportServices.stream()
+                .filter(s -> s.getFormat().equalsIgnoreCase(format))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("Unknown format: " + format));
+        removeExpiredJobs();
+
+        String filename = title.replaceAll("[^a-zA-Z0-9.-]", "_") + "." + service.getFormat();
+        ExportJob job = new ExportJob(service.getFormat(), filename, chapters.size(), cacheKey(service.getFormat(), title, chapters, options));
+
+        // Pinned before the lookup, so that a concurrent export cannot evict the cached document in between
+        cache.pin(job.getCacheKey());
+        Path cached = cache.get(job.getCacheKey());
+        if (cached != null) {
+            job.completed(cached, true);
+            jobs.put(job.getId(), job);
+            return job;
+        }
+
+        jobs.put(job.getId(), job);
+        try {
+            executor.execute(() -> run(job, service, title, chapters, options));
+        } catch (RuntimeException e) {
+            jobs.remove(job.getId());
+            cache.unpin(job.getCacheKey());
+            throw e;
+        }
+        return job;
+    }
+
+    public Optional<ExportJob> getJob(String id) {
+        return Optional.ofNullable(jobs.get(id));
+    }
+
+    /**
+     * Streams "progress" events with the job status until the job is finished.
+     */
+    public SseEmitter subscribe(ExportJob job) {
+        SseEmitter emitter = new SseEmitter();
+        List<SseEmitter> emitters = subscribers.computeIfAbsent(job.getId(), _ -> new CopyOnWriteArrayList<>());
+        emitters.add(emitter);
+        emitter.onCompletion(() -> emitters.remove(emitter));
+        emitter.onTimeout(() -> emitters.remove(emitter));
+        emitter.onError(_ -> emitters.remove(emitter));
+        // The job may have finished before the subscription was registered
+        publish(job);
+        return emitter;
+    }
+
+    private void run(ExportJob job, ExportService service, String title, List<Chapter> chapters, ExportOptions options) {
+        job.started();
+        publish(job);
+        Path temp = null;
+        try {
+            temp = cache.createTempFile();
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp))) {
+                service.export(title, chapters, out, options, images -> {
+                    job.chapterDone(images);
+                    publish(job);
+                });
+            }
+            job.completed(cache.put(job.getCacheKey(), temp), false);
+        } catch (Exception e) {
+            log.error("Export {} failed", job.getId(), e);
+            job.failed(e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName());
+            deleteQuietly(temp);
+        }
+        publish(job);
+    }
+
+    private void publish(ExportJob job) {
+        List<SseEmitter> emitters = subscribers.get(job.getId());
+        if (emitters == null) return;
+        for (SseEmitter emitter : emitters) {
+            try {
+                emitter.send(SseEmitter.event().name("progress").data(job));
+                if (job.isFinished()) {
+                    emitter.complete();
+                }
+            } catch (IOException | IllegalStateException e) {
+                // Client went away
+                emitters.remove(emitter);
+            }
+        }
+        if (job.isFinished() && emitters.isEmpty()) {
+            subscribers.remove(job.getId(), emitters);
+        }
+    }
+
+    private void removeExpiredJobs() {
+        LocalDateTime cutoff = LocalDateTime.now().minus(JOB_RETENTION);
+        jobs.values().removeIf(job -> {
+            if (!job.isFinished() || !job.getFinishedAt().isBefore(cutoff)) return false;
+            cache.unpin(job.getCacheKey());
+            return true;
+        });
+    }
+
+    // The same chapters in the same state give the same document. The story's updatedAt changes with every
+    // edit in the story (see StoryChangeTracker), which covers renamed characters that chapters mention.
+    static String cacheKey(String format, String title, List<Chapter> chapters, ExportOptions options) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            update(digest, format);
+            update(digest, title);
+            update(digest, "dpi=" + options.getTargetDpi());
+            for (Chapter chapter : chapters) {
+                update(digest, String.valueOf(chapter.getId()));
+                update(digest, chapter.getTitle());
+                update(digest, chapter.getContent());
+                update(digest, chapter.getStory() != null ? chapter.getStory().getId() + "@" + chapter.getStory().getUpdatedAt() : null);
+            }
+            return HexFormat.of().formatHex(digest.digest()) + "." + format;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        if (value != null) {
+            digest.update(value.getBytes(StandardCharsets.UTF_8));
+        }
+        // Separator, so that moving text between fields changes the key
+        digest.update((byte) 0);
+    }
+
+    private void deleteQuietly(Path file) {
+        if (file == null) return;
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.debug("Could not delete {}: {}", file, e.getMessage());
+        }
+    }
+}
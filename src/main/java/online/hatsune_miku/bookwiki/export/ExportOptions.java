@@ -0,0 +1,19 @@
+package online.hatsune_miku.bookwiki.export;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Settings of a document export that change the generated file.
+ */
+@Getter
+@Builder
+@ToString
+public class ExportOptions {
+
+    public static final ExportOptions DEFAULT = ExportOptions.builder().build();
+
+    // Images are resampled to this resolution at their printed size, 0 embeds the uploaded originals
+    private final int targetDpi;
+}
@@ -0,0 +1,16 @@
+package online.hatsune_miku.bookwiki.export;
+
+/**
+ * Receives progress from an {@link ExportService} while a document is generated.
+ */
+@FunctionalInterface
+public interface ExportProgress {
+
+    ExportProgress NONE = _ -> {
+    };
+
+    /**
+     * Called after a chapter has been written, with the number of images it contained.
+     */
+    void chapterDone(int images);
+}
@@ -7,4 +7,6 @@ import java.util.List;
 public class ExportRequest {
     private Long storyId;
     private List<Long> chapterIds;
+    // Print resolution for embedded images, e.g. 150 or 300. Empty keeps the uploaded originals.
+    private Integer dpi;
 }
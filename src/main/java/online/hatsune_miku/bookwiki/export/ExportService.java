@@ -1,10 +1,31 @@
 package online.hatsune_miku.bookwiki.export;
 
 import online.hatsune_miku.bookwiki.chapter.Chapter;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.List;
 
 public interface ExportService {
-    byte[] export(String title, List<Chapter> chapters) throws IOException;
+
+    /**
+     * Writes the document into the given stream as it is generated. The stream is not closed.
+     */
+    void export(String title, List<Chapter> chapters, OutputStream out, ExportOptions options, ExportProgress progress) throws IOException;
+
+    default void export(String title, List<Chapter> chapters, OutputStream out, ExportProgress progress) throws IOException {
+        export(title, chapters, out, ExportOptions.DEFAULT, progress);
+    }
+
+    default void export(String title, List<Chapter> chapters, OutputStream out) throws IOException {
+        export(title, chapters, out, ExportProgress.NONE);
+    }
+
+    default byte[] export(String title, List<Chapter> chapters) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        export(title, chapters, out);
+        return out.toByteArray();
+    }
+
     String getFormat();
 }
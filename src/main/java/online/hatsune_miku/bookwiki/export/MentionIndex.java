@@ -0,0 +1,26 @@
+package online.hatsune_miku.bookwiki.export;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Names of the entities mentioned in the content of one export, loaded up front by
+ * {@link ShortcodeResolver#index(java.util.Collection)}.
+ */
+public class MentionIndex {
+
+    // Shortcode type (lower case) -> (id -> name)
+    private final Map<String, Map<Long, String>> names = new HashMap<>();
+
+    void put(String type, Long id, String name) {
+        names.computeIfAbsent(type, _ -> new HashMap<>()).put(id, name);
+    }
+
+    /**
+     * Returns the name, or null if the entity does not exist (anymore).
+     */
+    public String getName(String type, Long id) {
+        Map<Long, String> typeNames = names.get(type);
+        return typeNames != null ? typeNames.get(id) : null;
+    }
+}
@@ -11,19 +11,19 @@ import com.lowagie.text.pdf.PdfWriter;
 import com.lowagie.text.pdf.PdfPTable;
 import com.lowagie.text.pdf.PdfPCell;
 import online.hatsune_miku.bookwiki.chapter.Chapter;
-import org.jsoup.Jsoup;
 import org.jsoup.nodes.Node;
 import org.jsoup.nodes.TextNode;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Base64;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 @Service
 public class PdfExportService implements ExportService {
@@ -32,60 +32,64 @@ public class PdfExportService implements ExportService {
     private ShortcodeResolver shortcodeResolver;
 
     @Autowired
-    private online.hatsune_miku.bookwiki.media.MediaService mediaService;
+    private ChapterPreparer chapterPreparer;
 
     @Override
     @org.springframework.transaction.annotation.Transactional(readOnly = true)
-    public byte[] export(String title, List<Chapter> chapters) throws IOException {
-        try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
-            Document document = new Document();
-            PdfWriter.getInstance(document, out);
-            document.setMargins(72, 72, 72, 72); // 1 inch margins
-            document.open();
-
-            // Story Title
-            Font titleFont = FontFactory.getFont(FontFactory.HELVETICA_BOLD, 24);
-            Paragraph titlePara = new Paragraph(title, titleFont);
-            titlePara.setAlignment(Element.ALIGN_CENTER);
-            titlePara.setSpacingAfter(24f);
-            document.add(titlePara);
-
-            boolean firstChapter = true;
-            for (Chapter chapter : chapters) {
-                if (!firstChapter) {
-                    document.newPage();
-                }
-                
-                Font chapterFont = FontFactory.getFont(FontFactory.HELVETICA_BOLD, 18);
-                Paragraph chapterPara = new Paragraph(chapter.getTitle(), chapterFont);
-                chapterPara.setAlignment(Element.ALIGN_CENTER);
-                chapterPara.setSpacingAfter(18f);
-                document.add(chapterPara);
+    public void export(String title, List<Chapter> chapters, OutputStream out, ExportOptions options, ExportProgress progress) throws IOException {
+        Document document = new Document();
+        PdfWriter writer = PdfWriter.getInstance(document, out);
+        // Pages are written to the stream as they are completed, closing it is up to the caller
+        writer.setCloseStream(false);
+        document.setMargins(72, 72, 72, 72); // 1 inch margins
+        document.open();
 
-                String resolvedContent = shortcodeResolver.resolve(chapter.getContent());
-                
-                // Split by manual pagebreaks
-                String[] segments = resolvedContent.split("#\\{pagebreak\\}");
-                for (int i = 0; i < segments.length; i++) {
-                    addHtmlToPdf(document, segments[i]);
-                    if (i < segments.length - 1) {
-                        document.newPage();
-                    }
+        // Story Title
+        Font titleFont = FontFactory.getFont(FontFactory.HELVETICA_BOLD, 24);
+        Paragraph titlePara = new Paragraph(title, titleFont);
+        titlePara.setAlignment(Element.ALIGN_CENTER);
+        titlePara.setSpacingAfter(24f);
+        document.add(titlePara);
+
+        // Names of all mentioned entities, loaded once for the whole export
+        MentionIndex mentions = shortcodeResolver.index(chapters.stream().map(Chapter::getContent).toList());
+
+        PdfImages images = new PdfImages();
+        float printableWidth = document.getPageSize().getWidth() - document.leftMargin() - document.rightMargin();
+
+        // Chapters are resolved, parsed and their images loaded in parallel, the document is written in order
+        chapterPreparer.forEach(chapters, mentions, options, printableWidth, chapter -> {
+            if (chapter.getIndex() > 0) {
+                document.newPage();
+            }
+            
+            Font chapterFont = FontFactory.getFont(FontFactory.HELVETICA_BOLD, 18);
+            Paragraph chapterPara = new Paragraph(chapter.getTitle(), chapterFont);
+            chapterPara.setAlignment(Element.ALIGN_CENTER);
+            chapterPara.setSpacingAfter(18f);
+            document.add(chapterPara);
+
+            // One segment per manual pagebreak
+            List<org.jsoup.nodes.Document> segments = chapter.getSegments();
+            images.setChapterImages(chapter.getImages());
+            for (int i = 0; i < segments.size(); i++) {
+                addHtmlToPdf(document, segments.get(i), images);
+                if (i < segments.size() - 1) {
+                    document.newPage();
                 }
-                firstChapter = false;
             }
+            progress.chapterDone(chapter.getImageCount());
+        });
 
-            document.close();
-            return out.toByteArray();
-        }
+        document.close();
+        out.flush();
     }
 
-    private void addHtmlToPdf(Document document, String html) {
-        org.jsoup.nodes.Document doc = Jsoup.parseBodyFragment(html);
+    private void addHtmlToPdf(Document document, org.jsoup.nodes.Document doc, PdfImages images) {
         Paragraph currentPara = createStandardParagraph();
         
         for (Node node : doc.body().childNodes()) {
-            processNode(document, currentPara, node, false, false, false);
+            processNode(document, currentPara, node, false, false, false, images);
         }
         
         if (!currentPara.isEmpty()) {
@@ -93,7 +97,7 @@ public class PdfExportService implements ExportService {
         }
     }
 
-    private void processNode(Document document, Paragraph paragraph, Node node, boolean bold, boolean italic, boolean underline) {
+    private void processNode(Document document, Paragraph paragraph, Node node, boolean bold, boolean italic, boolean underline, PdfImages images) {
         if (node instanceof TextNode textNode) {
             String text = textNode.text();
             if (!text.isEmpty()) {
@@ -114,7 +118,7 @@ public class PdfExportService implements ExportService {
                     document.add(paragraph);
                     paragraph.clear();
                 }
-                handleImage(document, element);
+                handleImage(document, element, images);
             } else if (tag.equals("br")) {
                 paragraph.add(Chunk.NEWLINE);
             } else {
@@ -129,7 +133,7 @@ public class PdfExportService implements ExportService {
                 boolean nextUnderline = underline || tag.equals("u");
                 
                 for (Node child : element.childNodes()) {
-                    processNode(document, paragraph, child, nextBold, nextItalic, nextUnderline);
+                    processNode(document, paragraph, child, nextBold, nextItalic, nextUnderline, images);
                 }
                 
                 if (isBlock && !paragraph.isEmpty()) {
@@ -151,38 +155,22 @@ public class PdfExportService implements ExportService {
         return paragraph;
     }
 
-    private void handleImage(Document document, org.jsoup.nodes.Element imgElement) {
-        String src = imgElement.attr("src");
-        if (src == null || src.isEmpty()) return;
+    private void handleImage(Document document, org.jsoup.nodes.Element imgElement, PdfImages images) {
+        // Loaded by the ChapterPreparer, images that could not be loaded are left out
+        PreparedImage prepared = images.getPrepared(imgElement.attr("src"));
+        if (prepared == null) return;
 
         try {
-            Image img;
-            if (src.startsWith("data:image/")) {
-                String base64Data = src.substring(src.indexOf(",") + 1);
-                byte[] decodedData = Base64.getDecoder().decode(base64Data);
-                img = Image.getInstance(decodedData);
-            } else if (src.contains("/api/media/")) {
-                String idStr = src.substring(src.lastIndexOf('/') + 1);
-                try {
-                    java.util.UUID uuid = java.util.UUID.fromString(idStr);
-                    byte[] data = mediaService.getMedia(uuid).getData().getBinaryStream().readAllBytes();
-                    img = Image.getInstance(data);
-                } catch (Exception e) {
-                    System.err.println("Failed to load media for PDF: " + e.getMessage());
-                    return;
-                }
-            } else {
-                return;
-            }
+            Image img = images.getImage(prepared);
 
             if (img != null) {
                 // Determine max available width and height
                 float pageWidth = document.getPageSize().getWidth() - document.leftMargin() - document.rightMargin();
                 float pageHeight = document.getPageSize().getHeight() - document.topMargin() - document.bottomMargin() - 40;
                 
-                // Scale native pixels to points
-                float width = img.getWidth() * 0.75f;
-                float height = img.getHeight() * 0.75f;
+                // Scale native pixels to points. Resampled images keep the size of their original.
+                float width = (prepared.hasSize() ? prepared.getWidth() : img.getWidth()) * 0.75f;
+                float height = (prepared.hasSize() ? prepared.getHeight() : img.getHeight()) * 0.75f;
 
                 // Get attributes from HTML tag if available
                 String attrWidth = imgElement.attr("width");
@@ -248,4 +236,43 @@ public class PdfExportService implements ExportService {
     public String getFormat() {
         return "pdf";
     }
+
+    /**
+     * Images of the chapter being written. Small images are decoded once per export and then copied, the copies
+     * share the original's serial id, so the writer embeds an emote used hundreds of times as one image object.
+     */
+    private static class PdfImages {
+        private static final int MAX_TEMPLATE_BYTES = 256 * 1024;
+        private static final int MAX_TEMPLATES = 256;
+
+        // Keyed by the image the ChapterPreparer shares across chapters, which also tells apart copies of one src
+        // resampled to different sizes
+        private final Map<PreparedImage, Image> templates = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<PreparedImage, Image> eldest) {
+                return size() > MAX_TEMPLATES;
+            }
+        };
+        private Map<String, PreparedImage> chapterImages = Map.of();
+
+        void setChapterImages(Map<String, PreparedImage> chapterImages) {
+            this.chapterImages = chapterImages;
+        }
+
+        PreparedImage getPrepared(String src) {
+            return chapterImages.get(src);
+        }
+
+        Image getImage(PreparedImage prepared) throws Exception {
+            if (prepared.getData().length > MAX_TEMPLATE_BYTES) {
+                return Image.getInstance(prepared.getData());
+            }
+            Image template = templates.get(prepared);
+            if (template == null) {
+                template = Image.getInstance(prepared.getData());
+                templates.put(prepared, template);
+            }
+            return Image.getInstance(template);
+        }
+    }
 }
@@ -0,0 +1,25 @@
+package online.hatsune_miku.bookwiki.export;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.jsoup.nodes.Document;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A chapter with its shortcodes resolved, its content parsed (one document per page break segment) and its
+ * images loaded, ready to be written by an export service.
+ */
+@Getter
+@AllArgsConstructor
+public class PreparedChapter {
+
+    // Position in the export, 0 for the first chapter
+    private final int index;
+    private final String title;
+    private final List<Document> segments;
+    // By img src
+    private final Map<String, PreparedImage> images;
+    private final int imageCount;
+}
@@ -0,0 +1,30 @@
+package online.hatsune_miku.bookwiki.export;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import online.hatsune_miku.bookwiki.media.ImageProbe;
+
+/**
+ * Image of a {@link PreparedChapter}, fetched and measured ahead of the document writer.
+ */
+@Getter
+@AllArgsConstructor
+public class PreparedImage {
+
+    private final byte[] data;
+    // Null for data: URIs without a known type
+    private final String contentType;
+    private final String filename;
+    // ImageIO format name and size in pixels, null and -1 if no ImageIO reader understands the format
+    private final String format;
+    private final int width;
+    private final int height;
+
+    public PreparedImage(byte[] data, String contentType, String filename, ImageProbe.Info info) {
+        this(data, contentType, filename, info.getFormat(), info.getWidth(), info.getHeight());
+    }
+
+    public boolean hasSize() {
+        return width > 0 && height > 0;
+    }
+}
@@ -1,34 +1,90 @@
 package online.hatsune_miku.bookwiki.export;
 
-import online.hatsune_miku.bookwiki.character.CharacterService;
-import online.hatsune_miku.bookwiki.item.ItemService;
-import online.hatsune_miku.bookwiki.location.LocationService;
-import online.hatsune_miku.bookwiki.lore.LoreService;
-import online.hatsune_miku.bookwiki.species.SpeciesService;
+import jakarta.persistence.EntityManager;
+import online.hatsune_miku.bookwiki.character.Character;
+import online.hatsune_miku.bookwiki.item.Item;
+import online.hatsune_miku.bookwiki.location.Location;
+import online.hatsune_miku.bookwiki.lore.Lore;
+import online.hatsune_miku.bookwiki.shortcode.Shortcodes;
+import online.hatsune_miku.bookwiki.species.Species;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.*;
 
+/**
+ * Turns shortcodes into what an export shows: media shortcodes become image URLs, mentions become the name
+ * of the mentioned entity. Resolving is split in two phases so an export costs one query per entity type
+ * instead of one per mention: {@link #index} loads the names for all content up front, {@link #resolve}
+ * only substitutes. Nothing here writes to the database.
+ */
 @Component
 public class ShortcodeResolver {
 
-    private final CharacterService characterService;
-    private final ItemService itemService;
-    private final LocationService locationService;
-    private final LoreService loreService;
-    private final SpeciesService speciesService;
+    // Shortcode type -> entity holding the name
+    private static final Map<String, Class<?>> MENTION_TYPES = new LinkedHashMap<>();
+    private static final int QUERY_CHUNK = 1000;
 
-    public ShortcodeResolver(CharacterService characterService, ItemService itemService, LocationService locationService, LoreService loreService, SpeciesService speciesService) {
-        this.characterService = characterService;
-        this.itemService = itemService;
-        this.locationService = locationService;
-        this.loreService = loreService;
-        this.speciesService = speciesService;
+    static {
+        MENTION_TYPES.put("character", Character.class);
+        MENTION_TYPES.put("item", Item.class);
+        MENTION_TYPES.put("location", Location.class);
+        MENTION_TYPES.put("lore", Lore.class);
+        MENTION_TYPES.put("species", Species.class);
     }
 
+    private final EntityManager entityManager;
+
+    public ShortcodeResolver(EntityManager entityManager) {
+        this.entityManager = entityManager;
+    }
+
+    /**
+     * Collects every mention in the given content and loads the names of the mentioned entities, one query
+     * per type. Only ids and names are selected, no entity is loaded into the persistence context.
+     */
+    @Transactional(readOnly = true)
+    public MentionIndex index(Collection<String> contents) {
+        Map<String, Set<Long>> ids = new HashMap<>();
+        for (String content : contents) {
+            Shortcodes.scan(content, shortcode -> {
+                for (String type : MENTION_TYPES.keySet()) {
+                    if (shortcode.isType(type)) {
+                        Long id = shortcode.getLongId();
+                        if (id != null) ids.computeIfAbsent(type, _ -> new HashSet<>()).add(id);
+                        return;
+                    }
+                }
+            });
+        }
+
+        MentionIndex index = new MentionIndex();
+        ids.forEach((type, typeIds) -> loadNames(type, MENTION_TYPES.get(type), new ArrayList<>(typeIds), index));
+        return index;
+    }
+
+    private void loadNames(String type, Class<?> entity, List<Long> ids, MentionIndex index) {
+        for (int from = 0; from < ids.size(); from += QUERY_CHUNK) {
+            List<Long> chunk = ids.subList(from, Math.min(ids.size(), from + QUERY_CHUNK));
+            entityManager.createQuery("SELECT e.id, e.name FROM " + entity.getName() + " e WHERE e.id IN :ids", Object[].class)
+                    .setParameter("ids", chunk)
+                    .getResultList()
+                    .forEach(row -> index.put(type, (Long) row[0], (String) row[1]));
+        }
+    }
+
+    /**
+     * Resolves a single piece of content. Exports of more than one chapter should build one index with
+     * {@link #index} and use {@link #resolve(String, MentionIndex)}.
+     */
+    @Transactional(readOnly = true)
     public String resolve(String content) {
         if (content == null || content.isEmpty()) return "";
+        return resolve(content, index(List.of(content)));
+    }
+
+    public String resolve(String content, MentionIndex mentions) {
+        if (content == null || content.isEmpty()) return "";
         
         org.jsoup.nodes.Document doc = org.jsoup.Jsoup.parseBodyFragment(content);
         
@@ -43,43 +99,26 @@ public class ShortcodeResolver {
         }
 
         // 2. Resolve other shortcodes (mentions) in text nodes
-        // We use a regex for this as it's simpler for text-wide replacement
         String processedHtml = doc.body().html();
-        Pattern pattern = Pattern.compile("#\\{(\\w+):([\\w\\-]+)\\}");
-        Matcher matcher = pattern.matcher(processedHtml);
-        StringBuilder sb = new StringBuilder();
-        while (matcher.find()) {
-            String type = matcher.group(1);
-            String idStr = matcher.group(2);
-            
-            String replacement;
+        return Shortcodes.rewrite(processedHtml, shortcode -> {
             // Skip image/emote as they should be in <img> tags now
-            if (type.equalsIgnoreCase("image") || type.equalsIgnoreCase("emote")) {
+            if (shortcode.isType("image")) {
                 // If it's a raw shortcode not in an <img> tag, we can still resolve it to one
-                if (type.equalsIgnoreCase("image")) {
-                    replacement = String.format("<img src=\"/api/media/%s\" alt=\"Media\" style=\"max-width: 100%%; height: auto;\" />", idStr);
-                } else {
-                    replacement = String.format("<img src=\"/api/media/%s\" class=\"inline-image-emote\" style=\"height: 1.5em; vertical-align: middle;\" />", idStr);
-                }
-            } else {
-                try {
-                    Long id = Long.parseLong(idStr);
-                    replacement = switch (type.toLowerCase()) {
-                        case "character" -> characterService.getCharacterById(id).map(c -> c.getName()).orElse("Unknown Character");
-                        case "item" -> itemService.getItemById(id).map(i -> i.getName()).orElse("Unknown Item");
-                        case "location" -> locationService.getLocationById(id).map(l -> l.getName()).orElse("Unknown Location");
-                        case "lore" -> loreService.getLoreById(id).map(l -> l.getName()).orElse("Unknown Lore");
-                        case "species" -> speciesService.getSpeciesById(id).map(s -> s.getName()).orElse("Unknown Species");
-                        default -> matcher.group(0); // Keep as is if unknown type
-                    };
-                } catch (NumberFormatException e) {
-                    replacement = matcher.group(0); // Not a long id, skip
-                }
+                return String.format("<img src=\"/api/media/%s\" alt=\"Media\" style=\"max-width: 100%%; height: auto;\" />", shortcode.getId());
             }
-            matcher.appendReplacement(sb, Matcher.quoteReplacement(replacement));
-        }
-        matcher.appendTail(sb);
-        
-        return sb.toString();
+            if (shortcode.isType("emote")) {
+                return String.format("<img src=\"/api/media/%s\" class=\"inline-image-emote\" style=\"height: 1.5em; vertical-align: middle;\" />", shortcode.getId());
+            }
+            Long id = shortcode.getLongId();
+            if (id == null) return null; // Not a long id, skip
+            String type = shortcode.getType().toLowerCase();
+            if (!MENTION_TYPES.containsKey(type)) return null; // Keep as is if unknown type
+            String name = mentions.getName(type, id);
+            return name != null ? name : "Unknown " + unknownLabel(type);
+        });
+    }
+
+    private String unknownLabel(String type) {
+        return java.lang.Character.toUpperCase(type.charAt(0)) + type.substring(1);
     }
 }
@@ -0,0 +1,21 @@
+package online.hatsune_miku.bookwiki.export;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.Builder;
+import lombok.Data;
+
+import java.nio.file.Path;
+
+/**
+ * Outcome of an incremental static-site build, see {@link SiteExportService}.
+ */
+@Data
+@Builder
+public class SiteBuild {
+    @JsonIgnore
+    private Path directory;
+    private int pagesRendered;
+    private int pagesUnchanged;
+    private int pagesRemoved;
+    private int assetsWritten;
+}
@@ -0,0 +1,686 @@
+package online.hatsune_miku.bookwiki.export;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import online.hatsune_miku.bookwiki.chapter.Chapter;
+import online.hatsune_miku.bookwiki.chapter.ChapterRepository;
+import online.hatsune_miku.bookwiki.character.Character;
+import online.hatsune_miku.bookwiki.character.CharacterRepository;
+import online.hatsune_miku.bookwiki.character.CharacterSection;
+import online.hatsune_miku.bookwiki.config.PathProvider;
+import online.hatsune_miku.bookwiki.item.Item;
+import online.hatsune_miku.bookwiki.item.ItemRepository;
+import online.hatsune_miku.bookwiki.item.ItemSection;
+import online.hatsune_miku.bookwiki.location.Location;
+import online.hatsune_miku.bookwiki.location.LocationRepository;
+import online.hatsune_miku.bookwiki.location.LocationSection;
+import online.hatsune_miku.bookwiki.lore.Lore;
+import online.hatsune_miku.bookwiki.lore.LoreRepository;
+import online.hatsune_miku.bookwiki.lore.LoreSection;
+import online.hatsune_miku.bookwiki.media.Media;
+import online.hatsune_miku.bookwiki.media.MediaRepository;
+import online.hatsune_miku.bookwiki.media.MediaService;
+import online.hatsune_miku.bookwiki.shortcode.Shortcodes;
+import online.hatsune_miku.bookwiki.species.Species;
+import online.hatsune_miku.bookwiki.species.SpeciesAncestryService;
+import online.hatsune_miku.bookwiki.species.SpeciesSection;
+import online.hatsune_miku.bookwiki.story.Story;
+import online.hatsune_miku.bookwiki.story.StoryRepository;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Renders a whole story into a static wiki: an index, one page per chapter and one per character, location,
+ * item, lore entry and species. Mentions become links between the pages and every entity page lists the
+ * pages that mention it. Media is copied once into {@code assets/}, named by its content hash.
+ * <p>
+ * Builds are incremental. Each page has a fingerprint of everything it shows: its own fields, the names of
+ * the pages it links to, the pages that mention it and the media it embeds. The fingerprints of the last
+ * build are kept in {@code build-manifest.json} next to the pages, and only pages whose fingerprint changed
+ * are rendered again.
+ */
+@Service
+@Slf4j
+public class SiteExportService {
+
+    static final String MANIFEST = "build-manifest.json";
+    // Bump when the page templates change, so the next build renders every page again
+    private static final int TEMPLATE_VERSION = 1;
+
+    private static final Pattern MEDIA_URL = Pattern.compile("/api/media/([0-9a-fA-F-]{36})");
+    private static final String[] MENTION_TYPES = {"character", "location", "item", "lore", "species"};
+
+    private static final String STYLESHEET = """
+            body { font-family: Georgia, serif; max-width: 48em; margin: 0 auto; padding: 1em; line-height: 1.6; color: #222; }
+            header { font-size: 0.9em; border-bottom: 1px solid #ccc; margin-bottom: 1em; }
+            img { max-width: 100%; height: auto; }
+            img.picture { float: right; max-width: 16em; margin: 0 0 1em 1em; }
+            img.inline-image-emote { height: 1.5em; vertical-align: middle; }
+            dl.facts { display: grid; grid-template-columns: max-content auto; gap: 0.25em 1em; }
+            dl.facts dt { font-weight: bold; }
+            a.mention { text-decoration: none; border-bottom: 1px dotted; }
+            nav.chapters { display: flex; justify-content: space-between; margin-top: 2em; }
+            .pagebreak { border: 0; border-top: 1px dashed #ccc; margin: 2em 0; }
+            """;
+
+    private final StoryRepository storyRepository;
+    private final ChapterRepository chapterRepository;
+    private final CharacterRepository characterRepository;
+    private final LocationRepository locationRepository;
+    private final ItemRepository itemRepository;
+    private final LoreRepository loreRepository;
+    private final SpeciesAncestryService speciesAncestryService;
+    private final MediaRepository mediaRepository;
+    private final MediaService mediaService;
+    private final ObjectMapper objectMapper;
+    private final Path root;
+
+    private final Map<Long, Object> buildLocks = new ConcurrentHashMap<>();
+
+    public SiteExportService(StoryRepository storyRepository,
+                             ChapterRepository chapterRepository,
+                             CharacterRepository characterRepository,
+                             LocationRepository locationRepository,
+                             ItemRepository itemRepository,
+                             LoreRepository loreRepository,
+                             SpeciesAncestryService speciesAncestryService,
+                             MediaRepository mediaRepository,
+                             MediaService mediaService,
+                             ObjectMapper objectMapper,
+                             PathProvider pathProvider,
+                             @Value("${bookwiki.export.site-path:}") String configuredPath) {
+        this.storyRepository = storyRepository;
+        this.chapterRepository = chapterRepository;
+        this.characterRepository = characterRepository;
+        this.locationRepository = locationRepository;
+        this.itemRepository = itemRepository;
+        this.loreRepository = loreRepository;
+        this.speciesAncestryService = speciesAncestryService;
+        this.mediaRepository = mediaRepository;
+        this.mediaService = mediaService;
+        this.objectMapper = objectMapper;
+        if (configuredPath == null || configuredPath.isBlank()) {
+            this.root = pathProvider.getBaseDataPath().resolve("data").resolve("sites").toAbsolutePath().normalize();
+        } else {
+            this.root = Paths.get(configuredPath).toAbsolutePath().normalize();
+        }
+    }
+
+    /**
+     * Brings the site of the story up to date and returns what was done. Builds of the same story run one at
+     * a time.
+     */
+    @Transactional(readOnly = true)
+    public SiteBuild build(Long storyId) throws IOException {
+        Story story = storyRepository.findById(storyId)
+                .orElseThrow(() -> new RuntimeException("Story not found"));
+        synchronized (buildLocks.computeIfAbsent(storyId, _ -> new Object())) {
+            return build(story, root.resolve("story-" + storyId));
+        }
+    }
+
+    /**
+     * Writes the built site of the story as a zip, without the build manifest. The stream is not closed.
+     * Holds the story's build lock, so a concurrent build cannot change the files while they are read.
+     */
+    public void writeZip(Long storyId, OutputStream out) throws IOException {
+        synchronized (buildLocks.computeIfAbsent(storyId, _ -> new Object())) {
+            writeZip(root.resolve("story-" + storyId), out);
+        }
+    }
+
+    private void writeZip(Path directory, OutputStream out) throws IOException {
+        ZipOutputStream zip = new ZipOutputStream(out);
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.filter(Files::isRegularFile).sorted().toList()) {
+                String name = directory.relativize(file).toString().replace('\\', '/');
+                if (name.equals(MANIFEST)) continue;
+                zip.putNextEntry(new ZipEntry(name));
+                Files.copy(file, zip);
+                zip.closeEntry();
+            }
+        }
+        zip.finish();
+        out.flush();
+    }
+
+    private SiteBuild build(Story story, Path directory) throws IOException {
+        Files.createDirectories(directory);
+        Map<String, Page> pages = collectPages(story);
+
+        // Inbound mentions, so entity pages can list where they are mentioned
+        Map<String, List<Page>> mentionedIn = new HashMap<>();
+        for (Page page : pages.values()) {
+            for (String target : page.links) {
+                if (!target.equals(page.key) && pages.containsKey(target)) {
+                    mentionedIn.computeIfAbsent(target, _ -> new ArrayList<>()).add(page);
+                }
+            }
+        }
+        mentionedIn.values().forEach(sources -> sources.sort(Comparator.comparing(p -> p.path)));
+
+        Page index = indexPage(story, pages);
+        List<Page> all = new ArrayList<>(pages.values());
+        all.add(index);
+        Map<UUID, String> assets = resolveAssets(all);
+
+        SiteManifest previous = readManifest(directory);
+        SiteManifest manifest = new SiteManifest();
+        manifest.setVersion(TEMPLATE_VERSION);
+
+        int rendered = 0;
+        int unchanged = 0;
+        for (Page page : pages.values()) {
+            List<Page> inbound = mentionedIn.getOrDefault(page.key, List.of());
+            String fingerprint = fingerprint(story, page, pages, inbound, assets);
+            manifest.getPages().put(page.path, fingerprint);
+            Path file = directory.resolve(page.path);
+            if (fingerprint.equals(previous.getPages().get(page.path)) && Files.exists(file)) {
+                unchanged++;
+                continue;
+            }
+            write(file, renderPage(story, page, pages, inbound, assets));
+            rendered++;
+        }
+        String indexFingerprint = fingerprint(story, index, pages, List.of(), assets);
+        manifest.getPages().put(index.path, indexFingerprint);
+        if (!indexFingerprint.equals(previous.getPages().get(index.path)) || !Files.exists(directory.resolve(index.path))) {
+            write(directory.resolve(index.path), renderIndex(story, pages, assets));
+            rendered++;
+        } else {
+            unchanged++;
+        }
+        write(directory.resolve("style.css"), STYLESHEET);
+
+        int removed = 0;
+        for (String path : previous.getPages().keySet()) {
+            if (!manifest.getPages().containsKey(path) && Files.deleteIfExists(directory.resolve(path))) {
+                removed++;
+            }
+        }
+
+        int assetsWritten = 0;
+        for (Map.Entry<UUID, String> asset : assets.entrySet()) {
+            if (asset.getValue() == null) continue;
+            manifest.getAssets().put(asset.getValue(), asset.getKey().toString());
+            Path file = directory.resolve("assets").resolve(asset.getValue());
+            if (!Files.exists(file) && copyAsset(asset.getKey(), file)) {
+                assetsWritten++;
+            }
+        }
+        for (String name : previous.getAssets().keySet()) {
+            if (!manifest.getAssets().containsKey(name)) {
+                Files.deleteIfExists(directory.resolve("assets").resolve(name));
+            }
+        }
+
+        // Written last: if the build fails halfway, the next one compares against the previous manifest and
+        // renders the missing pages again
+        objectMapper.writeValue(directory.resolve(MANIFEST).toFile(), manifest);
+
+        return SiteBuild.builder()
+                .directory(directory)
+                .pagesRendered(rendered)
+                .pagesUnchanged(unchanged)
+                .pagesRemoved(removed)
+                .assetsWritten(assetsWritten)
+                .build();
+    }
+
+    private Map<String, Page> collectPages(Story story) {
+        Map<String, Page> pages = new LinkedHashMap<>();
+
+        List<Chapter> chapters = new ArrayList<>(chapterRepository.findByStoryId(story.getId()));
+        chapters.sort((a, b) -> ExportController.compareNaturally(a.getTitle(), b.getTitle()));
+        Page previousChapter = null;
+        for (Chapter chapter : chapters) {
+            Page page = new Page("chapter:" + chapter.getId(), "chapters/" + chapter.getId() + ".html", "Chapter", chapter.getTitle());
+            page.blocks.add(new String[]{null, chapter.getContent()});
+            if (previousChapter != null) {
+                page.previous = previousChapter;
+                previousChapter.next = page;
+            }
+            previousChapter = page;
+            add(pages, page);
+        }
+
+        for (Character character : characterRepository.findByStoryId(story.getId())) {
+            Page page = entityPage("character", "characters", "Character", character.getId(), character.getName(), character.getPictureUrl());
+            page.fact("Species", link("species", character.getSpeciesId()));
+            page.fact("Role", text(character.getRole()));
+            page.fact("Birthday", text(character.getBirthday()));
+            page.fact("Social status", text(character.getSocialStatus()));
+            if (character.getTraits() != null && !character.getTraits().isEmpty()) {
+                page.fact("Traits", text(String.join(", ", character.getTraits())));
+            }
+            page.block("Appearance", character.getAppearance());
+            page.block("Description", character.getDescription());
+            for (CharacterSection section : character.getCustomSections()) {
+                page.block(section.getTitle(), section.getContent());
+            }
+            add(pages, page);
+        }
+
+        for (Location location : locationRepository.findByStoryId(story.getId())) {
+            Page page = entityPage("location", "locations", "Location", location.getId(), location.getName(), location.getPictureUrl());
+            page.fact("Part of", link("location", location.getParentId()));
+            page.block("What it is", location.getDescription());
+            page.block("Where it is", location.getWhereItIs());
+            page.block("Important details", location.getDetails());
+            for (LocationSection section : location.getCustomSections()) {
+                page.block(section.getTitle(), section.getContent());
+            }
+            add(pages, page);
+        }
+
+        for (Item item : itemRepository.findByStoryId(story.getId())) {
+            Page page = entityPage("item", "items", "Item", item.getId(), item.getName(), item.getPictureUrl());
+            page.block("Description", item.getDescription());
+            for (ItemSection section : item.getCustomSections()) {
+                page.block(section.getTitle(), section.getContent());
+            }
+            add(pages, page);
+        }
+
+        for (Lore lore : loreRepository.findByStoryId(story.getId())) {
+            Page page = entityPage("lore", "lore", "Lore", lore.getId(), lore.getName(), lore.getPictureUrl());
+            if (lore.getCategories() != null && !lore.getCategories().isEmpty()) {
+                page.fact("Categories", text(String.join(", ", lore.getCategories())));
+            }
+            page.block("Description", lore.getDescription());
+            for (LoreSection section : lore.getCustomSections()) {
+                page.block(section.getTitle(), section.getContent());
+            }
+            add(pages, page);
+        }
+
+        for (Species species : speciesAncestryService.findByStoryWithInheritance(story.getId())) {
+            Page page = entityPage("species", "species", "Species", species.getId(), species.getName(), species.getPictureUrl());
+            page.fact("Category", species.getCategory() != null ? text(species.getCategory().name()) : null);
+            page.fact("Parent", link("species", species.getParentId()));
+            page.fact("Habitat", link("location", species.getHabitatId()));
+            page.fact("Lifespan", text(species.getLifespan()));
+            page.fact("Average size", text(species.getAverageSize()));
+            page.fact("Diet", text(species.getDiet()));
+            page.block("Description", species.getDescription());
+            for (SpeciesSection section : species.getCustomSections()) {
+                page.block(section.getTitle(), section.getContent());
+            }
+            add(pages, page);
+        }
+        return pages;
+    }
+
+    private Page entityPage(String type, String folder, String kind, Long id, String name, String pictureUrl) {
+        Page page = new Page(type + ":" + id, folder + "/" + id + ".html", kind, name);
+        if (pictureUrl != null && !pictureUrl.isBlank()) {
+            page.picture = pictureUrl;
+        }
+        return page;
+    }
+
+    private void add(Map<String, Page> pages, Page page) {
+        page.scanLinks();
+        pages.put(page.key, page);
+    }
+
+    // Facts and links are stored as raw content, so they are fingerprinted and rendered like any other text
+    private static String link(String type, Long id) {
+        return id != null ? "#{" + type + ":" + id + "}" : null;
+    }
+
+    private static String text(String value) {
+        return value != null && !value.isBlank() ? escape(value) : null;
+    }
+
+    private Map<UUID, String> resolveAssets(Collection<Page> pages) {
+        Set<UUID> ids = new HashSet<>();
+        for (Page page : pages) {
+            page.forEachContent(content -> collectMedia(content, ids));
+        }
+        // Media that is gone maps to null, its images are left out
+        Map<UUID, String> assets = new HashMap<>();
+        Map<UUID, Media> media = new HashMap<>();
+        mediaRepository.findAllById(ids).forEach(m -> media.put(m.getId(), m));
+        for (UUID id : ids) {
+            Media m = media.get(id);
+            assets.put(id, m != null ? assetName(m) : null);
+        }
+        return assets;
+    }
+
+    private static void collectMedia(String content, Collection<UUID> into) {
+        if (content == null) return;
+        Shortcodes.extractUuids(content, into, "image", "emote");
+        Matcher matcher = MEDIA_URL.matcher(content);
+        while (matcher.find()) {
+            try {
+                into.add(UUID.fromString(matcher.group(1)));
+            } catch (IllegalArgumentException e) {
+                // Not a media id
+            }
+        }
+    }
+
+    // Named by content, so the same file uploaded twice is stored once
+    private static String assetName(Media media) {
+        String base = media.getContentHash() != null ? media.getContentHash() : media.getId().toString();
+        String type = media.getContentType() != null ? media.getContentType().toLowerCase() : "";
+        String extension = switch (type) {
+            case "image/jpeg", "image/jpg" -> "jpg";
+            case "image/svg+xml" -> "svg";
+            default -> type.startsWith("image/") ? type.substring("image/".length()) : "bin";
+        };
+        return base + "." + extension;
+    }
+
+    private boolean copyAsset(UUID mediaId, Path target) {
+        try {
+            Files.createDirectories(target.getParent());
+            Path temp = Files.createTempFile(target.getParent(), "asset-", ".tmp");
+            try (InputStream is = mediaService.getMediaStream(mediaId)) {
+                Files.copy(is, temp, StandardCopyOption.REPLACE_EXISTING);
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                return true;
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (Exception e) {
+            log.warn("Failed to copy media {} into site", mediaId, e);
+            return false;
+        }
+    }
+
+    private String fingerprint(Story story, Page page, Map<String, Page> pages, List<Page> inbound, Map<UUID, String> assets) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            update(digest, String.valueOf(TEMPLATE_VERSION));
+            update(digest, story.getTitle());
+            update(digest, page.key);
+            update(digest, page.title);
+            update(digest, page.picture);
+            for (String[] fact : page.facts) {
+                update(digest, fact[0]);
+                update(digest, fact[1]);
+            }
+            for (String[] block : page.blocks) {
+                update(digest, block[0]);
+                update(digest, block[1]);
+            }
+            // Link texts are the names of the linked pages
+            for (String target : new TreeSet<>(page.links)) {
+                Page linked = pages.get(target);
+                update(digest, target + "=" + (linked != null ? linked.title : ""));
+            }
+            update(digest, page.previous != null ? page.previous.path + "=" + page.previous.title : null);
+            update(digest, page.next != null ? page.next.path + "=" + page.next.title : null);
+            for (Page source : inbound) {
+                update(digest, source.path + "=" + source.title);
+            }
+            Set<UUID> media = new TreeSet<>();
+            page.forEachContent(content -> collectMedia(content, media));
+            for (UUID id : media) {
+                update(digest, id + "=" + assets.get(id));
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        if (value != null) {
+            digest.update(value.getBytes(StandardCharsets.UTF_8));
+        }
+        digest.update((byte) 0);
+    }
+
+    private String renderPage(Story story, Page page, Map<String, Page> pages, List<Page> inbound, Map<UUID, String> assets) {
+        String base = "../";
+        StringBuilder body = new StringBuilder();
+        body.append("<h1>").append(escape(page.title)).append("</h1>\n");
+        if (page.picture != null) {
+            body.append(renderContent("<img class=\"picture\" src=\"" + escape(page.picture) + "\" alt=\"\">", base, pages, assets));
+        }
+        List<String[]> facts = page.facts.stream().filter(f -> f[1] != null).toList();
+        if (!facts.isEmpty()) {
+            body.append("<dl class=\"facts\">\n");
+            for (String[] fact : facts) {
+                body.append("<dt>").append(escape(fact[0])).append("</dt><dd>")
+                        .append(renderContent(fact[1], base, pages, assets)).append("</dd>\n");
+            }
+            body.append("</dl>\n");
+        }
+        for (String[] block : page.blocks) {
+            if (block[1] == null || block[1].isBlank()) continue;
+            if (block[0] != null) {
+                body.append("<h2>").append(escape(block[0])).append("</h2>\n");
+            }
+            body.append(renderContent(block[1], base, pages, assets)).append('\n');
+        }
+        if (page.previous != null || page.next != null) {
+            body.append("<nav class=\"chapters\">");
+            body.append(page.previous != null ? pageLink(page.previous, base, "&larr; ") : "<span></span>");
+            body.append(page.next != null ? pageLink(page.next, base, "") + " &rarr;" : "<span></span>");
+            body.append("</nav>\n");
+        }
+        if (!inbound.isEmpty()) {
+            body.append("<h2>Mentioned in</h2>\n<ul class=\"mentioned-in\">\n");
+            for (Page source : inbound) {
+                body.append("<li>").append(pageLink(source, base, "")).append("</li>\n");
+            }
+            body.append("</ul>\n");
+        }
+        return document(story, page.title, page.kind, base, body.toString());
+    }
+
+    private Page indexPage(Story story, Map<String, Page> pages) {
+        Page index = new Page("index", "index.html", "Index", story.getTitle());
+        index.blocks.add(new String[]{null, story.getDescription()});
+        // The index only shows titles, so it changes when pages are added, removed or renamed
+        pages.values().forEach(page -> index.links.add(page.key));
+        return index;
+    }
+
+    private String renderIndex(Story story, Map<String, Page> pages, Map<UUID, String> assets) {
+        StringBuilder body = new StringBuilder();
+        body.append("<h1>").append(escape(story.getTitle())).append("</h1>\n");
+        if (story.getDescription() != null && !story.getDescription().isBlank()) {
+            body.append(renderContent(story.getDescription(), "", pages, assets)).append('\n');
+        }
+        Map<String, List<Page>> byKind = new LinkedHashMap<>();
+        for (Page page : pages.values()) {
+            byKind.computeIfAbsent(page.kind, _ -> new ArrayList<>()).add(page);
+        }
+        byKind.forEach((kind, kindPages) -> {
+            body.append("<h2>").append(kind.equals("Chapter") ? "Chapters" : kind.equals("Species") || kind.equals("Lore") ? kind : kind + "s").append("</h2>\n<ul>\n");
+            List<Page> sorted = new ArrayList<>(kindPages);
+            if (!kind.equals("Chapter")) {
+                sorted.sort((a, b) -> ExportController.compareNaturally(a.title, b.title));
+            }
+            for (Page page : sorted) {
+                body.append("<li>").append(pageLink(page, "", "")).append("</li>\n");
+            }
+            body.append("</ul>\n");
+        });
+        return document(story, story.getTitle(), null, "", body.toString());
+    }
+
+    private String pageLink(Page page, String base, String prefix) {
+        return "<a href=\"" + base + page.path + "\">" + prefix + escape(page.title) + "</a>";
+    }
+
+    private String document(Story story, String title, String kind, String base, String body) {
+        return "<!DOCTYPE html>\n<html lang=\"en\">\n<head>\n<meta charset=\"utf-8\">\n"
+                + "<meta name=\"viewport\" content=\"width=device-width, initial-scale=1\">\n"
+                + "<title>" + escape(title) + (kind != null ? " - " + escape(story.getTitle()) : "") + "</title>\n"
+                + "<link rel=\"stylesheet\" href=\"" + base + "style.css\">\n</head>\n<body>\n"
+                + "<header><a href=\"" + base + "index.html\">" + escape(story.getTitle()) + "</a>"
+                + (kind != null ? " &rsaquo; " + escape(kind) : "") + "</header>\n"
+                + "<main>\n" + body + "</main>\n</body>\n</html>\n";
+    }
+
+    /**
+     * Rewrites stored content for the site: media becomes a path into {@code assets/}, mentions become links
+     * to the mentioned page and page breaks become a rule.
+     */
+    private String renderContent(String content, String base, Map<String, Page> pages, Map<UUID, String> assets) {
+        if (content == null || content.isEmpty()) return "";
+        Document doc = Jsoup.parseBodyFragment(content);
+        for (Element img : doc.select("img")) {
+            UUID mediaId = mediaIdOf(img.attr("src"));
+            if (mediaId == null) continue;
+            String asset = assets.get(mediaId);
+            if (asset != null) {
+                img.attr("src", base + "assets/" + asset);
+            } else {
+                img.remove();
+            }
+        }
+        return Shortcodes.rewrite(doc.body().html(), shortcode -> {
+            if (shortcode.isType("pagebreak")) {
+                return "<hr class=\"pagebreak\">";
+            }
+            if (shortcode.isType("image") || shortcode.isType("emote")) {
+                UUID id = shortcode.getUuid();
+                String asset = id != null ? assets.get(id) : null;
+                if (asset == null) return "";
+                return shortcode.isType("emote")
+                        ? "<img src=\"" + base + "assets/" + asset + "\" class=\"inline-image-emote\" alt=\"\">"
+                        : "<img src=\"" + base + "assets/" + asset + "\" alt=\"\">";
+            }
+            for (String type : MENTION_TYPES) {
+                if (shortcode.isType(type)) {
+                    Long id = shortcode.getLongId();
+                    if (id == null) return null;
+                    Page target = pages.get(type + ":" + id);
+                    if (target == null) {
+                        return "Unknown " + java.lang.Character.toUpperCase(type.charAt(0)) + type.substring(1);
+                    }
+                    return "<a class=\"mention\" href=\"" + base + target.path + "\">" + escape(target.title) + "</a>";
+                }
+            }
+            return null;
+        });
+    }
+
+    private static UUID mediaIdOf(String src) {
+        List<UUID> ids = new ArrayList<>(1);
+        collectMedia(src, ids);
+        return ids.isEmpty() ? null : ids.getFirst();
+    }
+
+    private static String escape(String text) {
+        if (text == null) return "";
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+
+    private SiteManifest readManifest(Path directory) {
+        Path file = directory.resolve(MANIFEST);
+        if (Files.exists(file)) {
+            try {
+                SiteManifest manifest = objectMapper.readValue(file.toFile(), SiteManifest.class);
+                if (manifest.getVersion() == TEMPLATE_VERSION) {
+                    return manifest;
+                }
+                // Older templates: keep the file lists so stale files are removed, but render everything again
+                manifest.getPages().replaceAll((_, _) -> "");
+                return manifest;
+            } catch (IOException e) {
+                log.warn("Could not read site manifest {}, rebuilding everything: {}", file, e.getMessage());
+            }
+        }
+        return new SiteManifest();
+    }
+
+    private void write(Path file, String content) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, content, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Fingerprint per page path and source media id per asset file of the last build.
+     */
+    @Data
+    @NoArgsConstructor
+    static class SiteManifest {
+        private int version;
+        private Map<String, String> pages = new TreeMap<>();
+        private Map<String, String> assets = new TreeMap<>();
+    }
+
+    private static class Page {
+        private final String key;
+        private final String path;
+        private final String kind;
+        private final String title;
+        private String picture;
+        // Label and content, content may be null
+        private final List<String[]> facts = new ArrayList<>();
+        // Heading and content, the heading may be null
+        private final List<String[]> blocks = new ArrayList<>();
+        // Keys of mentioned pages
+        private final Set<String> links = new LinkedHashSet<>();
+        private Page previous;
+        private Page next;
+
+        Page(String key, String path, String kind, String title) {
+            this.key = key;
+            this.path = path;
+            this.kind = kind;
+            this.title = title != null && !title.isBlank() ? title : "Untitled";
+        }
+
+        void fact(String label, String content) {
+            facts.add(new String[]{label, content});
+        }
+
+        void block(String heading, String content) {
+            blocks.add(new String[]{heading, content});
+        }
+
+        void forEachContent(java.util.function.Consumer<String> action) {
+            action.accept(picture);
+            facts.forEach(f -> action.accept(f[1]));
+            blocks.forEach(b -> action.accept(b[1]));
+        }
+
+        void scanLinks() {
+            forEachContent(content -> {
+                if (content == null) return;
+                Shortcodes.scan(content, shortcode -> {
+                    for (String type : MENTION_TYPES) {
+                        if (shortcode.isType(type) && shortcode.getLongId() != null) {
+                            links.add(type + ":" + shortcode.getLongId());
+                            return;
+                        }
+                    }
+                });
+            });
+        }
+    }
+}
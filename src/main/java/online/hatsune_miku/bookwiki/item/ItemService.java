@@ -18,6 +18,9 @@ public class ItemService {
     @Autowired
     private online.hatsune_miku.bookwiki.media.ReferenceTrackingService referenceTrackingService;
 
+    @Autowired
+    private online.hatsune_miku.bookwiki.search.SearchService searchService;
+
     public List<Item> getItemsByStory(Long storyId) {
         return itemRepository.findByStoryId(storyId);
     }
@@ -33,6 +36,7 @@ public class ItemService {
         
         Item saved = itemRepository.save(item);
         trackReferences(saved);
+        searchService.index(saved);
         return saved;
     }
 
@@ -51,6 +55,7 @@ public class ItemService {
             
             Item saved = itemRepository.save(i);
             trackReferences(saved);
+            searchService.index(saved);
             return saved;
         }).orElseThrow(() -> new RuntimeException("Item not found"));
     }
@@ -71,6 +76,7 @@ public class ItemService {
     public void deleteItem(Long id) {
         itemRepository.deleteById(id);
         referenceTrackingService.deleteReferences("ITEM", id);
+        searchService.remove("ITEM", id);
     }
 
     public java.util.Optional<Item> getItemById(Long id) {
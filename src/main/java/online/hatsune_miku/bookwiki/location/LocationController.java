@@ -34,8 +34,8 @@ public class LocationController {
     }
 
     @GetMapping("/locations/{id}/taxonomy")
-    public LocationTaxonomyDTO getTaxonomy(@PathVariable Long id) {
-        return locationService.getTaxonomy(id);
+    public LocationTaxonomyDTO getTaxonomy(@PathVariable Long id, @RequestParam(required = false) Integer depth) {
+        return locationService.getTaxonomy(id, depth);
     }
 
     @GetMapping("/locations/flow")
@@ -1,9 +1,16 @@
 package online.hatsune_miku.bookwiki.location;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import java.util.List;
 
 public interface LocationRepository extends JpaRepository<Location, Long> {
     List<Location> findByStoryId(Long storyId);
     List<Location> findByParentId(Long parentId);
+
+    // (id, parentId, name, pictureUrl, parentAreaPercentage) of every location in the story of the given one, for the hierarchy
+    @Query("SELECT l.id, l.parentId, l.name, l.pictureUrl, l.parentAreaPercentage FROM Location l WHERE l.story.id = "
+            + "(SELECT t.story.id FROM Location t WHERE t.id = :locationId) ORDER BY l.id")
+    List<Object[]> findTreeRowsInStoryOf(@Param("locationId") Long locationId);
 }
@@ -2,6 +2,7 @@ package online.hatsune_miku.bookwiki.location;
 
 import online.hatsune_miku.bookwiki.story.Story;
 import online.hatsune_miku.bookwiki.story.StoryRepository;
+import online.hatsune_miku.bookwiki.taxonomy.TaxonomyTree;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
@@ -21,6 +22,9 @@ public class LocationService {
     @Autowired
     private online.hatsune_miku.bookwiki.media.ReferenceTrackingService referenceTrackingService;
 
+    @Autowired
+    private online.hatsune_miku.bookwiki.search.SearchService searchService;
+
     public List<Location> getLocationsByStory(Long storyId) {
         return locationRepository.findByStoryId(storyId);
     }
@@ -36,6 +40,7 @@ public class LocationService {
         
         Location saved = locationRepository.save(location);
         trackReferences(saved);
+        searchService.index(saved);
         return saved;
     }
 
@@ -60,40 +65,30 @@ public class LocationService {
             
             Location saved = locationRepository.save(l);
             trackReferences(saved);
+            searchService.index(saved);
             return saved;
         }).orElseThrow(() -> new RuntimeException("Location not found"));
     }
 
     public LocationTaxonomyDTO getTaxonomy(Long id) {
-        Location target = locationRepository.findById(id).orElseThrow(() -> new RuntimeException("Location not found"));
-        
-        LocationTreeNodeDTO parentNode = null;
-        if (target.getParentId() != null) {
-            Location parent = locationRepository.findById(target.getParentId()).orElse(null);
-            if (parent != null) {
-                parentNode = mapToTreeNode(parent);
-            }
-        }
-
-        LocationTreeNodeDTO targetNode = mapToTreeNode(target);
-        targetNode.setChildren(getChildrenRecursively(id));
-
-        return new LocationTaxonomyDTO(parentNode, targetNode);
+        return getTaxonomy(id, null);
     }
 
-    private List<LocationTreeNodeDTO> getChildrenRecursively(Long parentId) {
-        List<Location> children = locationRepository.findByParentId(parentId);
-        List<LocationTreeNodeDTO> nodes = new java.util.ArrayList<>();
-        for (Location child : children) {
-            LocationTreeNodeDTO node = mapToTreeNode(child);
-            node.setChildren(getChildrenRecursively(child.getId()));
-            nodes.add(node);
-        }
-        return nodes;
+    /**
+     * The location with its parent and sublocations, see {@link TaxonomyTree}.
+     */
+    public LocationTaxonomyDTO getTaxonomy(Long id, Integer depth) {
+        // Rows of (id, parentId, name, pictureUrl, parentAreaPercentage)
+        TaxonomyTree<LocationTreeNodeDTO> tree = TaxonomyTree.build(locationRepository.findTreeRowsInStoryOf(id), id, depth,
+                (row, hasChildren) -> new LocationTreeNodeDTO((Long) row[0], (String) row[2], (String) row[3], (Double) row[4],
+                        hasChildren, new java.util.ArrayList<>()),
+                LocationTreeNodeDTO::getChildren);
+        if (tree == null) throw new RuntimeException("Location not found");
+        return new LocationTaxonomyDTO(tree.getParent(), tree.getTarget());
     }
 
     private LocationTreeNodeDTO mapToTreeNode(Location l) {
-        return new LocationTreeNodeDTO(l.getId(), l.getName(), l.getPictureUrl(), l.getParentAreaPercentage(), new java.util.ArrayList<>());
+        return new LocationTreeNodeDTO(l.getId(), l.getName(), l.getPictureUrl(), l.getParentAreaPercentage(), false, new java.util.ArrayList<>());
     }
 
     public LocationFlowDTO getLocationFlow(List<Long> locationIds) {
@@ -141,6 +136,7 @@ public class LocationService {
     public void deleteLocation(Long id) {
         locationRepository.deleteById(id);
         referenceTrackingService.deleteReferences("LOCATION", id);
+        searchService.remove("LOCATION", id);
     }
 
     public java.util.Optional<Location> getLocationById(Long id) {
@@ -15,5 +15,7 @@ public class LocationTreeNodeDTO {
     private String name;
     private String pictureUrl;
     private Double areaPercentage;
+    // Also set when the children are left out by a depth limit
+    private boolean hasChildren;
     private List<LocationTreeNodeDTO> children = new ArrayList<>();
 }
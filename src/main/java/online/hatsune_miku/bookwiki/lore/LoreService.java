@@ -18,6 +18,9 @@ public class LoreService {
     @Autowired
     private online.hatsune_miku.bookwiki.media.ReferenceTrackingService referenceTrackingService;
 
+    @Autowired
+    private online.hatsune_miku.bookwiki.search.SearchService searchService;
+
     public List<Lore> getLoreByStory(Long storyId) {
         return loreRepository.findByStoryId(storyId);
     }
@@ -33,6 +36,7 @@ public class LoreService {
         
         Lore saved = loreRepository.save(lore);
         trackReferences(saved);
+        searchService.index(saved);
         return saved;
     }
 
@@ -52,6 +56,7 @@ public class LoreService {
             
             Lore saved = loreRepository.save(l);
             trackReferences(saved);
+            searchService.index(saved);
             return saved;
         }).orElseThrow(() -> new RuntimeException("Lore entry not found"));
     }
@@ -72,6 +77,7 @@ public class LoreService {
     public void deleteLore(Long id) {
         loreRepository.deleteById(id);
         referenceTrackingService.deleteReferences("LORE", id);
+        searchService.remove("LORE", id);
     }
 
     public java.util.Optional<Lore> getLoreById(Long id) {
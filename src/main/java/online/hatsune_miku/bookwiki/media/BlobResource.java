@@ -0,0 +1,57 @@
+package online.hatsune_miku.bookwiki.media;
+
+import org.springframework.core.io.AbstractResource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Blob;
+import java.sql.SQLException;
+
+/**
+ * Exposes a media {@link Blob} as a Spring {@link org.springframework.core.io.Resource} without
+ * materializing it on the heap. Every call to {@link #getInputStream()} opens a fresh stream, which
+ * lets Spring MVC serve byte ranges from it.
+ */
+class BlobResource extends AbstractResource {
+
+    private final Blob blob;
+    private final String filename;
+
+    BlobResource(Blob blob, String filename) {
+        this.blob = blob;
+        this.filename = filename;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        try {
+            return blob.getBinaryStream();
+        } catch (SQLException e) {
+            throw new IOException("Could not open media blob", e);
+        }
+    }
+
+    @Override
+    public long contentLength() throws IOException {
+        try {
+            return blob.length();
+        } catch (SQLException e) {
+            throw new IOException("Could not determine media blob length", e);
+        }
+    }
+
+    @Override
+    public boolean exists() {
+        return true;
+    }
+
+    @Override
+    public String getFilename() {
+        return filename;
+    }
+
+    @Override
+    public String getDescription() {
+        return "Media blob [" + filename + "]";
+    }
+}
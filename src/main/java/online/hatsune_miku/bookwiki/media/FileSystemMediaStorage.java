@@ -0,0 +1,198 @@
+package online.hatsune_miku.bookwiki.media;
+
+import lombok.extern.slf4j.Slf4j;
+import online.hatsune_miku.bookwiki.config.PathProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Stores media payloads as plain files below {@code <base data path>/data/media}, sharded by the
+ * first two characters of their SHA-256 hash. Derivatives live in the same shard as
+ * {@code <hash>.<variant>}.
+ */
+@Component
+@Slf4j
+public class FileSystemMediaStorage implements MediaStorage {
+
+    private static final Pattern HASH_PATTERN = Pattern.compile("[0-9a-f]{64}");
+    private static final Pattern VARIANT_PATTERN = Pattern.compile("[a-z0-9]+(\\.[a-z0-9]+)?");
+    private static final Pattern DERIVATIVE_FILE_PATTERN = Pattern.compile("([0-9a-f]{64})\\.([a-z0-9]+(\\.[a-z0-9]+)?)");
+
+    private final Path root;
+
+    public FileSystemMediaStorage(PathProvider pathProvider, @Value("${bookwiki.media.path:}") String configuredPath) {
+        if (configuredPath == null || configuredPath.isBlank()) {
+            this.root = pathProvider.getBaseDataPath().resolve("data").resolve("media").toAbsolutePath().normalize();
+        } else {
+            this.root = Paths.get(configuredPath).toAbsolutePath().normalize();
+        }
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    @Override
+    public StoredContent store(InputStream content, Consumer<String> claim) throws IOException {
+        Path temp = createTempFile();
+
+        MessageDigest digest = newDigest();
+        long length;
+        try (OutputStream out = new DigestOutputStream(Files.newOutputStream(temp), digest)) {
+            length = content.transferTo(out);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+
+        String hash = HexFormat.of().formatHex(digest.digest());
+        Path target = resolve(hash);
+        try {
+            claim.accept(hash);
+        } catch (RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        if (Files.exists(target)) {
+            // Duplicate upload, the bytes are already stored
+            Files.delete(temp);
+        } else {
+            Files.createDirectories(target.getParent());
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (FileAlreadyExistsException e) {
+                Files.deleteIfExists(temp);
+            }
+        }
+        return new StoredContent(hash, length);
+    }
+
+    @Override
+    public InputStream open(String hash) throws IOException {
+        return Files.newInputStream(resolve(hash));
+    }
+
+    @Override
+    public Resource getResource(String hash) {
+        return new FileSystemResource(resolve(hash));
+    }
+
+    @Override
+    public boolean exists(String hash) {
+        return Files.exists(resolve(hash));
+    }
+
+    @Override
+    public void delete(String hash) throws IOException {
+        Path file = resolve(hash);
+        Files.deleteIfExists(file);
+        if (Files.isDirectory(file.getParent())) {
+            try (DirectoryStream<Path> derivatives = Files.newDirectoryStream(file.getParent(), hash + ".*")) {
+                for (Path derivative : derivatives) {
+                    Files.deleteIfExists(derivative);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void deleteAll() throws IOException {
+        if (Files.exists(root)) {
+            log.info("Deleting all stored media below {}", root);
+            FileSystemUtils.deleteRecursively(root);
+        }
+    }
+
+    @Override
+    public void storeDerivative(String hash, String variant, byte[] content) throws IOException {
+        Path target = resolveDerivative(hash, variant);
+        Path temp = createTempFile();
+        try {
+            Files.write(temp, content);
+            Files.createDirectories(target.getParent());
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    @Override
+    public Resource getDerivative(String hash, String variant) {
+        return new FileSystemResource(resolveDerivative(hash, variant));
+    }
+
+    @Override
+    public void deleteDerivative(String hash, String variant) throws IOException {
+        Files.deleteIfExists(resolveDerivative(hash, variant));
+    }
+
+    @Override
+    public List<StoredDerivative> listDerivatives() throws IOException {
+        List<StoredDerivative> result = new ArrayList<>();
+        if (!Files.isDirectory(root)) {
+            return result;
+        }
+        try (Stream<Path> files = Files.walk(root, 2)) {
+            for (Path file : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+                Matcher matcher = DERIVATIVE_FILE_PATTERN.matcher(file.getFileName().toString());
+                if (matcher.matches()) {
+                    result.add(new StoredDerivative(matcher.group(1), matcher.group(2),
+                            Files.size(file), Files.getLastModifiedTime(file).toMillis()));
+                }
+            }
+        }
+        return result;
+    }
+
+    private Path createTempFile() throws IOException {
+        Path tmpDir = root.resolve("tmp");
+        Files.createDirectories(tmpDir);
+        return Files.createTempFile(tmpDir, "upload-", ".part");
+    }
+
+    private Path resolveDerivative(String hash, String variant) {
+        if (variant == null || !VARIANT_PATTERN.matcher(variant).matches()) {
+            throw new IllegalArgumentException("Invalid derivative variant: " + variant);
+        }
+        Path original = resolve(hash);
+        return original.resolveSibling(hash + "." + variant);
+    }
+
+    private Path resolve(String hash) {
+        if (hash == null || !HASH_PATTERN.matcher(hash).matches()) {
+            throw new IllegalArgumentException("Invalid content hash: " + hash);
+        }
+        return root.resolve(hash.substring(0, 2)).resolve(hash);
+    }
+
+    private MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package online.hatsune_miku.bookwiki.media;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.Locale;
+
+/**
+ * Reads the format and pixel size of an image from its header, without decoding the bitmap.
+ */
+public final class ImageProbe {
+
+    private ImageProbe() {
+    }
+
+    /**
+     * Size and format name of a probed image, -1 and {@code null} if no ImageIO reader understands it.
+     */
+    @Getter
+    @ToString
+    @AllArgsConstructor
+    public static class Info {
+        public static final Info UNKNOWN = new Info(null, -1, -1);
+
+        private final String format;
+        private final int width;
+        private final int height;
+
+        public boolean hasSize() {
+            return width > 0 && height > 0;
+        }
+    }
+
+    public static Info probe(byte[] data) {
+        return probe(new ByteArrayInputStream(data));
+    }
+
+    public static Info probe(InputStream content) {
+        try (ImageInputStream input = ImageIO.createImageInputStream(content)) {
+            if (input == null) return Info.UNKNOWN;
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) return Info.UNKNOWN;
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                return new Info(reader.getFormatName().toLowerCase(Locale.ROOT), reader.getWidth(0), reader.getHeight(0));
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException e) {
+            return Info.UNKNOWN;
+        }
+    }
+}
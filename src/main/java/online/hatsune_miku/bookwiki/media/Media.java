@@ -10,6 +10,7 @@ import java.util.Objects;
 import java.util.UUID;
 
 @Entity
+@EntityListeners(online.hatsune_miku.bookwiki.data.StoryChangeListener.class)
 @Table(name = "media")
 @Getter
 @Setter
@@ -22,6 +23,18 @@ public class Media {
     private String filename;
     private String contentType;
 
+    @Column(length = 64)
+    private String contentHash;
+
+    private Long contentLength;
+
+    // Read from the image header on upload, or on first export for older media. -1 if it is not an image.
+    private Integer width;
+    private Integer height;
+    @Column(length = 16)
+    private String imageFormat;
+
+    // Legacy inline payload. New media is written to MediaStorage and older rows are moved there on startup.
     @Lob
     @Column(columnDefinition = "BYTEA")
     private Blob data;
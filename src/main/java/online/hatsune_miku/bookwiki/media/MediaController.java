@@ -1,15 +1,16 @@
 package online.hatsune_miku.bookwiki.media;
 
 import lombok.RequiredArgsConstructor;
-import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.io.InputStream;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 @RestController
 @RequestMapping("/api")
@@ -17,11 +18,13 @@ import java.util.UUID;
 public class MediaController {
 
     private final MediaService mediaService;
+    private final MediaDerivativeService mediaDerivativeService;
 
     @PostMapping("/upload")
     public ResponseEntity<Map<String, String>> uploadMedia(@RequestParam("file") MultipartFile file) {
         try {
             Media media = mediaService.saveMedia(file);
+            mediaDerivativeService.pregenerate(media);
             return ResponseEntity.ok(Map.of(
                     "id", media.getId().toString(),
                     "url", "/api/media/" + media.getId()
@@ -32,15 +35,43 @@ public class MediaController {
     }
 
     @GetMapping("/media/{id}")
-    public ResponseEntity<byte[]> getMedia(@PathVariable UUID id) {
+    public ResponseEntity<Resource> getMedia(@PathVariable UUID id, @RequestParam(name = "w", required = false) Integer width,
+                                             @RequestParam(name = "v", required = false) String version) {
         try {
             Media media = mediaService.getMedia(id);
-            byte[] content = mediaService.getMediaContent(id);
-            return ResponseEntity.ok()
-                    .contentType(MediaType.parseMediaType(media.getContentType()))
-                    .body(content);
+            // A restore can replace the content under the same id, so the content hash identifies a version
+            String tag = media.getContentHash() != null ? media.getContentHash() : media.getId().toString();
+            boolean versioned = version != null && version.equals(media.getContentHash());
+
+            if (width != null && width > 0) {
+                MediaDerivativeService.Derivative derivative = mediaDerivativeService.getDerivative(media, width);
+                if (derivative != null) {
+                    return cached(derivative.getResource(), MediaType.parseMediaType(derivative.getContentType()),
+                            tag + "-w" + derivative.getWidth(), versioned);
+                }
+            }
+
+            Resource content = mediaService.getMediaResource(media);
+            MediaType contentType = media.getContentType() != null
+                    ? MediaType.parseMediaType(media.getContentType())
+                    : MediaType.APPLICATION_OCTET_STREAM;
+            return cached(content, contentType, tag, versioned);
         } catch (Exception e) {
             return ResponseEntity.notFound().build();
         }
     }
+
+    // The content hash (plus the derivative width) is a strong validator. Only a URL naming the hash always
+    // returns the same bytes and can be cached for good, the plain URL is revalidated on every use.
+    // Spring answers If-None-Match with 304 and Range with 206 for Resource bodies.
+    private ResponseEntity<Resource> cached(Resource content, MediaType contentType, String eTag, boolean versioned) {
+        CacheControl cacheControl = versioned
+                ? CacheControl.maxAge(365, TimeUnit.DAYS).cachePublic().immutable()
+                : CacheControl.noCache().cachePublic();
+        return ResponseEntity.ok()
+                .contentType(contentType)
+                .eTag(eTag)
+                .cacheControl(cacheControl)
+                .body(content);
+    }
 }
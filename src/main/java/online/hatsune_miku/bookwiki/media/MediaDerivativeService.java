@@ -0,0 +1,425 @@
+package online.hatsune_miku.bookwiki.media;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Produces downscaled copies of image media for the {@code ?w=} parameter of {@code /api/media/{id}}.
+ * <p>
+ * Requested widths are snapped to a fixed ladder so every image has at most a handful of derivatives.
+ * Derivatives are written to the {@link MediaStorage} next to their original and evicted least recently
+ * used first once they exceed {@code bookwiki.media.derivative-cache-bytes}.
+ * <p>
+ * Document exports request copies at the pixel width an image needs at its printed size. Those are stored
+ * alongside the thumbnails under a {@code p<width>} variant and share their budget.
+ */
+@Service
+@Slf4j
+public class MediaDerivativeService {
+
+    static final int[] WIDTHS = {64, 128, 256, 512, 1024};
+
+    // GIF and BMP are written as PNG, animated GIFs lose their animation in thumbnails
+    private static final Set<String> SUPPORTED_TYPES = Set.of("image/png", "image/jpeg", "image/jpg", "image/gif", "image/bmp");
+
+    private final MediaStorage mediaStorage;
+    private final long cacheBudget;
+    private final int[] pregenerateWidths;
+    private final ThreadPoolExecutor executor;
+
+    // Access ordered, so iteration starts with the least recently used derivative
+    private final LinkedHashMap<String, Long> index = new LinkedHashMap<>(64, 0.75f, true);
+    private long cachedBytes;
+
+    // Derivative key -> lock of its generation. The entry stays while threads hold or wait for the lock, so a
+    // late thread never gets a second lock for the same key.
+    private final Map<String, GenerationLock> generationLocks = new ConcurrentHashMap<>();
+
+    public MediaDerivativeService(MediaStorage mediaStorage,
+                                  @Value("${bookwiki.media.derivative-cache-bytes:268435456}") long cacheBudget,
+                                  @Value("${bookwiki.media.pregenerate-widths:64,256}") int[] pregenerateWidths,
+                                  @Value("${bookwiki.media.derivative-threads:2}") int threads) {
+        this.mediaStorage = mediaStorage;
+        this.cacheBudget = cacheBudget;
+        this.pregenerateWidths = pregenerateWidths;
+        // Bounded queue: if uploads outpace the workers the remaining thumbnails are generated on first request
+        this.executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new ArrayBlockingQueue<>(256),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "media-derivatives");
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.DiscardPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    @PostConstruct
+    void loadIndex() {
+        try {
+            List<StoredDerivative> stored = mediaStorage.listDerivatives();
+            stored.sort(Comparator.comparingLong(StoredDerivative::getLastModified));
+            synchronized (index) {
+                for (StoredDerivative derivative : stored) {
+                    index.put(key(derivative.getHash(), derivative.getVariant()), derivative.getLength());
+                    cachedBytes += derivative.getLength();
+                }
+            }
+            evictOverBudget(null);
+        } catch (IOException e) {
+            log.warn("Could not read stored media derivatives: {}", e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Rounds a requested width up to the next width of the ladder, capped at the largest one.
+     */
+    public static int snapWidth(int requested) {
+        for (int width : WIDTHS) {
+            if (requested <= width) {
+                return width;
+            }
+        }
+        return WIDTHS[WIDTHS.length - 1];
+    }
+
+    /**
+     * Returns a copy of the media that is at most {@code requestedWidth} wide (snapped to the ladder), or
+     * {@code null} if the original should be served because it is not a resizable image or already small enough.
+     */
+    public Derivative getDerivative(Media media, int requestedWidth) throws IOException {
+        if (!isResizable(media)) {
+            return null;
+        }
+        int width = snapWidth(requestedWidth);
+        String hash = media.getContentHash();
+        String variant = variant(media, width);
+        String key = key(hash, variant);
+
+        Resource resource = mediaStorage.getDerivative(hash, variant);
+        if (!resource.exists()) {
+            GenerationLock lock = acquireGenerationLock(key);
+            try {
+                synchronized (lock) {
+                    resource = mediaStorage.getDerivative(hash, variant);
+                    if (!resource.exists() && !generate(hash, variant, width)) {
+                        return null;
+                    }
+                    resource = mediaStorage.getDerivative(hash, variant);
+                }
+            } finally {
+                releaseGenerationLock(key);
+            }
+        } else {
+            touch(key);
+        }
+        return new Derivative(resource, outputType(media), width);
+    }
+
+    /**
+     * Returns a copy of the media resampled to {@code width} pixels for a document export, or {@code null} if
+     * it is not a resizable image or not wider than that. Opaque images are written as JPEG, images with
+     * transparency as PNG, whatever the original format.
+     */
+    public Derivative getExportDerivative(Media media, int width) throws IOException {
+        if (!isResizable(media)) {
+            return null;
+        }
+        String hash = media.getContentHash();
+        Derivative existing = findExportDerivative(hash, width);
+        if (existing != null) {
+            return existing;
+        }
+        String key = key(hash, "p" + width);
+        GenerationLock lock = acquireGenerationLock(key);
+        try {
+            synchronized (lock) {
+                existing = findExportDerivative(hash, width);
+                if (existing != null) {
+                    return existing;
+                }
+                BufferedImage source;
+                try (InputStream is = mediaStorage.open(hash);
+                     ImageInputStream iis = ImageIO.createImageInputStream(is)) {
+                    source = readScaled(iis, width);
+                }
+                if (source == null || source.getWidth() <= width) {
+                    return null;
+                }
+                boolean jpeg = !source.getColorModel().hasAlpha();
+                String variant = "p" + width + (jpeg ? ".jpg" : ".png");
+                store(hash, variant, encode(resize(source, width, jpeg), jpeg));
+                return new Derivative(mediaStorage.getDerivative(hash, variant), jpeg ? "image/jpeg" : "image/png", width);
+            }
+        } finally {
+            releaseGenerationLock(key);
+        }
+    }
+
+    private GenerationLock acquireGenerationLock(String key) {
+        return generationLocks.compute(key, (_, lock) -> {
+            GenerationLock held = lock != null ? lock : new GenerationLock();
+            held.users++;
+            return held;
+        });
+    }
+
+    // The entry goes with the last thread that used it
+    private void releaseGenerationLock(String key) {
+        generationLocks.computeIfPresent(key, (_, lock) -> --lock.users > 0 ? lock : null);
+    }
+
+    /**
+     * Resamples content that is not in the media store, such as images embedded as data URIs. Nothing is
+     * cached. Returns {@code null} if the content is not a readable image or not wider than {@code width}.
+     */
+    public Derivative resample(byte[] content, int width) throws IOException {
+        BufferedImage source;
+        try (ImageInputStream iis = ImageIO.createImageInputStream(new ByteArrayInputStream(content))) {
+            source = readScaled(iis, width);
+        }
+        if (source == null || source.getWidth() <= width) {
+            return null;
+        }
+        boolean jpeg = !source.getColorModel().hasAlpha();
+        byte[] bytes = encode(resize(source, width, jpeg), jpeg);
+        return new Derivative(new ByteArrayResource(bytes), jpeg ? "image/jpeg" : "image/png", width);
+    }
+
+    private Derivative findExportDerivative(String hash, int width) {
+        for (String type : List.of("jpg", "png")) {
+            String variant = "p" + width + "." + type;
+            Resource resource = mediaStorage.getDerivative(hash, variant);
+            if (resource.exists()) {
+                touch(key(hash, variant));
+                return new Derivative(resource, type.equals("jpg") ? "image/jpeg" : "image/png", width);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Generates the commonly used thumbnail sizes in the background, so the first page that shows the
+     * image in a tree or diagram does not have to wait for the resize.
+     */
+    public void pregenerate(Media media) {
+        if (!isResizable(media)) {
+            return;
+        }
+        executor.execute(() -> {
+            for (int width : pregenerateWidths) {
+                try {
+                    getDerivative(media, width);
+                } catch (Exception e) {
+                    log.warn("Could not generate {}px thumbnail for media {}: {}", width, media.getId(), e.getMessage());
+                    return;
+                }
+            }
+        });
+    }
+
+    private boolean generate(String hash, String variant, int width) throws IOException {
+        BufferedImage source;
+        try (InputStream is = mediaStorage.open(hash);
+             ImageInputStream iis = ImageIO.createImageInputStream(is)) {
+            source = readScaled(iis, width);
+        }
+        if (source == null || source.getWidth() <= width) {
+            // Nothing to gain, serve the original
+            return false;
+        }
+
+        boolean jpeg = variant.endsWith(".jpg");
+        store(hash, variant, encode(resize(source, width, jpeg), jpeg));
+        return true;
+    }
+
+    private void store(String hash, String variant, byte[] bytes) throws IOException {
+        mediaStorage.storeDerivative(hash, variant, bytes);
+
+        String key = key(hash, variant);
+        synchronized (index) {
+            Long previous = index.put(key, (long) bytes.length);
+            cachedBytes += bytes.length - (previous != null ? previous : 0);
+        }
+        evictOverBudget(key);
+    }
+
+    // Decodes the image, letting the reader skip pixels when the original is much larger than the target.
+    // This keeps a 8000px photo from being fully decoded just to produce a 64px avatar.
+    private BufferedImage readScaled(ImageInputStream iis, int width) throws IOException {
+        if (iis == null) {
+            return null;
+        }
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+        if (!readers.hasNext()) {
+            return null;
+        }
+        ImageReader reader = readers.next();
+        try {
+            reader.setInput(iis, true, true);
+            int sourceWidth = reader.getWidth(0);
+            if (sourceWidth <= width) {
+                return null;
+            }
+            ImageReadParam param = reader.getDefaultReadParam();
+            int subsampling = sourceWidth / (width * 2);
+            if (subsampling > 1) {
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+            }
+            return reader.read(0, param);
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    private BufferedImage resize(BufferedImage source, int width, boolean opaque) {
+        int type = opaque ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB;
+        BufferedImage current = source;
+        int currentWidth = source.getWidth();
+        int currentHeight = source.getHeight();
+        // Halve in steps, a single bilinear pass over a large ratio looks grainy
+        do {
+            int nextWidth = Math.max(width, currentWidth / 2);
+            int nextHeight = Math.max(1, (int) Math.round((double) currentHeight * nextWidth / currentWidth));
+            BufferedImage next = new BufferedImage(nextWidth, nextHeight, type);
+            Graphics2D g = next.createGraphics();
+            try {
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                g.drawImage(current, 0, 0, nextWidth, nextHeight, null);
+            } finally {
+                g.dispose();
+            }
+            current = next;
+            currentWidth = nextWidth;
+            currentHeight = nextHeight;
+        } while (currentWidth > width);
+        return current;
+    }
+
+    private byte[] encode(BufferedImage image, boolean jpeg) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (!jpeg) {
+            ImageIO.write(image, "png", out);
+            return out.toByteArray();
+        }
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        try (ImageOutputStream ios = ImageIO.createImageOutputStream(out)) {
+            writer.setOutput(ios);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(0.85f);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+
+    private void touch(String key) {
+        synchronized (index) {
+            index.get(key);
+        }
+    }
+
+    private void evictOverBudget(String keep) {
+        while (true) {
+            String eldest;
+            long size;
+            synchronized (index) {
+                if (cachedBytes <= cacheBudget || index.isEmpty()) {
+                    return;
+                }
+                Map.Entry<String, Long> entry = index.entrySet().iterator().next();
+                if (entry.getKey().equals(keep)) {
+                    // Only the freshly written derivative is left, keep it even if it alone exceeds the budget
+                    return;
+                }
+                eldest = entry.getKey();
+                size = entry.getValue();
+                index.remove(eldest);
+                cachedBytes -= size;
+            }
+            int separator = eldest.indexOf('.');
+            try {
+                mediaStorage.deleteDerivative(eldest.substring(0, separator), eldest.substring(separator + 1));
+            } catch (IOException e) {
+                log.warn("Could not evict media derivative {}: {}", eldest, e.getMessage());
+            }
+        }
+    }
+
+    private boolean isResizable(Media media) {
+        return media.getContentHash() != null
+                && media.getContentType() != null
+                && SUPPORTED_TYPES.contains(media.getContentType().toLowerCase());
+    }
+
+    private String variant(Media media, int width) {
+        return "w" + width + (isJpeg(media) ? ".jpg" : ".png");
+    }
+
+    private String outputType(Media media) {
+        return isJpeg(media) ? "image/jpeg" : "image/png";
+    }
+
+    private boolean isJpeg(Media media) {
+        String type = media.getContentType().toLowerCase();
+        return type.equals("image/jpeg") || type.equals("image/jpg");
+    }
+
+    private static String key(String hash, String variant) {
+        return hash + "." + variant;
+    }
+
+    private static class GenerationLock {
+        // Threads holding or waiting for the lock, only changed inside the map's compute for the key
+        private int users;
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class Derivative {
+        private final Resource resource;
+        private final String contentType;
+        private final int width;
+    }
+}
@@ -1,7 +1,19 @@
 package online.hatsune_miku.bookwiki.media;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import java.time.LocalDateTime;
+import java.util.List;
 import java.util.UUID;
 
 public interface MediaRepository extends JpaRepository<Media, UUID> {
+    boolean existsByContentHash(String contentHash);
+    List<Media> findByContentHashIsNullAndDataIsNotNull();
+    List<Media> findByCreatedAtAfter(LocalDateTime since);
+
+    @Modifying
+    @Query("UPDATE Media m SET m.width = :width, m.height = :height, m.imageFormat = :format WHERE m.id = :id")
+    void updateImageInfo(@Param("id") UUID id, @Param("width") int width, @Param("height") int height, @Param("format") String format);
 }
@@ -1,25 +1,33 @@
 package online.hatsune_miku.bookwiki.media;
 
-import jakarta.persistence.EntityManager;
 import jakarta.transaction.Transactional;
 import lombok.RequiredArgsConstructor;
-import org.hibernate.Session;
+import lombok.extern.slf4j.Slf4j;
+import online.hatsune_miku.bookwiki.config.Transactions;
+import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
-import java.sql.Blob;
+import java.sql.SQLException;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Service
 @RequiredArgsConstructor
+@Slf4j
 public class MediaService {
 
     private final MediaRepository mediaRepository;
-    private final EntityManager entityManager;
     private final MediaReferenceRepository referenceRepository;
+    private final MediaStorage mediaStorage;
+
+    // Content hash -> number of stores whose media rows are not committed yet. Their payloads are kept even
+    // though no committed row points to them. Releasing a payload runs under the same key, see releaseContent.
+    private final Map<String, Integer> claims = new ConcurrentHashMap<>();
 
     @Transactional
     public Media saveMedia(MultipartFile file) throws IOException {
@@ -27,47 +35,163 @@ public class MediaService {
         media.setFilename(file.getOriginalFilename());
         media.setContentType(file.getContentType());
 
-        Session session = entityManager.unwrap(Session.class);
-        Blob blob = session.doReturningWork(connection -> {
-            try {
-                Blob b = connection.createBlob();
-                try (InputStream is = file.getInputStream();
-                     OutputStream os = b.setBinaryStream(1)) {
-                    is.transferTo(os);
-                }
-                return b;
-            } catch (Exception e) {
-                throw new RuntimeException("Could not save file to blob", e);
-            }
-        });
-        media.setData(blob);
+        try (InputStream is = file.getInputStream()) {
+            storeContent(media, is);
+        }
+        try (InputStream is = openContent(media)) {
+            setImageInfo(media, ImageProbe.probe(is));
+        }
 
         return mediaRepository.save(media);
     }
 
+    /**
+     * Streams the content into the media store and records its hash and size on the (unsaved) media entity.
+     */
+    public void storeContent(Media media, InputStream content) throws IOException {
+        attachContent(media, storeContent(content));
+    }
+
+    public StoredContent storeContent(InputStream content) throws IOException {
+        StoredContent stored = mediaStorage.store(content, this::claim);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            unclaimAfterCompletion(stored.getHash());
+        } else {
+            // Stored by an import worker, the transaction writing the row attaches it
+            stored.claimPending();
+        }
+        return stored;
+    }
+
+    public void attachContent(Media media, StoredContent stored) {
+        media.setContentHash(stored.getHash());
+        media.setContentLength(stored.getLength());
+        if (stored.takeClaim()) {
+            unclaimAfterCompletion(stored.getHash());
+        }
+    }
+
+    /**
+     * Returns the size and format recorded for the media. Media uploaded before they were recorded is probed
+     * from the given content once and updated.
+     */
+    @Transactional
+    public ImageProbe.Info getImageInfo(Media media, byte[] content) {
+        if (media.getWidth() != null && media.getHeight() != null) {
+            return new ImageProbe.Info(media.getImageFormat(), media.getWidth(), media.getHeight());
+        }
+        ImageProbe.Info info = ImageProbe.probe(content);
+        setImageInfo(media, info);
+        mediaRepository.updateImageInfo(media.getId(), info.getWidth(), info.getHeight(), info.getFormat());
+        return info;
+    }
+
+    private void setImageInfo(Media media, ImageProbe.Info info) {
+        media.setWidth(info.getWidth());
+        media.setHeight(info.getHeight());
+        media.setImageFormat(info.getFormat());
+    }
+
     @Transactional
     public void deleteIfOrphaned(UUID id) {
         if (referenceRepository.findByMediaId(id).isEmpty()) {
-            mediaRepository.deleteById(id);
+            deleteMedia(id);
         }
     }
 
+    @Transactional
+    public void deleteMedia(UUID id) {
+        mediaRepository.findById(id).ifPresent(media -> {
+            mediaRepository.delete(media);
+            if (media.getContentHash() != null) {
+                releaseContent(media.getContentHash());
+            }
+        });
+    }
+
+    @Transactional
+    public void deleteAllMedia() {
+        mediaRepository.deleteAll();
+        Transactions.afterCommit(() -> {
+            try {
+                mediaStorage.deleteAll();
+            } catch (IOException e) {
+                log.error("Could not clear media storage: {}", e.getMessage());
+            }
+        });
+    }
+
     @Transactional
     public byte[] getMediaContent(UUID id) throws Exception {
-        Media media = mediaRepository.findById(id)
-                .orElseThrow(() -> new RuntimeException("Media not found"));
-        return media.getData().getBinaryStream().readAllBytes();
+        try (InputStream is = openContent(getMedia(id))) {
+            return is.readAllBytes();
+        }
     }
 
     @Transactional
     public InputStream getMediaStream(UUID id) throws Exception {
-        Media media = mediaRepository.findById(id)
-                .orElseThrow(() -> new RuntimeException("Media not found"));
-        return media.getData().getBinaryStream();
+        return openContent(getMedia(id));
+    }
+
+    public InputStream openContent(Media media) throws IOException {
+        if (media.getContentHash() != null) {
+            return mediaStorage.open(media.getContentHash());
+        }
+        if (media.getData() != null) {
+            try {
+                return media.getData().getBinaryStream();
+            } catch (SQLException e) {
+                throw new IOException("Could not open media blob", e);
+            }
+        }
+        throw new IOException("Media has no content: " + media.getId());
+    }
+
+    /**
+     * Returns the content of the given media as a streamable resource, so callers never have to
+     * copy the whole file onto the heap.
+     */
+    public Resource getMediaResource(Media media) {
+        if (media.getContentHash() != null) {
+            return mediaStorage.getResource(media.getContentHash());
+        }
+        if (media.getData() == null) {
+            throw new RuntimeException("Media has no content");
+        }
+        return new BlobResource(media.getData(), media.getFilename());
     }
 
     public Media getMedia(UUID id) {
         return mediaRepository.findById(id)
                 .orElseThrow(() -> new RuntimeException("Media not found"));
     }
+
+    // Content is shared between media with the same hash, so the file can only go once the last row is gone.
+    // The check runs after commit to avoid deleting bytes that a rolled back transaction still points to, and
+    // atomically with the claims of concurrent stores, whose rows are not visible yet.
+    public void releaseContent(String hash) {
+        Transactions.afterCommit(() -> claims.compute(hash, (_, count) -> {
+            if (count == null && !mediaRepository.existsByContentHash(hash)) {
+                try {
+                    mediaStorage.delete(hash);
+                } catch (IOException e) {
+                    log.error("Could not delete stored media {}: {}", hash, e.getMessage());
+                }
+            }
+            return count;
+        }));
+    }
+
+    private void claim(String hash) {
+        claims.merge(hash, 1, Integer::sum);
+    }
+
+    // After a commit the row is visible to releaseContent, after a rollback there is none to keep
+    private void unclaimAfterCompletion(String hash) {
+        Transactions.afterCompletion(() -> unclaim(hash));
+    }
+
+    private void unclaim(String hash) {
+        claims.computeIfPresent(hash, (_, count) -> count > 1 ? count - 1 : null);
+    }
 }
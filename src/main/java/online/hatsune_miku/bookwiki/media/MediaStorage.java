@@ -0,0 +1,53 @@
+package online.hatsune_miku.bookwiki.media;
+
+import org.springframework.core.io.Resource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Content-addressed store for media payloads. Payloads are keyed by their SHA-256 hash, so
+ * identical uploads share the same bytes and the {@code media} table only keeps metadata.
+ */
+public interface MediaStorage {
+
+    /**
+     * Streams the given content into the store. The stream is consumed but not closed.
+     */
+    default StoredContent store(InputStream content) throws IOException {
+        return store(content, _ -> { });
+    }
+
+    /**
+     * Like {@link #store(InputStream)}, calling {@code claim} with the hash once the content is read, before
+     * the store checks whether it holds the payload already. A delete that is serialized with the claim either
+     * sees it or finishes before the check, so a deduplicated upload never ends up without its payload.
+     */
+    StoredContent store(InputStream content, Consumer<String> claim) throws IOException;
+
+    InputStream open(String hash) throws IOException;
+
+    Resource getResource(String hash);
+
+    boolean exists(String hash);
+
+    /**
+     * Deletes the payload together with all derivatives stored for it.
+     */
+    void delete(String hash) throws IOException;
+
+    void deleteAll() throws IOException;
+
+    /**
+     * Derivatives (e.g. thumbnails) are stored next to their original under a variant name such as {@code w256.png}.
+     */
+    void storeDerivative(String hash, String variant, byte[] content) throws IOException;
+
+    Resource getDerivative(String hash, String variant);
+
+    void deleteDerivative(String hash, String variant) throws IOException;
+
+    List<StoredDerivative> listDerivatives() throws IOException;
+}
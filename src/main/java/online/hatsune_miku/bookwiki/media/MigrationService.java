@@ -1,6 +1,5 @@
 package online.hatsune_miku.bookwiki.media;
 
-import jakarta.persistence.EntityManager;
 import jakarta.transaction.Transactional;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -15,15 +14,13 @@ import online.hatsune_miku.bookwiki.location.Location;
 import online.hatsune_miku.bookwiki.location.LocationRepository;
 import online.hatsune_miku.bookwiki.lore.Lore;
 import online.hatsune_miku.bookwiki.lore.LoreRepository;
-import org.hibernate.Session;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.sql.Blob;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -37,7 +34,7 @@ public class MigrationService {
 
     private final PathProvider pathProvider;
     private final MediaRepository mediaRepository;
-    private final EntityManager entityManager;
+    private final MediaService mediaService;
     
     private final CharacterRepository characterRepository;
     private final LocationRepository locationRepository;
@@ -46,6 +43,25 @@ public class MigrationService {
     private final ChapterRepository chapterRepository;
     private final ReferenceTrackingService referenceTrackingService;
 
+    @Transactional
+    public void migrateBlobsToStorage() {
+        List<Media> legacy = mediaRepository.findByContentHashIsNullAndDataIsNotNull();
+        if (legacy.isEmpty()) {
+            return;
+        }
+
+        log.info("Moving {} media blobs from the database into the media store...", legacy.size());
+        for (Media media : legacy) {
+            try (InputStream is = media.getData().getBinaryStream()) {
+                mediaService.storeContent(media, is);
+                media.setData(null);
+                mediaRepository.save(media);
+            } catch (Exception e) {
+                log.error("Failed to move media {} into the media store: {}", media.getId(), e.getMessage());
+            }
+        }
+    }
+
     @Transactional
     public void migrateFileSystem() {
         Path uploadDir = pathProvider.getUploadPath();
@@ -83,20 +99,9 @@ public class MigrationService {
         media.setFilename(filename);
         media.setContentType(Files.probeContentType(path));
 
-        Session session = entityManager.unwrap(Session.class);
-        Blob blob = session.doReturningWork(connection -> {
-            try {
-                Blob b = connection.createBlob();
-                try (InputStream is = Files.newInputStream(path);
-                     OutputStream os = b.setBinaryStream(1)) {
-                    is.transferTo(os);
-                }
-                return b;
-            } catch (Exception e) {
-                throw new RuntimeException("Could not save file to blob", e);
-            }
-        });
-        media.setData(blob);
+        try (InputStream is = Files.newInputStream(path)) {
+            mediaService.storeContent(media, is);
+        }
         media = mediaRepository.save(media);
         return media.getId();
     }
@@ -310,17 +315,7 @@ public class MigrationService {
         media.setFilename("migrated_base64_" + UUID.randomUUID().toString().substring(0, 8));
         media.setContentType(contentType);
 
-        Session session = entityManager.unwrap(Session.class);
-        Blob blob = session.doReturningWork(connection -> {
-            try {
-                Blob b = connection.createBlob();
-                b.setBytes(1, decodedBytes);
-                return b;
-            } catch (Exception e) {
-                throw new RuntimeException("Could not save decoded bytes to blob", e);
-            }
-        });
-        media.setData(blob);
+        mediaService.storeContent(media, new ByteArrayInputStream(decodedBytes));
         media = mediaRepository.save(media);
         return media.getId();
     }
@@ -2,14 +2,13 @@ package online.hatsune_miku.bookwiki.media;
 
 import jakarta.transaction.Transactional;
 import lombok.RequiredArgsConstructor;
+import online.hatsune_miku.bookwiki.shortcode.Shortcodes;
 import org.springframework.stereotype.Service;
 
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.UUID;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 @Service
@@ -17,7 +16,8 @@ import java.util.stream.Collectors;
 public class ReferenceTrackingService {
 
     private final MediaReferenceRepository referenceRepository;
-    private final MediaRepository mediaRepository;
+    private final MediaService mediaService;
+    private final online.hatsune_miku.bookwiki.backlink.BacklinkService backlinkService;
 
     @Transactional
     public void updateReferences(String content, String entityType, Long entityId) {
@@ -45,6 +45,9 @@ public class ReferenceTrackingService {
                 deleteIfOrphaned(oldId);
             }
         }
+
+        // The same content carries the mentions of other entries
+        backlinkService.updateMentions(content, entityType, entityId);
     }
 
     @Transactional
@@ -62,11 +65,13 @@ public class ReferenceTrackingService {
         for (UUID id : mediaIds) {
             deleteIfOrphaned(id);
         }
+
+        backlinkService.deleteMentions(entityType, entityId);
     }
 
     private void deleteIfOrphaned(UUID mediaId) {
         if (referenceRepository.findByMediaId(mediaId).isEmpty()) {
-            mediaRepository.deleteById(mediaId);
+            mediaService.deleteMedia(mediaId);
         }
     }
 
@@ -74,14 +79,7 @@ public class ReferenceTrackingService {
         Set<UUID> uuids = new HashSet<>();
         if (content == null) return uuids;
 
-        Pattern pattern = Pattern.compile("#\\{(?:image|emote):([\\w\\-]+)\\}");
-        Matcher matcher = pattern.matcher(content);
-        while (matcher.find()) {
-            try {
-                uuids.add(UUID.fromString(matcher.group(1)));
-            } catch (IllegalArgumentException ignored) {
-            }
-        }
+        Shortcodes.extractUuids(content, uuids, "image", "emote");
         return uuids;
     }
 
@@ -0,0 +1,31 @@
+package online.hatsune_miku.bookwiki.media;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.ToString;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Result of writing a payload into the {@link MediaStorage}: its SHA-256 content hash and its size in bytes.
+ */
+@Getter
+@ToString
+@RequiredArgsConstructor
+public class StoredContent {
+    private final String hash;
+    private final long length;
+    // Stored outside of a transaction, the claim on the payload is handed to the one attaching it
+    @Getter(AccessLevel.NONE)
+    @ToString.Exclude
+    private final AtomicBoolean claimPending = new AtomicBoolean();
+
+    void claimPending() {
+        claimPending.set(true);
+    }
+
+    boolean takeClaim() {
+        return claimPending.getAndSet(false);
+    }
+}
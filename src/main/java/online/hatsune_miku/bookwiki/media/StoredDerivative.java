@@ -0,0 +1,18 @@
+package online.hatsune_miku.bookwiki.media;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * A derivative file found in the {@link MediaStorage}, used to rebuild the derivative cache index on startup.
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+public class StoredDerivative {
+    private final String hash;
+    private final String variant;
+    private final long length;
+    private final long lastModified;
+}
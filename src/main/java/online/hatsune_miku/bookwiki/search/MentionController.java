@@ -0,0 +1,30 @@
+package online.hatsune_miku.bookwiki.search;
+
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("/api/stories/{storyId}/mentions")
+public class MentionController {
+
+    private static final int MAX_RESULTS = 100;
+
+    private final MentionService mentionService;
+
+    public MentionController(MentionService mentionService) {
+        this.mentionService = mentionService;
+    }
+
+    @GetMapping
+    public List<MentionSuggestion> suggest(@PathVariable Long storyId,
+                                           @RequestParam(defaultValue = "") String prefix,
+                                           @RequestParam(required = false) String type,
+                                           @RequestParam(defaultValue = "20") int limit) {
+        return mentionService.suggest(storyId, prefix, type, Math.clamp(limit, 1, MAX_RESULTS));
+    }
+}
@@ -0,0 +1,31 @@
+package online.hatsune_miku.bookwiki.search;
+
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PostUpdate;
+import org.springframework.stereotype.Component;
+
+/**
+ * JPA entity listener on the entities that can be mentioned, feeding their names to the
+ * {@link MentionService}. Hibernate resolves it through Spring, so the service is injected.
+ */
+@Component
+public class MentionListener {
+
+    private final MentionService mentionService;
+
+    public MentionListener(MentionService mentionService) {
+        this.mentionService = mentionService;
+    }
+
+    @PostPersist
+    @PostUpdate
+    public void onChange(Object entity) {
+        mentionService.changed(entity);
+    }
+
+    @PostRemove
+    public void onRemove(Object entity) {
+        mentionService.removed(entity);
+    }
+}
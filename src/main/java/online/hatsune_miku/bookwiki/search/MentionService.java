@@ -0,0 +1,149 @@
+package online.hatsune_miku.bookwiki.search;
+
+import jakarta.persistence.EntityManager;
+import lombok.extern.slf4j.Slf4j;
+import online.hatsune_miku.bookwiki.character.Character;
+import online.hatsune_miku.bookwiki.config.Transactions;
+import online.hatsune_miku.bookwiki.item.Item;
+import online.hatsune_miku.bookwiki.location.Location;
+import online.hatsune_miku.bookwiki.lore.Lore;
+import online.hatsune_miku.bookwiki.shortcode.Shortcodes;
+import online.hatsune_miku.bookwiki.species.Species;
+import online.hatsune_miku.bookwiki.story.Story;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Names for mention autocomplete. Each story gets a {@link NameIndex} the first time it is asked for, loaded
+ * with a query for just the id, name and picture of its entries. After that {@link MentionListener} keeps it up
+ * to date with every write, applied once the transaction commits.
+ */
+@Service
+@Slf4j
+public class MentionService {
+
+    // Shortcode type -> entity, the types that can be mentioned
+    private static final Map<String, Class<?>> TYPES = Map.of(
+            "character", Character.class,
+            "item", Item.class,
+            "location", Location.class,
+            "lore", Lore.class,
+            "species", Species.class);
+
+    private final EntityManager entityManager;
+    // Only building an index reads the database, lookups in a built one need no transaction
+    private final TransactionTemplate readTransaction;
+
+    // Story id -> index, only for stories that have been asked for since startup
+    private final Map<Long, NameIndex> indexes = new ConcurrentHashMap<>();
+
+    public MentionService(EntityManager entityManager, PlatformTransactionManager transactionManager) {
+        this.entityManager = entityManager;
+        this.readTransaction = new TransactionTemplate(transactionManager);
+        this.readTransaction.setReadOnly(true);
+    }
+
+    /**
+     * Returns entries whose name or one of its words starts with the prefix, those matching from the start of
+     * the name first. The type is optional.
+     */
+    public List<MentionSuggestion> suggest(Long storyId, String prefix, String type, int limit) {
+        if (type != null && !TYPES.containsKey(type)) return List.of();
+        return indexes.computeIfAbsent(storyId, id -> readTransaction.execute(_ -> build(id))).find(prefix, type, limit);
+    }
+
+    void changed(Object entity) {
+        MentionSuggestion suggestion = switch (entity) {
+            case Character c -> suggestion("character", c.getId(), c.getName(), c.getPictureUrl());
+            case Item i -> suggestion("item", i.getId(), i.getName(), i.getPictureUrl());
+            case Location l -> suggestion("location", l.getId(), l.getName(), l.getPictureUrl());
+            case Lore l -> suggestion("lore", l.getId(), l.getName(), l.getPictureUrl());
+            case Species s -> suggestion("species", s.getId(), s.getName(), s.getPictureUrl());
+            default -> null;
+        };
+        Long storyId = storyIdOf(entity);
+        if (suggestion == null || suggestion.getId() == null || storyId == null) return;
+        Transactions.afterCommit(() -> indexes.computeIfPresent(storyId, (_, index) -> {
+            index.put(suggestion);
+            return index;
+        }));
+    }
+
+    void removed(Object entity) {
+        String type = typeOf(entity);
+        Long id = idOf(entity);
+        if (type == null || id == null) return;
+        String key = NameIndex.key(type, id);
+        Transactions.afterCommit(() -> indexes.values().forEach(index -> index.remove(key)));
+    }
+
+    private NameIndex build(Long storyId) {
+        long start = System.currentTimeMillis();
+        NameIndex index = new NameIndex();
+        for (Map.Entry<String, Class<?>> type : TYPES.entrySet()) {
+            List<Object[]> rows = entityManager.createQuery(
+                            "SELECT e.id, e.name, e.pictureUrl FROM " + type.getValue().getName() + " e WHERE e.story.id = :storyId",
+                            Object[].class)
+                    .setParameter("storyId", storyId)
+                    .getResultList();
+            for (Object[] row : rows) {
+                index.put(suggestion(type.getKey(), (Long) row[0], (String) row[1], (String) row[2]));
+            }
+        }
+        log.debug("Built mention index for story {} with {} names in {} ms", storyId, index.size(), System.currentTimeMillis() - start);
+        return index;
+    }
+
+    private static MentionSuggestion suggestion(String type, Long id, String name, String pictureUrl) {
+        return MentionSuggestion.builder()
+                .type(type)
+                .id(id)
+                .name(name)
+                .thumbnailMediaId(mediaId(pictureUrl))
+                .build();
+    }
+
+    // The picture is an #{image:<uuid>} shortcode
+    private static UUID mediaId(String pictureUrl) {
+        List<UUID> ids = new ArrayList<>(1);
+        Shortcodes.extractUuids(pictureUrl, ids, "image");
+        return ids.isEmpty() ? null : ids.getFirst();
+    }
+
+    private static String typeOf(Object entity) {
+        for (Map.Entry<String, Class<?>> type : TYPES.entrySet()) {
+            if (type.getValue().isInstance(entity)) return type.getKey();
+        }
+        return null;
+    }
+
+    private static Long idOf(Object entity) {
+        return switch (entity) {
+            case Character c -> c.getId();
+            case Item i -> i.getId();
+            case Location l -> l.getId();
+            case Lore l -> l.getId();
+            case Species s -> s.getId();
+            default -> null;
+        };
+    }
+
+    private static Long storyIdOf(Object entity) {
+        Story story = switch (entity) {
+            case Character c -> c.getStory();
+            case Item i -> i.getStory();
+            case Location l -> l.getStory();
+            case Lore l -> l.getStory();
+            case Species s -> s.getStory();
+            default -> null;
+        };
+        return story != null ? story.getId() : null;
+    }
+}
@@ -0,0 +1,17 @@
+package online.hatsune_miku.bookwiki.search;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.UUID;
+
+@Data
+@Builder
+public class MentionSuggestion {
+    // Shortcode type: character, item, location, lore or species
+    private String type;
+    private Long id;
+    private String name;
+    // Media id of the picture, null if there is none
+    private UUID thumbnailMediaId;
+}
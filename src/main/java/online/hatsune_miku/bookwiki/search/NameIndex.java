@@ -0,0 +1,99 @@
+package online.hatsune_miku.bookwiki.search;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * The names of the mentionable entries of one story, sorted so that a prefix lookup is one O(log n) seek
+ * followed by reading the matches in order. Names match from their start first, e.g. "ar" finds "Aria", then
+ * from the start of any later word, e.g. "br" finds "Aria the Brave".
+ * <p>
+ * Lookups do not lock and see every change that completed before them; changes are serialized.
+ */
+class NameIndex {
+
+    // Separates the folded name from the entry key, which keeps entries with equal names apart. Sorts before
+    // every character that can follow a prefix, so shorter names come first.
+    private static final char SEPARATOR = '\0';
+
+    // Folded name + separator + key -> entry
+    private final NavigableMap<String, MentionSuggestion> names = new ConcurrentSkipListMap<>();
+    // Folded name from the start of its second, third, ... word + separator + key -> entry
+    private final NavigableMap<String, MentionSuggestion> words = new ConcurrentSkipListMap<>();
+    // Key ("character:12") -> entry as indexed
+    private final Map<String, MentionSuggestion> entries = new ConcurrentHashMap<>();
+
+    static String key(String type, Long id) {
+        return type + ":" + id;
+    }
+
+    synchronized void put(MentionSuggestion suggestion) {
+        String key = key(suggestion.getType(), suggestion.getId());
+        remove(key);
+        if (suggestion.getName() == null || suggestion.getName().isBlank()) return;
+        entries.put(key, suggestion);
+        String folded = SearchTokenizer.fold(suggestion.getName().strip());
+        names.put(folded + SEPARATOR + key, suggestion);
+        for (int start : wordStarts(folded)) {
+            words.put(folded.substring(start) + SEPARATOR + key, suggestion);
+        }
+    }
+
+    synchronized void remove(String key) {
+        MentionSuggestion old = entries.remove(key);
+        if (old == null) return;
+        String folded = SearchTokenizer.fold(old.getName().strip());
+        names.remove(folded + SEPARATOR + key);
+        for (int start : wordStarts(folded)) {
+            words.remove(folded.substring(start) + SEPARATOR + key);
+        }
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns up to {@code limit} entries whose name, or one of its words, starts with the prefix. An empty
+     * prefix lists the entries by name. The type is optional.
+     */
+    List<MentionSuggestion> find(String prefix, String type, int limit) {
+        String folded = prefix != null ? SearchTokenizer.fold(prefix.strip()) : "";
+        List<MentionSuggestion> found = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        collect(names, folded, type, limit, found, seen);
+        if (!folded.isEmpty()) {
+            collect(words, folded, type, limit, found, seen);
+        }
+        return found;
+    }
+
+    private static void collect(NavigableMap<String, MentionSuggestion> map, String prefix, String type, int limit,
+                                List<MentionSuggestion> found, Set<String> seen) {
+        for (Map.Entry<String, MentionSuggestion> entry : map.tailMap(prefix, true).entrySet()) {
+            if (found.size() >= limit || !entry.getKey().startsWith(prefix)) return;
+            MentionSuggestion suggestion = entry.getValue();
+            if ((type == null || type.equals(suggestion.getType()))
+                    && seen.add(key(suggestion.getType(), suggestion.getId()))) {
+                found.add(suggestion);
+            }
+        }
+    }
+
+    // Offsets of the words after the first one
+    private static List<Integer> wordStarts(String name) {
+        List<Integer> starts = new ArrayList<>();
+        for (int i = 1; i < name.length(); i++) {
+            if (java.lang.Character.isLetterOrDigit(name.charAt(i)) && !java.lang.Character.isLetterOrDigit(name.charAt(i - 1))) {
+                starts.add(i);
+            }
+        }
+        return starts;
+    }
+}
@@ -0,0 +1,28 @@
+package online.hatsune_miku.bookwiki.search;
+
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("/api/search")
+public class SearchController {
+
+    private static final int MAX_RESULTS = 100;
+
+    private final SearchService searchService;
+
+    public SearchController(SearchService searchService) {
+        this.searchService = searchService;
+    }
+
+    @GetMapping
+    public List<SearchResult> search(@RequestParam("q") String query,
+                                     @RequestParam Long storyId,
+                                     @RequestParam(defaultValue = "20") int limit) {
+        return searchService.search(storyId, query, Math.clamp(limit, 1, MAX_RESULTS));
+    }
+}
@@ -0,0 +1,34 @@
+package online.hatsune_miku.bookwiki.search;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * The searchable text of one chapter or worldbuilding entry, with HTML and shortcodes already stripped.
+ */
+@Getter
+@AllArgsConstructor
+class SearchDocument {
+
+    // CHAPTER, CHARACTER, LOCATION, ITEM, LORE or SPECIES, as in media references
+    private final String type;
+    private final Long id;
+    private final Long storyId;
+    private final String title;
+    // In display order, empty fields left out
+    private final List<Field> fields;
+
+    String getKey() {
+        return type + ":" + id;
+    }
+
+    @Getter
+    @AllArgsConstructor
+    static class Field {
+        // "Content", "Description", a section title, ...
+        private final String label;
+        private final String text;
+    }
+}
@@ -0,0 +1,220 @@
+package online.hatsune_miku.bookwiki.search;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+/**
+ * Inverted index over the documents of one story. Every term maps to the documents containing it and how
+ * often; the terms are sorted, so the last query term can also match as a prefix while it is still being
+ * typed. All query terms have to match. Results are ranked with BM25, a term in the title counts as
+ * {@value #TITLE_WEIGHT} occurrences.
+ */
+class SearchIndex {
+
+    private static final int TITLE_WEIGHT = 3;
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    // Completions of an unfinished query term rank below the term itself
+    private static final double PREFIX_WEIGHT = 0.5;
+    private static final int MAX_COMPLETIONS = 64;
+
+    private static final int SNIPPET_LENGTH = 160;
+    private static final int SNIPPET_LEAD = 40;
+
+    // Term -> (document key -> term frequency)
+    private final NavigableMap<String, Map<String, Integer>> postings = new TreeMap<>();
+    private final Map<String, Entry> documents = new HashMap<>();
+    private long totalLength;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Adds the document, replacing an earlier version of it.
+     */
+    void put(SearchDocument document) {
+        Entry entry = new Entry(document);
+        lock.writeLock().lock();
+        try {
+            removeEntry(document.getKey());
+            documents.put(document.getKey(), entry);
+            entry.frequencies.forEach((term, frequency) ->
+                    postings.computeIfAbsent(term, _ -> new HashMap<>()).put(document.getKey(), frequency));
+            totalLength += entry.length;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void remove(String key) {
+        lock.writeLock().lock();
+        try {
+            removeEntry(key);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    int size() {
+        lock.readLock().lock();
+        try {
+            return documents.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    List<SearchResult> search(String query, int limit) {
+        List<String> queryTerms = new ArrayList<>(new LinkedHashSet<>(SearchTokenizer.terms(query)));
+        if (queryTerms.isEmpty() || limit <= 0) return List.of();
+        String lastTerm = queryTerms.getLast();
+
+        lock.readLock().lock();
+        try {
+            int count = documents.size();
+            if (count == 0) return List.of();
+            double averageLength = Math.max(1, totalLength / (double) count);
+
+            Map<String, Double> scores = null;
+            for (String term : queryTerms) {
+                Map<String, Double> termScores = new HashMap<>();
+                for (Map.Entry<String, Map<String, Integer>> posting : expand(term, term.equals(lastTerm))) {
+                    int documentFrequency = posting.getValue().size();
+                    double idf = Math.log(1 + (count - documentFrequency + 0.5) / (documentFrequency + 0.5));
+                    double weight = posting.getKey().equals(term) ? 1 : PREFIX_WEIGHT;
+                    posting.getValue().forEach((key, frequency) -> {
+                        double norm = K1 * (1 - B + B * documents.get(key).length / averageLength);
+                        termScores.merge(key, weight * idf * frequency * (K1 + 1) / (frequency + norm), Double::sum);
+                    });
+                }
+                if (scores == null) {
+                    scores = termScores;
+                } else {
+                    scores.keySet().retainAll(termScores.keySet());
+                    scores.replaceAll((key, score) -> score + termScores.get(key));
+                }
+                if (scores.isEmpty()) return List.of();
+            }
+
+            Predicate<String> matches = term -> queryTerms.contains(term) || term.startsWith(lastTerm);
+            return scores.entrySet().stream()
+                    .sorted(Map.Entry.<String, Double>comparingByValue(Comparator.reverseOrder()))
+                    .limit(limit)
+                    .map(scored -> result(documents.get(scored.getKey()).document, scored.getValue(), matches))
+                    .toList();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private List<Map.Entry<String, Map<String, Integer>>> expand(String term, boolean prefix) {
+        if (!prefix) {
+            Map<String, Integer> posting = postings.get(term);
+            return posting != null ? List.of(Map.entry(term, posting)) : List.of();
+        }
+        return postings.subMap(term, true, term + java.lang.Character.MAX_VALUE, false).entrySet().stream()
+                .limit(MAX_COMPLETIONS)
+                .toList();
+    }
+
+    private void removeEntry(String key) {
+        Entry old = documents.remove(key);
+        if (old == null) return;
+        for (String term : old.frequencies.keySet()) {
+            Map<String, Integer> posting = postings.get(term);
+            if (posting != null) {
+                posting.remove(key);
+                if (posting.isEmpty()) postings.remove(term);
+            }
+        }
+        totalLength -= old.length;
+    }
+
+    private static SearchResult result(SearchDocument document, double score, Predicate<String> matches) {
+        // The snippet comes from the field with the most matches, the first one if only the title matched
+        SearchDocument.Field best = null;
+        int bestMatches = -1;
+        for (SearchDocument.Field field : document.getFields()) {
+            int[] found = {0};
+            SearchTokenizer.tokenize(field.getText(), (term, _, _) -> {
+                if (matches.test(term)) found[0]++;
+            });
+            if (found[0] > bestMatches) {
+                best = field;
+                bestMatches = found[0];
+            }
+        }
+        return SearchResult.builder()
+                .type(document.getType())
+                .id(document.getId())
+                .title(document.getTitle())
+                .field(best != null ? best.getLabel() : null)
+                .snippet(best != null ? snippet(best.getText(), matches) : "")
+                .score(score)
+                .build();
+    }
+
+    static String snippet(String text, Predicate<String> matches) {
+        List<int[]> found = new ArrayList<>();
+        SearchTokenizer.tokenize(text, (term, start, end) -> {
+            if (matches.test(term)) found.add(new int[]{start, end});
+        });
+
+        int from = found.isEmpty() ? 0 : Math.max(0, found.getFirst()[0] - SNIPPET_LEAD);
+        if (from > 0) {
+            // Start at a word boundary
+            int space = text.indexOf(' ', from);
+            from = space >= 0 && space < found.getFirst()[0] ? space + 1 : from;
+        }
+        int to = Math.min(text.length(), from + SNIPPET_LENGTH);
+        if (to < text.length()) {
+            int space = text.lastIndexOf(' ', to);
+            to = space > from ? space : to;
+        }
+
+        StringBuilder snippet = new StringBuilder();
+        if (from > 0) snippet.append('…');
+        int copied = from;
+        for (int[] match : found) {
+            if (match[0] < from) continue;
+            if (match[1] > to) break;
+            snippet.append(escape(text.substring(copied, match[0])))
+                    .append("<mark>").append(escape(text.substring(match[0], match[1]))).append("</mark>");
+            copied = match[1];
+        }
+        snippet.append(escape(text.substring(copied, to)));
+        if (to < text.length()) snippet.append('…');
+        return snippet.toString();
+    }
+
+    private static String escape(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+
+    private static class Entry {
+        private final SearchDocument document;
+        private final Map<String, Integer> frequencies = new HashMap<>();
+        private int length;
+
+        Entry(SearchDocument document) {
+            this.document = document;
+            for (String term : SearchTokenizer.terms(document.getTitle())) {
+                frequencies.merge(term, TITLE_WEIGHT, Integer::sum);
+                length += TITLE_WEIGHT;
+            }
+            for (SearchDocument.Field field : document.getFields()) {
+                for (String term : SearchTokenizer.terms(field.getText())) {
+                    frequencies.merge(term, 1, Integer::sum);
+                    length++;
+                }
+            }
+        }
+    }
+}
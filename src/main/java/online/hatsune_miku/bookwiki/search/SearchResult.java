@@ -0,0 +1,18 @@
+package online.hatsune_miku.bookwiki.search;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class SearchResult {
+    // CHAPTER, CHARACTER, LOCATION, ITEM, LORE or SPECIES
+    private String type;
+    private Long id;
+    private String title;
+    // Label of the field the snippet is taken from, e.g. "Content" or a section title
+    private String field;
+    // Plain text around the first match, HTML escaped, with the matched words wrapped in <mark>
+    private String snippet;
+    private double score;
+}
@@ -0,0 +1,250 @@
+package online.hatsune_miku.bookwiki.search;
+
+import lombok.extern.slf4j.Slf4j;
+import online.hatsune_miku.bookwiki.chapter.Chapter;
+import online.hatsune_miku.bookwiki.chapter.ChapterNote;
+import online.hatsune_miku.bookwiki.chapter.ChapterRepository;
+import online.hatsune_miku.bookwiki.character.Character;
+import online.hatsune_miku.bookwiki.character.CharacterRepository;
+import online.hatsune_miku.bookwiki.character.CharacterSection;
+import online.hatsune_miku.bookwiki.config.Transactions;
+import online.hatsune_miku.bookwiki.item.Item;
+import online.hatsune_miku.bookwiki.item.ItemRepository;
+import online.hatsune_miku.bookwiki.item.ItemSection;
+import online.hatsune_miku.bookwiki.location.Location;
+import online.hatsune_miku.bookwiki.location.LocationRepository;
+import online.hatsune_miku.bookwiki.location.LocationSection;
+import online.hatsune_miku.bookwiki.lore.Lore;
+import online.hatsune_miku.bookwiki.lore.LoreRepository;
+import online.hatsune_miku.bookwiki.lore.LoreSection;
+import online.hatsune_miku.bookwiki.shortcode.Shortcodes;
+import online.hatsune_miku.bookwiki.species.Species;
+import online.hatsune_miku.bookwiki.species.SpeciesAncestryService;
+import online.hatsune_miku.bookwiki.species.SpeciesSection;
+import online.hatsune_miku.bookwiki.story.Story;
+import org.jsoup.Jsoup;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Full-text search over the chapters, notes and worldbuilding entries of a story. Each story gets a
+ * {@link SearchIndex} the first time it is searched. After that the services keep it up to date by handing
+ * every saved or deleted entry to this service; the change is applied once the transaction commits, so a
+ * rollback never shows up in search results.
+ */
+@Service
+@Slf4j
+public class SearchService {
+
+    private final ChapterRepository chapterRepository;
+    private final CharacterRepository characterRepository;
+    private final LocationRepository locationRepository;
+    private final ItemRepository itemRepository;
+    private final LoreRepository loreRepository;
+    private final SpeciesAncestryService speciesAncestryService;
+    // Only building an index reads the database, searching a built one needs no transaction
+    private final TransactionTemplate readTransaction;
+
+    // Story id -> index, only for stories that have been searched since startup
+    private final Map<Long, SearchIndex> indexes = new ConcurrentHashMap<>();
+
+    public SearchService(ChapterRepository chapterRepository,
+                         CharacterRepository characterRepository,
+                         LocationRepository locationRepository,
+                         ItemRepository itemRepository,
+                         LoreRepository loreRepository,
+                         SpeciesAncestryService speciesAncestryService,
+                         PlatformTransactionManager transactionManager) {
+        this.chapterRepository = chapterRepository;
+        this.characterRepository = characterRepository;
+        this.locationRepository = locationRepository;
+        this.itemRepository = itemRepository;
+        this.loreRepository = loreRepository;
+        this.speciesAncestryService = speciesAncestryService;
+        this.readTransaction = new TransactionTemplate(transactionManager);
+        this.readTransaction.setReadOnly(true);
+    }
+
+    /**
+     * Returns the best matches for the query, best first. All words of the query have to match, the last one
+     * also as the start of a longer word.
+     */
+    public List<SearchResult> search(Long storyId, String query, int limit) {
+        if (storyId == null || query == null || query.isBlank()) return List.of();
+        return indexes.computeIfAbsent(storyId, id -> readTransaction.execute(_ -> build(id))).search(query, limit);
+    }
+
+    public void index(Chapter chapter) {
+        put(document(chapter));
+    }
+
+    public void index(Character character) {
+        put(document(character));
+    }
+
+    public void index(Location location) {
+        put(document(location));
+    }
+
+    public void index(Item item) {
+        put(document(item));
+    }
+
+    public void index(Lore lore) {
+        put(document(lore));
+    }
+
+    public void index(Species species) {
+        put(document(species));
+    }
+
+    private static SearchDocument document(Chapter chapter) {
+        List<SearchDocument.Field> fields = new ArrayList<>();
+        addHtml(fields, "Content", chapter.getContent());
+        if (chapter.getNotes() != null) {
+            for (ChapterNote note : chapter.getNotes()) {
+                addHtml(fields, "Notes", note.getContent());
+            }
+        }
+        return new SearchDocument("CHAPTER", chapter.getId(), storyId(chapter.getStory()), chapter.getTitle(), fields);
+    }
+
+    private static SearchDocument document(Character character) {
+        List<SearchDocument.Field> fields = new ArrayList<>();
+        addText(fields, "Role", character.getRole());
+        addText(fields, "Social Status", character.getSocialStatus());
+        if (character.getTraits() != null) {
+            addText(fields, "Traits", String.join(", ", character.getTraits()));
+        }
+        addHtml(fields, "Appearance", character.getAppearance());
+        addHtml(fields, "Description", character.getDescription());
+        if (character.getCustomSections() != null) {
+            for (CharacterSection section : character.getCustomSections()) {
+                addHtml(fields, section.getTitle(), section.getContent());
+            }
+        }
+        return new SearchDocument("CHARACTER", character.getId(), storyId(character.getStory()), character.getName(), fields);
+    }
+
+    private static SearchDocument document(Location location) {
+        List<SearchDocument.Field> fields = new ArrayList<>();
+        addHtml(fields, "What it is", location.getDescription());
+        addHtml(fields, "Where it is", location.getWhereItIs());
+        addHtml(fields, "Important Details", location.getDetails());
+        if (location.getCustomSections() != null) {
+            for (LocationSection section : location.getCustomSections()) {
+                addHtml(fields, section.getTitle(), section.getContent());
+            }
+        }
+        return new SearchDocument("LOCATION", location.getId(), storyId(location.getStory()), location.getName(), fields);
+    }
+
+    private static SearchDocument document(Item item) {
+        List<SearchDocument.Field> fields = new ArrayList<>();
+        addHtml(fields, "Description", item.getDescription());
+        if (item.getCustomSections() != null) {
+            for (ItemSection section : item.getCustomSections()) {
+                addHtml(fields, section.getTitle(), section.getContent());
+            }
+        }
+        return new SearchDocument("ITEM", item.getId(), storyId(item.getStory()), item.getName(), fields);
+    }
+
+    private static SearchDocument document(Lore lore) {
+        List<SearchDocument.Field> fields = new ArrayList<>();
+        if (lore.getCategories() != null) {
+            addText(fields, "Categories", String.join(", ", lore.getCategories()));
+        }
+        addHtml(fields, "Description", lore.getDescription());
+        if (lore.getCustomSections() != null) {
+            for (LoreSection section : lore.getCustomSections()) {
+                addHtml(fields, section.getTitle(), section.getContent());
+            }
+        }
+        return new SearchDocument("LORE", lore.getId(), storyId(lore.getStory()), lore.getName(), fields);
+    }
+
+    private static SearchDocument document(Species species) {
+        List<SearchDocument.Field> fields = new ArrayList<>();
+        addText(fields, "Lifespan", species.getLifespan());
+        addText(fields, "Average Size", species.getAverageSize());
+        addText(fields, "Diet", species.getDiet());
+        addHtml(fields, "Description", species.getDescription());
+        if (species.getCustomSections() != null) {
+            for (SpeciesSection section : species.getCustomSections()) {
+                addHtml(fields, section.getTitle(), section.getContent());
+            }
+        }
+        return new SearchDocument("SPECIES", species.getId(), storyId(species.getStory()), species.getName(), fields);
+    }
+
+    /**
+     * Removes a deleted entry, the type as in {@link SearchResult#getType()}.
+     */
+    public void remove(String type, Long id) {
+        String key = type + ":" + id;
+        Transactions.afterCommit(() -> indexes.values().forEach(index -> index.remove(key)));
+    }
+
+    /**
+     * Drops the index of the story, it is rebuilt from the database the next time the story is searched. For
+     * deleted stories and changes that are easier to reload than to track.
+     */
+    public void invalidate(Long storyId) {
+        if (storyId != null) {
+            Transactions.afterCommit(() -> indexes.remove(storyId));
+        }
+    }
+
+    /**
+     * Drops all indexes, for bulk changes like imports that do not go through the services.
+     */
+    public void invalidateAll() {
+        Transactions.afterCommit(indexes::clear);
+    }
+
+    private SearchIndex build(Long storyId) {
+        long start = System.currentTimeMillis();
+        SearchIndex index = new SearchIndex();
+        chapterRepository.findByStoryId(storyId).forEach(chapter -> index.put(document(chapter)));
+        characterRepository.findByStoryId(storyId).forEach(character -> index.put(document(character)));
+        locationRepository.findByStoryId(storyId).forEach(location -> index.put(document(location)));
+        itemRepository.findByStoryId(storyId).forEach(item -> index.put(document(item)));
+        loreRepository.findByStoryId(storyId).forEach(lore -> index.put(document(lore)));
+        speciesAncestryService.findByStoryWithInheritance(storyId).forEach(species -> index.put(document(species)));
+        log.debug("Built search index for story {} with {} documents in {} ms", storyId, index.size(), System.currentTimeMillis() - start);
+        return index;
+    }
+
+    private void put(SearchDocument document) {
+        if (document.getId() == null || document.getStoryId() == null) return;
+        // Stories that have not been searched yet are indexed from the database when they are
+        Transactions.afterCommit(() -> indexes.computeIfPresent(document.getStoryId(), (_, index) -> {
+            index.put(document);
+            return index;
+        }));
+    }
+
+    private static Long storyId(Story story) {
+        return story != null ? story.getId() : null;
+    }
+
+    private static void addText(List<SearchDocument.Field> fields, String label, String text) {
+        if (text != null && !text.isBlank()) {
+            fields.add(new SearchDocument.Field(label, text.strip()));
+        }
+    }
+
+    private static void addHtml(List<SearchDocument.Field> fields, String label, String html) {
+        if (html == null || html.isBlank()) return;
+        // Image and mention shortcodes are markup, not text
+        String text = Shortcodes.rewrite(Jsoup.parse(html).text(), _ -> " ");
+        addText(fields, label, text.replaceAll("\\s{2,}", " "));
+    }
+}
@@ -0,0 +1,72 @@
+package online.hatsune_miku.bookwiki.search;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits text into terms: runs of letters and digits, lower case and with accents removed, so that "Élan" and
+ * "elan" match. The offsets handed to the visitor point into the original text, which is what snippets are
+ * cut from.
+ */
+final class SearchTokenizer {
+
+    // Folded form of the Latin-1 and Latin Extended-A/B characters, everything above is only lower cased
+    private static final char[] FOLDED = new char[0x250];
+
+    static {
+        for (char c = 0; c < FOLDED.length; c++) {
+            char lower = java.lang.Character.toLowerCase(c);
+            String decomposed = Normalizer.normalize(String.valueOf(lower), Normalizer.Form.NFD);
+            FOLDED[c] = decomposed.isEmpty() ? lower : decomposed.charAt(0);
+        }
+    }
+
+    private SearchTokenizer() {
+    }
+
+    interface TermVisitor {
+        void accept(String term, int start, int end);
+    }
+
+    static void tokenize(String text, TermVisitor visitor) {
+        if (text == null) return;
+        StringBuilder term = new StringBuilder();
+        int start = -1;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (java.lang.Character.isLetterOrDigit(c)) {
+                if (start < 0) start = i;
+                term.append(fold(c));
+            } else if (start >= 0) {
+                visitor.accept(term.toString(), start, i);
+                term.setLength(0);
+                start = -1;
+            }
+        }
+        if (start >= 0) {
+            visitor.accept(term.toString(), start, text.length());
+        }
+    }
+
+    static List<String> terms(String text) {
+        List<String> terms = new ArrayList<>();
+        tokenize(text, (term, _, _) -> terms.add(term));
+        return terms;
+    }
+
+    /**
+     * The text lower cased and with accents removed, character by character, so offsets stay the same.
+     */
+    static String fold(String text) {
+        char[] folded = text.toCharArray();
+        for (int i = 0; i < folded.length; i++) {
+            folded[i] = fold(folded[i]);
+        }
+        return new String(folded);
+    }
+
+    private static char fold(char c) {
+        return c < FOLDED.length ? FOLDED[c] : java.lang.Character.toLowerCase(c);
+    }
+}
@@ -0,0 +1,89 @@
+package online.hatsune_miku.bookwiki.shortcode;
+
+import java.util.UUID;
+
+/**
+ * A {@code #{type:id}} shortcode found by {@link Shortcodes}. The scanner reuses one instance for the whole
+ * text, so it is only valid inside the callback it is passed to.
+ */
+public final class Shortcode {
+
+    private CharSequence text;
+    private int start;
+    private int typeEnd;
+    private int idEnd;
+
+    Shortcode() {
+    }
+
+    void set(CharSequence text, int start, int typeEnd, int idEnd) {
+        this.text = text;
+        this.start = start;
+        this.typeEnd = typeEnd;
+        this.idEnd = idEnd;
+    }
+
+    /**
+     * Offset of the leading {@code #}.
+     */
+    public int getStart() {
+        return start;
+    }
+
+    /**
+     * Offset after the closing brace.
+     */
+    public int getEnd() {
+        return idEnd + 1;
+    }
+
+    /**
+     * Compares the type ignoring case, without copying it out of the text.
+     */
+    public boolean isType(String type) {
+        int length = typeEnd - start - 2;
+        if (length != type.length()) return false;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(start + 2 + i);
+            char t = type.charAt(i);
+            if (c != t && Character.toLowerCase(c) != Character.toLowerCase(t)) return false;
+        }
+        return true;
+    }
+
+    public String getType() {
+        return text.subSequence(start + 2, typeEnd).toString();
+    }
+
+    public String getId() {
+        return text.subSequence(typeEnd + 1, idEnd).toString();
+    }
+
+    /**
+     * The id as a number, or null if it is not one (media ids are UUIDs).
+     */
+    public Long getLongId() {
+        try {
+            return Long.parseLong(text, typeEnd + 1, idEnd, 10);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * The id as a UUID, or null if it is not one.
+     */
+    public UUID getUuid() {
+        if (idEnd - typeEnd - 1 != 36) return null;
+        try {
+            return UUID.fromString(getId());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return text.subSequence(start, getEnd()).toString();
+    }
+}
@@ -0,0 +1,112 @@
+package online.hatsune_miku.bookwiki.shortcode;
+
+import java.util.Collection;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Scanner for the {@code #{type:id}} shortcodes in rich text, e.g. {@code #{character:12}} or
+ * {@code #{image:<uuid>}}. The type consists of word characters, the id of word characters and dashes
+ * (the same syntax the editor writes).
+ * <p>
+ * The text is walked once by a small state machine instead of a regex: nothing is allocated per character or
+ * per match unless a caller asks for the type or id as a string, and text without any {@code #} is skipped
+ * with a plain character search.
+ */
+public final class Shortcodes {
+
+    private Shortcodes() {
+    }
+
+    /**
+     * Calls the visitor for every shortcode in the text, in order.
+     */
+    public static void scan(CharSequence text, Consumer<Shortcode> visitor) {
+        if (text == null) return;
+        Shortcode shortcode = new Shortcode();
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            if (text.charAt(i) != '#') {
+                i++;
+                continue;
+            }
+            int end = match(text, i, length, shortcode);
+            if (end > 0) {
+                visitor.accept(shortcode);
+                i = end;
+            } else {
+                // Nothing between the # and the mismatch can start another shortcode
+                i = Math.max(i + 1, -end);
+            }
+        }
+    }
+
+    /**
+     * Adds the UUID ids of all shortcodes of the given types, e.g. the media referenced by a text.
+     */
+    public static void extractUuids(CharSequence text, Collection<UUID> into, String... types) {
+        scan(text, shortcode -> {
+            for (String type : types) {
+                if (shortcode.isType(type)) {
+                    UUID uuid = shortcode.getUuid();
+                    if (uuid != null) into.add(uuid);
+                    return;
+                }
+            }
+        });
+    }
+
+    /**
+     * Replaces shortcodes with whatever the function returns for them. Shortcodes for which it returns null
+     * are kept. Returns the same instance if nothing was replaced.
+     */
+    public static String rewrite(String text, Function<Shortcode, String> replacement) {
+        if (text == null || text.indexOf('#') < 0) return text;
+        StringBuilder out = new StringBuilder(text.length() + 16);
+        return rewrite(text, replacement, out) ? out.toString() : text;
+    }
+
+    /**
+     * Appends the text to {@code out} with shortcodes replaced as in {@link #rewrite(String, Function)}.
+     * Returns whether anything was replaced.
+     */
+    public static boolean rewrite(CharSequence text, Function<Shortcode, String> replacement, StringBuilder out) {
+        if (text == null) return false;
+        int[] copied = {0};
+        boolean[] replaced = {false};
+        scan(text, shortcode -> {
+            String value = replacement.apply(shortcode);
+            if (value != null) {
+                out.append(text, copied[0], shortcode.getStart()).append(value);
+                copied[0] = shortcode.getEnd();
+                replaced[0] = true;
+            }
+        });
+        out.append(text, copied[0], text.length());
+        return replaced[0];
+    }
+
+    // States: '#' -> '{' -> type chars -> ':' -> id chars -> '}'. Returns the end of the shortcode, or the
+    // negated offset of the mismatch.
+    private static int match(CharSequence text, int start, int length, Shortcode shortcode) {
+        int i = start + 1;
+        if (i >= length || text.charAt(i) != '{') return -i;
+        i++;
+        int typeStart = i;
+        while (i < length && isWordChar(text.charAt(i))) i++;
+        if (i == typeStart || i >= length || text.charAt(i) != ':') return -i;
+        int typeEnd = i;
+        i++;
+        int idStart = i;
+        while (i < length && (isWordChar(text.charAt(i)) || text.charAt(i) == '-')) i++;
+        if (i == idStart || i >= length || text.charAt(i) != '}') return -i;
+        shortcode.set(text, start, typeEnd, i);
+        return i + 1;
+    }
+
+    private static boolean isWordChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+    }
+}
@@ -0,0 +1,280 @@
+package online.hatsune_miku.bookwiki.species;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.select.Elements;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * The change from the old to the new version of an inheritable section, ready to be applied to any number of
+ * inherited copies. The two parent versions are parsed and diffed once: top-level blocks are compared in order,
+ * tables by index. Applying the plan parses the copy and only the blocks, rows and cells it inserts.
+ * <p>
+ * Holds strings only, no parsed nodes, so one plan can be applied from several threads.
+ */
+public class MergePlan {
+
+    // Precedes the parent's changes to blocks the copy has edited, for the author to reconcile
+    private static final String CONFLICT_HEADING = "<hr><div><strong>Updated from Parent Template:</strong></div>";
+
+    private final String parentTemplate;
+    private final String oldParentTemplate;
+    // Table index -> new version of a table that changed, in document order
+    private final Map<Integer, TableDelta> tables;
+    // Runs of blocks that differ between the old and new version
+    private final List<Gap> gaps;
+
+    MergePlan(String parentTemplate, String oldParentTemplate) {
+        this.parentTemplate = parentTemplate;
+        this.oldParentTemplate = oldParentTemplate;
+        Map<Integer, TableDelta> tables = new TreeMap<>();
+        List<Gap> gaps = List.of();
+        if (parentTemplate != null && !parentTemplate.trim().isEmpty()) {
+            Document parentDoc = Jsoup.parseBodyFragment(parentTemplate);
+            Document oldDoc = Jsoup.parseBodyFragment(oldParentTemplate != null ? oldParentTemplate : "");
+
+            Elements parentTables = parentDoc.select("table");
+            Elements oldTables = oldDoc.select("table");
+            for (int i = 0; i < parentTables.size(); i++) {
+                if (i >= oldTables.size() || !parentTables.get(i).outerHtml().equals(oldTables.get(i).outerHtml())) {
+                    tables.put(i, new TableDelta(parentTables.get(i)));
+                }
+            }
+            gaps = diff(blocks(oldDoc), blocks(parentDoc));
+        }
+        this.tables = tables;
+        this.gaps = gaps;
+    }
+
+    /**
+     * True if the new version differs structurally from the old one, a plan without changes leaves edited copies
+     * as they are.
+     */
+    public boolean hasChanges() {
+        return !tables.isEmpty() || !gaps.isEmpty();
+    }
+
+    /**
+     * Merges the change into an inherited copy. Empty and unedited copies take the new version as it is.
+     */
+    public String apply(String childContent) {
+        if (childContent == null || childContent.trim().isEmpty() || childContent.equals("<p><br></p>")) {
+            return parentTemplate;
+        }
+
+        // If child matches OLD parent exactly, it's unedited -> just take the NEW parent content
+        if (oldParentTemplate != null && childContent.equals(oldParentTemplate)) {
+            return parentTemplate;
+        }
+
+        if (parentTemplate == null || parentTemplate.trim().isEmpty() || !hasChanges()) {
+            return childContent;
+        }
+
+        Element body = Jsoup.parseBodyFragment(childContent).body();
+        mergeTables(body);
+
+        // Block html -> the copy's block, first occurrence
+        Map<String, Element> childBlocks = new HashMap<>();
+        for (Element block : body.children()) {
+            childBlocks.putIfAbsent(block.outerHtml(), block);
+        }
+        Set<String> inserted = new HashSet<>();
+        List<String> conflicts = new ArrayList<>();
+        for (Gap gap : gaps) {
+            applyGap(body, gap, childBlocks, inserted, conflicts);
+        }
+        if (!conflicts.isEmpty()) {
+            body.append(CONFLICT_HEADING);
+            conflicts.forEach(body::append);
+        }
+        return body.html();
+    }
+
+    private void mergeTables(Element body) {
+        Elements childTables = body.select("table");
+        for (Map.Entry<Integer, TableDelta> table : tables.entrySet()) {
+            if (table.getKey() < childTables.size()) {
+                table.getValue().mergeInto(childTables.get(table.getKey()));
+            } else {
+                // The copy has fewer tables, the new one is added at the end
+                body.append(table.getValue().html);
+            }
+        }
+    }
+
+    private static void applyGap(Element body, Gap gap, Map<String, Element> childBlocks, Set<String> inserted, List<String> conflicts) {
+        List<Element> removed = new ArrayList<>();
+        for (String html : gap.removed) {
+            Element block = childBlocks.get(html);
+            if (block != null) removed.add(block);
+        }
+        List<String> added = new ArrayList<>();
+        for (String html : gap.inserted) {
+            if (!childBlocks.containsKey(html) && inserted.add(html)) added.add(html);
+        }
+
+        // The copy edited what the parent changed, it keeps its version and gets the parent's below
+        if (!gap.removed.isEmpty() && removed.isEmpty()) {
+            conflicts.addAll(added);
+            return;
+        }
+
+        // Insert where the replaced blocks were, else after the block the run followed, else before the one
+        // that follows it
+        Element before;
+        if (!removed.isEmpty()) {
+            before = removed.getFirst();
+        } else if (gap.anchor != null && childBlocks.containsKey(gap.anchor)) {
+            before = childBlocks.get(gap.anchor).nextElementSibling();
+        } else if (gap.next != null && childBlocks.containsKey(gap.next)) {
+            before = childBlocks.get(gap.next);
+        } else {
+            before = null;
+        }
+        for (String html : added) {
+            if (before != null) {
+                before.before(html);
+            } else {
+                body.append(html);
+            }
+        }
+        for (Element block : removed) {
+            childBlocks.remove(block.outerHtml());
+            block.remove();
+        }
+    }
+
+    // The top-level blocks that do not contain tables, tables are merged by index
+    private static List<String> blocks(Document doc) {
+        List<String> blocks = new ArrayList<>();
+        for (Element block : doc.body().children()) {
+            if (!block.is("table") && block.selectFirst("table") == null) {
+                blocks.add(block.outerHtml());
+            }
+        }
+        return blocks;
+    }
+
+    // Longest common subsequence of the old and new blocks, the blocks outside of it form the gaps
+    private static List<Gap> diff(List<String> oldBlocks, List<String> newBlocks) {
+        int n = oldBlocks.size();
+        int m = newBlocks.size();
+        // lcs[i][j] = length of the LCS of oldBlocks[i..] and newBlocks[j..]
+        int[][] lcs = new int[n + 1][m + 1];
+        for (int i = n - 1; i >= 0; i--) {
+            for (int j = m - 1; j >= 0; j--) {
+                lcs[i][j] = oldBlocks.get(i).equals(newBlocks.get(j))
+                        ? lcs[i + 1][j + 1] + 1
+                        : Math.max(lcs[i + 1][j], lcs[i][j + 1]);
+            }
+        }
+
+        List<Gap> gaps = new ArrayList<>();
+        Gap gap = null;
+        String anchor = null;
+        int i = 0;
+        int j = 0;
+        while (i < n || j < m) {
+            if (i < n && j < m && oldBlocks.get(i).equals(newBlocks.get(j))) {
+                if (gap != null) {
+                    gap.next = newBlocks.get(j);
+                    gap = null;
+                }
+                anchor = newBlocks.get(j);
+                i++;
+                j++;
+                continue;
+            }
+            if (gap == null) {
+                gap = new Gap(anchor);
+                gaps.add(gap);
+            }
+            if (j < m && (i == n || lcs[i][j + 1] >= lcs[i + 1][j])) {
+                gap.inserted.add(newBlocks.get(j++));
+            } else {
+                gap.removed.add(oldBlocks.get(i++));
+            }
+        }
+        return gaps;
+    }
+
+    private static class Gap {
+        // The unchanged block before and after the run, null at the start and end
+        private final String anchor;
+        private String next;
+        private final List<String> removed = new ArrayList<>();
+        private final List<String> inserted = new ArrayList<>();
+
+        Gap(String anchor) {
+            this.anchor = anchor;
+        }
+    }
+
+    private static class TableDelta {
+        private final String html;
+        private final List<String> rows = new ArrayList<>();
+        // Per row: the cells' outer and inner html
+        private final List<List<String>> cells = new ArrayList<>();
+        private final List<List<String>> cellContents = new ArrayList<>();
+
+        TableDelta(Element table) {
+            this.html = table.outerHtml();
+            for (Element row : table.select("tr")) {
+                rows.add(row.outerHtml());
+                List<String> rowCells = new ArrayList<>();
+                List<String> rowContents = new ArrayList<>();
+                for (Element cell : row.select("td, th")) {
+                    rowCells.add(cell.outerHtml());
+                    rowContents.add(cell.html());
+                }
+                cells.add(rowCells);
+                cellContents.add(rowContents);
+            }
+        }
+
+        void mergeInto(Element cTable) {
+            Elements cRows = cTable.select("tr");
+
+            // 1. Merge existing rows
+            for (int i = 0; i < rows.size() && i < cRows.size(); i++) {
+                Element cRow = cRows.get(i);
+                Elements cCols = cRow.select("td, th");
+                List<String> pCols = cells.get(i);
+
+                // Sync column count and content for existing cells
+                for (int j = 0; j < pCols.size(); j++) {
+                    if (j < cCols.size()) {
+                        // If child cell is empty (or just a break), and parent has content, copy it
+                        // This is useful for headers or labels
+                        String cHtml = cCols.get(j).html().trim();
+                        if (cHtml.isEmpty() || cHtml.equals("<br>") || cHtml.equals("<p><br></p>")) {
+                            cCols.get(j).html(cellContents.get(i).get(j));
+                        }
+                    } else {
+                        // Append missing column from parent
+                        cRow.append(pCols.get(j));
+                    }
+                }
+            }
+
+            // 2. If parent has more rows, append them to child
+            if (rows.size() > cRows.size()) {
+                Element cBody = cTable.selectFirst("tbody");
+                if (cBody == null) cBody = cTable; // Fallback if no tbody
+
+                for (int i = cRows.size(); i < rows.size(); i++) {
+                    cBody.append(rows.get(i));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package online.hatsune_miku.bookwiki.species;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The propagation of the inheritable sections of one species, collecting the saves made until it starts.
+ * Serialized as the propagation status returned to the client.
+ */
+@Getter
+public class PropagationJob {
+
+    public enum Status { QUEUED, RUNNING, DONE, FAILED }
+
+    private final Long speciesId;
+    private final LocalDateTime createdAt = LocalDateTime.now();
+
+    private volatile Status status = Status.QUEUED;
+    // Saves coalesced into this job
+    private volatile int edits;
+    private volatile int sections;
+    private volatile PropagationResult result;
+    private volatile String error;
+    private volatile LocalDateTime startedAt;
+    private volatile LocalDateTime finishedAt;
+
+    // Section id -> content before the first of the saves, null for new sections. Guarded by the queue.
+    @JsonIgnore
+    @Getter(AccessLevel.PACKAGE)
+    private final Map<Long, String> oldContents = new HashMap<>();
+
+    PropagationJob(Long speciesId) {
+        this.speciesId = speciesId;
+    }
+
+    @JsonIgnore
+    public boolean isFinished() {
+        return status == Status.DONE || status == Status.FAILED;
+    }
+
+    // The earliest old content of a section is kept, the new content is read when the job runs
+    void add(Map<Long, String> changes) {
+        changes.forEach((sectionId, oldContent) -> {
+            if (!oldContents.containsKey(sectionId)) oldContents.put(sectionId, oldContent);
+        });
+        edits++;
+        sections = oldContents.size();
+    }
+
+    void started() {
+        startedAt = LocalDateTime.now();
+        status = Status.RUNNING;
+    }
+
+    void completed(PropagationResult result) {
+        this.result = result;
+        finishedAt = LocalDateTime.now();
+        status = Status.DONE;
+    }
+
+    void failed(String error) {
+        this.error = error;
+        finishedAt = LocalDateTime.now();
+        status = Status.FAILED;
+    }
+}
@@ -0,0 +1,15 @@
+package online.hatsune_miku.bookwiki.species;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class PropagationResult {
+    // Inherited copies whose content was merged with the new template
+    private int updatedSections;
+    // Copies added to children that did not have the section yet
+    private int addedSections;
+    // Descendant species with at least one updated or added section
+    private int touchedSpecies;
+}
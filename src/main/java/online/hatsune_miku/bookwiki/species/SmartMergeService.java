@@ -1,9 +1,5 @@
 package online.hatsune_miku.bookwiki.species;
 
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element;
-import org.jsoup.select.Elements;
 import org.springframework.stereotype.Service;
 
 @Service
@@ -18,93 +14,17 @@ public class SmartMergeService {
      * @return Merged HTML.
      */
     public String merge(String parentTemplate, String oldParentTemplate, String childContent) {
-        if (childContent == null || childContent.trim().isEmpty() || childContent.equals("<p><br></p>")) {
-            return parentTemplate;
-        }
-
-        // If child matches OLD parent exactly, it's unedited -> just take the NEW parent content
-        if (oldParentTemplate != null && childContent.equals(oldParentTemplate)) {
-            return parentTemplate;
-        }
-
-        if (parentTemplate == null || parentTemplate.trim().isEmpty()) {
-            return childContent;
-        }
-
-        Document parentDoc = Jsoup.parseBodyFragment(parentTemplate);
-        Document childDoc = Jsoup.parseBodyFragment(childContent);
-
-        mergeTables(parentDoc, childDoc);
-
-        // For non-table content: append parent content if missing in child
-        String parentBody = parentDoc.body().html();
-        String childBody = childDoc.body().html();
-        
-        if (!childBody.contains(parentBody)) {
-            childDoc.body().append("<hr>").append("<div><strong>Updated from Parent Template:</strong></div>").append(parentBody);
-        }
-        
-        return childDoc.body().html();
-    }
-
-    private void mergeTables(Document parentDoc, Document childDoc) {
-        Elements parentTables = parentDoc.select("table");
-        Elements childTables = childDoc.select("table");
-
-        // Simple heuristic: Merge tables by index if they match
-        for (int i = 0; i < parentTables.size() && i < childTables.size(); i++) {
-            Element pTable = parentTables.get(i);
-            Element cTable = childTables.get(i);
-            mergeTable(pTable, cTable);
-        }
+        return prepare(parentTemplate, oldParentTemplate).apply(childContent);
     }
 
-    private void mergeTable(Element pTable, Element cTable) {
-        Elements pRows = pTable.select("tr");
-        Elements cRows = cTable.select("tr");
-
-        // 1. Merge existing rows
-        for (int i = 0; i < pRows.size() && i < cRows.size(); i++) {
-            Element pRow = pRows.get(i);
-            Element cRow = cRows.get(i);
-            
-            Elements pCols = pRow.select("td, th");
-            Elements cCols = cRow.select("td, th");
-            
-            // Sync column count and content for existing cells
-            for (int j = 0; j < pCols.size(); j++) {
-                Element pCol = pCols.get(j);
-                if (j < cCols.size()) {
-                    Element cCol = cCols.get(j);
-                    // If child cell is empty (or just a break), and parent has content, copy it
-                    // This is useful for headers or labels
-                    String cHtml = cCol.html().trim();
-                    if (cHtml.isEmpty() || cHtml.equals("<br>") || cHtml.equals("<p><br></p>")) {
-                        cCol.html(pCol.html());
-                    }
-                } else {
-                    // Append missing column from parent
-                    cRow.appendChild(pCol.clone());
-                }
-            }
-        }
-
-        // 2. If parent has more rows, append them to child
-        if (pRows.size() > cRows.size()) {
-            Element cBody = cTable.select("tbody").first();
-            if (cBody == null) cBody = cTable; // Fallback if no tbody
-            
-            for (int i = cRows.size(); i < pRows.size(); i++) {
-                cBody.appendChild(pRows.get(i).clone());
-            }
-        }
-    }
-
-    private int getMaxColumns(Elements rows) {
-        int max = 0;
-        for (Element row : rows) {
-            max = Math.max(max, row.select("td, th").size());
-        }
-        return max;
+    /**
+     * Parses and diffs the two versions of a parent section once, for merging the change into many children.
+     *
+     * @param parentTemplate The new HTML from the parent section.
+     * @param oldParentTemplate The previous HTML from the parent section, {@code null} if unknown.
+     * @return A plan that can be applied to each child, also concurrently.
+     */
+    public MergePlan prepare(String parentTemplate, String oldParentTemplate) {
+        return new MergePlan(parentTemplate, oldParentTemplate);
     }
 }
@@ -0,0 +1,40 @@
+package online.hatsune_miku.bookwiki.species;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+/**
+ * Closure of the species hierarchy: one row for every species and each of its ancestors, including the species
+ * itself at depth 0. Lets the inheritance and the taxonomy be read with a single query instead of walking the
+ * parent chain. Maintained by {@link SpeciesAncestryService}.
+ */
+@Entity
+@Table(name = "species_ancestry", indexes = {
+        @Index(name = "idx_species_ancestry_descendant", columnList = "descendant_id, depth"),
+        @Index(name = "idx_species_ancestry_ancestor", columnList = "ancestor_id, depth")
+})
+@Getter
+@Setter
+@ToString
+@NoArgsConstructor
+@AllArgsConstructor
+public class SpeciesAncestry {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false)
+    private Long ancestorId;
+
+    @Column(nullable = false)
+    private Long descendantId;
+
+    // 0 for the species itself, 1 for its parent, ...
+    private int depth;
+
+    public SpeciesAncestry(Long ancestorId, Long descendantId, int depth) {
+        this.ancestorId = ancestorId;
+        this.descendantId = descendantId;
+        this.depth = depth;
+    }
+}
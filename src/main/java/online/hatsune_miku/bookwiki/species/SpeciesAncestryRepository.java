@@ -0,0 +1,43 @@
+package online.hatsune_miku.bookwiki.species;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.Collection;
+import java.util.List;
+
+public interface SpeciesAncestryRepository extends JpaRepository<SpeciesAncestry, Long> {
+    // The species and its ancestors, nearest first
+    List<SpeciesAncestry> findByDescendantIdOrderByDepth(Long descendantId);
+
+    // The species and all of its descendants
+    List<SpeciesAncestry> findByAncestorId(Long ancestorId);
+
+    /**
+     * The inheritable sections of the ancestors of the given species, as descendant id, depth, section id,
+     * title and content, nearest ancestor first.
+     */
+    @Query("SELECT a.descendantId, a.depth, s.id, s.title, s.content FROM SpeciesAncestry a, SpeciesSection s "
+            + "WHERE s.species.id = a.ancestorId AND a.depth > 0 AND s.isInheritable = true AND a.descendantId IN :speciesIds "
+            + "ORDER BY a.descendantId, a.depth, s.id")
+    List<Object[]> findInheritableSections(@Param("speciesIds") Collection<Long> speciesIds);
+
+    // Cuts a subtree off from everything above it
+    @Modifying
+    @Query("DELETE FROM SpeciesAncestry a WHERE a.descendantId IN :subtree AND a.ancestorId NOT IN :subtree")
+    void deleteLinksInto(@Param("subtree") Collection<Long> subtree);
+
+    @Modifying
+    @Query("DELETE FROM SpeciesAncestry a WHERE a.ancestorId = :speciesId OR a.descendantId = :speciesId")
+    void deleteBySpeciesId(@Param("speciesId") Long speciesId);
+
+    @Modifying
+    @Query("DELETE FROM SpeciesAncestry a WHERE a.descendantId IN :speciesIds")
+    void deleteByDescendantIdIn(@Param("speciesIds") Collection<Long> speciesIds);
+
+    @Modifying
+    @Query("DELETE FROM SpeciesAncestry a WHERE a.descendantId IN (SELECT s.id FROM Species s WHERE s.story.id = :storyId)")
+    void deleteByStoryId(@Param("storyId") Long storyId);
+}
@@ -0,0 +1,214 @@
+package online.hatsune_miku.bookwiki.species;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps {@link SpeciesAncestry} in line with the {@code parentId} of the species. The service moves single
+ * species as they are created, reparented and deleted; imports, which write species without it, rebuild the
+ * rows of everything they wrote.
+ */
+@Service
+@Slf4j
+public class SpeciesAncestryService {
+
+    private final SpeciesAncestryRepository ancestryRepository;
+    private final SpeciesRepository speciesRepository;
+
+    public SpeciesAncestryService(SpeciesAncestryRepository ancestryRepository, SpeciesRepository speciesRepository) {
+        this.ancestryRepository = ancestryRepository;
+        this.speciesRepository = speciesRepository;
+    }
+
+    /**
+     * The inheritable sections of the ancestors of each species, nearest ancestor first, read with one query
+     * for any number of species. The sections are unmanaged copies carrying the id of the ancestor's section.
+     */
+    @Transactional(readOnly = true)
+    public Map<Long, List<SpeciesSection>> findInheritableSections(Collection<Long> speciesIds) {
+        Map<Long, List<SpeciesSection>> sections = new HashMap<>();
+        if (speciesIds.isEmpty()) return sections;
+        for (Object[] row : ancestryRepository.findInheritableSections(speciesIds)) {
+            SpeciesSection template = new SpeciesSection();
+            template.setId((Long) row[2]);
+            template.setTitle((String) row[3]);
+            template.setContent((String) row[4]);
+            template.setIsInheritable(true);
+            sections.computeIfAbsent((Long) row[0], _ -> new ArrayList<>()).add(template);
+        }
+        return sections;
+    }
+
+    /**
+     * The species of the story with the sections they inherit, see {@link #withInheritance(List)}. For everything
+     * that shows or indexes species outside of the species editor.
+     */
+    @Transactional(readOnly = true)
+    public List<Species> findByStoryWithInheritance(Long storyId) {
+        return withInheritance(speciesRepository.findWithSectionsByStoryId(storyId));
+    }
+
+    /**
+     * Adds the sections the species inherit but do not have yet, for reading, with one query for all of them.
+     * The entities are left alone: a species missing sections is returned as a copy, the sections are only
+     * stored by the write paths of the {@link SpeciesService}.
+     */
+    @Transactional(readOnly = true)
+    public List<Species> withInheritance(List<Species> species) {
+        List<Long> children = species.stream()
+                .filter(s -> s.getParentId() != null)
+                .map(Species::getId)
+                .toList();
+        if (children.isEmpty()) return species;
+
+        Map<Long, List<SpeciesSection>> inheritable = findInheritableSections(children);
+        return species.stream().map(s -> {
+            List<SpeciesSection> missing = missingSections(s, inheritable.getOrDefault(s.getId(), List.of()));
+            return missing.isEmpty() ? s : copyWithSections(s, missing);
+        }).toList();
+    }
+
+    /**
+     * New sections for the inheritable ones (nearest ancestor first) that the species has neither inherited
+     * nor overridden with a section of the same title. Closer ancestors override further ones.
+     */
+    static List<SpeciesSection> missingSections(Species species, List<SpeciesSection> inheritable) {
+        List<SpeciesSection> missing = new ArrayList<>();
+        Set<String> titles = new HashSet<>();
+        for (SpeciesSection template : inheritable) {
+            if (!titles.add(String.valueOf(template.getTitle()))) continue;
+
+            // Check if child already has this section (by inheritedFromSectionId OR title)
+            boolean exists = species.getCustomSections().stream()
+                    .anyMatch(s -> template.getId().equals(s.getInheritedFromSectionId()) ||
+                                  (s.getTitle() != null && s.getTitle().equalsIgnoreCase(template.getTitle())));
+            if (!exists) {
+                SpeciesSection newSection = new SpeciesSection();
+                newSection.setTitle(template.getTitle());
+                newSection.setContent(template.getContent());
+                newSection.setIsInheritable(true); // Default to true for recursive inheritance
+                newSection.setInheritedFromSectionId(template.getId());
+                missing.add(newSection);
+            }
+        }
+        return missing;
+    }
+
+    private static Species copyWithSections(Species species, List<SpeciesSection> added) {
+        Species copy = new Species();
+        copy.setId(species.getId());
+        copy.setName(species.getName());
+        copy.setPictureUrl(species.getPictureUrl());
+        copy.setCategory(species.getCategory());
+        copy.setParentId(species.getParentId());
+        copy.setLifespan(species.getLifespan());
+        copy.setAverageSize(species.getAverageSize());
+        copy.setDiet(species.getDiet());
+        copy.setDescription(species.getDescription());
+        copy.setHabitatId(species.getHabitatId());
+        copy.setStory(species.getStory());
+        List<SpeciesSection> sections = new ArrayList<>(species.getCustomSections());
+        for (SpeciesSection section : added) {
+            section.setSpecies(copy);
+            sections.add(section);
+        }
+        copy.setCustomSections(sections);
+        return copy;
+    }
+
+    /**
+     * Places the species, together with its descendants, under a new parent, or at the top for {@code null}.
+     * A new species gets its own row first.
+     */
+    @Transactional
+    public void move(Long speciesId, Long parentId) {
+        List<SpeciesAncestry> subtree = ancestryRepository.findByAncestorId(speciesId);
+        if (subtree.isEmpty()) {
+            subtree = List.of(ancestryRepository.save(new SpeciesAncestry(speciesId, speciesId, 0)));
+        }
+        Set<Long> subtreeIds = new HashSet<>();
+        subtree.forEach(row -> subtreeIds.add(row.getDescendantId()));
+        if (parentId != null && subtreeIds.contains(parentId)) {
+            throw new RuntimeException("A species cannot descend from itself");
+        }
+
+        ancestryRepository.deleteLinksInto(subtreeIds);
+        if (parentId == null) return;
+
+        List<SpeciesAncestry> added = new ArrayList<>();
+        for (SpeciesAncestry above : ancestryRepository.findByDescendantIdOrderByDepth(parentId)) {
+            for (SpeciesAncestry below : subtree) {
+                added.add(new SpeciesAncestry(above.getAncestorId(), below.getDescendantId(), above.getDepth() + below.getDepth() + 1));
+            }
+        }
+        ancestryRepository.saveAll(added);
+    }
+
+    /**
+     * Drops a deleted species. Its children keep their parent id, like the inheritance walk used to, their
+     * subtrees end where the species was.
+     */
+    @Transactional
+    public void remove(Long speciesId) {
+        move(speciesId, null);
+        ancestryRepository.deleteBySpeciesId(speciesId);
+    }
+
+    @Transactional
+    public void removeStory(Long storyId) {
+        ancestryRepository.deleteByStoryId(storyId);
+    }
+
+    @Transactional
+    public void removeAll() {
+        ancestryRepository.deleteAllInBatch();
+    }
+
+    /**
+     * Recomputes the rows of the given species from their parent ids. Parents outside the collection end the
+     * chain, as does a cycle.
+     */
+    @Transactional
+    public void rebuild(Collection<Species> species) {
+        Map<Long, Long> parents = new HashMap<>();
+        for (Species s : species) {
+            if (s.getId() != null) parents.put(s.getId(), s.getParentId());
+        }
+        if (parents.isEmpty()) return;
+
+        List<SpeciesAncestry> rows = new ArrayList<>();
+        for (Long id : parents.keySet()) {
+            Set<Long> visited = new HashSet<>();
+            Long current = id;
+            int depth = 0;
+            while (current != null && parents.containsKey(current) && visited.add(current)) {
+                rows.add(new SpeciesAncestry(current, id, depth++));
+                current = parents.get(current);
+            }
+        }
+        ancestryRepository.deleteByDescendantIdIn(parents.keySet());
+        ancestryRepository.saveAll(rows);
+    }
+
+    /**
+     * Fills the table from the existing species the first time the application runs with it.
+     */
+    @Transactional
+    public void backfill() {
+        if (ancestryRepository.count() > 0) return;
+        List<Species> species = speciesRepository.findAll();
+        rebuild(species);
+        if (!species.isEmpty()) {
+            log.info("Built the ancestry of {} species", species.size());
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package online.hatsune_miku.bookwiki.species;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import jakarta.validation.Valid;
 
@@ -43,14 +44,22 @@ public class SpeciesController {
         return speciesService.addSection(id, section);
     }
 
+    @GetMapping("/species/{id}/propagation")
+    public ResponseEntity<PropagationJob> getPropagation(@PathVariable Long id) {
+        return speciesService.getPropagation(id)
+                .map(ResponseEntity::ok)
+                .orElse(ResponseEntity.notFound().build());
+    }
+
     @PostMapping("/species/sections/{id}/depropagate")
     public void depropagateInheritance(@PathVariable Long id, @RequestParam String mode) {
         speciesService.depropagateInheritance(id, mode);
     }
 
     @GetMapping("/stories/{storyId}/species/{speciesId}/taxonomy")
-    public SpeciesTaxonomyDTO getTaxonomy(@PathVariable Long storyId, @PathVariable Long speciesId) {
-        return speciesService.getTaxonomy(speciesId);
+    public SpeciesTaxonomyDTO getTaxonomy(@PathVariable Long storyId, @PathVariable Long speciesId,
+                                          @RequestParam(required = false) Integer depth) {
+        return speciesService.getTaxonomy(speciesId, depth);
     }
 
     @GetMapping("/species/flow")
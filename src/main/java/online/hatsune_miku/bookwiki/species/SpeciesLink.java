@@ -6,6 +6,7 @@ import lombok.*;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 @Entity
+@EntityListeners(online.hatsune_miku.bookwiki.data.StoryChangeListener.class)
 @Table(name = "species_links")
 @Getter
 @Setter
@@ -0,0 +1,162 @@
+package online.hatsune_miku.bookwiki.species;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import online.hatsune_miku.bookwiki.config.Transactions;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the propagation of edited inheritable sections in the background, so a save does not wait for the
+ * taxonomy below it. The saves of one species within {@code bookwiki.species.propagation-delay-ms} are
+ * coalesced into one job that merges from the content before the first save to the content at the time it
+ * runs. Jobs run one at a time, two propagations never write the same subtree concurrently.
+ */
+@Service
+@Slf4j
+public class SpeciesPropagationQueue {
+
+    // Finished jobs are forgotten after this
+    private static final Duration JOB_RETENTION = Duration.ofHours(1);
+    // How long a shutdown waits for the running job
+    private static final Duration SHUTDOWN_TIMEOUT = Duration.ofSeconds(30);
+
+    private final SpeciesRepository speciesRepository;
+    private final SpeciesPropagationService propagationService;
+    private final TransactionTemplate transactionTemplate;
+    private final ScheduledThreadPoolExecutor executor;
+    private final long delayMillis;
+
+    // Species id -> the job collecting saves, until it starts. Guarded by this.
+    private final Map<Long, PropagationJob> queued = new HashMap<>();
+    // Species id -> the latest job, queued, running or finished
+    private final Map<Long, PropagationJob> jobs = new ConcurrentHashMap<>();
+
+    public SpeciesPropagationQueue(SpeciesRepository speciesRepository,
+                                   SpeciesPropagationService propagationService,
+                                   PlatformTransactionManager transactionManager,
+                                   @Value("${bookwiki.species.propagation-delay-ms:1500}") long delayMillis) {
+        this.speciesRepository = speciesRepository;
+        this.propagationService = propagationService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.delayMillis = delayMillis;
+        this.executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "species-propagation");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Runs the jobs still waiting for their delay right away, so saves made just before the shutdown still
+     * reach the descendants. The running job is finished first.
+     */
+    @PreDestroy
+    void shutdown() {
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(SHUTDOWN_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)) {
+                log.warn("Propagation still running at shutdown, the sections of species {} are not propagated", pendingSpecies());
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Interrupted while shutting down, the sections of species {} are not propagated", pendingSpecies());
+            return;
+        }
+        // Only taken now, a job that started before the shutdown may not have left the queue yet
+        List<PropagationJob> pending;
+        synchronized (this) {
+            pending = new ArrayList<>(queued.values());
+        }
+        if (!pending.isEmpty()) {
+            log.info("Propagating the sections of {} species before shutting down", pending.size());
+        }
+        pending.forEach(this::run);
+    }
+
+    /**
+     * Queues the propagation of the changed sections of a save, once its transaction commits.
+     */
+    public void submit(Long speciesId, List<SpeciesPropagationService.SectionChange> changes) {
+        if (speciesId == null || changes.isEmpty()) return;
+        // Section id -> old content, the sections themselves are read again when the job runs
+        Map<Long, String> oldContents = new HashMap<>();
+        changes.forEach(change -> oldContents.put(change.getTemplate().getId(), change.getOldContent()));
+        Transactions.afterCommit(() -> enqueue(speciesId, oldContents));
+    }
+
+    public Optional<PropagationJob> getJob(Long speciesId) {
+        return Optional.ofNullable(jobs.get(speciesId));
+    }
+
+    synchronized void enqueue(Long speciesId, Map<Long, String> oldContents) {
+        if (executor.isShutdown()) {
+            log.warn("Shutting down, the sections of species {} are not propagated", speciesId);
+            return;
+        }
+        removeExpiredJobs();
+        PropagationJob job = queued.get(speciesId);
+        if (job == null) {
+            job = new PropagationJob(speciesId);
+            queued.put(speciesId, job);
+            jobs.put(speciesId, job);
+            PropagationJob scheduled = job;
+            executor.schedule(() -> run(scheduled), delayMillis, TimeUnit.MILLISECONDS);
+        }
+        job.add(oldContents);
+    }
+
+    private void run(PropagationJob job) {
+        // Saves from now on go into a new job
+        synchronized (this) {
+            queued.remove(job.getSpeciesId(), job);
+        }
+        job.started();
+        try {
+            job.completed(transactionTemplate.execute(_ -> propagate(job)));
+        } catch (RuntimeException e) {
+            log.warn("Propagating the sections of species {} failed", job.getSpeciesId(), e);
+            job.failed(e.getMessage());
+        }
+    }
+
+    private PropagationResult propagate(PropagationJob job) {
+        Species owner = speciesRepository.findById(job.getSpeciesId()).orElse(null);
+        if (owner == null) return PropagationResult.builder().build();
+
+        List<SpeciesPropagationService.SectionChange> changes = new ArrayList<>();
+        for (SpeciesSection section : owner.getCustomSections()) {
+            if (!Boolean.TRUE.equals(section.getIsInheritable()) || !job.getOldContents().containsKey(section.getId())) continue;
+            String oldContent = job.getOldContents().get(section.getId());
+            // Edited back to where it started
+            if (oldContent != null && Objects.equals(oldContent, section.getContent())) continue;
+            changes.add(new SpeciesPropagationService.SectionChange(section, oldContent));
+        }
+        return propagationService.propagate(owner, changes);
+    }
+
+    private synchronized List<Long> pendingSpecies() {
+        return new ArrayList<>(queued.keySet());
+    }
+
+    private void removeExpiredJobs() {
+        LocalDateTime cutoff = LocalDateTime.now().minus(JOB_RETENTION);
+        jobs.values().removeIf(job -> job.isFinished() && job.getFinishedAt().isBefore(cutoff));
+    }
+}
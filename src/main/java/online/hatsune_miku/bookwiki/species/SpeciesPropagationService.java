@@ -0,0 +1,175 @@
+package online.hatsune_miku.bookwiki.species;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import online.hatsune_miku.bookwiki.media.ReferenceTrackingService;
+import online.hatsune_miku.bookwiki.search.SearchService;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Pushes edits of inheritable sections down the species tree. The species below the edited one are loaded with
+ * their sections in one query, then the inherited copies are merged one level at a time: the copies of a level
+ * do not depend on each other, so their merges run in parallel, and a changed copy that is itself inheritable
+ * is passed on to the next level. The changed sections are written together when the transaction flushes,
+ * batched by {@code hibernate.jdbc.batch_size}.
+ */
+@Service
+@Slf4j
+public class SpeciesPropagationService {
+
+    private final SpeciesRepository speciesRepository;
+    private final SmartMergeService smartMergeService;
+    private final SearchService searchService;
+    private final ReferenceTrackingService referenceTrackingService;
+
+    public SpeciesPropagationService(SpeciesRepository speciesRepository, SmartMergeService smartMergeService, SearchService searchService,
+                                     ReferenceTrackingService referenceTrackingService) {
+        this.speciesRepository = speciesRepository;
+        this.smartMergeService = smartMergeService;
+        this.searchService = searchService;
+        this.referenceTrackingService = referenceTrackingService;
+    }
+
+    /**
+     * An inheritable section whose content changed, with the content it had before.
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class SectionChange {
+        private final SpeciesSection template;
+        private final String oldContent;
+    }
+
+    @Transactional
+    public PropagationResult propagate(Species owner, List<SectionChange> changes) {
+        if (owner.getId() == null || changes.isEmpty()) {
+            return PropagationResult.builder().build();
+        }
+        long start = System.currentTimeMillis();
+
+        List<Species> subtree = speciesRepository.findDescendantsWithSections(owner.getId());
+        // Section id -> the copies inheriting from it
+        Map<Long, List<SpeciesSection>> copies = new HashMap<>();
+        // Species id -> its children
+        Map<Long, List<Species>> children = new HashMap<>();
+        for (Species species : subtree) {
+            children.computeIfAbsent(species.getParentId(), _ -> new ArrayList<>()).add(species);
+            for (SpeciesSection section : species.getCustomSections()) {
+                if (section.getInheritedFromSectionId() != null) {
+                    copies.computeIfAbsent(section.getInheritedFromSectionId(), _ -> new ArrayList<>()).add(section);
+                }
+            }
+        }
+
+        // Species id -> species with an updated or added section
+        Map<Long, Species> touched = new LinkedHashMap<>();
+        int updated = 0;
+        int added = 0;
+        Set<Long> visited = new HashSet<>();
+        List<Edit> level = new ArrayList<>();
+        for (SectionChange change : changes) {
+            level.add(new Edit(change.getTemplate(), owner.getId(), change.getTemplate().getContent(), change.getOldContent()));
+        }
+
+        while (!level.isEmpty()) {
+            List<Merge> merges = new ArrayList<>();
+            for (Edit edit : level) {
+                if (!visited.add(edit.getSection().getId())) continue;
+                // The edit is parsed and diffed once for all of its copies
+                MergePlan plan = null;
+                for (SpeciesSection copy : copies.getOrDefault(edit.getSection().getId(), List.of())) {
+                    if (plan == null) plan = smartMergeService.prepare(edit.getNewContent(), edit.getOldContent());
+                    merges.add(new Merge(copy, copy.getContent(), plan));
+                }
+                added += addMissingCopies(edit, children.getOrDefault(edit.getSpeciesId(), List.of()), touched);
+            }
+
+            // Only strings go into the merges, the entities are updated afterwards on this thread
+            List<String> merged = merges.parallelStream()
+                    .map(m -> m.getPlan().apply(m.getChildContent()))
+                    .toList();
+
+            List<Edit> next = new ArrayList<>();
+            for (int i = 0; i < merges.size(); i++) {
+                Merge merge = merges.get(i);
+                String content = merged.get(i);
+                if (Objects.equals(content, merge.getChildContent())) continue;
+
+                SpeciesSection copy = merge.getCopy();
+                copy.setContent(content);
+                updated++;
+                if (copy.getSpecies() != null) touched.put(copy.getSpecies().getId(), copy.getSpecies());
+                // If this child section is ALSO inheritable, propagate further
+                if (Boolean.TRUE.equals(copy.getIsInheritable()) && copy.getSpecies() != null) {
+                    next.add(new Edit(copy, copy.getSpecies().getId(), content, merge.getChildContent()));
+                }
+            }
+            level = next;
+        }
+
+        // The merged copies can mention entries and media the copies did not mention before
+        for (Species species : touched.values()) {
+            referenceTrackingService.updateReferences(SpeciesService.referencedContent(species), "SPECIES", species.getId());
+            searchService.index(species);
+        }
+        PropagationResult result = PropagationResult.builder()
+                .updatedSections(updated)
+                .addedSections(added)
+                .touchedSpecies(touched.size())
+                .build();
+        log.debug("Propagated {} section(s) of species {} to {} of {} descendants in {} ms", changes.size(), owner.getId(),
+                result.getTouchedSpecies(), subtree.size(), System.currentTimeMillis() - start);
+        return result;
+    }
+
+    // Children of the section's species that do not have a copy of it yet get one
+    private static int addMissingCopies(Edit edit, List<Species> children, Map<Long, Species> touched) {
+        SpeciesSection template = edit.getSection();
+        int added = 0;
+        for (Species child : children) {
+            boolean hasSection = child.getCustomSections().stream()
+                    .anyMatch(s -> template.getId().equals(s.getInheritedFromSectionId()));
+            if (!hasSection) {
+                SpeciesSection newSection = new SpeciesSection();
+                newSection.setTitle(template.getTitle());
+                newSection.setContent(edit.getNewContent());
+                newSection.setIsInheritable(true);
+                newSection.setInheritedFromSectionId(template.getId());
+                newSection.setSpecies(child);
+                child.getCustomSections().add(newSection);
+                touched.put(child.getId(), child);
+                added++;
+            }
+        }
+        return added;
+    }
+
+    @Getter
+    @AllArgsConstructor
+    private static class Edit {
+        private final SpeciesSection section;
+        private final Long speciesId;
+        private final String newContent;
+        private final String oldContent;
+    }
+
+    @Getter
+    @AllArgsConstructor
+    private static class Merge {
+        private final SpeciesSection copy;
+        // Read before the merges start
+        private final String childContent;
+        private final MergePlan plan;
+    }
+}
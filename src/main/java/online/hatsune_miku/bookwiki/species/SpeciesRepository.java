@@ -1,9 +1,26 @@
 package online.hatsune_miku.bookwiki.species;
 
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import java.util.List;
 
 public interface SpeciesRepository extends JpaRepository<Species, Long> {
     List<Species> findByStoryId(Long storyId);
     List<Species> findByParentId(Long parentId);
+
+    // With the sections in the same query, for listing a whole story
+    @EntityGraph(attributePaths = "customSections")
+    List<Species> findWithSectionsByStoryId(Long storyId);
+
+    // Everything below the species, with the sections, through the ancestry
+    @Query("SELECT DISTINCT s FROM Species s LEFT JOIN FETCH s.customSections WHERE s.id IN "
+            + "(SELECT a.descendantId FROM SpeciesAncestry a WHERE a.ancestorId = :speciesId AND a.depth > 0)")
+    List<Species> findDescendantsWithSections(@Param("speciesId") Long speciesId);
+
+    // (id, parentId, name, pictureUrl) of every species in the story of the given one, for the taxonomy tree
+    @Query("SELECT s.id, s.parentId, s.name, s.pictureUrl FROM Species s WHERE s.story.id = "
+            + "(SELECT t.story.id FROM Species t WHERE t.id = :speciesId) ORDER BY s.id")
+    List<Object[]> findTreeRowsInStoryOf(@Param("speciesId") Long speciesId);
 }
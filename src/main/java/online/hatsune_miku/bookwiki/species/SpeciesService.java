@@ -3,6 +3,8 @@ package online.hatsune_miku.bookwiki.species;
 import online.hatsune_miku.bookwiki.story.Story;
 import online.hatsune_miku.bookwiki.story.StoryRepository;
 import online.hatsune_miku.bookwiki.media.ReferenceTrackingService;
+import online.hatsune_miku.bookwiki.search.SearchService;
+import online.hatsune_miku.bookwiki.taxonomy.TaxonomyTree;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -20,96 +22,50 @@ public class SpeciesService {
 
     private final ReferenceTrackingService referenceTrackingService;
 
-    private final SmartMergeService smartMergeService;
+    private final SpeciesPropagationQueue speciesPropagationQueue;
 
     private final SpeciesSectionRepository speciesSectionRepository;
 
-    public SpeciesService(SpeciesRepository speciesRepository, StoryRepository storyRepository, SpeciesLinkRepository speciesLinkRepository, ReferenceTrackingService referenceTrackingService, SmartMergeService smartMergeService, SpeciesSectionRepository speciesSectionRepository) {
+    private final SearchService searchService;
+
+    private final SpeciesAncestryService speciesAncestryService;
+
+    public SpeciesService(SpeciesRepository speciesRepository, StoryRepository storyRepository, SpeciesLinkRepository speciesLinkRepository, ReferenceTrackingService referenceTrackingService, SpeciesPropagationQueue speciesPropagationQueue, SpeciesSectionRepository speciesSectionRepository, SearchService searchService, SpeciesAncestryService speciesAncestryService) {
         this.speciesRepository = speciesRepository;
         this.storyRepository = storyRepository;
         this.speciesLinkRepository = speciesLinkRepository;
         this.referenceTrackingService = referenceTrackingService;
-        this.smartMergeService = smartMergeService;
+        this.speciesPropagationQueue = speciesPropagationQueue;
         this.speciesSectionRepository = speciesSectionRepository;
+        this.searchService = searchService;
+        this.speciesAncestryService = speciesAncestryService;
     }
 
+    @Transactional(readOnly = true)
     public List<Species> getSpeciesByStory(Long storyId) {
-        return speciesRepository.findByStoryId(storyId).stream()
-                .map(this::applyInheritance)
-                .toList();
+        return speciesAncestryService.withInheritance(speciesRepository.findWithSectionsByStoryId(storyId));
     }
 
+    @Transactional(readOnly = true)
     public Optional<Species> getSpeciesById(Long id) {
-        return speciesRepository.findById(id).map(this::applyInheritance);
+        return speciesRepository.findById(id).map(s -> speciesAncestryService.withInheritance(List.of(s)).getFirst());
     }
 
+    @Transactional(readOnly = true)
     public Species getSpecies(Long id) {
-        return speciesRepository.findById(id)
-                .map(this::applyInheritance)
-                .orElseThrow(() -> new RuntimeException("Species not found"));
-    }
-
-    private Species applyInheritance(Species species) {
-        if (species.getParentId() == null) {
-            return species;
-        }
-
-        List<SpeciesSection> inheritableSections = getInheritableSectionsFromAncestors(species.getParentId());
-        
-        boolean modified = false;
-        for (SpeciesSection template : inheritableSections) {
-            // Check if child already has this section (by inheritedFromSectionId OR title)
-            boolean exists = species.getCustomSections().stream()
-                    .anyMatch(s -> template.getId().equals(s.getInheritedFromSectionId()) || 
-                                  (s.getTitle() != null && s.getTitle().equalsIgnoreCase(template.getTitle())));
-            
-            if (!exists) {
-                SpeciesSection newSection = new SpeciesSection();
-                newSection.setTitle(template.getTitle());
-                newSection.setContent(template.getContent());
-                newSection.setIsInheritable(true); // Default to true for recursive inheritance
-                newSection.setInheritedFromSectionId(template.getId());
-                newSection.setSpecies(species);
-                species.getCustomSections().add(newSection);
-                modified = true;
-            }
-        }
-
-        if (modified) {
-            return speciesRepository.save(species);
-        }
-        
-        return species;
+        return getSpeciesById(id).orElseThrow(() -> new RuntimeException("Species not found"));
     }
 
-    private List<SpeciesSection> getInheritableSectionsFromAncestors(Long parentId) {
-        java.util.List<SpeciesSection> allInheritable = new java.util.ArrayList<>();
-        Long currentParentId = parentId;
-        java.util.Set<Long> visited = new java.util.HashSet<>();
-
-        while (currentParentId != null && visited.add(currentParentId)) {
-            Optional<Species> parentOpt = speciesRepository.findById(currentParentId);
-            if (parentOpt.isPresent()) {
-                Species parent = parentOpt.get();
-                if (parent.getCustomSections() != null) {
-                    for (SpeciesSection section : parent.getCustomSections()) {
-                        if (Boolean.TRUE.equals(section.getIsInheritable())) {
-                            // Only add if we don't have a section with this title yet 
-                            // (closer ancestors override further ones)
-                            boolean alreadyAdded = allInheritable.stream()
-                                    .anyMatch(s -> s.getTitle().equals(section.getTitle()));
-                            if (!alreadyAdded) {
-                                allInheritable.add(section);
-                            }
-                        }
-                    }
-                }
-                currentParentId = parent.getParentId();
-            } else {
-                break;
-            }
+    // Stores the inherited sections the species does not have yet, on the way to being saved
+    private void materializeInheritance(Species species) {
+        if (species.getParentId() == null || species.getId() == null) return;
+        List<SpeciesSection> inheritable = speciesAncestryService.findInheritableSections(List.of(species.getId()))
+                .getOrDefault(species.getId(), List.of());
+        if (species.getCustomSections() == null) species.setCustomSections(new java.util.ArrayList<>());
+        for (SpeciesSection section : SpeciesAncestryService.missingSections(species, inheritable)) {
+            section.setSpecies(species);
+            species.getCustomSections().add(section);
         }
-        return allInheritable;
     }
 
     @Transactional
@@ -151,7 +107,7 @@ public class SpeciesService {
         for (Long id : speciesIds) {
             if (addedNodes.add(id)) {
                 speciesRepository.findById(id).ifPresent(s -> {
-                    flow.getNodes().add(mapToNodeDTO(s, false));
+                    flow.getNodes().add(mapToNodeDTO(s));
                 });
             }
         }
@@ -169,14 +125,14 @@ public class SpeciesService {
             // Add source node if not already added
             if (addedNodes.add(link.getSourceSpeciesId())) {
                 speciesRepository.findById(link.getSourceSpeciesId()).ifPresent(s -> {
-                    flow.getNodes().add(mapToNodeDTO(s, false));
+                    flow.getNodes().add(mapToNodeDTO(s));
                 });
             }
             
             // Add target node if not already added
             if (addedNodes.add(link.getTargetSpeciesId())) {
                 speciesRepository.findById(link.getTargetSpeciesId()).ifPresent(s -> {
-                    flow.getNodes().add(mapToNodeDTO(s, false));
+                    flow.getNodes().add(mapToNodeDTO(s));
                 });
             }
         }
@@ -198,7 +154,10 @@ public class SpeciesService {
         }
 
         Species saved = speciesRepository.save(species);
+        speciesAncestryService.move(saved.getId(), saved.getParentId());
+        materializeInheritance(saved);
         trackReferences(saved);
+        searchService.index(saved);
         return saved;
     }
 
@@ -215,6 +174,8 @@ public class SpeciesService {
                 }
             }
 
+            boolean reparented = !java.util.Objects.equals(s.getParentId(), updated.getParentId());
+
             s.setName(updated.getName());
             s.setPictureUrl(updated.getPictureUrl());
             s.setCategory(updated.getCategory());
@@ -256,76 +217,43 @@ public class SpeciesService {
                 }
             }
 
+            if (reparented) {
+                speciesAncestryService.move(s.getId(), s.getParentId());
+            }
+            materializeInheritance(s);
+
             Species saved = speciesRepository.save(s);
             trackReferences(saved);
+            searchService.index(saved);
 
-            // Propagate changes if inheritable sections were modified
+            // Propagate changes if inheritable sections were modified, in the background after the save
+            List<SpeciesPropagationService.SectionChange> changes = new java.util.ArrayList<>();
             if (saved.getCustomSections() != null) {
                 for (SpeciesSection section : saved.getCustomSections()) {
                     if (Boolean.TRUE.equals(section.getIsInheritable())) {
                         String oldContent = oldInheritableContent.get(section.getId());
                         if (oldContent == null || !oldContent.equals(section.getContent())) {
-                            propagateInheritance(section, oldContent);
+                            changes.add(new SpeciesPropagationService.SectionChange(section, oldContent));
                         }
                     }
                 }
             }
+            speciesPropagationQueue.submit(saved.getId(), changes);
 
             return saved;
         }).orElseThrow(() -> new RuntimeException("Species not found"));
     }
 
-    private void propagateInheritance(SpeciesSection template, String oldParentContent) {
-        propagateInheritanceRecursive(template, oldParentContent, new java.util.HashSet<>());
-    }
-
-    private void propagateInheritanceRecursive(SpeciesSection template, String oldParentContent, java.util.Set<Long> visited) {
-        if (!visited.add(template.getId())) {
-            return;
-        }
-
-        // 1. Update existing copies
-        List<SpeciesSection> descendants = speciesSectionRepository.findAllByInheritedFromSectionId(template.getId());
-        for (SpeciesSection childSection : descendants) {
-            String mergedContent = smartMergeService.merge(template.getContent(), oldParentContent, childSection.getContent());
-            if (!mergedContent.equals(childSection.getContent())) {
-                String oldChildContent = childSection.getContent();
-                childSection.setContent(mergedContent);
-                speciesSectionRepository.save(childSection);
-                
-                // If this child section is ALSO inheritable, propagate further
-                if (Boolean.TRUE.equals(childSection.getIsInheritable())) {
-                    propagateInheritanceRecursive(childSection, oldChildContent, visited);
-                }
-            }
-        }
-
-        // 2. Proactively add to children of the owner of this template if they don't have it
-        if (template.getSpecies() != null && template.getSpecies().getId() != null) {
-            List<Species> children = speciesRepository.findByParentId(template.getSpecies().getId());
-            for (Species child : children) {
-                boolean hasSection = child.getCustomSections().stream()
-                        .anyMatch(s -> template.getId().equals(s.getInheritedFromSectionId()));
-                
-                if (!hasSection) {
-                    SpeciesSection newSection = new SpeciesSection();
-                    newSection.setTitle(template.getTitle());
-                    newSection.setContent(template.getContent());
-                    newSection.setIsInheritable(true);
-                    newSection.setInheritedFromSectionId(template.getId());
-                    newSection.setSpecies(child);
-                    child.getCustomSections().add(newSection);
-                    speciesRepository.save(child);
-                    // No need to recurse here, applyInheritance on child will handle its own descendants if fetched
-                }
-            }
-        }
+    public Optional<PropagationJob> getPropagation(Long speciesId) {
+        return speciesPropagationQueue.getJob(speciesId);
     }
 
     @Transactional
     public void deleteSpecies(Long id) {
         speciesRepository.deleteById(id);
+        speciesAncestryService.remove(id);
         referenceTrackingService.deleteReferences("SPECIES", id);
+        searchService.remove("SPECIES", id);
     }
 
     @Transactional
@@ -333,29 +261,53 @@ public class SpeciesService {
         SpeciesSection template = speciesSectionRepository.findById(sectionId)
                 .orElseThrow(() -> new RuntimeException("Section not found"));
         
-        depropagateRecursive(template, mode);
+        // Species id -> species that lost a copy
+        java.util.Map<Long, Species> touched = new java.util.LinkedHashMap<>();
+        depropagateRecursive(template, mode, touched);
+        // The removed copies no longer mention entries or reference media
+        touched.values().forEach(this::trackReferences);
+        // The removed copies are spread over the descendants, reindexing the story is simpler than finding them
+        if (template.getSpecies() != null && template.getSpecies().getStory() != null) {
+            searchService.invalidate(template.getSpecies().getStory().getId());
+        }
     }
 
-    private void depropagateRecursive(SpeciesSection current, String mode) {
+    private void depropagateRecursive(SpeciesSection current, String mode, java.util.Map<Long, Species> touched) {
         List<SpeciesSection> descendants = speciesSectionRepository.findAllByInheritedFromSectionId(current.getId());
         
         for (SpeciesSection childSection : descendants) {
             if ("ALL".equalsIgnoreCase(mode)) {
                 // Remove recursively first to ensure we find all grand-children
-                depropagateRecursive(childSection, "ALL");
-                speciesSectionRepository.delete(childSection);
+                depropagateRecursive(childSection, "ALL", touched);
+                removeCopy(childSection, touched);
             } else if ("UNEDITED".equalsIgnoreCase(mode)) {
                 // If it matches parent content, it's considered unedited
                 if (childSection.getContent().equals(current.getContent())) {
-                    depropagateRecursive(childSection, "UNEDITED");
-                    speciesSectionRepository.delete(childSection);
+                    depropagateRecursive(childSection, "UNEDITED", touched);
+                    removeCopy(childSection, touched);
                 }
                 // If edited, we stop recursion for this branch
             }
         }
     }
 
+    // Also taken out of its species, whose sections are read again for the references
+    private void removeCopy(SpeciesSection section, java.util.Map<Long, Species> touched) {
+        Species species = section.getSpecies();
+        if (species != null) {
+            species.getCustomSections().remove(section);
+            touched.put(species.getId(), species);
+        }
+        speciesSectionRepository.delete(section);
+    }
+
     private void trackReferences(Species species) {
+        referenceTrackingService.updateReferences(referencedContent(species), "SPECIES", species.getId());
+    }
+
+    // Everything of a species that can reference media or mention entries, also used for the copies that
+    // propagation changes
+    static String referencedContent(Species species) {
         StringBuilder content = new StringBuilder();
         if (species.getPictureUrl() != null) content.append(species.getPictureUrl());
         if (species.getDescription() != null) content.append(species.getDescription());
@@ -364,46 +316,48 @@ public class SpeciesService {
                 if (section.getContent() != null) content.append(section.getContent());
             }
         }
-        referenceTrackingService.updateReferences(content.toString(), "SPECIES", species.getId());
+        return content.toString();
     }
 
+    @Transactional
     public Species addSection(Long speciesId, SpeciesSection section) {
-        Species s = getSpecies(speciesId);
+        Species s = speciesRepository.findById(speciesId).orElseThrow(() -> new RuntimeException("Species not found"));
+        materializeInheritance(s);
         section.setSpecies(s);
         s.getCustomSections().add(section);
-        return speciesRepository.save(s);
+        Species saved = speciesRepository.save(s);
+        searchService.index(saved);
+        return saved;
     }
 
     public SpeciesTaxonomyDTO getTaxonomy(Long speciesId) {
-        Species target = getSpecies(speciesId);
-        SpeciesTaxonomyDTO taxonomy = new SpeciesTaxonomyDTO();
-
-        // Get immediate parent
-        if (target.getParentId() != null) {
-            speciesRepository.findById(target.getParentId()).ifPresent(parent -> {
-                taxonomy.setParentNode(mapToNodeDTO(parent, false));
-            });
-        }
-
-        // Get target and recursive descendants
-        taxonomy.setTargetNode(mapToNodeDTO(target, true));
+        return getTaxonomy(speciesId, null);
+    }
 
-        return taxonomy;
+    /**
+     * The species with its parent and descendants, see {@link TaxonomyTree}.
+     */
+    public SpeciesTaxonomyDTO getTaxonomy(Long speciesId, Integer depth) {
+        // Rows of (id, parentId, name, pictureUrl)
+        TaxonomyTree<SpeciesTreeNodeDTO> tree = TaxonomyTree.build(speciesRepository.findTreeRowsInStoryOf(speciesId), speciesId, depth,
+                (row, hasChildren) -> {
+                    SpeciesTreeNodeDTO node = new SpeciesTreeNodeDTO();
+                    node.setId((Long) row[0]);
+                    node.setName((String) row[2]);
+                    node.setPictureUrl((String) row[3]);
+                    node.setHasChildren(hasChildren);
+                    return node;
+                },
+                SpeciesTreeNodeDTO::getChildren);
+        if (tree == null) throw new RuntimeException("Species not found");
+        return new SpeciesTaxonomyDTO(tree.getParent(), tree.getTarget());
     }
 
-    private SpeciesTreeNodeDTO mapToNodeDTO(Species species, boolean recursive) {
+    private SpeciesTreeNodeDTO mapToNodeDTO(Species species) {
         SpeciesTreeNodeDTO node = new SpeciesTreeNodeDTO();
         node.setId(species.getId());
         node.setName(species.getName());
         node.setPictureUrl(species.getPictureUrl());
-
-        if (recursive) {
-            List<Species> children = speciesRepository.findByParentId(species.getId());
-            for (Species child : children) {
-                node.getChildren().add(mapToNodeDTO(child, true));
-            }
-        }
-
         return node;
     }
 }
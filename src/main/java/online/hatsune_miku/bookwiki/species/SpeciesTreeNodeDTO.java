@@ -14,5 +14,7 @@ public class SpeciesTreeNodeDTO {
     private Long id;
     private String name;
     private String pictureUrl;
+    // Also set when the children are left out by a depth limit
+    private boolean hasChildren;
     private List<SpeciesTreeNodeDTO> children = new ArrayList<>();
 }
@@ -17,6 +17,7 @@ import java.util.List;
 import java.util.Objects;
 
 @Entity
+@EntityListeners(online.hatsune_miku.bookwiki.data.StoryChangeListener.class)
 @Table(name = "stories")
 @Getter
 @Setter
@@ -1,8 +1,19 @@
 package online.hatsune_miku.bookwiki.story;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
+import java.util.List;
+
 @Repository
 public interface StoryRepository extends JpaRepository<Story, Long> {
+
+    @Query("SELECT s.id FROM Story s ORDER BY s.id")
+    List<Long> findAllIds();
+
+    @Query("SELECT s.id FROM Story s WHERE s.updatedAt > :since ORDER BY s.id")
+    List<Long> findIdsUpdatedAfter(@Param("since") LocalDateTime since);
 }
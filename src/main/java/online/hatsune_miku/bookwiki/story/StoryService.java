@@ -12,6 +12,15 @@ public class StoryService {
     @Autowired
     private StoryRepository storyRepository;
 
+    @Autowired
+    private online.hatsune_miku.bookwiki.search.SearchService searchService;
+
+    @Autowired
+    private online.hatsune_miku.bookwiki.backlink.BacklinkService backlinkService;
+
+    @Autowired
+    private online.hatsune_miku.bookwiki.species.SpeciesAncestryService speciesAncestryService;
+
     public List<Story> getAllStories() {
         return storyRepository.findAll();
     }
@@ -28,7 +37,11 @@ public class StoryService {
         return storyRepository.findAll().stream().findFirst().orElseThrow(() -> new RuntimeException("No stories found"));
     }
 
+    @org.springframework.transaction.annotation.Transactional
     public void deleteStory(Long id) {
+        backlinkService.deleteStoryMentions(id);
+        speciesAncestryService.removeStory(id);
         storyRepository.deleteById(id);
+        searchService.invalidate(id);
     }
 }
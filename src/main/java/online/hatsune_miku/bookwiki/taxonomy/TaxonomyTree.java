@@ -0,0 +1,73 @@
+package online.hatsune_miku.bookwiki.taxonomy;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * The parent and the descendants of an entry, built in memory from the {@code (id, parentId, ...)} rows of
+ * its whole story, so a taxonomy takes one query however deep it is. Below {@code depth} levels the children
+ * are left out, {@code hasChildren} tells the client which nodes it can expand by asking for their taxonomy.
+ * {@code null} builds the full subtree.
+ */
+@Getter
+@AllArgsConstructor
+public class TaxonomyTree<N> {
+
+    private final N parent;
+    private final N target;
+
+    /**
+     * Creates the node of a row, without children.
+     */
+    @FunctionalInterface
+    public interface NodeFactory<N> {
+        N create(Object[] row, boolean hasChildren);
+    }
+
+    /**
+     * Returns null if the rows do not contain the target.
+     */
+    public static <N> TaxonomyTree<N> build(List<Object[]> rows, Long targetId, Integer depth,
+                                            NodeFactory<N> factory, Function<N, List<N>> children) {
+        // Id -> row, and parent id -> child ids
+        Map<Long, Object[]> byId = new HashMap<>();
+        Map<Long, List<Long>> childIds = new HashMap<>();
+        for (Object[] row : rows) {
+            byId.put((Long) row[0], row);
+            childIds.computeIfAbsent((Long) row[1], _ -> new ArrayList<>()).add((Long) row[0]);
+        }
+        Object[] target = byId.get(targetId);
+        if (target == null) return null;
+
+        N parentNode = null;
+        if (target[1] != null && byId.containsKey((Long) target[1])) {
+            parentNode = factory.create(byId.get((Long) target[1]), true);
+        }
+
+        N targetNode = factory.create(target, childIds.containsKey(targetId));
+        Set<Long> visited = new HashSet<>(List.of(targetId));
+        Map<Long, N> level = Map.of(targetId, targetNode);
+        for (int d = 0; (depth == null || d < depth) && !level.isEmpty(); d++) {
+            Map<Long, N> next = new LinkedHashMap<>();
+            for (Map.Entry<Long, N> node : level.entrySet()) {
+                for (Long childId : childIds.getOrDefault(node.getKey(), List.of())) {
+                    if (!visited.add(childId)) continue;
+                    N child = factory.create(byId.get(childId), childIds.containsKey(childId));
+                    children.apply(node.getValue()).add(child);
+                    next.put(childId, child);
+                }
+            }
+            level = next;
+        }
+        return new TaxonomyTree<>(parentNode, targetNode);
+    }
+}
@@ -0,0 +1,104 @@
+package online.hatsune_miku.bookwiki.backlink;
+
+import jakarta.transaction.Transactional;
+import online.hatsune_miku.bookwiki.chapter.Chapter;
+import online.hatsune_miku.bookwiki.chapter.ChapterService;
+import online.hatsune_miku.bookwiki.character.Character;
+import online.hatsune_miku.bookwiki.character.CharacterService;
+import online.hatsune_miku.bookwiki.story.Story;
+import online.hatsune_miku.bookwiki.story.StoryRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest
+@Transactional
+class BacklinkServiceTest {
+
+    @Autowired
+    private BacklinkService backlinkService;
+
+    @Autowired
+    private MentionReferenceRepository mentionReferenceRepository;
+
+    @Autowired
+    private StoryRepository storyRepository;
+
+    @Autowired
+    private ChapterService chapterService;
+
+    @Autowired
+    private CharacterService characterService;
+
+    private Chapter chapter(Story story, String title, String content) {
+        Chapter chapter = new Chapter();
+        chapter.setTitle(title);
+        chapter.setContent(content);
+        chapter.setStory(story);
+        return chapterService.saveChapter(chapter);
+    }
+
+    private Character character(Story story, String name, String description) {
+        Character character = new Character();
+        character.setName(name);
+        character.setDescription(description);
+        return characterService.createCharacter(story.getId(), character);
+    }
+
+    private static List<String> names(List<BacklinkDTO> backlinks) {
+        return backlinks.stream().map(BacklinkDTO::getSourceName).toList();
+    }
+
+    @Test
+    void tracksMentionsAsTheContentChanges() {
+        Story story = new Story();
+        story.setTitle("Backlink Story");
+        story = storyRepository.save(story);
+
+        Character mira = character(story, "Mira", null);
+        String mention = "#{character:" + mira.getId() + "}";
+        Character bran = character(story, "Bran", "<p>Sworn to " + mention + ".</p>");
+        Chapter ten = chapter(story, "Chapter 10", "<p>" + mention + " leaves.</p>");
+        Chapter two = chapter(story, "Chapter 2", "<p>" + mention + " meets " + mention + ".</p>");
+
+        List<BacklinkDTO> backlinks = backlinkService.getBacklinks("CHARACTER", mira.getId());
+        assertEquals(List.of("Chapter 2", "Chapter 10", "Bran"), names(backlinks));
+        assertEquals(2, backlinks.getFirst().getCount());
+        assertEquals(List.of("Chapter 2", "Chapter 10"), names(backlinkService.getChapterAppearances("CHARACTER", mira.getId())));
+
+        // Only the changed references are written
+        Long tenReference = mentionReferenceRepository.findBySourceTypeAndSourceId("CHAPTER", ten.getId()).getFirst().getId();
+        ten.setContent("<p>" + mention + " leaves, " + mention + " returns.</p>");
+        chapterService.saveChapter(ten);
+        List<MentionReference> tenReferences = mentionReferenceRepository.findBySourceTypeAndSourceId("CHAPTER", ten.getId());
+        assertEquals(1, tenReferences.size());
+        assertEquals(tenReference, tenReferences.getFirst().getId());
+        assertEquals(2, tenReferences.getFirst().getMentionCount());
+
+        two.setContent("<p>Nobody comes.</p>");
+        chapterService.saveChapter(two);
+        assertEquals(List.of("Chapter 10"), names(backlinkService.getChapterAppearances("CHARACTER", mira.getId())));
+
+        // An entry mentioning itself is not a backlink
+        mira.setDescription("<p>" + mention + " is " + mention + ".</p>");
+        characterService.updateCharacter(mira.getId(), mira);
+        assertTrue(mentionReferenceRepository.findBySourceTypeAndSourceId("CHARACTER", mira.getId()).isEmpty());
+
+        characterService.deleteCharacter(bran.getId());
+        assertEquals(List.of("Chapter 10"), names(backlinkService.getBacklinks("CHARACTER", mira.getId())));
+
+        characterService.deleteCharacter(mira.getId());
+        assertTrue(mentionReferenceRepository.findByTargetTypeAndTargetId("CHARACTER", mira.getId()).isEmpty());
+    }
+
+    @Test
+    void leavesOutSourcesThatNoLongerExist() {
+        mentionReferenceRepository.save(new MentionReference("CHAPTER", -1L, "ITEM", -2L, 1));
+
+        assertTrue(backlinkService.getBacklinks("ITEM", -2L).isEmpty());
+    }
+}
@@ -0,0 +1,120 @@
+package online.hatsune_miku.bookwiki.data;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.persistence.EntityManager;
+import jakarta.transaction.Transactional;
+import online.hatsune_miku.bookwiki.chapter.Chapter;
+import online.hatsune_miku.bookwiki.media.Media;
+import online.hatsune_miku.bookwiki.media.MediaRepository;
+import online.hatsune_miku.bookwiki.media.MediaService;
+import online.hatsune_miku.bookwiki.story.Story;
+import online.hatsune_miku.bookwiki.story.StoryRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.mock.web.MockMultipartFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest
+@Transactional
+class DataExportIntegrationTest {
+
+    @Autowired
+    private ExportService exportService;
+
+    @Autowired
+    private ImportService importService;
+
+    @Autowired
+    private StoryRepository storyRepository;
+
+    @Autowired
+    private MediaRepository mediaRepository;
+
+    @Autowired
+    private MediaService mediaService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Test
+    void exportWritesMediaAsSeparateEntries() throws Exception {
+        Media media = createMedia("picture.png", "png bytes");
+        createStory("Exported", media);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        exportService.exportFull(out);
+
+        List<String> names = new ArrayList<>();
+        JsonNode data = null;
+        try (ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            ZipEntry entry;
+            while ((entry = zis.getNextEntry()) != null) {
+                names.add(entry.getName());
+                if (entry.getName().equals("media/" + media.getId() + ".png")) {
+                    assertEquals("png bytes", new String(zis.readAllBytes()));
+                } else if (entry.getName().equals("data.json")) {
+                    data = objectMapper.readTree(zis.readAllBytes());
+                }
+            }
+        }
+
+        assertEquals(List.of("manifest.json", "media/" + media.getId() + ".png", "data.json"), names);
+        assertNotNull(data);
+        assertEquals("1.2", data.get("version").asText());
+        assertTrue(data.get("media").get(0).get("data").isNull());
+        assertEquals("Exported", data.get("stories").get(0).get("title").asText());
+    }
+
+    @Test
+    void exportedPackageCanBeImported() throws Exception {
+        Media media = createMedia("picture.png", "png bytes");
+        createStory("Round trip", media);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        exportService.exportFull(out);
+
+        importService.resetAll();
+        entityManager.flush();
+        importService.importPackage(new MockMultipartFile("file", "backup.bwiki", "application/octet-stream", out.toByteArray()));
+        entityManager.flush();
+        entityManager.clear();
+
+        List<Story> stories = storyRepository.findAll();
+        assertEquals(1, stories.size());
+        assertEquals("Round trip", stories.getFirst().getTitle());
+        assertEquals(1, stories.getFirst().getChapters().size());
+        assertArrayEquals("png bytes".getBytes(), mediaService.getMediaContent(media.getId()));
+    }
+
+    private Media createMedia(String filename, String content) throws Exception {
+        Media media = new Media();
+        media.setFilename(filename);
+        media.setContentType("image/png");
+        mediaService.storeContent(media, new ByteArrayInputStream(content.getBytes()));
+        return mediaRepository.saveAndFlush(media);
+    }
+
+    private void createStory(String title, Media media) {
+        Story story = new Story();
+        story.setTitle(title);
+        Chapter chapter = new Chapter();
+        chapter.setTitle("Chapter 1");
+        chapter.setContent("<p>#{image:" + media.getId() + "}</p>");
+        chapter.setStory(story);
+        story.getChapters().add(chapter);
+        storyRepository.saveAndFlush(story);
+    }
+}
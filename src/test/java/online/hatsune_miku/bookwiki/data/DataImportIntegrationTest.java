@@ -0,0 +1,106 @@
+package online.hatsune_miku.bookwiki.data;
+
+import jakarta.persistence.EntityManager;
+import jakarta.transaction.Transactional;
+import online.hatsune_miku.bookwiki.chapter.Chapter;
+import online.hatsune_miku.bookwiki.character.Character;
+import online.hatsune_miku.bookwiki.media.MediaReference;
+import online.hatsune_miku.bookwiki.media.MediaReferenceRepository;
+import online.hatsune_miku.bookwiki.media.MediaService;
+import online.hatsune_miku.bookwiki.story.Story;
+import online.hatsune_miku.bookwiki.story.StoryRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.mock.web.MockMultipartFile;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest
+@Transactional
+class DataImportIntegrationTest {
+
+    @Autowired
+    private ImportService importService;
+
+    @Autowired
+    private StoryRepository storyRepository;
+
+    @Autowired
+    private MediaReferenceRepository mediaReferenceRepository;
+
+    @Autowired
+    private MediaService mediaService;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Test
+    void importsVersion11PackageWithInlineMedia() throws Exception {
+        UUID mediaId = UUID.randomUUID();
+        String base64 = Base64.getEncoder().encodeToString("legacy bytes".getBytes());
+        String json = """
+                {
+                  "version": "1.1",
+                  "stories": [{
+                    "id": 1,
+                    "title": "Legacy",
+                    "characters": [{"id": 500, "name": "Alice"}],
+                    "chapters": [{"id": 300, "title": "One", "content": "<p>#{character:500} #{image:%s}</p>"}]
+                  }],
+                  "media": [{"id": "%s", "filename": "a.png", "contentType": "image/png", "data": "%s"}],
+                  "speciesLinks": [],
+                  "mediaReferences": [{"id": 9, "mediaId": "%s", "entityType": "CHAPTER", "entityId": 300}]
+                }
+                """.formatted(mediaId, mediaId, base64, mediaId);
+
+        importService.importPackage(new MockMultipartFile("file", "legacy.bwiki", "application/octet-stream", zip(json)));
+        entityManager.flush();
+        entityManager.clear();
+
+        Story story = storyRepository.findAll().stream()
+                .filter(s -> "Legacy".equals(s.getTitle()))
+                .findFirst()
+                .orElseThrow();
+        Character alice = story.getCharacters().getFirst();
+        Chapter chapter = story.getChapters().getFirst();
+
+        assertNotEquals(500L, alice.getId());
+        assertTrue(chapter.getContent().contains("#{character:" + alice.getId() + "}"));
+        assertArrayEquals("legacy bytes".getBytes(), mediaService.getMediaContent(mediaId));
+
+        List<MediaReference> refs = mediaReferenceRepository.findByMediaId(mediaId);
+        assertEquals(1, refs.size());
+        assertEquals(chapter.getId(), refs.getFirst().getEntityId());
+    }
+
+    @Test
+    void rejectsMalformedDataJson() {
+        byte[] archive = zip("[]");
+
+        assertThrows(Exception.class, () ->
+                importService.importPackage(new MockMultipartFile("file", "broken.bwiki", "application/octet-stream", archive)));
+    }
+
+    private byte[] zip(String dataJson) {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (ZipOutputStream zos = new ZipOutputStream(out)) {
+                zos.putNextEntry(new ZipEntry("data.json"));
+                zos.write(dataJson.getBytes(StandardCharsets.UTF_8));
+                zos.closeEntry();
+            }
+            return out.toByteArray();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
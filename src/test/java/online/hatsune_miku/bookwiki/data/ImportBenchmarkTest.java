@@ -0,0 +1,126 @@
+package online.hatsune_miku.bookwiki.data;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import online.hatsune_miku.bookwiki.chapter.ChapterRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.mock.web.MockMultipartFile;
+
+import java.io.ByteArrayOutputStream;
+import java.util.UUID;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Measures import throughput for a package with 10k chapters. Run with {@code ./gradlew test -Dbookwiki.benchmark=true}.
+ */
+@SpringBootTest
+@EnabledIfSystemProperty(named = "bookwiki.benchmark", matches = "true")
+class ImportBenchmarkTest {
+
+    private static final int STORIES = 20;
+    private static final int CHAPTERS_PER_STORY = 500;
+    private static final int CHARACTERS_PER_STORY = 50;
+
+    @Autowired
+    private ImportService importService;
+
+    @Autowired
+    private ChapterRepository chapterRepository;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Test
+    void importTenThousandChapters() throws Exception {
+        byte[] archive = buildPackage();
+        long chaptersBefore = chapterRepository.count();
+
+        long start = System.nanoTime();
+        importService.importPackage(new MockMultipartFile("file", "benchmark.bwiki", "application/octet-stream", archive));
+        long elapsed = System.nanoTime() - start;
+
+        int chapters = STORIES * CHAPTERS_PER_STORY;
+        // Stories, chapters, characters and one media reference per chapter
+        int rows = STORIES * (1 + CHAPTERS_PER_STORY + CHARACTERS_PER_STORY) + chapters;
+        double seconds = elapsed / 1_000_000_000.0;
+        System.out.printf("Imported %d chapters (%d rows, %.1f MB) in %.2fs: %.0f rows/s%n",
+                chapters, rows, archive.length / 1024.0 / 1024.0, seconds, rows / seconds);
+
+        assertEquals(chaptersBefore + chapters, chapterRepository.count());
+    }
+
+    private byte[] buildPackage() throws Exception {
+        UUID mediaId = UUID.randomUUID();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ZipOutputStream zos = new ZipOutputStream(out)) {
+            zos.putNextEntry(new ZipEntry("media/" + mediaId + ".png"));
+            zos.write(new byte[]{1, 2, 3});
+            zos.closeEntry();
+
+            zos.putNextEntry(new ZipEntry("data.json"));
+            try (JsonGenerator gen = objectMapper.getFactory().createGenerator(zos)) {
+                gen.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+                gen.writeStartObject();
+                gen.writeStringField("version", "1.2");
+
+                gen.writeArrayFieldStart("media");
+                gen.writeStartObject();
+                gen.writeStringField("id", mediaId.toString());
+                gen.writeStringField("filename", "pic.png");
+                gen.writeStringField("contentType", "image/png");
+                gen.writeStringField("path", "media/" + mediaId + ".png");
+                gen.writeEndObject();
+                gen.writeEndArray();
+
+                long nextId = 1;
+                gen.writeArrayFieldStart("mediaReferences");
+                for (long chapterId = 1; chapterId <= (long) STORIES * CHAPTERS_PER_STORY; chapterId++) {
+                    gen.writeStartObject();
+                    gen.writeStringField("mediaId", mediaId.toString());
+                    gen.writeStringField("entityType", "CHAPTER");
+                    gen.writeNumberField("entityId", chapterId);
+                    gen.writeEndObject();
+                }
+                gen.writeEndArray();
+
+                gen.writeArrayFieldStart("stories");
+                long chapterId = 1;
+                for (int s = 0; s < STORIES; s++) {
+                    gen.writeStartObject();
+                    gen.writeNumberField("id", s + 1);
+                    gen.writeStringField("title", "Story " + s);
+                    long firstCharacter = nextId;
+                    gen.writeArrayFieldStart("characters");
+                    for (int c = 0; c < CHARACTERS_PER_STORY; c++) {
+                        gen.writeStartObject();
+                        gen.writeNumberField("id", nextId++);
+                        gen.writeStringField("name", "Character " + c);
+                        gen.writeEndObject();
+                    }
+                    gen.writeEndArray();
+                    gen.writeArrayFieldStart("chapters");
+                    for (int c = 0; c < CHAPTERS_PER_STORY; c++) {
+                        gen.writeStartObject();
+                        gen.writeNumberField("id", chapterId++);
+                        gen.writeStringField("title", "Chapter " + c);
+                        gen.writeStringField("content", ("<p>#{character:" + (firstCharacter + c % CHARACTERS_PER_STORY)
+                                + "} walks in. #{image:" + mediaId + "}</p>").repeat(20));
+                        gen.writeEndObject();
+                    }
+                    gen.writeEndArray();
+                    gen.writeEndObject();
+                }
+                gen.writeEndArray();
+                gen.writeEndObject();
+            }
+            zos.closeEntry();
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,179 @@
+package online.hatsune_miku.bookwiki.data;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import online.hatsune_miku.bookwiki.chapter.Chapter;
+import online.hatsune_miku.bookwiki.story.Story;
+import online.hatsune_miku.bookwiki.story.StoryRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Not transactional: story changes are only stamped when a transaction commits.
+ */
+@SpringBootTest
+class IncrementalBackupTest {
+
+    @Autowired
+    private ExportService exportService;
+
+    @Autowired
+    private ImportService importService;
+
+    @Autowired
+    private StoryRepository storyRepository;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private final List<Long> createdStories = new ArrayList<>();
+
+    @AfterEach
+    void cleanUp() {
+        createdStories.forEach(id -> {
+            if (storyRepository.existsById(id)) storyRepository.deleteById(id);
+        });
+    }
+
+    @Test
+    void incrementContainsChangedStoriesAndTombstones() throws Exception {
+        createStory("Kept");
+        Long edited = createStory("Edited");
+        Long deleted = createStory("Deleted");
+        Thread.sleep(20);
+        LocalDateTime since = LocalDateTime.now();
+        Thread.sleep(20);
+
+        editFirstChapter(edited, "<p>New content</p>");
+        storyRepository.deleteById(deleted);
+
+        Map<String, JsonNode> entries = read(exportIncremental(since));
+
+        assertEquals("INCREMENTAL", entries.get("manifest.json").get("type").asText());
+        List<String> titles = new ArrayList<>();
+        entries.get("data.json").get("stories").forEach(s -> titles.add(s.get("title").asText()));
+        assertEquals(List.of("Edited"), titles);
+
+        boolean tombstoned = false;
+        for (JsonNode tombstone : entries.get("data.json").get("tombstones")) {
+            tombstoned |= "STORY".equals(tombstone.get("entityType").asText())
+                    && deleted.toString().equals(tombstone.get("entityKey").asText());
+        }
+        assertTrue(tombstoned);
+    }
+
+    @Test
+    void chainRestoresLatestState() throws Exception {
+        createStory("Kept");
+        Long edited = createStory("Edited");
+        Long deleted = createStory("Deleted");
+
+        ByteArrayOutputStream full = new ByteArrayOutputStream();
+        exportService.exportFull(full);
+        LocalDateTime since = objectMapper.treeToValue(read(full.toByteArray()).get("manifest.json"), BackupManifest.class).getCreatedAt();
+
+        editFirstChapter(edited, "<p>New content</p>");
+        storyRepository.deleteById(deleted);
+        byte[] increment = exportIncremental(since);
+
+        // Restored inside a transaction that is rolled back, so the rest of the database stays untouched
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        transaction.executeWithoutResult(status -> {
+            try {
+                importService.resetAll();
+                importService.importChain(List.of(
+                        new MockMultipartFile("files", "full.bwiki", "application/octet-stream", full.toByteArray()),
+                        new MockMultipartFile("files", "increment.bwiki", "application/octet-stream", increment)));
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+
+            // The default story is part of the backup as well
+            List<Story> stories = storyRepository.findAll().stream()
+                    .filter(s -> List.of("Kept", "Edited", "Deleted").contains(s.getTitle()))
+                    .toList();
+            assertEquals(List.of("Edited", "Kept"), stories.stream().map(Story::getTitle).sorted().toList());
+            Story restored = stories.stream().filter(s -> s.getTitle().equals("Edited")).findFirst().orElseThrow();
+            assertEquals("<p>New content</p>", restored.getChapters().getFirst().getContent());
+            status.setRollbackOnly();
+        });
+    }
+
+    @Test
+    void chainRejectsIncrementWithoutBase() throws Exception {
+        byte[] increment = exportIncremental(LocalDateTime.now());
+
+        assertThrows(Exception.class, () -> importService.importChain(List.of(
+                new MockMultipartFile("files", "increment.bwiki", "application/octet-stream", increment))));
+    }
+
+    @Test
+    void chainRejectsPackageWithoutData() throws Exception {
+        ByteArrayOutputStream empty = new ByteArrayOutputStream();
+        new ZipOutputStream(empty).close();
+
+        IOException error = assertThrows(IOException.class, () -> importService.importChain(List.of(
+                new MockMultipartFile("files", "empty.bwiki", "application/octet-stream", empty.toByteArray()))));
+        assertTrue(error.getMessage().contains("empty.bwiki"));
+    }
+
+    private Long createStory(String title) {
+        Story story = new Story();
+        story.setTitle(title);
+        Chapter chapter = new Chapter();
+        chapter.setTitle("Chapter 1");
+        chapter.setContent("<p>Old content</p>");
+        chapter.setStory(story);
+        story.getChapters().add(chapter);
+        Long id = storyRepository.save(story).getId();
+        createdStories.add(id);
+        return id;
+    }
+
+    // Only the chapter changes, the story row itself is bumped by the change tracker
+    private void editFirstChapter(Long storyId, String content) {
+        new TransactionTemplate(transactionManager).executeWithoutResult(_ ->
+                storyRepository.findById(storyId).orElseThrow().getChapters().getFirst().setContent(content));
+    }
+
+    private byte[] exportIncremental(LocalDateTime since) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        exportService.exportIncremental(since, out);
+        return out.toByteArray();
+    }
+
+    private Map<String, JsonNode> read(byte[] archive) throws Exception {
+        Map<String, JsonNode> entries = new HashMap<>();
+        try (ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(archive))) {
+            ZipEntry entry;
+            while ((entry = zis.getNextEntry()) != null) {
+                if (entry.getName().endsWith(".json")) {
+                    entries.put(entry.getName(), objectMapper.readTree(zis.readAllBytes()));
+                }
+            }
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,81 @@
+package online.hatsune_miku.bookwiki.data;
+
+import online.hatsune_miku.bookwiki.media.MediaService;
+import online.hatsune_miku.bookwiki.media.StoredContent;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class MediaIngestorTest {
+
+    @Mock
+    private MediaService mediaService;
+
+    @Test
+    void storesAllSubmittedFiles() throws Exception {
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        when(mediaService.storeContent(any(InputStream.class))).thenAnswer(invocation -> {
+            int current = inFlight.incrementAndGet();
+            maxInFlight.accumulateAndGet(current, Math::max);
+            byte[] data = invocation.<InputStream>getArgument(0).readAllBytes();
+            Thread.sleep(5);
+            inFlight.decrementAndGet();
+            return new StoredContent(new String(data), data.length);
+        });
+
+        Map<UUID, StoredContent> stored;
+        UUID[] ids = new UUID[20];
+        try (MediaIngestor ingestor = new MediaIngestor(mediaService, 3, 1024)) {
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = UUID.randomUUID();
+                ingestor.submit(ids[i], new ByteArrayInputStream(("file" + i).getBytes()));
+            }
+            stored = ingestor.join();
+        }
+
+        assertEquals(ids.length, stored.size());
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals("file" + i, stored.get(ids[i]).getHash());
+        }
+        assertTrue(maxInFlight.get() <= 3);
+    }
+
+    @Test
+    void streamsLargeFilesInline() throws Exception {
+        when(mediaService.storeContent(any(InputStream.class))).thenAnswer(invocation -> {
+            byte[] data = invocation.<InputStream>getArgument(0).readAllBytes();
+            return new StoredContent("large", data.length);
+        });
+
+        UUID id = UUID.randomUUID();
+        try (MediaIngestor ingestor = new MediaIngestor(mediaService, 2, 8)) {
+            ingestor.submit(id, new ByteArrayInputStream(new byte[100]));
+            assertEquals(100, ingestor.join().get(id).getLength());
+        }
+    }
+
+    @Test
+    void joinReportsFailures() throws Exception {
+        when(mediaService.storeContent(any(InputStream.class))).thenThrow(new IOException("disk full"));
+
+        try (MediaIngestor ingestor = new MediaIngestor(mediaService, 2, 1024)) {
+            ingestor.submit(UUID.randomUUID(), new byte[]{1});
+            IOException e = assertThrows(IOException.class, ingestor::join);
+            assertEquals("disk full", e.getCause().getMessage());
+        }
+    }
+}
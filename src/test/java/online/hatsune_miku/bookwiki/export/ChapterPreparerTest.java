@@ -0,0 +1,138 @@
+package online.hatsune_miku.bookwiki.export;
+
+import online.hatsune_miku.bookwiki.chapter.Chapter;
+import online.hatsune_miku.bookwiki.media.ImageProbe;
+import online.hatsune_miku.bookwiki.media.Media;
+import online.hatsune_miku.bookwiki.media.MediaDerivativeService;
+import online.hatsune_miku.bookwiki.media.MediaService;
+import org.springframework.core.io.ByteArrayResource;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+class ChapterPreparerTest {
+
+    // 1x1 transparent PNG
+    private static final String PNG = "data:image/png;base64,iVBORw0KGgoAAAANSUhEUgAAAAEAAAABCAYAAAAfFcSJAAAADUlEQVR42mP8/5+hHgAHggJ/PchI7wAAAABJRU5ErkJggg==";
+
+    private final ShortcodeResolver shortcodeResolver = mock(ShortcodeResolver.class);
+    private final MediaService mediaService = mock(MediaService.class);
+    private final MediaDerivativeService derivativeService = mock(MediaDerivativeService.class);
+
+    @Test
+    void writesChaptersInOrderWhilePreparingInParallel() throws Exception {
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        when(shortcodeResolver.resolve(anyString(), any())).thenAnswer(invocation -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            Thread.sleep(ThreadLocalRandom.current().nextInt(1, 10));
+            inFlight.decrementAndGet();
+            return invocation.getArgument(0);
+        });
+
+        List<Chapter> chapters = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            chapters.add(chapter("Chapter " + i, "<p>" + i + "</p>"));
+        }
+
+        List<String> written = new ArrayList<>();
+        new ChapterPreparer(shortcodeResolver, mediaService, derivativeService, 8, 1024 * 1024).forEach(chapters, new MentionIndex(), prepared -> {
+            assertEquals(written.size(), prepared.getIndex());
+            written.add(prepared.getTitle());
+        });
+
+        assertEquals(chapters.stream().map(Chapter::getTitle).toList(), written);
+        assertTrue(maxInFlight.get() > 1, "Chapters were not prepared in parallel");
+        assertTrue(maxInFlight.get() <= 8);
+    }
+
+    @Test
+    void splitsPageBreaksAndMeasuresImages() throws Exception {
+        when(shortcodeResolver.resolve(anyString(), any())).thenAnswer(invocation -> invocation.getArgument(0));
+        Chapter chapter = chapter("Images", "<p>One</p><img src=\"" + PNG + "\">#{pagebreak}<p>Two</p><img src=\"" + PNG + "\">");
+
+        List<PreparedChapter> prepared = new ArrayList<>();
+        new ChapterPreparer(shortcodeResolver, mediaService, derivativeService, 2, 1024 * 1024).forEach(List.of(chapter), new MentionIndex(), prepared::add);
+
+        PreparedChapter result = prepared.getFirst();
+        assertEquals(2, result.getSegments().size());
+        assertEquals(2, result.getImageCount());
+        PreparedImage image = result.getImages().get(PNG);
+        assertEquals("image/png", image.getContentType());
+        assertEquals(1, image.getWidth());
+        assertEquals(1, image.getHeight());
+    }
+
+    @Test
+    void loadsMediaOnceAcrossChapters() throws Exception {
+        when(shortcodeResolver.resolve(anyString(), any())).thenAnswer(invocation -> invocation.getArgument(0));
+        Media media = new Media();
+        media.setId(UUID.randomUUID());
+        media.setContentHash("a".repeat(64));
+        media.setContentType("image/png");
+        when(mediaService.getMedia(media.getId())).thenReturn(media);
+        when(mediaService.openContent(media)).thenAnswer(_ -> new ByteArrayInputStream(new byte[]{1, 2, 3}));
+        when(mediaService.getImageInfo(eq(media), any())).thenReturn(new ImageProbe.Info("png", 32, 32));
+
+        List<Chapter> chapters = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            chapters.add(chapter("Chapter " + i, ("<p><img src=\"/api/media/" + media.getId() + "\"></p>").repeat(20)));
+        }
+
+        List<PreparedImage> images = new ArrayList<>();
+        // A window of one prepares the chapters one after another, so the first load is always cached
+        new ChapterPreparer(shortcodeResolver, mediaService, derivativeService, 1, 1024 * 1024).forEach(chapters, new MentionIndex(),
+                prepared -> images.addAll(prepared.getImages().values()));
+
+        assertEquals(10, images.size());
+        assertTrue(images.stream().allMatch(image -> image == images.getFirst()));
+        assertEquals("png", images.getFirst().getFormat());
+        verify(mediaService, times(1)).openContent(media);
+    }
+
+    @Test
+    void resamplesImagesToTargetDpi() throws Exception {
+        when(shortcodeResolver.resolve(anyString(), any())).thenAnswer(invocation -> invocation.getArgument(0));
+        Media media = new Media();
+        media.setId(UUID.randomUUID());
+        media.setContentHash("a".repeat(64));
+        media.setContentType("image/png");
+        media.setFilename("photo.png");
+        media.setWidth(4000);
+        media.setHeight(3000);
+        when(mediaService.getMedia(media.getId())).thenReturn(media);
+        // 150pt at 300 DPI are 625px, rounded up to 640
+        when(derivativeService.getExportDerivative(media, 640))
+                .thenReturn(new MediaDerivativeService.Derivative(new ByteArrayResource(new byte[]{1, 2}), "image/jpeg", 640));
+
+        Chapter chapter = chapter("Photo", "<img width=\"200\" src=\"/api/media/" + media.getId() + "\">");
+        List<PreparedChapter> prepared = new ArrayList<>();
+        new ChapterPreparer(shortcodeResolver, mediaService, derivativeService, 2, 1024 * 1024)
+                .forEach(List.of(chapter), new MentionIndex(), ExportOptions.builder().targetDpi(300).build(), 450, prepared::add);
+
+        PreparedImage image = prepared.getFirst().getImages().values().iterator().next();
+        assertEquals("image/jpeg", image.getContentType());
+        assertEquals("jpeg", image.getFormat());
+        assertEquals(2, image.getData().length);
+        // Laid out at the size of the original
+        assertEquals(4000, image.getWidth());
+        verify(mediaService, never()).openContent(any());
+    }
+
+    private Chapter chapter(String title, String content) {
+        Chapter chapter = new Chapter();
+        chapter.setTitle(title);
+        chapter.setContent(content);
+        return chapter;
+    }
+}
@@ -0,0 +1,126 @@
+package online.hatsune_miku.bookwiki.export;
+
+import online.hatsune_miku.bookwiki.chapter.Chapter;
+import online.hatsune_miku.bookwiki.config.PathProvider;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExportJobServiceTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final AtomicInteger exports = new AtomicInteger();
+    private ExportJobService jobService;
+
+    @BeforeEach
+    void setUp() {
+        jobService = jobService(1024 * 1024);
+    }
+
+    private ExportJobService jobService(long cacheBytes) {
+        ExportService fake = new ExportService() {
+            @Override
+            public void export(String title, List<Chapter> chapters, OutputStream out, ExportOptions options, ExportProgress progress) throws IOException {
+                exports.incrementAndGet();
+                for (Chapter chapter : chapters) {
+                    if (chapter.getContent().contains("fail")) throw new IOException("broken chapter");
+                    out.write(chapter.getContent().getBytes());
+                    progress.chapterDone(1);
+                }
+            }
+
+            @Override
+            public String getFormat() {
+                return "pdf";
+            }
+        };
+        return new ExportJobService(List.of(fake), new ExportCache(new PathProvider(), tempDir.toString(), cacheBytes), 1, 4);
+    }
+
+    @AfterEach
+    void tearDown() {
+        jobService.shutdown();
+    }
+
+    @Test
+    void runsExportAndReportsProgress() throws Exception {
+        ExportJob job = await(jobService.submit("pdf", "My Story", List.of(chapter(1L, "one"), chapter(2L, "two"))));
+
+        assertEquals(ExportJob.Status.DONE, job.getStatus());
+        assertEquals(2, job.getChaptersDone());
+        assertEquals(2, job.getImagesDone());
+        assertEquals("My_Story.pdf", job.getFilename());
+        assertEquals("onetwo", Files.readString(job.getFile()));
+        assertFalse(job.isCached());
+    }
+
+    @Test
+    void unchangedExportIsServedFromCache() throws Exception {
+        await(jobService.submit("pdf", "Book", List.of(chapter(1L, "one"))));
+        ExportJob second = jobService.submit("pdf", "Book", List.of(chapter(1L, "one")));
+
+        assertEquals(ExportJob.Status.DONE, second.getStatus());
+        assertTrue(second.isCached());
+        assertEquals(1, exports.get());
+
+        await(jobService.submit("pdf", "Book", List.of(chapter(1L, "changed"))));
+        assertEquals(2, exports.get());
+
+        // Resampled images give a different document
+        await(jobService.submit("pdf", "Book", List.of(chapter(1L, "changed")), ExportOptions.builder().targetDpi(150).build()));
+        assertEquals(3, exports.get());
+    }
+
+    @Test
+    void finishedJobsKeepTheirDocumentOverBudget() throws Exception {
+        jobService.shutdown();
+        jobService = jobService(4);
+
+        ExportJob first = await(jobService.submit("pdf", "Book", List.of(chapter(1L, "first"))));
+        await(jobService.submit("pdf", "Book", List.of(chapter(1L, "second"))));
+
+        // The budget only fits one of them, but both jobs can still be downloaded
+        assertEquals("first", Files.readString(first.getFile()));
+    }
+
+    @Test
+    void failedExportIsReported() throws Exception {
+        ExportJob job = await(jobService.submit("pdf", "Book", List.of(chapter(1L, "fail"))));
+
+        assertEquals(ExportJob.Status.FAILED, job.getStatus());
+        assertEquals("broken chapter", job.getError());
+    }
+
+    @Test
+    void unknownFormatIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> jobService.submit("odt", "Book", List.of()));
+    }
+
+    private ExportJob await(ExportJob job) throws InterruptedException {
+        for (int i = 0; i < 500 && !job.isFinished(); i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(job.isFinished(), "Export did not finish");
+        return jobService.getJob(job.getId()).orElseThrow();
+    }
+
+    private Chapter chapter(Long id, String content) {
+        Chapter chapter = new Chapter();
+        chapter.setId(id);
+        chapter.setTitle("Chapter " + id);
+        chapter.setContent(content);
+        return chapter;
+    }
+}
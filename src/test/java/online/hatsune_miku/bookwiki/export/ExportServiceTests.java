@@ -1,17 +1,32 @@
 package online.hatsune_miku.bookwiki.export;
 
 import online.hatsune_miku.bookwiki.chapter.Chapter;
+import online.hatsune_miku.bookwiki.media.MediaDerivativeService;
+import online.hatsune_miku.bookwiki.media.MediaService;
+import online.hatsune_miku.bookwiki.story.Story;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
 
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 class ExportServiceTests {
@@ -19,16 +34,26 @@ class ExportServiceTests {
     @Mock
     private ShortcodeResolver shortcodeResolver;
 
+    @Mock
+    private MediaService mediaService;
+
     @InjectMocks
     private DocxExportService docxExportService;
 
     @InjectMocks
     private PdfExportService pdfExportService;
 
+    @InjectMocks
+    private EpubExportService epubExportService;
+
     @BeforeEach
     void setUp() {
         MockitoAnnotations.openMocks(this);
-        when(shortcodeResolver.resolve(anyString())).thenAnswer(invocation -> invocation.getArgument(0));
+        when(shortcodeResolver.resolve(anyString(), any())).thenAnswer(invocation -> invocation.getArgument(0));
+        ChapterPreparer chapterPreparer = new ChapterPreparer(shortcodeResolver, mediaService, mock(MediaDerivativeService.class), 4, 1024 * 1024);
+        ReflectionTestUtils.setField(docxExportService, "chapterPreparer", chapterPreparer);
+        ReflectionTestUtils.setField(pdfExportService, "chapterPreparer", chapterPreparer);
+        ReflectionTestUtils.setField(epubExportService, "chapterPreparer", chapterPreparer);
     }
 
     @Test
@@ -66,4 +91,91 @@ class ExportServiceTests {
         byte[] pdfResult = pdfExportService.export("Advanced Story", List.of(c1));
         assertNotNull(pdfResult);
     }
+
+    @Test
+    void testPdfExportStreamsWithoutClosing() throws IOException {
+        Chapter c1 = new Chapter();
+        c1.setTitle("Chapter 1");
+        c1.setContent("<p>Hello</p>");
+
+        AtomicBoolean closed = new AtomicBoolean();
+        ByteArrayOutputStream out = new ByteArrayOutputStream() {
+            @Override
+            public void close() {
+                closed.set(true);
+            }
+        };
+        pdfExportService.export("Test Story", List.of(c1), out);
+
+        assertTrue(out.size() > 0);
+        assertFalse(closed.get());
+    }
+
+    @Test
+    void testEpubExportWritesSharedImagesOnce() throws Exception {
+        // 1x1 transparent PNG
+        String png = "data:image/png;base64,iVBORw0KGgoAAAANSUhEUgAAAAEAAAABCAYAAAAfFcSJAAAADUlEQVR42mP8/5+hHgAHggJ/PchI7wAAAABJRU5ErkJggg==";
+        List<Chapter> chapters = new ArrayList<>();
+        for (int i = 1; i <= 3; i++) {
+            Chapter chapter = new Chapter();
+            chapter.setTitle("Chapter " + i + " & more");
+            chapter.setContent("<p>Emote <img src=\"" + png + "\"> and <br> text</p>#{pagebreak}<p>Next <img src=\"" + png + "\"></p>");
+            chapters.add(chapter);
+        }
+
+        byte[] result = epubExportService.export("Epub Story", chapters);
+
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        try (ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(result))) {
+            ZipEntry entry;
+            while ((entry = zis.getNextEntry()) != null) {
+                entries.put(entry.getName(), zis.readAllBytes());
+            }
+        }
+        assertEquals("mimetype", entries.keySet().iterator().next());
+        assertEquals("application/epub+zip", new String(entries.get("mimetype")));
+        assertEquals(1, entries.keySet().stream().filter(name -> name.startsWith("OEBPS/images/")).count());
+        assertTrue(entries.containsKey("OEBPS/content.opf"));
+
+        // Every chapter has to be well-formed XML for EPUB readers
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        for (int i = 1; i <= 3; i++) {
+            byte[] xhtml = entries.get("OEBPS/chapter-" + i + ".xhtml");
+            assertNotNull(xhtml);
+            factory.newDocumentBuilder().parse(new ByteArrayInputStream(xhtml));
+            assertTrue(new String(xhtml).contains("src=\"images/image-1.png\""));
+        }
+        String opf = new String(entries.get("OEBPS/content.opf"));
+        factory.newDocumentBuilder().parse(new ByteArrayInputStream(entries.get("OEBPS/content.opf")));
+        assertTrue(opf.contains("<itemref idref=\"chapter-3\"/>"));
+    }
+
+    @Test
+    void testEpubIdentifierFollowsTheStory() throws Exception {
+        assertEquals(epubIdentifier("Same Title", 1L), epubIdentifier("Renamed", 1L));
+        assertNotEquals(epubIdentifier("Same Title", 1L), epubIdentifier("Same Title", 2L));
+    }
+
+    private String epubIdentifier(String title, Long storyId) throws Exception {
+        Story story = new Story();
+        story.setId(storyId);
+        Chapter chapter = new Chapter();
+        chapter.setTitle("Chapter 1");
+        chapter.setContent("<p>Text</p>");
+        chapter.setStory(story);
+
+        byte[] result = epubExportService.export(title, List.of(chapter));
+        try (ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(result))) {
+            ZipEntry entry;
+            while ((entry = zis.getNextEntry()) != null) {
+                if (entry.getName().equals("OEBPS/content.opf")) {
+                    String opf = new String(zis.readAllBytes());
+                    int start = opf.indexOf("<dc:identifier");
+                    return opf.substring(opf.indexOf('>', start) + 1, opf.indexOf("</dc:identifier>", start));
+                }
+            }
+        }
+        fail("No package document");
+        return null;
+    }
 }
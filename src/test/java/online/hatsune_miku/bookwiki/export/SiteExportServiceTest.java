@@ -0,0 +1,86 @@
+package online.hatsune_miku.bookwiki.export;
+
+import jakarta.persistence.EntityManager;
+import jakarta.transaction.Transactional;
+import online.hatsune_miku.bookwiki.chapter.Chapter;
+import online.hatsune_miku.bookwiki.character.Character;
+import online.hatsune_miku.bookwiki.item.Item;
+import online.hatsune_miku.bookwiki.story.Story;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.util.FileSystemUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest
+@Transactional
+class SiteExportServiceTest {
+
+    @Autowired
+    private SiteExportService siteExportService;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Test
+    void rebuildsOnlyChangedPages() throws Exception {
+        Story story = new Story();
+        story.setTitle("Site Story");
+        entityManager.persist(story);
+
+        Character hero = new Character();
+        hero.setName("Aria");
+        hero.setStory(story);
+        entityManager.persist(hero);
+
+        Item sword = new Item();
+        sword.setName("Sword");
+        sword.setDescription("Sharp.");
+        sword.setStory(story);
+        entityManager.persist(sword);
+
+        Chapter chapter = new Chapter();
+        chapter.setTitle("Chapter 1");
+        chapter.setContent("<p>#{character:" + hero.getId() + "} arrives.</p>");
+        chapter.setStory(story);
+        entityManager.persist(chapter);
+        entityManager.flush();
+
+        FileSystemUtils.deleteRecursively(Paths.get("build/test-sites/story-" + story.getId()));
+
+        SiteBuild first = siteExportService.build(story.getId());
+        Path site = first.getDirectory();
+        // Index, chapter, character and item
+        assertEquals(4, first.getPagesRendered());
+        assertEquals(0, first.getPagesUnchanged());
+
+        String chapterPage = Files.readString(site.resolve("chapters/" + chapter.getId() + ".html"));
+        assertTrue(chapterPage.contains("<a class=\"mention\" href=\"../characters/" + hero.getId() + ".html\">Aria</a>"));
+        String heroPage = Files.readString(site.resolve("characters/" + hero.getId() + ".html"));
+        assertTrue(heroPage.contains("Mentioned in"));
+        assertTrue(Files.exists(site.resolve(SiteExportService.MANIFEST)));
+
+        SiteBuild unchanged = siteExportService.build(story.getId());
+        assertEquals(0, unchanged.getPagesRendered());
+        assertEquals(4, unchanged.getPagesUnchanged());
+
+        // The new name shows on the character page, in the chapter that mentions it and on the index
+        hero.setName("Aria the Brave");
+        entityManager.flush();
+        SiteBuild renamed = siteExportService.build(story.getId());
+        assertEquals(3, renamed.getPagesRendered());
+        assertEquals(1, renamed.getPagesUnchanged());
+        assertTrue(Files.readString(site.resolve("chapters/" + chapter.getId() + ".html")).contains("Aria the Brave"));
+
+        entityManager.remove(sword);
+        entityManager.flush();
+        SiteBuild removed = siteExportService.build(story.getId());
+        assertEquals(1, removed.getPagesRemoved());
+        assertFalse(Files.exists(site.resolve("items/" + sword.getId() + ".html")));
+    }
+}
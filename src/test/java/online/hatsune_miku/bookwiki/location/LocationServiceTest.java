@@ -0,0 +1,106 @@
+package online.hatsune_miku.bookwiki.location;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class LocationServiceTest {
+
+    @Mock
+    private LocationRepository locationRepository;
+
+    @InjectMocks
+    private LocationService locationService;
+
+    // A (id, parentId, name, pictureUrl, parentAreaPercentage) row of the taxonomy query
+    private static Object[] row(Long id, Long parentId, String name, Double areaPercentage) {
+        return new Object[]{id, parentId, name, null, areaPercentage};
+    }
+
+    private static List<Object[]> rows(Object[]... rows) {
+        return Arrays.asList(rows);
+    }
+
+    @Test
+    void getTaxonomy_FullTree() {
+        // World (1) -> Continent (2) [TARGET] -> Kingdom (3) -> City (4)
+        //                                     -> Island (5)
+        when(locationRepository.findTreeRowsInStoryOf(2L)).thenReturn(rows(
+                row(1L, null, "World", null),
+                row(2L, 1L, "Continent", 40.0),
+                row(3L, 2L, "Kingdom", 25.0),
+                row(4L, 3L, "City", 1.5),
+                row(5L, 2L, "Island", 5.0)));
+
+        LocationTaxonomyDTO taxonomy = locationService.getTaxonomy(2L);
+
+        assertNotNull(taxonomy.getParentNode());
+        assertEquals(1L, taxonomy.getParentNode().getId());
+        assertEquals("World", taxonomy.getParentNode().getName());
+        assertTrue(taxonomy.getParentNode().getChildren().isEmpty());
+
+        LocationTreeNodeDTO target = taxonomy.getTargetNode();
+        assertEquals(2L, target.getId());
+        assertEquals(40.0, target.getAreaPercentage());
+        assertEquals(List.of(3L, 5L), target.getChildren().stream().map(LocationTreeNodeDTO::getId).toList());
+
+        LocationTreeNodeDTO kingdom = target.getChildren().get(0);
+        assertEquals("Kingdom", kingdom.getName());
+        assertEquals(25.0, kingdom.getAreaPercentage());
+        assertEquals(1, kingdom.getChildren().size());
+        LocationTreeNodeDTO city = kingdom.getChildren().get(0);
+        assertEquals(4L, city.getId());
+        assertEquals(1.5, city.getAreaPercentage());
+        assertTrue(city.getChildren().isEmpty());
+        assertFalse(city.isHasChildren());
+
+        // One query for the whole tree
+        verify(locationRepository, never()).findById(any());
+        verify(locationRepository, never()).findByParentId(any());
+    }
+
+    @Test
+    void getTaxonomy_DepthLimit() {
+        when(locationRepository.findTreeRowsInStoryOf(2L)).thenReturn(rows(
+                row(2L, null, "Continent", null),
+                row(3L, 2L, "Kingdom", 25.0),
+                row(4L, 3L, "City", 1.5)));
+
+        LocationTaxonomyDTO taxonomy = locationService.getTaxonomy(2L, 1);
+
+        LocationTreeNodeDTO kingdom = taxonomy.getTargetNode().getChildren().get(0);
+        assertEquals(3L, kingdom.getId());
+        // Left for the client to expand
+        assertTrue(kingdom.getChildren().isEmpty());
+        assertTrue(kingdom.isHasChildren());
+    }
+
+    @Test
+    void getTaxonomy_NoParent() {
+        when(locationRepository.findTreeRowsInStoryOf(2L)).thenReturn(rows(row(2L, null, "World", null)));
+
+        LocationTaxonomyDTO taxonomy = locationService.getTaxonomy(2L);
+
+        assertNull(taxonomy.getParentNode());
+        assertEquals(2L, taxonomy.getTargetNode().getId());
+        assertNull(taxonomy.getTargetNode().getAreaPercentage());
+        assertTrue(taxonomy.getTargetNode().getChildren().isEmpty());
+        assertFalse(taxonomy.getTargetNode().isHasChildren());
+    }
+
+    @Test
+    void getTaxonomy_NotFound() {
+        when(locationRepository.findTreeRowsInStoryOf(2L)).thenReturn(List.of());
+
+        assertThrows(RuntimeException.class, () -> locationService.getTaxonomy(2L));
+    }
+}
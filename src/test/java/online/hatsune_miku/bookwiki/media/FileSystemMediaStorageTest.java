@@ -0,0 +1,70 @@
+package online.hatsune_miku.bookwiki.media;
+
+import online.hatsune_miku.bookwiki.config.PathProvider;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileSystemMediaStorageTest {
+
+    @TempDir
+    Path tempDir;
+
+    private FileSystemMediaStorage storage;
+
+    @BeforeEach
+    void setUp() {
+        storage = new FileSystemMediaStorage(new PathProvider(), tempDir.toString());
+    }
+
+    @Test
+    void storeAndOpen() throws Exception {
+        StoredContent stored = storage.store(new ByteArrayInputStream("hello".getBytes()));
+
+        // SHA-256 of "hello"
+        assertEquals("2cf24dba5fb0a30e26e83b2ac5b9e29e1b161e5c1fa7425e73043362938b9824", stored.getHash());
+        assertEquals(5, stored.getLength());
+        assertTrue(storage.exists(stored.getHash()));
+        assertTrue(Files.exists(tempDir.resolve("2c").resolve(stored.getHash())));
+
+        try (InputStream is = storage.open(stored.getHash())) {
+            assertEquals("hello", new String(is.readAllBytes()));
+        }
+    }
+
+    @Test
+    void identicalContentIsStoredOnce() throws Exception {
+        StoredContent first = storage.store(new ByteArrayInputStream("same".getBytes()));
+        StoredContent second = storage.store(new ByteArrayInputStream("same".getBytes()));
+
+        assertEquals(first.getHash(), second.getHash());
+        try (Stream<Path> files = Files.list(tempDir.resolve(first.getHash().substring(0, 2)))) {
+            assertEquals(1, files.count());
+        }
+        try (Stream<Path> temp = Files.list(tempDir.resolve("tmp"))) {
+            assertEquals(0, temp.count());
+        }
+    }
+
+    @Test
+    void delete() throws Exception {
+        StoredContent stored = storage.store(new ByteArrayInputStream("gone".getBytes()));
+
+        storage.delete(stored.getHash());
+
+        assertFalse(storage.exists(stored.getHash()));
+    }
+
+    @Test
+    void rejectsInvalidHash() {
+        assertThrows(IllegalArgumentException.class, () -> storage.open("../../etc/passwd"));
+    }
+}
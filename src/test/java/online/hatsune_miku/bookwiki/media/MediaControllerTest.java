@@ -4,15 +4,18 @@ import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.webmvc.test.autoconfigure.AutoConfigureMockMvc;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
 import org.springframework.test.web.servlet.MockMvc;
 
-import java.io.ByteArrayInputStream;
 import java.util.UUID;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.multipart;
@@ -28,6 +31,9 @@ class MediaControllerTest {
     @MockitoBean
     private MediaService mediaService;
 
+    @MockitoBean
+    private MediaDerivativeService mediaDerivativeService;
+
     @Test
     void uploadMedia() throws Exception {
         UUID id = UUID.randomUUID();
@@ -42,21 +48,94 @@ class MediaControllerTest {
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$.id").value(id.toString()))
                 .andExpect(jsonPath("$.url").value("/api/media/" + id));
+
+        verify(mediaDerivativeService).pregenerate(media);
     }
 
     @Test
     void getMedia() throws Exception {
+        UUID id = mockMedia("test data");
+
+        mockMvc.perform(get("/api/media/{id}", id))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("image/png"))
+                .andExpect(content().bytes("test data".getBytes()))
+                .andExpect(header().string(HttpHeaders.ETAG, "\"" + id + "\""))
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, org.hamcrest.Matchers.containsString("no-cache")));
+    }
+
+    @Test
+    void getMediaVersionedByContentHash() throws Exception {
+        UUID id = mockMedia("test data");
+        mediaService.getMedia(id).setContentHash("abc123");
+
+        // The plain URL may get other content after a restore, so it is revalidated
+        mockMvc.perform(get("/api/media/{id}", id))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"abc123\""))
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, org.hamcrest.Matchers.containsString("no-cache")));
+
+        mockMvc.perform(get("/api/media/{id}", id).param("v", "abc123"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, org.hamcrest.Matchers.containsString("immutable")));
+
+        // A stale version is not cached for good
+        mockMvc.perform(get("/api/media/{id}", id).param("v", "old"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, org.hamcrest.Matchers.containsString("no-cache")));
+    }
+
+    @Test
+    void getMediaNotModified() throws Exception {
+        UUID id = mockMedia("test data");
+
+        mockMvc.perform(get("/api/media/{id}", id).header(HttpHeaders.IF_NONE_MATCH, "\"" + id + "\""))
+                .andExpect(status().isNotModified())
+                .andExpect(content().bytes(new byte[0]));
+    }
+
+    @Test
+    void getMediaRange() throws Exception {
+        UUID id = mockMedia("test data");
+
+        mockMvc.perform(get("/api/media/{id}", id).header(HttpHeaders.RANGE, "bytes=5-8"))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 5-8/9"))
+                .andExpect(content().bytes("data".getBytes()));
+    }
+
+    @Test
+    void getMediaThumbnail() throws Exception {
+        UUID id = mockMedia("test data");
+        Media media = mediaService.getMedia(id);
+        when(mediaDerivativeService.getDerivative(eq(media), eq(200)))
+                .thenReturn(new MediaDerivativeService.Derivative(new ByteArrayResource("thumb".getBytes()), "image/png", 256));
+
+        mockMvc.perform(get("/api/media/{id}", id).param("w", "200"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("image/png"))
+                .andExpect(content().bytes("thumb".getBytes()))
+                .andExpect(header().string(HttpHeaders.ETAG, "\"" + id + "-w256\""));
+    }
+
+    @Test
+    void getMediaThumbnailFallsBackToOriginal() throws Exception {
+        UUID id = mockMedia("test data");
+
+        mockMvc.perform(get("/api/media/{id}", id).param("w", "64"))
+                .andExpect(status().isOk())
+                .andExpect(content().bytes("test data".getBytes()))
+                .andExpect(header().string(HttpHeaders.ETAG, "\"" + id + "\""));
+    }
+
+    private UUID mockMedia(String data) {
         UUID id = UUID.randomUUID();
         Media media = new Media();
         media.setId(id);
         media.setContentType("image/png");
-        
-        when(mediaService.getMedia(id)).thenReturn(media);
-        when(mediaService.getMediaContent(id)).thenReturn("test data".getBytes());
 
-        mockMvc.perform(get("/api/media/{id}", id))
-                .andExpect(status().isOk())
-                .andExpect(content().contentType("image/png"))
-                .andExpect(content().bytes("test data".getBytes()));
+        when(mediaService.getMedia(id)).thenReturn(media);
+        when(mediaService.getMediaResource(media)).thenReturn(new ByteArrayResource(data.getBytes()));
+        return id;
     }
 }
@@ -0,0 +1,136 @@
+package online.hatsune_miku.bookwiki.media;
+
+import online.hatsune_miku.bookwiki.config.PathProvider;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MediaDerivativeServiceTest {
+
+    @TempDir
+    Path tempDir;
+
+    private FileSystemMediaStorage storage;
+
+    @BeforeEach
+    void setUp() {
+        storage = new FileSystemMediaStorage(new PathProvider(), tempDir.toString());
+    }
+
+    @Test
+    void snapWidth() {
+        assertEquals(64, MediaDerivativeService.snapWidth(1));
+        assertEquals(64, MediaDerivativeService.snapWidth(64));
+        assertEquals(128, MediaDerivativeService.snapWidth(65));
+        assertEquals(1024, MediaDerivativeService.snapWidth(5000));
+    }
+
+    @Test
+    void createsAndReusesDerivative() throws Exception {
+        MediaDerivativeService service = new MediaDerivativeService(storage, Long.MAX_VALUE, new int[]{64}, 1);
+        Media media = image(400, 200, "image/png");
+
+        MediaDerivativeService.Derivative derivative = service.getDerivative(media, 100);
+
+        assertNotNull(derivative);
+        assertEquals(128, derivative.getWidth());
+        assertEquals("image/png", derivative.getContentType());
+        try (InputStream is = derivative.getResource().getInputStream()) {
+            BufferedImage thumbnail = ImageIO.read(is);
+            assertEquals(128, thumbnail.getWidth());
+            assertEquals(64, thumbnail.getHeight());
+        }
+        assertTrue(storage.getDerivative(media.getContentHash(), "w128.png").exists());
+
+        // A second service instance picks the stored file up instead of resizing again
+        MediaDerivativeService restarted = new MediaDerivativeService(storage, Long.MAX_VALUE, new int[]{64}, 1);
+        restarted.loadIndex();
+        assertEquals(128, restarted.getDerivative(media, 128).getWidth());
+    }
+
+    @Test
+    void servesOriginalWhenAlreadySmall() throws Exception {
+        MediaDerivativeService service = new MediaDerivativeService(storage, Long.MAX_VALUE, new int[]{64}, 1);
+        Media media = image(50, 50, "image/png");
+
+        assertNull(service.getDerivative(media, 256));
+    }
+
+    @Test
+    void servesOriginalForUnsupportedTypes() throws Exception {
+        MediaDerivativeService service = new MediaDerivativeService(storage, Long.MAX_VALUE, new int[]{64}, 1);
+        Media media = image(400, 400, "image/png");
+        media.setContentType("image/svg+xml");
+
+        assertNull(service.getDerivative(media, 64));
+    }
+
+    @Test
+    void evictsLeastRecentlyUsed() throws Exception {
+        MediaDerivativeService service = new MediaDerivativeService(storage, 1, new int[]{64}, 1);
+        Media first = image(400, 400, "image/png");
+        Media second = image(300, 300, "image/jpeg");
+
+        service.getDerivative(first, 64);
+        service.getDerivative(second, 64);
+
+        assertFalse(storage.getDerivative(first.getContentHash(), "w64.png").exists());
+        assertTrue(storage.getDerivative(second.getContentHash(), "w64.jpg").exists());
+    }
+
+    @Test
+    void exportDerivativeRecompressesOpaqueImagesAsJpeg() throws Exception {
+        MediaDerivativeService service = new MediaDerivativeService(storage, Long.MAX_VALUE, new int[]{64}, 1);
+        Media media = image(1000, 500, "image/png");
+
+        MediaDerivativeService.Derivative derivative = service.getExportDerivative(media, 320);
+
+        assertEquals("image/jpeg", derivative.getContentType());
+        try (InputStream is = derivative.getResource().getInputStream()) {
+            BufferedImage resampled = ImageIO.read(is);
+            assertEquals(320, resampled.getWidth());
+            assertEquals(160, resampled.getHeight());
+        }
+        assertTrue(storage.getDerivative(media.getContentHash(), "p320.jpg").exists());
+        assertEquals("image/jpeg", service.getExportDerivative(media, 320).getContentType());
+        assertNull(service.getExportDerivative(media, 1024));
+    }
+
+    @Test
+    void resampleKeepsTransparencyAsPng() throws Exception {
+        MediaDerivativeService service = new MediaDerivativeService(storage, Long.MAX_VALUE, new int[]{64}, 1);
+        BufferedImage image = new BufferedImage(200, 200, BufferedImage.TYPE_INT_ARGB);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+
+        MediaDerivativeService.Derivative derivative = service.resample(out.toByteArray(), 64);
+
+        assertEquals("image/png", derivative.getContentType());
+        try (InputStream is = derivative.getResource().getInputStream()) {
+            assertEquals(64, ImageIO.read(is).getWidth());
+        }
+    }
+
+    private Media image(int width, int height, String contentType) throws Exception {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(width / 2, height / 2, 0xFF0000);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, contentType.equals("image/jpeg") ? "jpeg" : "png", out);
+
+        Media media = new Media();
+        media.setContentType(contentType);
+        StoredContent stored = storage.store(new ByteArrayInputStream(out.toByteArray()));
+        media.setContentHash(stored.getHash());
+        media.setContentLength(stored.getLength());
+        return media;
+    }
+}
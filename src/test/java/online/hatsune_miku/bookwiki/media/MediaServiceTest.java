@@ -1,8 +1,5 @@
 package online.hatsune_miku.bookwiki.media;
 
-import jakarta.persistence.EntityManager;
-import org.hibernate.Session;
-import org.hibernate.jdbc.ReturningWork;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -10,10 +7,10 @@ import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.mock.web.MockMultipartFile;
 
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.sql.Blob;
-import java.sql.Connection;
+import java.util.Base64;
 import java.util.Optional;
 import java.util.UUID;
 
@@ -24,20 +21,19 @@ import static org.mockito.Mockito.*;
 @ExtendWith(MockitoExtension.class)
 class MediaServiceTest {
 
-    @Mock
-    private MediaRepository mediaRepository;
+    private static final String HASH = "a".repeat(64);
+    // 1x1 transparent PNG
+    private static final byte[] PNG = Base64.getDecoder().decode(
+            "iVBORw0KGgoAAAANSUhEUgAAAAEAAAABCAYAAAAfFcSJAAAADUlEQVR42mP8/5+hHgAHggJ/PchI7wAAAABJRU5ErkJggg==");
 
     @Mock
-    private EntityManager entityManager;
+    private MediaRepository mediaRepository;
 
     @Mock
     private MediaReferenceRepository referenceRepository;
 
     @Mock
-    private Session session;
-
-    @Mock
-    private Connection connection;
+    private MediaStorage mediaStorage;
 
     @Mock
     private Blob blob;
@@ -46,21 +42,15 @@ class MediaServiceTest {
 
     @BeforeEach
     void setUp() {
-        mediaService = new MediaService(mediaRepository, entityManager, referenceRepository);
+        mediaService = new MediaService(mediaRepository, referenceRepository, mediaStorage);
     }
 
     @Test
-    @SuppressWarnings("unchecked")
     void saveMedia() throws Exception {
-        MockMultipartFile file = new MockMultipartFile("file", "test.png", "image/png", "test data".getBytes());
+        MockMultipartFile file = new MockMultipartFile("file", "test.png", "image/png", PNG);
 
-        when(entityManager.unwrap(Session.class)).thenReturn(session);
-        when(session.doReturningWork(any(ReturningWork.class))).thenAnswer(invocation -> {
-            ReturningWork<Blob> work = invocation.getArgument(0);
-            return work.execute(connection);
-        });
-        when(connection.createBlob()).thenReturn(blob);
-        when(blob.setBinaryStream(1)).thenReturn(mock(OutputStream.class));
+        when(mediaStorage.store(any(InputStream.class), any())).thenReturn(new StoredContent(HASH, 9));
+        when(mediaStorage.open(HASH)).thenReturn(new ByteArrayInputStream(PNG));
         when(mediaRepository.save(any(Media.class))).thenAnswer(i -> i.getArguments()[0]);
 
         Media saved = mediaService.saveMedia(file);
@@ -68,10 +58,50 @@ class MediaServiceTest {
         assertNotNull(saved);
         assertEquals("test.png", saved.getFilename());
         assertEquals("image/png", saved.getContentType());
-        assertEquals(blob, saved.getData());
+        assertEquals(HASH, saved.getContentHash());
+        assertEquals(9L, saved.getContentLength());
+        assertNull(saved.getData());
+        assertEquals(1, saved.getWidth());
+        assertEquals(1, saved.getHeight());
+        assertEquals("png", saved.getImageFormat());
         verify(mediaRepository).save(any(Media.class));
     }
 
+    @Test
+    void getImageInfoProbesOlderMediaOnce() {
+        Media media = new Media();
+        media.setId(UUID.randomUUID());
+
+        ImageProbe.Info info = mediaService.getImageInfo(media, PNG);
+        assertEquals("png", info.getFormat());
+        assertEquals(1, info.getWidth());
+        verify(mediaRepository).updateImageInfo(media.getId(), 1, 1, "png");
+
+        // Recorded on the entity, so the content is not probed again
+        assertEquals(1, mediaService.getImageInfo(media, new byte[0]).getHeight());
+        verifyNoMoreInteractions(mediaRepository);
+    }
+
+    @Test
+    void probeUnknownFormat() {
+        ImageProbe.Info info = ImageProbe.probe("not an image".getBytes());
+        assertNull(info.getFormat());
+        assertFalse(info.hasSize());
+    }
+
+    @Test
+    void getMediaStreamFromStorage() throws Exception {
+        UUID id = UUID.randomUUID();
+        Media media = new Media();
+        media.setContentHash(HASH);
+        InputStream is = new ByteArrayInputStream(new byte[0]);
+
+        when(mediaRepository.findById(id)).thenReturn(Optional.of(media));
+        when(mediaStorage.open(HASH)).thenReturn(is);
+
+        assertEquals(is, mediaService.getMediaStream(id));
+    }
+
     @Test
     void getMediaStream() throws Exception {
         UUID id = UUID.randomUUID();
@@ -85,5 +115,55 @@ class MediaServiceTest {
         InputStream result = mediaService.getMediaStream(id);
 
         assertEquals(is, result);
+        verifyNoInteractions(mediaStorage);
+    }
+
+    @Test
+    void deleteMediaKeepsSharedContent() throws Exception {
+        UUID id = UUID.randomUUID();
+        Media media = new Media();
+        media.setId(id);
+        media.setContentHash(HASH);
+
+        when(mediaRepository.findById(id)).thenReturn(Optional.of(media));
+        when(mediaRepository.existsByContentHash(HASH)).thenReturn(true);
+
+        mediaService.deleteMedia(id);
+
+        verify(mediaRepository).delete(media);
+        verify(mediaStorage, never()).delete(HASH);
+    }
+
+    @Test
+    void deleteMediaRemovesUnusedContent() throws Exception {
+        UUID id = UUID.randomUUID();
+        Media media = new Media();
+        media.setId(id);
+        media.setContentHash(HASH);
+
+        when(mediaRepository.findById(id)).thenReturn(Optional.of(media));
+        when(mediaRepository.existsByContentHash(HASH)).thenReturn(false);
+
+        mediaService.deleteMedia(id);
+
+        verify(mediaStorage).delete(HASH);
+    }
+
+    @Test
+    void releaseKeepsContentOfPendingUpload() throws Exception {
+        // An upload of the same bytes claims the hash while its row is not committed yet
+        when(mediaStorage.store(any(InputStream.class), any())).thenAnswer(i -> {
+            i.<java.util.function.Consumer<String>>getArgument(1).accept(HASH);
+            return new StoredContent(HASH, 9);
+        });
+        StoredContent stored = mediaService.storeContent(new ByteArrayInputStream(PNG));
+
+        mediaService.releaseContent(HASH);
+        verify(mediaStorage, never()).delete(HASH);
+
+        // Once attached outside of a transaction the claim is gone, the unused payload can be released
+        mediaService.attachContent(new Media(), stored);
+        mediaService.releaseContent(HASH);
+        verify(mediaStorage).delete(HASH);
     }
 }
@@ -3,7 +3,13 @@ package online.hatsune_miku.bookwiki.media;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import online.hatsune_miku.bookwiki.character.Character;
+import online.hatsune_miku.bookwiki.export.MentionIndex;
 import online.hatsune_miku.bookwiki.export.ShortcodeResolver;
+import online.hatsune_miku.bookwiki.story.Story;
+import online.hatsune_miku.bookwiki.story.StoryRepository;
+import jakarta.transaction.Transactional;
+import java.util.List;
 import java.util.UUID;
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -13,6 +19,9 @@ class ShortcodeResolverTest {
     @Autowired
     private ShortcodeResolver shortcodeResolver;
 
+    @Autowired
+    private StoryRepository storyRepository;
+
     @Test
     void resolveImageInTag() {
         UUID id = UUID.randomUUID();
@@ -23,4 +32,23 @@ class ShortcodeResolverTest {
         assertTrue(resolved.contains("width=\"100\""));
         assertTrue(resolved.contains("style=\"border: 1px solid red;\""));
     }
+
+    @Test
+    @Transactional
+    void resolveMentionsFromIndex() {
+        Story story = new Story();
+        story.setTitle("Mentions");
+        Character alice = new Character();
+        alice.setName("Alice");
+        alice.setStory(story);
+        story.getCharacters().add(alice);
+        storyRepository.saveAndFlush(story);
+
+        String first = "<p>#{character:" + alice.getId() + "} waves.</p>";
+        String second = "<p>#{character:" + alice.getId() + "} and #{character:999999} leave.</p>";
+        MentionIndex mentions = shortcodeResolver.index(List.of(first, second));
+
+        assertEquals("<p>Alice waves.</p>", shortcodeResolver.resolve(first, mentions));
+        assertEquals("<p>Alice and Unknown Character leave.</p>", shortcodeResolver.resolve(second, mentions));
+    }
 }
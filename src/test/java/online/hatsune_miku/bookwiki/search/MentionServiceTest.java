@@ -0,0 +1,71 @@
+package online.hatsune_miku.bookwiki.search;
+
+import online.hatsune_miku.bookwiki.character.Character;
+import online.hatsune_miku.bookwiki.character.CharacterService;
+import online.hatsune_miku.bookwiki.item.Item;
+import online.hatsune_miku.bookwiki.item.ItemService;
+import online.hatsune_miku.bookwiki.story.Story;
+import online.hatsune_miku.bookwiki.story.StoryService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Not transactional, the index is only updated once the writes commit
+@SpringBootTest
+class MentionServiceTest {
+
+    @Autowired
+    private MentionService mentionService;
+
+    @Autowired
+    private StoryService storyService;
+
+    @Autowired
+    private CharacterService characterService;
+
+    @Autowired
+    private ItemService itemService;
+
+    @Test
+    void followsWritesAfterTheFirstLookup() {
+        Story story = new Story();
+        story.setTitle("Mention Story");
+        story = storyService.saveStory(story);
+        Long storyId = story.getId();
+        try {
+            UUID picture = UUID.randomUUID();
+            Character hero = new Character();
+            hero.setName("Arin");
+            hero.setPictureUrl("#{image:" + picture + "}");
+            hero = characterService.createCharacter(storyId, hero);
+
+            // Loaded from the database
+            List<MentionSuggestion> found = mentionService.suggest(storyId, "ar", null, 10);
+            assertEquals(1, found.size());
+            assertEquals("character", found.getFirst().getType());
+            assertEquals(picture, found.getFirst().getThumbnailMediaId());
+
+            Item amulet = new Item();
+            amulet.setName("Arcane Amulet");
+            itemService.createItem(storyId, amulet);
+            assertEquals(2, mentionService.suggest(storyId, "ar", null, 10).size());
+            assertEquals(1, mentionService.suggest(storyId, "ar", "item", 10).size());
+
+            hero.setName("Corin");
+            characterService.updateCharacter(hero.getId(), hero);
+            assertEquals(List.of("Arcane Amulet"), mentionService.suggest(storyId, "ar", null, 10).stream()
+                    .map(MentionSuggestion::getName).toList());
+            assertEquals(1, mentionService.suggest(storyId, "cor", null, 10).size());
+
+            characterService.deleteCharacter(hero.getId());
+            assertTrue(mentionService.suggest(storyId, "cor", null, 10).isEmpty());
+        } finally {
+            storyService.deleteStory(storyId);
+        }
+    }
+}
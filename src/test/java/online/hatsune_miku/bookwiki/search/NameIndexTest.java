@@ -0,0 +1,80 @@
+package online.hatsune_miku.bookwiki.search;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NameIndexTest {
+
+    private static MentionSuggestion entry(String type, long id, String name) {
+        return MentionSuggestion.builder().type(type).id(id).name(name).build();
+    }
+
+    private static List<String> names(List<MentionSuggestion> suggestions) {
+        return suggestions.stream().map(MentionSuggestion::getName).toList();
+    }
+
+    @Test
+    void matchesNamesBeforeLaterWords() {
+        NameIndex index = new NameIndex();
+        index.put(entry("character", 1, "Aria the Brave"));
+        index.put(entry("character", 2, "Bran"));
+        index.put(entry("location", 3, "Brackenridge"));
+        index.put(entry("item", 4, "Sword"));
+
+        assertEquals(List.of("Brackenridge", "Bran", "Aria the Brave"), names(index.find("br", null, 10)));
+        assertEquals(List.of("Bran"), names(index.find("br", "character", 1)));
+        assertEquals(List.of("Aria the Brave"), names(index.find("the br", null, 10)));
+        assertTrue(index.find("rave", null, 10).isEmpty());
+    }
+
+    @Test
+    void ignoresCaseAndAccents() {
+        NameIndex index = new NameIndex();
+        index.put(entry("lore", 1, "Éclat"));
+
+        assertEquals(List.of("Éclat"), names(index.find("ECL", null, 10)));
+    }
+
+    @Test
+    void emptyPrefixListsByName() {
+        NameIndex index = new NameIndex();
+        index.put(entry("item", 1, "Lamp"));
+        index.put(entry("item", 2, "Anvil"));
+        index.put(entry("item", 3, "Map"));
+
+        assertEquals(List.of("Anvil", "Lamp"), names(index.find("", null, 2)));
+    }
+
+    @Test
+    void keepsEqualNamesApartAndFollowsRenames() {
+        NameIndex index = new NameIndex();
+        index.put(entry("character", 1, "Kai"));
+        index.put(entry("species", 1, "Kai"));
+        assertEquals(2, index.find("kai", null, 10).size());
+
+        index.put(entry("character", 1, "Kairo"));
+        List<MentionSuggestion> found = index.find("kai", "character", 10);
+        assertEquals(List.of("Kairo"), names(found));
+
+        index.remove(NameIndex.key("species", 1L));
+        assertEquals(List.of("Kairo"), names(index.find("kai", null, 10)));
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    void findsAmongManyNames() {
+        NameIndex index = new NameIndex();
+        for (long i = 0; i < 50_000; i++) {
+            index.put(entry(i % 2 == 0 ? "character" : "location", i, "Name " + i));
+        }
+
+        List<MentionSuggestion> found = index.find("name 4999", null, 20);
+        // 4999 itself, then 49990 to 49999
+        assertEquals(11, found.size());
+        assertEquals("Name 4999", found.getFirst().getName());
+        assertEquals(List.of("Name 49991", "Name 49993"), names(index.find("name 4999", "location", 3)).subList(1, 3));
+    }
+}
@@ -0,0 +1,93 @@
+package online.hatsune_miku.bookwiki.search;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SearchIndexTest {
+
+    private static SearchDocument document(String type, long id, String title, String... fields) {
+        List<SearchDocument.Field> list = new java.util.ArrayList<>();
+        for (int i = 0; i < fields.length; i += 2) {
+            list.add(new SearchDocument.Field(fields[i], fields[i + 1]));
+        }
+        return new SearchDocument(type, id, 1L, title, list);
+    }
+
+    @Test
+    void ranksTitleMatchesFirst() {
+        SearchIndex index = new SearchIndex();
+        index.put(document("CHAPTER", 1, "Chapter 1", "Content", "The dragon sleeps under the mountain, far from the village."));
+        index.put(document("SPECIES", 2, "Dragon", "Description", "Large and winged."));
+        index.put(document("ITEM", 3, "Sword", "Description", "Sharp."));
+
+        List<SearchResult> results = index.search("dragon", 10);
+        assertEquals(2, results.size());
+        assertEquals("SPECIES", results.get(0).getType());
+        assertEquals(2L, results.get(0).getId());
+        assertEquals("CHAPTER", results.get(1).getType());
+        assertTrue(results.get(0).getScore() > results.get(1).getScore());
+    }
+
+    @Test
+    void requiresAllTermsAndCompletesTheLastOne() {
+        SearchIndex index = new SearchIndex();
+        index.put(document("CHAPTER", 1, "One", "Content", "A red dragon appears."));
+        index.put(document("CHAPTER", 2, "Two", "Content", "A blue dragon appears."));
+
+        assertEquals(2, index.search("drag", 10).size());
+        List<SearchResult> red = index.search("red drag", 10);
+        assertEquals(1, red.size());
+        assertEquals(1L, red.getFirst().getId());
+        // Only the last term is completed
+        assertTrue(index.search("re dragon", 10).isEmpty());
+    }
+
+    @Test
+    void ignoresCaseAndAccents() {
+        SearchIndex index = new SearchIndex();
+        index.put(document("LORE", 1, "Magic", "Description", "The Élan Vital flows through everything."));
+
+        assertEquals(1, index.search("elan", 10).size());
+        assertEquals(1, index.search("ÉLAN vital", 10).size());
+    }
+
+    @Test
+    void highlightsMatchesInTheBestField() {
+        SearchIndex index = new SearchIndex();
+        index.put(document("CHARACTER", 1, "Aria",
+                "Role", "Knight",
+                "Description", "Likes fish & chips. Fights the dragon <every> day."));
+
+        SearchResult result = index.search("dragon", 10).getFirst();
+        assertEquals("Description", result.getField());
+        assertEquals("Likes fish &amp; chips. Fights the <mark>dragon</mark> &lt;every&gt; day.", result.getSnippet());
+    }
+
+    @Test
+    void cutsLongTextAroundTheFirstMatch() {
+        String filler = "word ".repeat(100);
+        String snippet = SearchIndex.snippet(filler + "treasure " + filler, "treasure"::equals);
+        assertTrue(snippet.startsWith("…"));
+        assertTrue(snippet.endsWith("…"));
+        assertTrue(snippet.contains("<mark>treasure</mark>"));
+        assertTrue(snippet.length() < 200);
+    }
+
+    @Test
+    void replacesAndRemovesDocuments() {
+        SearchIndex index = new SearchIndex();
+        index.put(document("ITEM", 1, "Lamp", "Description", "Made of brass."));
+        index.put(document("ITEM", 1, "Lamp", "Description", "Made of silver."));
+
+        assertTrue(index.search("brass", 10).isEmpty());
+        assertEquals(1, index.search("silver", 10).size());
+        assertEquals(1, index.size());
+
+        index.remove("ITEM:1");
+        assertTrue(index.search("lamp", 10).isEmpty());
+        assertEquals(0, index.size());
+    }
+}
@@ -0,0 +1,80 @@
+package online.hatsune_miku.bookwiki.search;
+
+import online.hatsune_miku.bookwiki.chapter.Chapter;
+import online.hatsune_miku.bookwiki.chapter.ChapterService;
+import online.hatsune_miku.bookwiki.character.Character;
+import online.hatsune_miku.bookwiki.character.CharacterSection;
+import online.hatsune_miku.bookwiki.character.CharacterService;
+import online.hatsune_miku.bookwiki.story.Story;
+import online.hatsune_miku.bookwiki.story.StoryService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Not transactional, the index is only updated once the service transactions commit
+@SpringBootTest
+class SearchServiceTest {
+
+    @Autowired
+    private SearchService searchService;
+
+    @Autowired
+    private StoryService storyService;
+
+    @Autowired
+    private ChapterService chapterService;
+
+    @Autowired
+    private CharacterService characterService;
+
+    @Test
+    void keepsTheIndexUpToDateWithTheServices() {
+        Story story = new Story();
+        story.setTitle("Search Story");
+        story = storyService.saveStory(story);
+        Long storyId = story.getId();
+        try {
+            Chapter chapter = new Chapter();
+            chapter.setTitle("The Coast");
+            chapter.setContent("<p>The <strong>lighthouse</strong> keeper waits. #{character:1}</p>");
+            chapter.setStory(story);
+            chapter = chapterService.saveChapter(chapter);
+
+            // Built from the database on the first search
+            List<SearchResult> results = searchService.search(storyId, "lighthouse", 10);
+            assertEquals(1, results.size());
+            assertEquals("CHAPTER", results.getFirst().getType());
+            assertEquals("The <mark>lighthouse</mark> keeper waits.", results.getFirst().getSnippet());
+            assertTrue(searchService.search(storyId, "strong", 10).isEmpty());
+            assertTrue(searchService.search(storyId, "character", 10).isEmpty());
+
+            // Added incrementally
+            Character hero = new Character();
+            hero.setName("Mira");
+            CharacterSection backstory = new CharacterSection();
+            backstory.setTitle("Backstory");
+            backstory.setContent("<p>Raised by wolves.</p>");
+            hero.getCustomSections().add(backstory);
+            characterService.createCharacter(storyId, hero);
+
+            SearchResult wolves = searchService.search(storyId, "wolves", 10).getFirst();
+            assertEquals("CHARACTER", wolves.getType());
+            assertEquals("Mira", wolves.getTitle());
+            assertEquals("Backstory", wolves.getField());
+
+            chapter.setContent("<p>The harbour is empty.</p>");
+            chapterService.saveChapter(chapter);
+            assertTrue(searchService.search(storyId, "lighthouse", 10).isEmpty());
+            assertEquals(1, searchService.search(storyId, "harbour", 10).size());
+
+            chapterService.deleteChapter(chapter.getId());
+            assertTrue(searchService.search(storyId, "harbour", 10).isEmpty());
+        } finally {
+            storyService.deleteStory(storyId);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package online.hatsune_miku.bookwiki.shortcode;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compares the scanner with the regex implementations it replaced on a 1 MB chapter.
+ * Run with {@code ./gradlew test -Dbookwiki.benchmark=true}.
+ */
+@EnabledIfSystemProperty(named = "bookwiki.benchmark", matches = "true")
+class ShortcodesBenchmarkTest {
+
+    private static final int WARMUP = 20;
+    private static final int ITERATIONS = 50;
+
+    private final String chapter = buildChapter();
+
+    @Test
+    void extractMediaIds() {
+        Set<UUID> regex = measure("extract (regex)", () -> {
+            Set<UUID> ids = new HashSet<>();
+            Matcher matcher = Pattern.compile("#\\{(?:image|emote):([\\w\\-]+)\\}").matcher(chapter);
+            while (matcher.find()) {
+                ids.add(UUID.fromString(matcher.group(1)));
+            }
+            return ids;
+        });
+        Set<UUID> scanner = measure("extract (scanner)", () -> {
+            Set<UUID> ids = new HashSet<>();
+            Shortcodes.extractUuids(chapter, ids, "image", "emote");
+            return ids;
+        });
+        assertEquals(regex, scanner);
+    }
+
+    @Test
+    void rewriteMentions() {
+        String regex = measure("rewrite (regex)", () -> {
+            Matcher matcher = Pattern.compile("#\\{(\\w+):([\\w\\-]+)}").matcher(chapter);
+            StringBuilder sb = new StringBuilder();
+            while (matcher.find()) {
+                if (matcher.group(1).equalsIgnoreCase("character")) {
+                    matcher.appendReplacement(sb, Matcher.quoteReplacement("#{character:" + (Long.parseLong(matcher.group(2)) + 1000) + "}"));
+                } else {
+                    matcher.appendReplacement(sb, Matcher.quoteReplacement(matcher.group(0)));
+                }
+            }
+            matcher.appendTail(sb);
+            return sb.toString();
+        });
+        String scanner = measure("rewrite (scanner)", () -> Shortcodes.rewrite(chapter,
+                s -> s.isType("character") ? "#{character:" + (s.getLongId() + 1000) + "}" : null));
+        assertEquals(regex, scanner);
+    }
+
+    private <T> T measure(String name, Supplier<T> run) {
+        T result = null;
+        for (int i = 0; i < WARMUP; i++) {
+            result = run.get();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            result = run.get();
+        }
+        double millis = (System.nanoTime() - start) / 1_000_000.0 / ITERATIONS;
+        System.out.printf("%s: %.2f ms per 1 MB chapter%n", name, millis);
+        return result;
+    }
+
+    private static String buildChapter() {
+        StringBuilder sb = new StringBuilder();
+        int i = 0;
+        while (sb.length() < 1024 * 1024) {
+            sb.append("<p>#{character:").append(i % 50).append("} walked to #{location:").append(i % 7)
+                    .append("} and looked at the sky. It is #5 on the list, see {note}. ")
+                    .append("<img src=\"#{image:").append(UUID.randomUUID()).append("}\"></p>");
+            i++;
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,70 @@
+package online.hatsune_miku.bookwiki.shortcode;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShortcodesTest {
+
+    @Test
+    void scanFindsShortcodesInOrder() {
+        List<String> found = new ArrayList<>();
+        Shortcodes.scan("<p>#{character:12} meets #{Lore:3}.</p>", s -> found.add(s.getType() + "=" + s.getId()));
+
+        assertEquals(List.of("character=12", "Lore=3"), found);
+    }
+
+    @Test
+    void scanSkipsIncompleteShortcodes() {
+        List<String> found = new ArrayList<>();
+        Shortcodes.scan("# {a:1} #{:1} #{a:} #{a 1} #{a:1 ##{b:2} #{c:3", s -> found.add(s.toString()));
+
+        assertEquals(List.of("#{b:2}"), found);
+    }
+
+    @Test
+    void extractUuidsFiltersByType() {
+        UUID image = UUID.randomUUID();
+        UUID emote = UUID.randomUUID();
+        String text = "#{image:" + image + "} #{emote:" + emote + "} #{image:not-a-uuid} #{character:5}";
+
+        Set<UUID> images = new LinkedHashSet<>();
+        Shortcodes.extractUuids(text, images, "image");
+        assertEquals(Set.of(image), images);
+
+        Set<UUID> media = new LinkedHashSet<>();
+        Shortcodes.extractUuids(text, media, "image", "emote");
+        assertEquals(Set.of(image, emote), media);
+    }
+
+    @Test
+    void rewriteReplacesAndKeeps() {
+        String rewritten = Shortcodes.rewrite("a #{character:1} b #{item:x} c #{character:2}",
+                s -> s.isType("character") && s.getLongId() == 1 ? "Alice" : null);
+
+        assertEquals("a Alice b #{item:x} c #{character:2}", rewritten);
+    }
+
+    @Test
+    void rewriteReturnsSameInstanceWithoutChanges() {
+        String text = "plain #{character:1} text";
+
+        assertSame(text, Shortcodes.rewrite(text, _ -> null));
+        assertNull(Shortcodes.rewrite(null, _ -> "x"));
+    }
+
+    @Test
+    void longIdIsNullForNonNumericIds() {
+        List<Long> ids = new ArrayList<>();
+        Shortcodes.scan("#{character:abc} #{character:42}", s -> ids.add(s.getLongId()));
+
+        assertNull(ids.get(0));
+        assertEquals(42L, ids.get(1));
+    }
+}
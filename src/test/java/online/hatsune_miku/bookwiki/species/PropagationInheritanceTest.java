@@ -1,11 +1,11 @@
 package online.hatsune_miku.bookwiki.species;
 
 import online.hatsune_miku.bookwiki.media.ReferenceTrackingService;
+import online.hatsune_miku.bookwiki.search.SearchService;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
-import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 
 import java.util.ArrayList;
@@ -27,8 +27,11 @@ class PropagationInheritanceTest {
     @Mock
     private ReferenceTrackingService referenceTrackingService;
 
-    @Spy
-    private SmartMergeService smartMergeService = new SmartMergeService();
+    @Mock
+    private SearchService searchService;
+
+    @Mock
+    private SpeciesPropagationQueue speciesPropagationQueue;
 
     @InjectMocks
     private SpeciesService speciesService;
@@ -46,13 +49,6 @@ class PropagationInheritanceTest {
         pSection.setSpecies(parent);
         parent.setCustomSections(new ArrayList<>(List.of(pSection)));
 
-        // Setup Child Section
-        SpeciesSection cSection = new SpeciesSection();
-        cSection.setId(100L);
-        cSection.setTitle("Stats");
-        cSection.setContent("Child Content");
-        cSection.setInheritedFromSectionId(10L);
-
         // Updated Parent
         Species updatedParent = new Species();
         updatedParent.setId(1L);
@@ -65,13 +61,42 @@ class PropagationInheritanceTest {
 
         when(speciesRepository.findById(1L)).thenReturn(Optional.of(parent));
         when(speciesRepository.save(any(Species.class))).thenAnswer(i -> i.getArguments()[0]);
-        when(speciesSectionRepository.findAllByInheritedFromSectionId(10L)).thenReturn(List.of(cSection));
 
         speciesService.updateSpecies(1L, updatedParent);
 
-        // Verify propagation
-        verify(speciesSectionRepository).save(argThat(s -> 
-            s.getId().equals(100L) && s.getContent().contains("Updated Parent Content")
-        ));
+        // Verify propagation, with the content the section had before
+        verify(speciesPropagationQueue).submit(eq(1L), argThat(changes -> changes.size() == 1
+                && changes.getFirst().getTemplate().getId().equals(10L)
+                && changes.getFirst().getTemplate().getContent().equals("Updated Parent Content")
+                && changes.getFirst().getOldContent().equals("Initial Parent Content")));
+    }
+
+    @Test
+    void testNoPropagationWithoutChanges() {
+        Species parent = new Species();
+        parent.setId(1L);
+        SpeciesSection pSection = new SpeciesSection();
+        pSection.setId(10L);
+        pSection.setTitle("Stats");
+        pSection.setContent("Parent Content");
+        pSection.setIsInheritable(true);
+        parent.setCustomSections(new ArrayList<>(List.of(pSection)));
+
+        Species updatedParent = new Species();
+        updatedParent.setId(1L);
+        updatedParent.setName("Renamed");
+        SpeciesSection same = new SpeciesSection();
+        same.setId(10L);
+        same.setTitle("Stats");
+        same.setContent("Parent Content");
+        same.setIsInheritable(true);
+        updatedParent.setCustomSections(List.of(same));
+
+        when(speciesRepository.findById(1L)).thenReturn(Optional.of(parent));
+        when(speciesRepository.save(any(Species.class))).thenAnswer(i -> i.getArguments()[0]);
+
+        speciesService.updateSpecies(1L, updatedParent);
+
+        verify(speciesPropagationQueue, never()).submit(any(), argThat(changes -> !changes.isEmpty()));
     }
 }
@@ -0,0 +1,76 @@
+package online.hatsune_miku.bookwiki.species;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compares merging a template edit into 500 edited copies one by one with merging it through a shared plan.
+ * Run with {@code ./gradlew test -Dbookwiki.benchmark=true}.
+ */
+@EnabledIfSystemProperty(named = "bookwiki.benchmark", matches = "true")
+class SmartMergeBenchmarkTest {
+
+    private static final int WARMUP = 5;
+    private static final int ITERATIONS = 20;
+    private static final int DESCENDANTS = 500;
+
+    private final SmartMergeService smartMergeService = new SmartMergeService();
+
+    @Test
+    void propagateToDescendants() {
+        String oldTemplate = template(false);
+        String newTemplate = template(true);
+        List<String> copies = new ArrayList<>();
+        for (int i = 0; i < DESCENDANTS; i++) {
+            copies.add(oldTemplate.replace("<td>10</td>", "<td>" + i + "</td>") + "<p>Notes of species " + i + "</p>");
+        }
+
+        List<String> perCopy = measure("merge per copy", () -> copies.parallelStream()
+                .map(copy -> smartMergeService.merge(newTemplate, oldTemplate, copy))
+                .toList());
+        List<String> shared = measure("shared plan", () -> {
+            MergePlan plan = smartMergeService.prepare(newTemplate, oldTemplate);
+            return copies.parallelStream().map(plan::apply).toList();
+        });
+        assertEquals(perCopy, shared);
+    }
+
+    private <T> T measure(String name, Supplier<T> run) {
+        T result = null;
+        for (int i = 0; i < WARMUP; i++) {
+            result = run.get();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            result = run.get();
+        }
+        double millis = (System.nanoTime() - start) / 1_000_000.0 / ITERATIONS;
+        System.out.printf("%s: %.2f ms per %d descendants%n", name, millis, DESCENDANTS);
+        return result;
+    }
+
+    // A stat table and 40 paragraphs, the edited version adds a column and changes and adds paragraphs
+    private static String template(boolean edited) {
+        StringBuilder sb = new StringBuilder("<table><tbody><tr><th>Stat</th><th>Value</th>");
+        if (edited) sb.append("<th>Notes</th>");
+        sb.append("</tr>");
+        for (String stat : new String[]{"STR", "DEX", "CON", "INT", "WIS", "CHA"}) {
+            sb.append("<tr><td>").append(stat).append("</td><td>10</td>");
+            if (edited) sb.append("<td><br></td>");
+            sb.append("</tr>");
+        }
+        sb.append("</tbody></table>");
+        for (int i = 0; i < 40; i++) {
+            sb.append("<p>Paragraph ").append(i).append(edited && i % 10 == 0 ? " (revised)" : "")
+                    .append(" about the anatomy, habitat and customs of the species.</p>");
+            if (edited && i == 20) sb.append("<p>A new paragraph on diet.</p>");
+        }
+        return sb.toString();
+    }
+}
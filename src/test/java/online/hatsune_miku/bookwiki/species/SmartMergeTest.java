@@ -53,4 +53,59 @@ class SmartMergeTest {
         
         assertEquals(newParent, result, "Unedited child should be updated directly to new parent content");
     }
+
+    @Test
+    void testInsertedBlockKeepsItsPlace() {
+        String oldParent = "<p>Intro</p><p>Size: small</p>";
+        String newParent = "<p>Intro</p><p>Size: small</p><p>Habitat: forest</p>";
+        String child = "<p>Intro</p><p>Size: small</p><p>My notes</p>";
+
+        String result = smartMergeService.merge(newParent, oldParent, child);
+
+        assertFalse(result.contains("Updated from Parent Template"));
+        assertTrue(result.indexOf("Habitat: forest") < result.indexOf("My notes"));
+    }
+
+    @Test
+    void testReplacedAndRemovedBlocks() {
+        String oldParent = "<p>A</p><p>B</p><p>C</p>";
+        String newParent = "<p>A</p><p>B2</p>";
+        String child = "<p>A</p><p>B</p><p>C</p><p>Mine</p>";
+
+        String result = smartMergeService.merge(newParent, oldParent, child).replaceAll("\\s", "");
+
+        assertEquals("<p>A</p><p>B2</p><p>Mine</p>", result);
+    }
+
+    @Test
+    void testEditedBlockGetsParentChangeBelow() {
+        String oldParent = "<p>A</p><p>B</p>";
+        String newParent = "<p>A</p><p>B2</p>";
+        String child = "<p>A</p><p>B edited</p>";
+
+        String result = smartMergeService.merge(newParent, oldParent, child);
+
+        assertTrue(result.contains("B edited"));
+        assertTrue(result.indexOf("Updated from Parent Template") < result.indexOf("B2"));
+        assertFalse(result.replaceAll("\\s", "").contains("<p>A</p><hr>"), "Unchanged blocks are not repeated");
+    }
+
+    @Test
+    void testUnchangedTemplateKeepsChild() {
+        String template = "<p>A</p><table><tr><td>STR</td></tr></table>";
+        String child = "<p>A</p><table><tr><td>18</td></tr></table><p>Mine</p>";
+
+        assertEquals(child, smartMergeService.merge(template, template, child));
+    }
+
+    @Test
+    void testPlanIsReusable() {
+        String oldParent = "<p>Intro</p><table><tr><th>Stat</th></tr></table>";
+        String newParent = "<p>Intro</p><table><tr><th>Stat</th><th>Notes</th></tr></table><p>Habitat</p>";
+        MergePlan plan = smartMergeService.prepare(newParent, oldParent);
+
+        for (String child : new String[]{"", oldParent, "<p>Intro</p><table><tr><th>Skill</th></tr></table>"}) {
+            assertEquals(smartMergeService.merge(newParent, oldParent, child), plan.apply(child));
+        }
+    }
 }
@@ -0,0 +1,113 @@
+package online.hatsune_miku.bookwiki.species;
+
+import jakarta.transaction.Transactional;
+import online.hatsune_miku.bookwiki.story.Story;
+import online.hatsune_miku.bookwiki.story.StoryRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest
+@Transactional
+class SpeciesAncestryServiceTest {
+
+    @Autowired
+    private SpeciesService speciesService;
+
+    @Autowired
+    private SpeciesSectionRepository speciesSectionRepository;
+
+    @Autowired
+    private SpeciesAncestryRepository ancestryRepository;
+
+    @Autowired
+    private StoryRepository storyRepository;
+
+    private Species species(Story story, String name, Long parentId, SpeciesSection... sections) {
+        Species species = new Species();
+        species.setName(name);
+        species.setParentId(parentId);
+        species.setCustomSections(new ArrayList<>(List.of(sections)));
+        return speciesService.createSpecies(story.getId(), species);
+    }
+
+    private static SpeciesSection section(String title, String content) {
+        SpeciesSection section = new SpeciesSection();
+        section.setTitle(title);
+        section.setContent(content);
+        section.setIsInheritable(true);
+        return section;
+    }
+
+    // The species as sent by the editor, with another parent
+    private Species movedTo(Species species, Long parentId) {
+        Species updated = new Species();
+        updated.setName(species.getName());
+        updated.setParentId(parentId);
+        updated.setCustomSections(new ArrayList<>(species.getCustomSections()));
+        return updated;
+    }
+
+    private List<Long> ancestors(Species species) {
+        return ancestryRepository.findByDescendantIdOrderByDepth(species.getId()).stream()
+                .map(SpeciesAncestry::getAncestorId)
+                .toList();
+    }
+
+    @Test
+    void followsTheParentChanges() {
+        Story story = storyRepository.save(new Story());
+        Species animal = species(story, "Animal", null);
+        Species bird = species(story, "Bird", animal.getId());
+        Species raven = species(story, "Raven", bird.getId());
+
+        assertEquals(List.of(raven.getId(), bird.getId(), animal.getId()), ancestors(raven));
+
+        // Moving a species takes its descendants along
+        Species plant = species(story, "Plant", null);
+        speciesService.updateSpecies(bird.getId(), movedTo(bird, plant.getId()));
+        assertEquals(List.of(raven.getId(), bird.getId(), plant.getId()), ancestors(raven));
+
+        assertThrows(RuntimeException.class, () -> speciesService.updateSpecies(bird.getId(), movedTo(bird, raven.getId())));
+    }
+
+    @Test
+    void readsInheritedSectionsWithoutStoringThem() {
+        Story story = storyRepository.save(new Story());
+        Species animal = species(story, "Animal", null, section("Stats", "<p>Animal Stats</p>"));
+        Species bird = species(story, "Bird", animal.getId());
+
+        // Created below a parent, the inherited sections are stored with the species
+        assertEquals(1, bird.getCustomSections().size());
+
+        // Added without propagating it to the children
+        SpeciesSection diet = section("Diet", "<p>Seeds</p>");
+        diet.setSpecies(animal);
+        speciesSectionRepository.save(diet);
+
+        Species listedBird = speciesService.getSpeciesByStory(story.getId()).stream()
+                .filter(s -> s.getId().equals(bird.getId()))
+                .findFirst()
+                .orElseThrow();
+        assertEquals(List.of("Stats", "Diet"), listedBird.getCustomSections().stream().map(SpeciesSection::getTitle).toList());
+        assertEquals(1, bird.getCustomSections().size());
+    }
+
+    @Test
+    void deletedSpeciesEndTheChain() {
+        Story story = storyRepository.save(new Story());
+        Species animal = species(story, "Animal", null);
+        Species bird = species(story, "Bird", animal.getId());
+        Species raven = species(story, "Raven", bird.getId());
+
+        speciesService.deleteSpecies(bird.getId());
+
+        assertEquals(List.of(raven.getId()), ancestors(raven));
+        assertEquals(List.of(animal.getId()), ancestors(animal));
+    }
+}
@@ -1,5 +1,7 @@
 package online.hatsune_miku.bookwiki.species;
 
+import online.hatsune_miku.bookwiki.search.SearchService;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
@@ -8,6 +10,7 @@ import org.mockito.junit.jupiter.MockitoExtension;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -19,30 +22,46 @@ class SpeciesInheritanceTest {
     @Mock
     private SpeciesRepository speciesRepository;
 
+    @Mock
+    private SpeciesAncestryService speciesAncestryService;
+
+    @Mock
+    private SearchService searchService;
+
     @InjectMocks
     private SpeciesService speciesService;
 
-    @Test
-    void testBasicInheritance() {
-        // Setup Parent
-        Species parent = new Species();
-        parent.setId(1L);
-        SpeciesSection inheritableSection = new SpeciesSection();
-        inheritableSection.setId(10L);
-        inheritableSection.setTitle("Stats");
-        inheritableSection.setContent("<p>Parent Stats</p>");
-        inheritableSection.setIsInheritable(true);
-        parent.setCustomSections(new ArrayList<>(List.of(inheritableSection)));
-
-        // Setup Child
+    @BeforeEach
+    void resolveThroughAncestry() {
+        // The resolution itself is real, only the ancestry query is stubbed
+        lenient().when(speciesAncestryService.withInheritance(any())).thenCallRealMethod();
+    }
+
+    // An inheritable section of an ancestor, as read through the ancestry
+    private static SpeciesSection template(Long id, String title, String content) {
+        SpeciesSection section = new SpeciesSection();
+        section.setId(id);
+        section.setTitle(title);
+        section.setContent(content);
+        section.setIsInheritable(true);
+        return section;
+    }
+
+    private static Species child(Long id, Long parentId) {
         Species child = new Species();
-        child.setId(2L);
-        child.setParentId(1L);
+        child.setId(id);
+        child.setParentId(parentId);
         child.setCustomSections(new ArrayList<>());
+        return child;
+    }
+
+    @Test
+    void testBasicInheritance() {
+        Species child = child(2L, 1L);
 
         when(speciesRepository.findById(2L)).thenReturn(Optional.of(child));
-        when(speciesRepository.findById(1L)).thenReturn(Optional.of(parent));
-        when(speciesRepository.save(any(Species.class))).thenAnswer(i -> i.getArguments()[0]);
+        when(speciesAncestryService.findInheritableSections(List.of(2L)))
+                .thenReturn(Map.of(2L, List.of(template(10L, "Stats", "<p>Parent Stats</p>"))));
 
         Species result = speciesService.getSpecies(2L);
 
@@ -52,41 +71,18 @@ class SpeciesInheritanceTest {
         assertEquals("<p>Parent Stats</p>", inherited.getContent());
         assertEquals(10L, inherited.getInheritedFromSectionId());
         assertTrue(inherited.getIsInheritable()); // Children re-inherit by default for deeper propagation
+
+        // Reading does not write
+        assertTrue(child.getCustomSections().isEmpty());
+        verify(speciesRepository, never()).save(any());
     }
 
     @Test
     void testInheritanceOverride() {
-        // Grandparent has "Stats"
-        Species grandparent = new Species();
-        grandparent.setId(1L);
-        SpeciesSection gpSection = new SpeciesSection();
-        gpSection.setId(10L);
-        gpSection.setTitle("Stats");
-        gpSection.setContent("GP Stats");
-        gpSection.setIsInheritable(true);
-        grandparent.setCustomSections(new ArrayList<>(List.of(gpSection)));
-
-        // Parent also has "Stats" (Overrides GP)
-        Species parent = new Species();
-        parent.setId(2L);
-        parent.setParentId(1L);
-        SpeciesSection pSection = new SpeciesSection();
-        pSection.setId(20L);
-        pSection.setTitle("Stats");
-        pSection.setContent("P Stats");
-        pSection.setIsInheritable(true);
-        parent.setCustomSections(new ArrayList<>(List.of(pSection)));
-
-        // Child
-        Species child = new Species();
-        child.setId(3L);
-        child.setParentId(2L);
-        child.setCustomSections(new ArrayList<>());
-
-        when(speciesRepository.findById(3L)).thenReturn(Optional.of(child));
-        when(speciesRepository.findById(2L)).thenReturn(Optional.of(parent));
-        when(speciesRepository.findById(1L)).thenReturn(Optional.of(grandparent));
-        when(speciesRepository.save(any(Species.class))).thenAnswer(i -> i.getArguments()[0]);
+        // Parent (20) and grandparent (10) both have "Stats", nearest first
+        when(speciesRepository.findById(3L)).thenReturn(Optional.of(child(3L, 2L)));
+        when(speciesAncestryService.findInheritableSections(List.of(3L)))
+                .thenReturn(Map.of(3L, List.of(template(20L, "Stats", "P Stats"), template(10L, "Stats", "GP Stats"))));
 
         Species result = speciesService.getSpecies(3L);
 
@@ -97,29 +93,60 @@ class SpeciesInheritanceTest {
 
     @Test
     void testNoDuplicateInheritance() {
-        Species parent = new Species();
-        parent.setId(1L);
-        SpeciesSection section = new SpeciesSection();
-        section.setId(10L);
-        section.setTitle("Stats");
-        section.setIsInheritable(true);
-        parent.setCustomSections(List.of(section));
-
-        Species child = new Species();
-        child.setId(2L);
-        child.setParentId(1L);
+        Species child = child(2L, 1L);
         SpeciesSection existingInherited = new SpeciesSection();
         existingInherited.setId(100L);
         existingInherited.setTitle("Stats");
         existingInherited.setInheritedFromSectionId(10L); // Already inherited
-        child.setCustomSections(new ArrayList<>(List.of(existingInherited)));
+        child.getCustomSections().add(existingInherited);
 
         when(speciesRepository.findById(2L)).thenReturn(Optional.of(child));
-        when(speciesRepository.findById(1L)).thenReturn(Optional.of(parent));
+        when(speciesAncestryService.findInheritableSections(List.of(2L)))
+                .thenReturn(Map.of(2L, List.of(template(10L, "Stats", null))));
 
         Species result = speciesService.getSpecies(2L);
 
         assertEquals(1, result.getCustomSections().size(), "Should not add duplicate section");
+        assertSame(child, result);
         verify(speciesRepository, never()).save(any());
     }
+
+    @Test
+    void testListingResolvesAllSpeciesAtOnce() {
+        Species root = child(1L, null);
+        Species first = child(2L, 1L);
+        Species second = child(3L, 1L);
+
+        when(speciesRepository.findWithSectionsByStoryId(7L)).thenReturn(List.of(root, first, second));
+        when(speciesAncestryService.findInheritableSections(List.of(2L, 3L)))
+                .thenReturn(Map.of(2L, List.of(template(10L, "Stats", "Root Stats")),
+                        3L, List.of(template(10L, "Stats", "Root Stats"))));
+
+        List<Species> result = speciesService.getSpeciesByStory(7L);
+
+        assertEquals(3, result.size());
+        assertTrue(result.get(0).getCustomSections().isEmpty());
+        assertEquals("Root Stats", result.get(1).getCustomSections().get(0).getContent());
+        assertEquals("Root Stats", result.get(2).getCustomSections().get(0).getContent());
+        verify(speciesAncestryService, times(1)).findInheritableSections(any());
+        verify(speciesRepository, never()).findById(any());
+    }
+
+    @Test
+    void testAddSectionStoresInheritedSections() {
+        Species child = child(2L, 1L);
+
+        when(speciesRepository.findById(2L)).thenReturn(Optional.of(child));
+        when(speciesAncestryService.findInheritableSections(List.of(2L)))
+                .thenReturn(Map.of(2L, List.of(template(10L, "Stats", "<p>Parent Stats</p>"))));
+        when(speciesRepository.save(any(Species.class))).thenAnswer(i -> i.getArguments()[0]);
+
+        SpeciesSection notes = new SpeciesSection();
+        notes.setTitle("Notes");
+        Species result = speciesService.addSection(2L, notes);
+
+        assertSame(child, result);
+        assertEquals(List.of("Stats", "Notes"), result.getCustomSections().stream().map(SpeciesSection::getTitle).toList());
+        verify(speciesRepository).save(child);
+    }
 }
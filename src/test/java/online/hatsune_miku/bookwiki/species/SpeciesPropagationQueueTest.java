@@ -0,0 +1,134 @@
+package online.hatsune_miku.bookwiki.species;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class SpeciesPropagationQueueTest {
+
+    @Mock
+    private SpeciesRepository speciesRepository;
+
+    @Mock
+    private SpeciesPropagationService propagationService;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private SpeciesPropagationQueue queue;
+
+    @BeforeEach
+    void setUp() {
+        queue = new SpeciesPropagationQueue(speciesRepository, propagationService, transactionManager, 200);
+    }
+
+    @AfterEach
+    void tearDown() {
+        queue.shutdown();
+    }
+
+    private static SpeciesSection section(Long id, String content) {
+        SpeciesSection section = new SpeciesSection();
+        section.setId(id);
+        section.setTitle("Stats");
+        section.setContent(content);
+        section.setIsInheritable(true);
+        return section;
+    }
+
+    private PropagationJob awaitFinished(Long speciesId) throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            Optional<PropagationJob> job = queue.getJob(speciesId);
+            if (job.isPresent() && job.get().isFinished()) return job.get();
+            Thread.sleep(50);
+        }
+        fail("Propagation did not finish");
+        return null;
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void coalescesSavesOfOneSpecies() throws InterruptedException {
+        Species species = new Species();
+        species.setId(1L);
+        SpeciesSection stats = section(10L, "<p>Third</p>");
+        species.setCustomSections(new ArrayList<>(List.of(stats)));
+        PropagationResult result = PropagationResult.builder().updatedSections(4).touchedSpecies(3).build();
+
+        when(speciesRepository.findById(1L)).thenReturn(Optional.of(species));
+        when(propagationService.propagate(eq(species), anyList())).thenReturn(result);
+
+        // Two autosaves in a row
+        queue.submit(1L, List.of(new SpeciesPropagationService.SectionChange(section(10L, "<p>Second</p>"), "<p>First</p>")));
+        queue.submit(1L, List.of(new SpeciesPropagationService.SectionChange(section(10L, "<p>Third</p>"), "<p>Second</p>")));
+        assertEquals(PropagationJob.Status.QUEUED, queue.getJob(1L).orElseThrow().getStatus());
+
+        PropagationJob job = awaitFinished(1L);
+        assertEquals(PropagationJob.Status.DONE, job.getStatus());
+        assertEquals(2, job.getEdits());
+        assertEquals(1, job.getSections());
+        assertSame(result, job.getResult());
+
+        // One propagation, from the first old content to the latest content
+        ArgumentCaptor<List<SpeciesPropagationService.SectionChange>> changes = ArgumentCaptor.forClass(List.class);
+        verify(propagationService, times(1)).propagate(eq(species), changes.capture());
+        assertEquals(1, changes.getValue().size());
+        assertSame(stats, changes.getValue().getFirst().getTemplate());
+        assertEquals("<p>First</p>", changes.getValue().getFirst().getOldContent());
+    }
+
+    @Test
+    void skipsSectionsEditedBackToTheStart() throws InterruptedException {
+        Species species = new Species();
+        species.setId(1L);
+        species.setCustomSections(new ArrayList<>(List.of(section(10L, "<p>First</p>"))));
+
+        when(speciesRepository.findById(1L)).thenReturn(Optional.of(species));
+        when(propagationService.propagate(eq(species), anyList())).thenReturn(PropagationResult.builder().build());
+
+        queue.submit(1L, List.of(new SpeciesPropagationService.SectionChange(section(10L, "<p>First</p>"), "<p>First</p>")));
+
+        awaitFinished(1L);
+        verify(propagationService).propagate(eq(species), argThat(List::isEmpty));
+    }
+
+    @Test
+    void reportsFailures() throws InterruptedException {
+        when(speciesRepository.findById(1L)).thenThrow(new RuntimeException("Database unavailable"));
+
+        queue.submit(1L, List.of(new SpeciesPropagationService.SectionChange(section(10L, "<p>New</p>"), "<p>Old</p>")));
+
+        PropagationJob job = awaitFinished(1L);
+        assertEquals(PropagationJob.Status.FAILED, job.getStatus());
+        assertEquals("Database unavailable", job.getError());
+    }
+
+    @Test
+    void runsWaitingJobsOnShutdown() {
+        Species species = new Species();
+        species.setId(1L);
+        species.setCustomSections(new ArrayList<>(List.of(section(10L, "<p>New</p>"))));
+
+        when(speciesRepository.findById(1L)).thenReturn(Optional.of(species));
+        when(propagationService.propagate(eq(species), anyList())).thenReturn(PropagationResult.builder().build());
+
+        queue.submit(1L, List.of(new SpeciesPropagationService.SectionChange(section(10L, "<p>New</p>"), "<p>Old</p>")));
+        queue.shutdown();
+
+        assertEquals(PropagationJob.Status.DONE, queue.getJob(1L).orElseThrow().getStatus());
+        verify(propagationService).propagate(eq(species), argThat(changes -> changes.size() == 1));
+    }
+}
@@ -0,0 +1,133 @@
+package online.hatsune_miku.bookwiki.species;
+
+import online.hatsune_miku.bookwiki.media.ReferenceTrackingService;
+import online.hatsune_miku.bookwiki.search.SearchService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class SpeciesPropagationServiceTest {
+
+    @Mock
+    private SpeciesRepository speciesRepository;
+
+    @Mock
+    private SearchService searchService;
+
+    @Mock
+    private ReferenceTrackingService referenceTrackingService;
+
+    @Spy
+    private SmartMergeService smartMergeService = new SmartMergeService();
+
+    @InjectMocks
+    private SpeciesPropagationService speciesPropagationService;
+
+    private static Species species(Long id, Long parentId) {
+        Species species = new Species();
+        species.setId(id);
+        species.setParentId(parentId);
+        species.setCustomSections(new ArrayList<>());
+        return species;
+    }
+
+    private static SpeciesSection section(Species species, Long id, String content, Long inheritedFromSectionId) {
+        SpeciesSection section = new SpeciesSection();
+        section.setId(id);
+        section.setTitle("Stats");
+        section.setContent(content);
+        section.setIsInheritable(true);
+        section.setInheritedFromSectionId(inheritedFromSectionId);
+        section.setSpecies(species);
+        species.getCustomSections().add(section);
+        return section;
+    }
+
+    @Test
+    void propagatesThroughTheWholeSubtree() {
+        Species root = species(1L, null);
+        SpeciesSection template = section(root, 10L, "<p>New</p>", null);
+        Species child = species(2L, 1L);
+        SpeciesSection childCopy = section(child, 20L, "<p>Old</p>", 10L);
+        Species grandchild = species(3L, 2L);
+        SpeciesSection grandchildCopy = section(grandchild, 30L, "<p>Old</p>", 20L);
+        Species newcomer = species(4L, 1L);
+
+        when(speciesRepository.findDescendantsWithSections(1L)).thenReturn(List.of(child, grandchild, newcomer));
+
+        PropagationResult result = speciesPropagationService.propagate(root,
+                List.of(new SpeciesPropagationService.SectionChange(template, "<p>Old</p>")));
+
+        // Unedited copies take the new content, level by level
+        assertEquals("<p>New</p>", childCopy.getContent());
+        assertEquals("<p>New</p>", grandchildCopy.getContent());
+        // Children without a copy get one
+        assertEquals(1, newcomer.getCustomSections().size());
+        assertEquals(10L, newcomer.getCustomSections().getFirst().getInheritedFromSectionId());
+
+        assertEquals(2, result.getUpdatedSections());
+        assertEquals(1, result.getAddedSections());
+        assertEquals(3, result.getTouchedSpecies());
+        verify(speciesRepository, times(1)).findDescendantsWithSections(1L);
+        verify(speciesRepository, never()).findByParentId(any());
+        verify(searchService, times(3)).index(any(Species.class));
+        verify(referenceTrackingService).updateReferences("<p>New</p>", "SPECIES", 2L);
+        verify(referenceTrackingService).updateReferences("<p>New</p>", "SPECIES", 3L);
+        verify(referenceTrackingService).updateReferences("<p>New</p>", "SPECIES", 4L);
+    }
+
+    @Test
+    void keepsEditedCopies() {
+        Species root = species(1L, null);
+        SpeciesSection template = section(root, 10L, "<p>New</p>", null);
+        Species child = species(2L, 1L);
+        SpeciesSection childCopy = section(child, 20L, "<p>Mine</p>", 10L);
+
+        when(speciesRepository.findDescendantsWithSections(1L)).thenReturn(List.of(child));
+
+        speciesPropagationService.propagate(root, List.of(new SpeciesPropagationService.SectionChange(template, "<p>Old</p>")));
+
+        assertTrue(childCopy.getContent().startsWith("<p>Mine</p>"));
+        assertTrue(childCopy.getContent().contains("<p>New</p>"));
+    }
+
+    @Test
+    void mergesWideTaxonomies() {
+        Species root = species(1L, null);
+        SpeciesSection template = section(root, 10L, "<p>New</p>", null);
+        List<Species> subtree = new ArrayList<>();
+        long id = 2;
+        long sectionId = 100;
+        // 50 children with 10 children each
+        for (int i = 0; i < 50; i++) {
+            Species child = species(id++, 1L);
+            SpeciesSection copy = section(child, sectionId++, "<p>Old</p>", 10L);
+            subtree.add(child);
+            for (int j = 0; j < 10; j++) {
+                Species grandchild = species(id++, child.getId());
+                section(grandchild, sectionId++, "<p>Old</p>", copy.getId());
+                subtree.add(grandchild);
+            }
+        }
+
+        when(speciesRepository.findDescendantsWithSections(1L)).thenReturn(subtree);
+
+        PropagationResult result = speciesPropagationService.propagate(root,
+                List.of(new SpeciesPropagationService.SectionChange(template, "<p>Old</p>")));
+
+        assertEquals(550, result.getUpdatedSections());
+        assertEquals(0, result.getAddedSections());
+        assertEquals(550, result.getTouchedSpecies());
+        assertTrue(subtree.stream().allMatch(s -> s.getCustomSections().getFirst().getContent().equals("<p>New</p>")));
+    }
+}
@@ -6,7 +6,7 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
 
@@ -98,35 +98,26 @@ class SpeciesServiceTest {
         assertTrue(flow.getEdges().stream().anyMatch(e -> e.getId().equals(12L) && e.isBidirectional()));
     }
 
+    // A (id, parentId, name, pictureUrl) row of the taxonomy query
+    private static Object[] row(Long id, Long parentId, String name) {
+        return new Object[]{id, parentId, name, null};
+    }
+
+    private static List<Object[]> rows(Object[]... rows) {
+        return Arrays.asList(rows);
+    }
+
     @Test
     void getTaxonomy_FullTree() {
         // Setup Hierarchy:
         // A (1) -> B (2) [TARGET] -> C (3) -> D (4)
-        
-        Species speciesA = new Species();
-        speciesA.setId(1L);
-        speciesA.setName("Species A");
-
-        Species speciesB = new Species();
-        speciesB.setId(2L);
-        speciesB.setName("Species B");
-        speciesB.setParentId(1L);
-
-        Species speciesC = new Species();
-        speciesC.setId(3L);
-        speciesC.setName("Species C");
-        speciesC.setParentId(2L);
-
-        Species speciesD = new Species();
-        speciesD.setId(4L);
-        speciesD.setName("Species D");
-        speciesD.setParentId(3L);
-
-        when(speciesRepository.findById(2L)).thenReturn(Optional.of(speciesB));
-        when(speciesRepository.findById(1L)).thenReturn(Optional.of(speciesA));
-        when(speciesRepository.findByParentId(2L)).thenReturn(List.of(speciesC));
-        when(speciesRepository.findByParentId(3L)).thenReturn(List.of(speciesD));
-        when(speciesRepository.findByParentId(4L)).thenReturn(Collections.emptyList());
+        //                         -> E (5)
+        when(speciesRepository.findTreeRowsInStoryOf(2L)).thenReturn(rows(
+                row(1L, null, "Species A"),
+                row(2L, 1L, "Species B"),
+                row(3L, 2L, "Species C"),
+                row(4L, 3L, "Species D"),
+                row(5L, 2L, "Species E")));
 
         SpeciesTaxonomyDTO taxonomy = speciesService.getTaxonomy(2L);
 
@@ -144,27 +135,43 @@ class SpeciesServiceTest {
         assertEquals("Species B", taxonomy.getTargetNode().getName());
         
         // Descendants check
-        assertEquals(1, taxonomy.getTargetNode().getChildren().size());
+        assertEquals(2, taxonomy.getTargetNode().getChildren().size());
         SpeciesTreeNodeDTO nodeC = taxonomy.getTargetNode().getChildren().get(0);
         assertEquals(3L, nodeC.getId());
         assertEquals("Species C", nodeC.getName());
+        assertEquals(5L, taxonomy.getTargetNode().getChildren().get(1).getId());
         
         assertEquals(1, nodeC.getChildren().size());
         SpeciesTreeNodeDTO nodeD = nodeC.getChildren().get(0);
         assertEquals(4L, nodeD.getId());
         assertEquals("Species D", nodeD.getName());
         assertTrue(nodeD.getChildren().isEmpty());
+        assertFalse(nodeD.isHasChildren());
+
+        // One query for the whole tree
+        verify(speciesRepository, never()).findById(any());
+        verify(speciesRepository, never()).findByParentId(any());
     }
 
     @Test
-    void getTaxonomy_NoParent() {
-        Species target = new Species();
-        target.setId(2L);
-        target.setName("No Parent");
-        target.setParentId(null);
+    void getTaxonomy_DepthLimit() {
+        when(speciesRepository.findTreeRowsInStoryOf(2L)).thenReturn(rows(
+                row(2L, null, "Species B"),
+                row(3L, 2L, "Species C"),
+                row(4L, 3L, "Species D")));
 
-        when(speciesRepository.findById(2L)).thenReturn(Optional.of(target));
-        when(speciesRepository.findByParentId(2L)).thenReturn(Collections.emptyList());
+        SpeciesTaxonomyDTO taxonomy = speciesService.getTaxonomy(2L, 1);
+
+        SpeciesTreeNodeDTO nodeC = taxonomy.getTargetNode().getChildren().get(0);
+        assertEquals(3L, nodeC.getId());
+        // Left for the client to expand
+        assertTrue(nodeC.getChildren().isEmpty());
+        assertTrue(nodeC.isHasChildren());
+    }
+
+    @Test
+    void getTaxonomy_NoParent() {
+        when(speciesRepository.findTreeRowsInStoryOf(2L)).thenReturn(rows(row(2L, null, "No Parent")));
 
         SpeciesTaxonomyDTO taxonomy = speciesService.getTaxonomy(2L);
 
@@ -173,5 +180,13 @@ class SpeciesServiceTest {
         assertNotNull(taxonomy.getTargetNode());
         assertEquals(2L, taxonomy.getTargetNode().getId());
         assertTrue(taxonomy.getTargetNode().getChildren().isEmpty());
+        assertFalse(taxonomy.getTargetNode().isHasChildren());
+    }
+
+    @Test
+    void getTaxonomy_NotFound() {
+        when(speciesRepository.findTreeRowsInStoryOf(2L)).thenReturn(List.of());
+
+        assertThrows(RuntimeException.class, () -> speciesService.getTaxonomy(2L));
     }
 }